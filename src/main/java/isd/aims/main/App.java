@@ -2,6 +2,11 @@ package isd.aims.main;
 
 import java.io.IOException;
 
+import isd.aims.main.controller.AsyncDataService;
+import isd.aims.main.entity.cart.CartStore;
+import isd.aims.main.entity.media.CatalogChangePoller;
+import isd.aims.main.entity.media.StockReservations;
+import isd.aims.main.entity.payment.TransactionJournal;
 import isd.aims.main.utils.Configs;
 import isd.aims.main.views.home.HomeForm;
 import javafx.animation.FadeTransition;
@@ -30,6 +35,9 @@ public class App extends Application {
             primaryStage.setScene(scene);
             primaryStage.show();
 
+            // keep the cached catalog in step with the writes of other processes
+            CatalogChangePoller.getInstance().start();
+
             // Load splash screen with fade in effect
             FadeTransition fadeIn = new FadeTransition(Duration.seconds(2), root);
             fadeIn.setFromValue(0);
@@ -64,6 +72,16 @@ public class App extends Application {
         }
     }
 
+    @Override
+    public void stop() {
+        CatalogChangePoller.shutdown();
+        AsyncDataService.getInstance().shutdown();
+        CartStore.shutdown();
+        StockReservations.shutdown();
+        // commit the transaction records still queued
+        TransactionJournal.shutdown();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,218 @@
+package isd.aims.main.controller;
+
+import isd.aims.main.entity.cart.AvailabilityReport;
+import isd.aims.main.entity.invoice.Invoice;
+import isd.aims.main.entity.media.CatalogSnapshot;
+import isd.aims.main.entity.media.InventoryCommit;
+import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.MediaFilter;
+import isd.aims.main.entity.media.MediaPage;
+import isd.aims.main.entity.media.SearchPage;
+import isd.aims.main.entity.payment.PaymentTransaction;
+import isd.aims.main.utils.Utils;
+import javafx.application.Platform;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Runs the data access of the screens off the JavaFX Application Thread.
+ * Every call runs on a virtual thread and the returned future is completed on the
+ * FX thread (through {@link Platform#runLater}), so callbacks attached to it may touch the UI.
+ * Calls are bound to a {@link Scope}: once the screen that owns the scope is left,
+ * its pending calls are cancelled and their results are dropped.
+ * @author nguyenlm
+ */
+public class AsyncDataService {
+
+    private static Logger LOGGER = Utils.getLogger(AsyncDataService.class.getName());
+    private static AsyncDataService instance;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private Executor uiExecutor = Platform::runLater;
+
+    public static synchronized AsyncDataService getInstance() {
+        if (instance == null) instance = new AsyncDataService();
+        return instance;
+    }
+
+    /**
+     * Replaces the executor the results are delivered on, eg: a direct executor when the FX toolkit is not running
+     * @param uiExecutor
+     * @return AsyncDataService
+     */
+    public AsyncDataService setUiExecutor(Executor uiExecutor) {
+        this.uiExecutor = uiExecutor;
+        return this;
+    }
+
+    /**
+     * A blocking data access call
+     */
+    @FunctionalInterface
+    public interface DataCall<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * Runs the call on a virtual thread
+     * @param scope the scope of the calling screen, may be null if the call must never be cancelled
+     * @param call
+     * @return a future completed on the FX thread, cancelled if the scope is cancelled first
+     */
+    public <T> CompletableFuture<T> supply(Scope scope, DataCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (scope != null && !scope.register(result)) {
+            result.cancel(false);
+            return result;
+        }
+        Future<?> task = executor.submit(() -> {
+            try {
+                T value = call.call();
+                uiExecutor.execute(() -> result.complete(value));
+            } catch (Throwable e) {
+                uiExecutor.execute(() -> result.completeExceptionally(e));
+            }
+        });
+        // cancelling the result (by the scope or by the caller) interrupts the running call
+        result.whenComplete((value, e) -> {
+            if (e instanceof CancellationException) task.cancel(true);
+            if (scope != null) scope.unregister(result);
+        });
+        return result;
+    }
+
+    /**
+     * @see HomeController#getMediaPage(int, int, MediaFilter)
+     */
+    public CompletableFuture<MediaPage> getMediaPage(Scope scope, HomeController controller, int afterId, int limit, MediaFilter filter) {
+        return supply(scope, () -> controller.getMediaPage(afterId, limit, filter));
+    }
+
+    /**
+     * @see HomeController#search(String, MediaFilter, int, int)
+     */
+    public CompletableFuture<SearchPage> search(Scope scope, HomeController controller, String text, MediaFilter filter, int offset, int limit) {
+        return supply(scope, () -> controller.search(text, filter, offset, limit));
+    }
+
+    /**
+     * @see HomeController#browse(MediaFilter, CatalogSnapshot.Column, boolean, int, int)
+     */
+    public CompletableFuture<SearchPage> browse(Scope scope, HomeController controller, MediaFilter filter,
+                                                CatalogSnapshot.Column sortBy, boolean descending, int offset, int limit) {
+        return supply(scope, () -> controller.browse(filter, sortBy, descending, offset, limit));
+    }
+
+    /**
+     * Reloads the quantity in stock of the media
+     * @return the quantity, also stored in the media
+     */
+    public CompletableFuture<Integer> getQuantity(Scope scope, Media media) {
+        return supply(scope, media::getQuantity);
+    }
+
+    /**
+     * Checks the stock of the whole cart of the controller's session, the stock found is kept on
+     * each cart line by the worker thread, the report is delivered on the FX thread
+     */
+    public CompletableFuture<AvailabilityReport> checkAvailability(Scope scope, ViewCartController controller) {
+        return supply(scope, controller::checkAvailabilityOfProduct);
+    }
+
+    /**
+     * @see PaymentController#checkStock(Invoice)
+     */
+    public CompletableFuture<Void> checkStock(Scope scope, PaymentController controller, Invoice invoice) {
+        return supply(scope, () -> {
+            controller.checkStock(invoice);
+            return null;
+        });
+    }
+
+    /**
+     * Takes the stock of a paid order and persists it with its transaction in one database transaction, see
+     * {@link PaymentController#completeOrder}. It is never bound to a screen so that leaving
+     * the payment screen cannot lose a transaction.
+     */
+    public CompletableFuture<InventoryCommit> savePayment(PaymentController controller, Invoice invoice, PaymentTransaction transaction) {
+        return supply(null, () -> controller.completeOrder(invoice, transaction));
+    }
+
+    /**
+     * @param e the failure received by a callback of a future returned here
+     * @return the real cause, without the CompletionException wrappers
+     */
+    public static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+        return e;
+    }
+
+    /**
+     * @return true if the failure only means that the screen was left
+     */
+    public static boolean isCancellation(Throwable e) {
+        return unwrap(e) instanceof CancellationException;
+    }
+
+    /**
+     * Stops accepting calls, the running ones are left to finish, called when the application stops
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The pending calls of one screen
+     */
+    public static class Scope {
+
+        private final String name;
+        private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        public Scope(String name) {
+            this.name = name;
+        }
+
+        private boolean register(CompletableFuture<?> future) {
+            if (cancelled) return false;
+            pending.add(future);
+            // cancel() may have run between the check and the add
+            if (cancelled) {
+                pending.remove(future);
+                return false;
+            }
+            return true;
+        }
+
+        private void unregister(CompletableFuture<?> future) {
+            pending.remove(future);
+        }
+
+        /**
+         * Cancels every pending call, later calls on this scope are cancelled at once
+         */
+        public void cancel() {
+            cancelled = true;
+            int count = 0;
+            for (CompletableFuture<?> future : pending) {
+                if (future.cancel(true)) count++;
+            }
+            pending.clear();
+            if (count > 0) LOGGER.info("Cancelled " + count + " pending call(s) of " + name);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -2,7 +2,9 @@ package isd.aims.main.controller;
 
 import isd.aims.main.entity.cart.Cart;
 import isd.aims.main.entity.cart.CartMedia;
+import isd.aims.main.entity.cart.CartStore;
 import isd.aims.main.entity.media.Media;
+import isd.aims.main.utils.Configs;
 
 import java.util.List;
 
@@ -12,21 +14,41 @@ import java.util.List;
  */
 public class BaseController {
 
+    private String sessionId = Configs.SESSION_ID;
+
+    /**
+     * The shopping session served by this controller, {@link Configs#SESSION_ID} by default
+     */
+    public BaseController setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+        return this;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return the cart of the session of this controller
+     */
+    public Cart getCart(){
+        return CartStore.getInstance().getCart(sessionId);
+    }
+
     /**
      * The method checks whether the Media in Cart, if it were in, we will return the CartMedia else return null
      * @param media
      * @return CartMedia or null
      */
     public CartMedia checkMediaInCart(Media media){
-        return Cart.getCart().checkMediaInCart(media);
+        return getCart().checkMediaInCart(media);
     }
 
     /**
      * This method gets the list of items in cart
      * @return List[CartMedia]
      */
-    @SuppressWarnings("rawtypes")
-    public List getListCartMedia(){
-        return Cart.getCart().getListMedia();
+    public List<CartMedia> getListCartMedia(){
+        return getCart().getListMedia();
     }
 }
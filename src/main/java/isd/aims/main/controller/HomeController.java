@@ -1,9 +1,37 @@
 package isd.aims.main.controller;
 
+import isd.aims.main.entity.media.CatalogChangePoller;
+import isd.aims.main.entity.media.CatalogFile;
+import isd.aims.main.entity.media.CatalogSnapshot;
 import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.MediaCache;
+import isd.aims.main.entity.media.MediaFilter;
+import isd.aims.main.entity.media.MediaPage;
+import isd.aims.main.entity.media.MediaRepository;
+import isd.aims.main.entity.media.OffHeapCatalog;
+import isd.aims.main.entity.media.SearchPage;
+import isd.aims.main.listener.CatalogChangeListener;
+import isd.aims.main.utils.Configs;
+import isd.aims.main.utils.Utils;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
 
 /**
@@ -12,15 +40,377 @@ import java.util.List;
  */
 public class HomeController extends BaseController{
 
+    private static Logger LOGGER = Utils.getLogger(HomeController.class.getName());
 
     /**
-     * this method gets all Media in DB and return back to home to display
+     * Number of media loaded per page of the home screen
+     */
+    public static final int PAGE_SIZE = 24;
+
+    private static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "aims-catalog-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService EXPORTER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "aims-catalog-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The export of each catalog file waiting for the exporter, at most one per file
+     */
+    private static final ConcurrentHashMap<Path, CompletableFuture<Void>> QUEUED_EXPORTS = new ConcurrentHashMap<>();
+    private static final AtomicBoolean LOADING = new AtomicBoolean();
+    private static volatile OffHeapCatalog offHeapCatalog;
+
+    /**
+     * Keeps the shared catalog snapshot up to date, registered on the {@link CatalogChangePoller}
+     * the first time the snapshot is needed
+     */
+    static final CatalogChangeListener SNAPSHOT_UPDATER = new SnapshotUpdater();
+    private static final AtomicBoolean SNAPSHOT_LISTENING = new AtomicBoolean();
+    private static final Object SNAPSHOT_LOCK = new Object();
+    private static CatalogSnapshot snapshot; // guarded by SNAPSHOT_LOCK
+
+    private final MediaRepository mediaRepository = new MediaRepository();
+
+    private boolean prefetch = true;
+    private boolean useCatalogFile = true;
+    private Path catalogFilePath = Paths.get(Configs.CATALOG_FILE_PATH);
+    private boolean catalogFileChecked;
+    private CatalogFile catalogFile;
+    private CompletableFuture<Void> catalogExport;
+    private boolean useOffHeapCatalog = Configs.CATALOG_OFF_HEAP;
+    private boolean offHeapCatalogChecked;
+    private OffHeapCatalog catalog;
+    private PageRequest prefetchedRequest;
+    private CompletableFuture<MediaPage> prefetchedPage;
+
+    /**
+     * this method gets all Media in DB and return back to home to display,
+     * from the off-heap catalog or the catalog file when it is fresh
      * @return List[Media]
      * @throws SQLException
      */
     @SuppressWarnings("rawtypes")
     public List getAllMedia() throws SQLException{
+        OffHeapCatalog offHeap = getOffHeapCatalog();
+        if (offHeap != null) return offHeap.asList();
+        CatalogFile file = getCatalogFile();
+        if (file != null) return file.getAll();
         return new Media().getAllMedia();
     }
 
+    /**
+     * Gets one page of the catalog ordered by id. Without filter the page is read from
+     * the off-heap catalog or decoded from the catalog file when it is fresh, except the last one. Otherwise, when prefetch is enabled, the
+     * following page is loaded in the background so that the next call returns at once.
+     * @param afterId the last id of the previous page, 0 for the first page
+     * @param limit   the maximum number of media in the page
+     * @param filter  optional conditions, may be null
+     * @return MediaPage
+     * @throws SQLException
+     */
+    public MediaPage getMediaPage(int afterId, int limit, MediaFilter filter) throws SQLException {
+        if (filter == null) {
+            OffHeapCatalog offHeap = getOffHeapCatalog();
+            CatalogFile file = offHeap == null ? getCatalogFile() : null;
+            if (offHeap != null || file != null) {
+                MediaPage page = offHeap != null ? offHeap.page(afterId, limit) : file.page(afterId, limit);
+                // the last page is read from the database, it holds the media added since the export
+                if (page.hasMore()) return page;
+            }
+        }
+        PageRequest request = new PageRequest(afterId, limit, filter);
+        MediaPage page = takePrefetched(request);
+        if (page == null) page = mediaRepository.findPage(afterId, limit, filter);
+        if (prefetch && page.hasMore()) prefetch(new PageRequest(page.getLastId(), limit, filter));
+        return page;
+    }
+
+    /**
+     * Full-text search of the catalog, best matches first
+     * @param text   what the user typed
+     * @param filter optional conditions, may be null
+     * @param offset the number of results to skip, 0 for the first page
+     * @param limit  the maximum number of media in the page
+     * @return SearchPage
+     * @throws SQLException
+     * @see MediaRepository#search(String, MediaFilter, int, int)
+     */
+    public SearchPage search(String text, MediaFilter filter, int offset, int limit) throws SQLException {
+        return mediaRepository.search(text, filter, offset, limit);
+    }
+
+    /**
+     * Filters and sorts the whole catalog over the shared {@link CatalogSnapshot}, only the media
+     * of the page are loaded
+     * @param filter     optional type, category and price range, may be null; the snapshot holds no titles
+     * @param sortBy     the column to sort by, ties are in id order
+     * @param descending
+     * @param offset     the number of media to skip, 0 for the first page
+     * @param limit      the maximum number of media in the page
+     * @return SearchPage
+     * @throws SQLException
+     */
+    public SearchPage browse(MediaFilter filter, CatalogSnapshot.Column sortBy, boolean descending, int offset, int limit) throws SQLException {
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+        if (filter != null && filter.getTitlePrefix() != null) throw new IllegalArgumentException("The catalog snapshot holds no titles");
+        // one extra id tells whether there is a next page
+        CatalogSnapshot.Query query = getCatalogSnapshot().query().setSortBy(sortBy, descending).setLimit(offset + limit + 1);
+        if (filter != null) {
+            query.setType(filter.getType()).setCategory(filter.getCategory()).setPriceRange(
+                    filter.getMinPrice() == null ? Integer.MIN_VALUE : filter.getMinPrice(),
+                    filter.getMaxPrice() == null ? Integer.MAX_VALUE : filter.getMaxPrice());
+        }
+        int[] ids = query.ids();
+        int end = Math.min(ids.length, offset + limit);
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = offset; i < end; i++) pageIds.add(ids[i]);
+
+        Map<Integer, Media> found = MediaCache.getInstance().getAll(pageIds);
+        List<Media> items = new ArrayList<>(pageIds.size());
+        for (Integer id : pageIds) {
+            // a media deleted since the last poll is left out
+            Media media = found.get(id);
+            if (media != null) items.add(media);
+        }
+        return new SearchPage(items, end, ids.length > end);
+    }
+
+    public HomeController setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * Whether the unfiltered catalog may be read from the catalog file
+     */
+    public HomeController setUseCatalogFile(boolean useCatalogFile) {
+        this.useCatalogFile = useCatalogFile;
+        return this;
+    }
+
+    /**
+     * Where the catalog file is read and exported, {@link Configs#CATALOG_FILE_PATH} by default
+     */
+    public HomeController setCatalogFilePath(Path catalogFilePath) {
+        this.catalogFilePath = catalogFilePath;
+        return this;
+    }
+
+    /**
+     * @return the export of the catalog file started because the file was missing, stale or unreadable
+     * when this controller first needed it, or null
+     */
+    public synchronized CompletableFuture<Void> getCatalogExport() {
+        return catalogExport;
+    }
+
+    /**
+     * Whether the unfiltered catalog may be read from the off-heap catalog, off unless
+     * {@link Configs#CATALOG_OFF_HEAP} is set
+     */
+    public HomeController setUseOffHeapCatalog(boolean useOffHeapCatalog) {
+        this.useOffHeapCatalog = useOffHeapCatalog;
+        return this;
+    }
+
+    /**
+     * Takes the off-heap catalog shared by the controllers the first time it is needed, if it is
+     * still fresh; otherwise it is loaded again in the background and this controller reads the
+     * catalog file or the database.
+     * @return the fresh off-heap catalog, or null
+     */
+    private synchronized OffHeapCatalog getOffHeapCatalog() {
+        if (!useOffHeapCatalog || offHeapCatalogChecked) return catalog;
+        offHeapCatalogChecked = true;
+        OffHeapCatalog shared = offHeapCatalog;
+        try {
+            if (shared != null && shared.isFresh()) {
+                catalog = shared;
+                return shared;
+            }
+        } catch (SQLException e) {
+            LOGGER.info("Cannot check the off-heap catalog: " + e.getMessage());
+        }
+        loadOffHeapCatalog();
+        return null;
+    }
+
+    /**
+     * Loads the snapshot shared by the controllers the first time it is needed, or again after
+     * the poller lost track of the changes
+     */
+    static CatalogSnapshot getCatalogSnapshot() throws SQLException {
+        // registered before the load, so no change polled after the load is missed
+        if (SNAPSHOT_LISTENING.compareAndSet(false, true)) CatalogChangePoller.getInstance().addListener(SNAPSHOT_UPDATER);
+        synchronized (SNAPSHOT_LOCK) {
+            if (snapshot == null) {
+                long start = System.nanoTime();
+                snapshot = CatalogSnapshot.load();
+                LOGGER.info("Loaded the snapshot of " + snapshot.getSize() + " media in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Applies the changes read by the poller to the shared snapshot, on the poller's thread
+     */
+    private static class SnapshotUpdater implements CatalogChangeListener {
+
+        @Override
+        public void onCatalogChanged(Set<Integer> mediaIds) {
+            synchronized (SNAPSHOT_LOCK) {
+                if (snapshot == null) return;
+                try {
+                    snapshot = snapshot.withChanges(mediaIds);
+                } catch (SQLException e) {
+                    // the next query loads the whole catalog again
+                    LOGGER.warning("Cannot apply the catalog changes to the snapshot: " + e.getMessage());
+                    snapshot = null;
+                }
+            }
+        }
+
+        @Override
+        public void onCatalogReset() {
+            synchronized (SNAPSHOT_LOCK) {
+                snapshot = null;
+            }
+        }
+    }
+
+    private static void loadOffHeapCatalog() {
+        if (!LOADING.compareAndSet(false, true)) return;
+        Thread loader = new Thread(() -> {
+            try {
+                long start = System.nanoTime();
+                OffHeapCatalog loaded = OffHeapCatalog.load();
+                offHeapCatalog = loaded;
+                LOGGER.info("Loaded " + loaded.getSize() + " media off-heap (" + (loaded.getOffHeapBytes() >> 10) + " KB) in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (SQLException | RuntimeException e) {
+                LOGGER.warning("Cannot load the off-heap catalog: " + e.getMessage());
+            } finally {
+                LOADING.set(false);
+            }
+        }, "aims-catalog-offheap");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Opens the catalog file the first time it is needed. It is only used when no catalog write
+     * was logged since its export, so every page of this controller comes from the same file;
+     * a missing, stale or unreadable file is exported again in the background for the next start.
+     * @return the fresh catalog file, or null to read the database
+     */
+    private synchronized CatalogFile getCatalogFile() {
+        if (!useCatalogFile || catalogFileChecked) return catalogFile;
+        catalogFileChecked = true;
+        Path path = catalogFilePath;
+        try {
+            if (Files.exists(path)) {
+                CatalogFile file = CatalogFile.open(path);
+                if (file.isFresh()) {
+                    catalogFile = file;
+                    return file;
+                }
+                LOGGER.info("Catalog file " + path + " is stale, the catalog is read from the database");
+            }
+        } catch (IOException | SQLException e) {
+            LOGGER.info("Cannot use the catalog file " + path + ": " + e.getMessage());
+        }
+        catalogExport = exportCatalogFile(path);
+        return null;
+    }
+
+    /**
+     * Exports the catalog file in the background. Requests are coalesced rather than dropped: a request
+     * made while an export of the file is queued joins it, one made while it runs queues another one,
+     * so the file always ends up holding the writes made before the last request
+     * @return a future completed once the file is exported
+     */
+    private static CompletableFuture<Void> exportCatalogFile(Path path) {
+        CompletableFuture<Void> export = new CompletableFuture<>();
+        CompletableFuture<Void> queued = QUEUED_EXPORTS.putIfAbsent(path, export);
+        if (queued != null) return queued;
+        EXPORTER.execute(() -> {
+            // from here a new request queues another export
+            QUEUED_EXPORTS.remove(path, export);
+            try {
+                Path parent = path.toAbsolutePath().getParent();
+                if (parent != null) Files.createDirectories(parent);
+                CatalogFile.export(path);
+                export.complete(null);
+            } catch (IOException | SQLException | RuntimeException e) {
+                LOGGER.warning("Cannot export the catalog to " + path + ": " + e.getMessage());
+                export.completeExceptionally(e);
+            }
+        });
+        return export;
+    }
+
+    private synchronized void prefetch(PageRequest request) {
+        if (request.equals(prefetchedRequest)) return;
+        if (prefetchedPage != null) prefetchedPage.cancel(false);
+        prefetchedRequest = request;
+        prefetchedPage = CompletableFuture.supplyAsync(() -> {
+            try {
+                return mediaRepository.findPage(request.afterId, request.limit, request.filter);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, PREFETCHER);
+    }
+
+    private MediaPage takePrefetched(PageRequest request) throws SQLException {
+        CompletableFuture<MediaPage> future;
+        synchronized (this) {
+            if (prefetchedPage == null || !request.equals(prefetchedRequest)) return null;
+            future = prefetchedPage;
+            prefetchedPage = null;
+            prefetchedRequest = null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the catalog page", e);
+        } catch (ExecutionException e) {
+            // the prefetch failed, let the caller retry synchronously
+            LOGGER.info("Prefetch of page after " + request.afterId + " failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    private static class PageRequest {
+        private final int afterId;
+        private final int limit;
+        private final MediaFilter filter;
+
+        PageRequest(int afterId, int limit, MediaFilter filter) {
+            this.afterId = afterId;
+            this.limit = limit;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageRequest)) return false;
+            PageRequest that = (PageRequest) o;
+            return afterId == that.afterId && limit == that.limit && Objects.equals(filter, that.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(afterId, limit, filter);
+        }
+    }
+
 }
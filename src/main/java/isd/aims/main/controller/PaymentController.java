@@ -3,11 +3,23 @@ package isd.aims.main.controller;
 import isd.aims.main.InterbankSubsystem.IPayment;
 import isd.aims.main.InterbankSubsystem.vnPay.VnPaySubsystemController;
 import isd.aims.main.entity.payment.PaymentTransaction;
-import isd.aims.main.entity.cart.Cart;
+import isd.aims.main.entity.invoice.Invoice;
+import isd.aims.main.entity.media.InventoryCommit;
+import isd.aims.main.entity.media.MediaRepository;
+import isd.aims.main.entity.media.StockReservations;
+import isd.aims.main.entity.order.OrderMedia;
+import isd.aims.main.exception.MediaNotAvailableException;
 import isd.aims.main.listener.TransactionResultListener;
+import isd.aims.main.utils.Utils;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -17,39 +29,104 @@ import java.sql.SQLException;
  */
 public class PaymentController extends BaseController implements TransactionResultListener {
 
+	private static Logger LOGGER = Utils.getLogger(PaymentController.class.getName());
+
 	private IPayment paymentService;
 	private int amount;
 	private String orderInfo;
+	private Invoice invoice;
 
 	public PaymentController(IPayment vnPayService) {
 		this.paymentService = vnPayService;
 	}
 
 	/**
-	 * Generate VNPay payment URL
+	 * Checks that the stock not held by other sessions still covers every line of the order before
+	 * the payment is opened, and holds it again for this session: the holds of a cart restored at
+	 * startup are placed here and the TTL of the others restarts for the time of the payment.
+	 * The stock itself is only decremented once the payment succeeded, so a payment window closed
+	 * without an answer costs no stock; its holds expire with the TTL.
+	 * It reads the database, run it off the FX thread
+	 * @param invoice
+	 * @throws MediaNotAvailableException listing the lines the stock cannot serve
+	 * @throws SQLException
 	 */
+	@SuppressWarnings("unchecked")
+	public void checkStock(Invoice invoice) throws SQLException {
+		Map<Integer, OrderMedia> lines = new LinkedHashMap<>();
+		Map<Integer, Integer> requested = new LinkedHashMap<>();
+		for (OrderMedia line : (List<OrderMedia>) invoice.getOrder().getlstOrderMedia()) {
+			lines.putIfAbsent(line.getMedia().getId(), line);
+			requested.merge(line.getMedia().getId(), line.getQuantity(), Integer::sum);
+		}
+		Map<Integer, Integer> stock = new MediaRepository().findQuantities(new ArrayList<>(requested.keySet()));
+		StockReservations reservations = StockReservations.getInstance();
+		StringBuilder missing = new StringBuilder();
+		for (Map.Entry<Integer, Integer> entry : requested.entrySet()) {
+			int mediaId = entry.getKey();
+			int inStock = stock.getOrDefault(mediaId, 0);
+			if (!reservations.reserve(getSessionId(), mediaId, entry.getValue(), inStock)) {
+				missing.append('\n').append(lines.get(mediaId).getMedia().getTitle()).append(": requested ").append(entry.getValue())
+					.append(", only ").append(reservations.getAvailableTo(getSessionId(), mediaId, inStock)).append(" available");
+			}
+		}
+		if (missing.length() > 0) throw new MediaNotAvailableException("Some media not available:" + missing);
+	}
 
-	public void payOrder(int amount, String orderInfo) throws IOException, SQLException {
+	/**
+	 * Generate VNPay payment URL and open the payment screen, on the FX thread
+	 */
+	public void payOrder(Invoice invoice, String orderInfo) throws IOException {
+		this.invoice = invoice;
 		// Bắt đầu quy trình thanh toán
-		new VnPaySubsystemController(this).payOrder(amount, orderInfo);
+		new VnPaySubsystemController(this).payOrder(invoice.getAmount(), orderInfo);
+	}
+
+	/**
+	 * Takes the stock of a paid order, all lines or none, and saves the order and its transaction in
+	 * the same database transaction, see {@link PaymentTransaction#save(isd.aims.main.entity.order.Order)}.
+	 * Once it is committed the holds of the session are confirmed, the decrement replaces them.
+	 * The order was paid so it is saved even if the stock ran out during the payment,
+	 * the shortfall is logged to be refunded or back-ordered.
+	 * It writes to the database, run it off the FX thread
+	 * @param invoice
+	 * @param transaction the successful transaction
+	 * @return the stock taken
+	 * @throws SQLException if nothing was saved, the holds are then kept until they expire
+	 */
+	public InventoryCommit completeOrder(Invoice invoice, PaymentTransaction transaction) throws SQLException {
+		InventoryCommit stock = transaction.save(invoice.getOrder());
+		StockReservations reservations = StockReservations.getInstance();
+		if (stock.isCommitted()) {
+			reservations.confirm(getSessionId());
+		} else {
+			reservations.releaseSession(getSessionId());
+			LOGGER.severe("Order " + invoice.getOrder().getId() + " paid but the stock ran out during the payment:\n" + stock);
+		}
+		return stock;
 	}
 
 	@Override
 	public void onTransactionCompleted(PaymentTransaction transactionResult) {
 		if (transactionResult != null && transactionResult.isSuccess()) {
-			try {
-				transactionResult.save(1); // Lưu giao dịch vào cơ sở dữ liệu nếu thành công
-				emptyCart(); // Làm trống giỏ hàng
-				System.out.println("Lưu thành công");
-			} catch (SQLException e) {
-				e.printStackTrace();
-			}
+			// Trừ kho thay cho giữ chỗ của giỏ hàng, lưu đơn hàng và giao dịch vào cơ sở dữ liệu nếu thành công, không chặn luồng giao diện
+			AsyncDataService.getInstance().savePayment(this, invoice, transactionResult)
+				.thenRun(() -> {
+					emptyCart(); // Làm trống giỏ hàng
+					LOGGER.info("Order " + invoice.getOrder().getId() + " saved");
+				})
+				.exceptionally(e -> {
+					LOGGER.log(Level.SEVERE, "Cannot save the paid order", AsyncDataService.unwrap(e));
+					return null;
+				});
 		} else {
-			System.out.println("Giao dịch thất bại: " + (transactionResult != null ? transactionResult.getMessage() : "Lỗi không xác định"));
+			// Giỏ hàng vẫn còn nên giữ chỗ được giữ lại đến khi hết hạn
+			// Kho chưa bị trừ nên không có gì để hoàn lại
+			LOGGER.warning("Giao dịch thất bại: " + (transactionResult != null ? transactionResult.getMessage() : "Lỗi không xác định"));
 		}
 	}
 
 	public void emptyCart(){
-        Cart.getCart().emptyCart();
+        getCart().emptyCart();
     }
 }
@@ -1,15 +1,20 @@
 package isd.aims.main.controller;
 
-import isd.aims.main.entity.cart.Cart;
 import isd.aims.main.entity.cart.CartMedia;
 import isd.aims.main.entity.invoice.Invoice;
+import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.MediaCache;
 import isd.aims.main.entity.order.Order;
 import isd.aims.main.entity.order.OrderMedia;
+import isd.aims.main.exception.MediaNotAvailableException;
 import isd.aims.main.utils.Utils;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -26,23 +31,30 @@ public class PlaceOrderController extends BaseController{
 
     /**
      * This method checks the avalibility of product when user click PlaceOrder button
+     * @throws MediaNotAvailableException with the per-line shortfalls if some media are not available
      * @throws SQLException
      */
     public void placeOrder() throws SQLException{
-        Cart.getCart().checkAvailabilityOfProduct();
+        getCart().checkAvailabilityOfProduct();
     }
 
     /**
-     * This method creates the new Order based on the Cart
+     * This method creates the new Order based on the Cart, the media of every line are
+     * loaded with their details in one query
      * @return Order
      * @throws SQLException
      */
     @SuppressWarnings("unchecked")
     public Order createOrder() throws SQLException{
         Order order = new Order();
-        for (Object object : Cart.getCart().getListMedia()) {
-            CartMedia cartMedia = (CartMedia) object;
-            OrderMedia orderMedia = new OrderMedia(cartMedia.getMedia(),
+        List<CartMedia> lines = getCart().getListMedia();
+        List<Integer> ids = new ArrayList<>();
+        for (CartMedia cartMedia : lines) ids.add(cartMedia.getMedia().getId());
+        Map<Integer, Media> medium = MediaCache.getInstance().getAll(ids);
+        for (CartMedia cartMedia : lines) {
+            // a media removed from the catalog since keeps the details the cart had
+            Media media = medium.getOrDefault(cartMedia.getMedia().getId(), cartMedia.getMedia());
+            OrderMedia orderMedia = new OrderMedia(media,
                                                    cartMedia.getQuantity(),
                                                    cartMedia.getPrice());
             order.getlstOrderMedia().add(orderMedia);
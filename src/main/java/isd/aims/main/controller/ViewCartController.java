@@ -1,6 +1,6 @@
 package isd.aims.main.controller;
 
-import isd.aims.main.entity.cart.Cart;
+import isd.aims.main.entity.cart.AvailabilityReport;
 
 import java.sql.SQLException;
 
@@ -11,11 +11,13 @@ import java.sql.SQLException;
 public class ViewCartController extends BaseController{
     
     /**
-     * This method checks the available products in Cart
+     * This method checks the available products in Cart, viewing the cart does not
+     * fail on missing stock, the shortfalls are shown on each line instead
+     * @return AvailabilityReport
      * @throws SQLException
      */
-    public void checkAvailabilityOfProduct() throws SQLException{
-        Cart.getCart().checkAvailabilityOfProduct();
+    public AvailabilityReport checkAvailabilityOfProduct() throws SQLException{
+        return getCart().checkAvailability();
     }
 
     /**
@@ -23,7 +25,7 @@ public class ViewCartController extends BaseController{
      * @return subtotal
      */
     public int getCartSubtotal(){
-        int subtotal = Cart.getCart().calSubtotal();
+        int subtotal = getCart().calSubtotal();
         return subtotal;
     }
 
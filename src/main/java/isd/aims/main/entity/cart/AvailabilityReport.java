@@ -0,0 +1,89 @@
+package isd.aims.main.entity.cart;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of the availability check of a cart, it lists every line asking for more than the stock
+ * @author nguyenlm
+ */
+public class AvailabilityReport {
+
+    private final List<Shortfall> shortfalls = new ArrayList<>();
+
+    void addShortfall(CartMedia cartMedia, int available) {
+        shortfalls.add(new Shortfall(cartMedia, available));
+    }
+
+    /**
+     * @return true if every line of the cart can be served
+     */
+    public boolean isAvailable() {
+        return shortfalls.isEmpty();
+    }
+
+    public List<Shortfall> getShortfalls() {
+        return Collections.unmodifiableList(shortfalls);
+    }
+
+    /**
+     * @param cartMedia
+     * @return the shortfall of this line, or null if it is available
+     */
+    public Shortfall getShortfall(CartMedia cartMedia) {
+        for (Shortfall shortfall : shortfalls) {
+            if (shortfall.getCartMedia() == cartMedia) return shortfall;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        if (isAvailable()) return "All media available";
+        StringBuilder sb = new StringBuilder();
+        for (Shortfall shortfall : shortfalls) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(shortfall);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A cart line whose requested quantity is above the stock
+     */
+    public static class Shortfall {
+
+        private final CartMedia cartMedia;
+        private final int available;
+
+        Shortfall(CartMedia cartMedia, int available) {
+            this.cartMedia = cartMedia;
+            this.available = available;
+        }
+
+        public CartMedia getCartMedia() {
+            return cartMedia;
+        }
+
+        public int getRequested() {
+            return cartMedia.getQuantity();
+        }
+
+        public int getAvailable() {
+            return available;
+        }
+
+        /**
+         * @return how many items are missing to serve the line
+         */
+        public int getMissing() {
+            return getRequested() - available;
+        }
+
+        @Override
+        public String toString() {
+            return cartMedia.getMedia().getTitle() + ": requested " + getRequested() + ", only " + available + " in stock";
+        }
+    }
+}
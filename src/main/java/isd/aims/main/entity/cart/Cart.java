@@ -2,72 +2,196 @@ package isd.aims.main.entity.cart;
 
 import isd.aims.main.exception.MediaNotAvailableException;
 import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.MediaCache;
+import isd.aims.main.listener.CartChangeListener;
+import isd.aims.main.utils.Utils;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
+/**
+ * The cart of one shopping session, one line per media in the order they were added.
+ * The lines are indexed by media id and the item count and subtotal are kept up to date
+ * on every add, remove and change of a line, so none of them walks the cart.
+ * Carts are held by the {@link CartStore}, the methods are synchronized.
+ * Every change of the lines is told to the {@link CartChangeListener}s, followed by the new
+ * totals when they moved, so a screen can patch the line and the labels concerned only.
+ */
 public class Cart {
+
+    private static Logger LOGGER = Utils.getLogger(Cart.class.getName());
     
-    private List<CartMedia> lstCartMedia;
-    private static Cart cartInstance;
+    private final String sessionId;
+    private final Map<Integer, CartMedia> lines;
+    private final List<CartChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private int totalMedia;
+    private int subtotal;
 
-    public static Cart getCart(){
-        if(cartInstance == null) cartInstance = new Cart();
-        return cartInstance;
+    Cart(String sessionId){
+        this.sessionId = sessionId;
+        lines = new LinkedHashMap<>();
     }
 
-    private Cart(){
-        lstCartMedia = new ArrayList<>();
+    /**
+     * @return the shopping session this cart belongs to
+     */
+    public String getSessionId(){
+        return sessionId;
     }
 
-    public void addCartMedia(CartMedia cm){
-        lstCartMedia.add(cm);
+    public void addListener(CartChangeListener listener){
+        listeners.add(listener);
     }
 
-    public void removeCartMedia(CartMedia cm){
-        lstCartMedia.remove(cm);
+    public void removeListener(CartChangeListener listener){
+        listeners.remove(listener);
     }
 
-    public List getListMedia(){
-        return lstCartMedia;
+    /**
+     * Adds a line, or adds its quantity to the line of the same media already in the cart
+     * @param cm
+     */
+    public synchronized void addCartMedia(CartMedia cm){
+        CartMedia existing = lines.get(cm.getMedia().getId());
+        if (existing != null) {
+            if (existing != cm) existing.setQuantity(existing.getQuantity() + cm.getQuantity());
+            return;
+        }
+        lines.put(cm.getMedia().getId(), cm);
+        cm.setCart(this);
+        totalMedia += cm.getQuantity();
+        subtotal += cm.getPrice() * cm.getQuantity();
+        fire(listener -> listener.onLineAdded(this, cm));
+        totalsChanged();
     }
 
-    public void emptyCart(){
-        lstCartMedia.clear();
+    public synchronized void removeCartMedia(CartMedia cm){
+        if (!lines.remove(cm.getMedia().getId(), cm)) return;
+        cm.setCart(null);
+        totalMedia -= cm.getQuantity();
+        subtotal -= cm.getPrice() * cm.getQuantity();
+        fire(listener -> listener.onLineRemoved(this, cm));
+        totalsChanged();
     }
 
-    public int getTotalMedia(){
-        int total = 0;
-        for (CartMedia obj : lstCartMedia) {
-            total += obj.getQuantity();
-        }
-        return total;
+    /**
+     * Called by a line of this cart whose quantity or price changed
+     */
+    synchronized void lineChanged(CartMedia cm, int oldQuantity, int oldPrice){
+        if (lines.get(cm.getMedia().getId()) != cm) return;
+        int oldTotal = totalMedia;
+        int oldSubtotal = subtotal;
+        totalMedia += cm.getQuantity() - oldQuantity;
+        subtotal += cm.getPrice() * cm.getQuantity() - oldPrice * oldQuantity;
+        fire(listener -> listener.onLineChanged(this, cm, oldQuantity, oldPrice));
+        if (totalMedia != oldTotal || subtotal != oldSubtotal) totalsChanged();
+    }
+
+    /**
+     * @return the lines in the order they were added, read-only and backed by the cart,
+     * to be iterated by the thread of the session only
+     */
+    public synchronized Collection<CartMedia> getLines(){
+        return Collections.unmodifiableCollection(lines.values());
+    }
+
+    /**
+     * @return a copy of the lines in the order they were added
+     */
+    public synchronized List<CartMedia> getListMedia(){
+        return new ArrayList<>(lines.values());
+    }
+
+    /**
+     * @return the number of lines, that is of distinct media
+     */
+    public synchronized int getLineCount(){
+        return lines.size();
     }
 
-    public int calSubtotal(){
-        int total = 0;
-        for (CartMedia obj : lstCartMedia) {
-            total += obj.getPrice()* obj.getQuantity();
+    /**
+     * @param mediaId
+     * @return the line of this media, or null if it is not in the cart
+     */
+    public synchronized CartMedia getCartMedia(int mediaId){
+        return lines.get(mediaId);
+    }
+
+    public synchronized void emptyCart(){
+        boolean wasEmpty = lines.isEmpty();
+        for (CartMedia cm : lines.values()) cm.setCart(null);
+        lines.clear();
+        totalMedia = 0;
+        subtotal = 0;
+        fire(listener -> listener.onCartEmptied(this));
+        if (!wasEmpty) totalsChanged();
+    }
+
+    public synchronized int getTotalMedia(){
+        return totalMedia;
+    }
+
+    public synchronized int calSubtotal(){
+        return subtotal;
+    }
+
+    /**
+     * Checks the stock of every line, the levels missing from the {@link MediaCache} are read in one query,
+     * and keeps the stock found on each line ({@link CartMedia#getAvailableQuantity()}); the media are not modified
+     * @return the per-line shortfalls, empty if the whole cart is available
+     * @throws SQLException
+     */
+    public AvailabilityReport checkAvailability() throws SQLException{
+        List<CartMedia> snapshot = getListMedia();
+        List<Integer> ids = new ArrayList<>();
+        for (CartMedia object : snapshot) ids.add(object.getMedia().getId());
+        // the stock is read without holding the cart
+        Map<Integer, Integer> stock = MediaCache.getInstance().getQuantities(ids);
+
+        AvailabilityReport report = new AvailabilityReport();
+        for (CartMedia object : snapshot) {
+            int availQuantity = stock.getOrDefault(object.getMedia().getId(), 0);
+            object.setAvailableQuantity(availQuantity);
+            if (object.getQuantity() > availQuantity) report.addShortfall(object, availQuantity);
         }
-        return total;
+        return report;
     }
 
+    /**
+     * @throws MediaNotAvailableException carrying the report if some line cannot be served
+     * @throws SQLException
+     */
     public void checkAvailabilityOfProduct() throws SQLException{
-        boolean allAvai = true;
-        for (CartMedia object : lstCartMedia) {
-            int requiredQuantity = object.getQuantity();
-            int availQuantity = object.getMedia().getQuantity();
-            if (requiredQuantity > availQuantity) allAvai = false;
-        }
-        if (!allAvai) throw new MediaNotAvailableException("Some media not available");
+        AvailabilityReport report = checkAvailability();
+        if (!report.isAvailable()) throw new MediaNotAvailableException("Some media not available", report);
+    }
+
+    public synchronized CartMedia checkMediaInCart(Media media){
+        return lines.get(media.getId());
+    }
+
+    private void totalsChanged(){
+        int total = totalMedia;
+        int sub = subtotal;
+        fire(listener -> listener.onTotalsChanged(this, total, sub));
     }
 
-    public CartMedia checkMediaInCart(Media media){
-        for (CartMedia cartMedia : lstCartMedia) {
-            if (cartMedia.getMedia().getId() == media.getId()) return cartMedia;
+    private void fire(Consumer<CartChangeListener> event){
+        for (CartChangeListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                LOGGER.warning("Cart listener " + listener + " failed: " + e.getMessage());
+            }
         }
-        return null;
     }
 
 }
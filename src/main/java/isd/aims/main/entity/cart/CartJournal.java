@@ -0,0 +1,582 @@
+package isd.aims.main.entity.cart;
+
+import isd.aims.main.entity.media.Media;
+import isd.aims.main.listener.CartChangeListener;
+import isd.aims.main.utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps the carts of the {@link CartStore} across restarts. Every change of a cart is appended to a
+ * local log as a small checksummed record; in the background the log is synced to disk every
+ * sync interval, and once it holds enough records the state of every cart is written to a snapshot
+ * and the log starts again empty. The snapshot and the log carry a generation so that a log
+ * already folded into the snapshot is never applied twice, and a record torn by a crash ends the log.
+ * The files are written and synced out of the lock the cart listeners take: a snapshot copies the
+ * carts under it, and the changes logged while the copy is written are carried into the next log.
+ * <p>
+ * {@link #restore()} reads the snapshot then the log tail, without touching the database: a line keeps
+ * what the cart screen needs of its media (title, category, type, image) and the stock is refreshed by
+ * the availability check of the cart as usual.
+ * @author nguyenlm
+ */
+public class CartJournal implements CartChangeListener, AutoCloseable {
+
+    private static Logger LOGGER = Utils.getLogger(CartJournal.class.getName());
+
+    static final int LOG_MAGIC = 0x41494D4A; // "AIMJ"
+    static final int SNAPSHOT_MAGIC = 0x41494D53; // "AIMS"
+    static final int VERSION = 1;
+    static final int LOG_HEADER_SIZE = 16;
+
+    private static final byte ADD = 1;
+    private static final byte CHANGE = 2;
+    private static final byte REMOVE = 3;
+    private static final byte EMPTY = 4;
+    private static final byte DROP = 5;
+
+    private final Path logPath;
+    private final Path snapshotPath;
+    private final int snapshotEvery;
+    private final long syncIntervalMillis;
+
+    /**
+     * The lines of every cart as written to the log, what the next snapshot will hold
+     */
+    private final Map<String, LinkedHashMap<Integer, Line>> carts = new HashMap<>();
+    private FileChannel log;
+    private long generation;
+    private int recordsSinceSnapshot;
+    private boolean dirty;
+    /**
+     * The records logged since the carts were copied for the snapshot being written, or null
+     */
+    private List<byte[]> pending;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param logPath            the log, the snapshot is written next to it with the .snapshot extension
+     * @param snapshotEvery      the number of records after which the log is folded into a new snapshot
+     * @param syncIntervalMillis how often the log is synced to disk
+     */
+    public CartJournal(Path logPath, int snapshotEvery, long syncIntervalMillis) {
+        this.logPath = logPath;
+        this.snapshotPath = Paths.get(logPath + ".snapshot");
+        this.snapshotEvery = snapshotEvery;
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Rebuilds the carts from the snapshot and the log, then opens the log for appending;
+     * the directory of the log is created if needed.
+     * Must be called once, before the journal is told of any change.
+     * @return the lines of every cart, keyed by session id, lines in the order they were added
+     * @throws IOException
+     */
+    public synchronized Map<String, List<CartMedia>> restore() throws IOException {
+        if (log != null) throw new IllegalStateException("The cart journal is already open");
+        long start = System.nanoTime();
+        Path parent = logPath.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        readSnapshot();
+        int replayed = replayLog();
+
+        Map<String, List<CartMedia>> restored = new LinkedHashMap<>();
+        int count = 0;
+        for (Map.Entry<String, LinkedHashMap<Integer, Line>> cart : carts.entrySet()) {
+            List<CartMedia> lines = new ArrayList<>(cart.getValue().size());
+            for (Line line : cart.getValue().values()) lines.add(line.toCartMedia());
+            restored.put(cart.getKey(), lines);
+            count += lines.size();
+        }
+        LOGGER.info("Restored " + restored.size() + " carts (" + count + " lines, " + replayed + " logged changes) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return restored;
+    }
+
+    private void readSnapshot() throws IOException {
+        carts.clear();
+        generation = 0;
+        if (!Files.exists(snapshotPath)) return;
+        byte[] bytes = Files.readAllBytes(snapshotPath);
+        if (bytes.length < 8) throw new IOException(snapshotPath + " is truncated");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (crc.getValue() != in.getLong(bytes.length - 8)) throw new IOException(snapshotPath + " is corrupt");
+        try {
+            if (in.getInt() != SNAPSHOT_MAGIC) throw new IOException(snapshotPath + " is not a cart snapshot");
+            int version = in.getInt();
+            if (version != VERSION) throw new IOException(snapshotPath + " has version " + version + ", expected " + VERSION);
+            generation = in.getLong();
+            int sessions = in.getInt();
+            for (int i = 0; i < sessions; i++) {
+                String sessionId = readString(in);
+                int count = in.getInt();
+                LinkedHashMap<Integer, Line> lines = new LinkedHashMap<>();
+                for (int j = 0; j < count; j++) {
+                    Line line = Line.read(in);
+                    lines.put(line.mediaId, line);
+                }
+                carts.put(sessionId, lines);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException(snapshotPath + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Applies the records of the log if it belongs to the generation of the snapshot, truncates a torn
+     * tail and leaves the log open at its end. The log is read at once, it is bounded by the snapshots.
+     * @return the number of records applied
+     */
+    private int replayLog() throws IOException {
+        int replayed = 0;
+        int end = -1;
+        if (Files.exists(logPath)) {
+            byte[] bytes = Files.readAllBytes(logPath);
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (bytes.length >= LOG_HEADER_SIZE && in.getInt() == LOG_MAGIC && in.getInt() == VERSION && in.getLong() == generation) {
+                end = LOG_HEADER_SIZE;
+                CRC32 crc = new CRC32();
+                while (in.remaining() >= 8) {
+                    int length = in.getInt();
+                    long checksum = in.getInt() & 0xFFFFFFFFL;
+                    if (length <= 0 || length > in.remaining()) break;
+                    crc.reset();
+                    crc.update(bytes, in.position(), length);
+                    if (crc.getValue() != checksum) break;
+                    try {
+                        apply(in.slice(in.position(), length));
+                    } catch (RuntimeException e) {
+                        throw new IOException("Cannot apply the cart record at " + end + " of " + logPath, e);
+                    }
+                    in.position(in.position() + length);
+                    replayed++;
+                    end = in.position();
+                }
+            }
+        }
+        if (end < 0) {
+            // missing, or already folded into the snapshot
+            startLog(List.of());
+        } else {
+            log = FileChannel.open(logPath, StandardOpenOption.WRITE);
+            if (log.size() > end) {
+                LOGGER.warning("Dropped " + (log.size() - end) + " bytes torn from the end of " + logPath);
+                log.truncate(end);
+            }
+            log.position(end);
+        }
+        recordsSinceSnapshot = replayed;
+        return replayed;
+    }
+
+    private void apply(ByteBuffer in) throws IOException {
+        byte op = in.get();
+        String sessionId = readString(in);
+        switch (op) {
+            case ADD: {
+                Line line = Line.read(in);
+                carts.computeIfAbsent(sessionId, id -> new LinkedHashMap<>()).put(line.mediaId, line);
+                break;
+            }
+            case CHANGE: {
+                int mediaId = in.getInt();
+                int quantity = in.getInt();
+                int price = in.getInt();
+                LinkedHashMap<Integer, Line> lines = carts.get(sessionId);
+                Line line = lines == null ? null : lines.get(mediaId);
+                if (line != null) {
+                    line.quantity = quantity;
+                    line.price = price;
+                }
+                break;
+            }
+            case REMOVE: {
+                int mediaId = in.getInt();
+                LinkedHashMap<Integer, Line> lines = carts.get(sessionId);
+                if (lines != null) lines.remove(mediaId);
+                break;
+            }
+            case EMPTY:
+            case DROP:
+                carts.remove(sessionId);
+                break;
+            default:
+                throw new IOException("Unknown cart record " + op);
+        }
+    }
+
+    @Override
+    public void onLineAdded(Cart cart, CartMedia line) {
+        Line added = Line.of(line);
+        append(cart.getSessionId(), ADD, out -> added.write(out), () ->
+                carts.computeIfAbsent(cart.getSessionId(), id -> new LinkedHashMap<>()).put(added.mediaId, added));
+    }
+
+    @Override
+    public void onLineRemoved(Cart cart, CartMedia line) {
+        int mediaId = line.getMedia().getId();
+        append(cart.getSessionId(), REMOVE, out -> out.writeInt(mediaId), () -> {
+            LinkedHashMap<Integer, Line> lines = carts.get(cart.getSessionId());
+            if (lines != null) lines.remove(mediaId);
+        });
+    }
+
+    @Override
+    public void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice) {
+        int mediaId = line.getMedia().getId();
+        int quantity = line.getQuantity();
+        int price = line.getPrice();
+        append(cart.getSessionId(), CHANGE, out -> {
+            out.writeInt(mediaId);
+            out.writeInt(quantity);
+            out.writeInt(price);
+        }, () -> {
+            LinkedHashMap<Integer, Line> lines = carts.get(cart.getSessionId());
+            Line changed = lines == null ? null : lines.get(mediaId);
+            if (changed != null) {
+                changed.quantity = quantity;
+                changed.price = price;
+            }
+        });
+    }
+
+    @Override
+    public void onCartEmptied(Cart cart) {
+        append(cart.getSessionId(), EMPTY, out -> { }, () -> carts.remove(cart.getSessionId()));
+    }
+
+    /**
+     * The cart of the session was dropped from the store
+     * @param sessionId
+     */
+    public void cartDropped(String sessionId) {
+        append(sessionId, DROP, out -> { }, () -> carts.remove(sessionId));
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes one record, [length][crc32][op, session, body], in a single write so that a crash tears
+     * at most the last record; a failure is logged and the change is kept in memory for the next snapshot
+     */
+    private synchronized void append(String sessionId, byte op, Body body, Runnable mirror) {
+        mirror.run();
+        dirty = true;
+        if (log == null) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(op);
+            writeString(out, sessionId);
+            body.write(out);
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 8, record.capacity() - 8);
+            record.putInt(0, record.capacity() - 8).putInt(4, (int) crc.getValue());
+            while (record.hasRemaining()) log.write(record);
+            recordsSinceSnapshot++;
+            if (pending != null) pending.add(record.array());
+        } catch (IOException e) {
+            LOGGER.warning("Cannot log the change of cart " + sessionId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the state of every cart to a new snapshot, moved in place atomically, then starts a new log
+     * holding the changes logged meanwhile. Only the copy of the carts and the switch to the new log hold
+     * the lock of the journal; changes logged while the snapshot is written are durable once the new
+     * log is synced.
+     * @throws IOException
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long start = System.nanoTime();
+            Map<String, List<Line>> copy = new LinkedHashMap<>();
+            long next;
+            synchronized (this) {
+                if (log == null) throw new IllegalStateException("The cart journal is not open");
+                for (Map.Entry<String, LinkedHashMap<Integer, Line>> cart : carts.entrySet()) {
+                    List<Line> lines = new ArrayList<>(cart.getValue().size());
+                    for (Line line : cart.getValue().values()) lines.add(line.copy());
+                    copy.put(cart.getKey(), lines);
+                }
+                next = generation + 1;
+                pending = new ArrayList<>();
+            }
+            try {
+                writeSnapshot(copy, next);
+                synchronized (this) {
+                    // from here the old log is ignored, its generation is behind the snapshot
+                    generation = next;
+                    startLog(pending);
+                    dirty = !pending.isEmpty();
+                }
+            } finally {
+                synchronized (this) {
+                    pending = null;
+                }
+            }
+            forceDirectory();
+            LOGGER.info("Cart snapshot of " + copy.size() + " carts written in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    private void writeSnapshot(Map<String, List<Line>> copy, long next) throws IOException {
+        Path temp = Files.createTempFile(snapshotPath.toAbsolutePath().getParent(), snapshotPath.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(
+                        Channels.newOutputStream(channel), crc), 1 << 16));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(next);
+                out.writeInt(copy.size());
+                for (Map.Entry<String, List<Line>> cart : copy.entrySet()) {
+                    writeString(out, cart.getKey());
+                    out.writeInt(cart.getValue().size());
+                    for (Line line : cart.getValue()) line.write(out);
+                }
+                out.flush();
+                ByteBuffer trailer = ByteBuffer.allocate(8).putLong(0, crc.getValue());
+                while (trailer.hasRemaining()) channel.write(trailer);
+                channel.force(false);
+            }
+            Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        // the rename itself is durable once the directory is synced
+        forceDirectory();
+    }
+
+    /**
+     * Starts a new log of the current generation holding the given records, written next to the
+     * log and moved in place so that the old log stays whole until then; it is synced by the next
+     * {@link #sync()}. Guarded by this
+     */
+    private void startLog(List<byte[]> records) throws IOException {
+        Path temp = Files.createTempFile(logPath.toAbsolutePath().getParent(), logPath.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+                header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation).flip();
+                while (header.hasRemaining()) channel.write(header);
+                for (byte[] record : records) {
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                }
+            }
+            Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (log != null) log.close();
+        log = FileChannel.open(logPath, StandardOpenOption.WRITE);
+        log.position(log.size());
+        recordsSinceSnapshot = records.size();
+    }
+
+    /**
+     * Syncs the directory of the journal, so that a file moved into it survives a crash;
+     * not every platform can open a directory, there the move is left to the file system
+     */
+    private void forceDirectory() {
+        Path parent = logPath.toAbsolutePath().getParent();
+        try (FileChannel directory = FileChannel.open(parent, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // eg: Windows
+        }
+    }
+
+    /**
+     * Forces the logged records to disk, out of the lock of the journal
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        FileChannel current;
+        synchronized (this) {
+            current = log;
+        }
+        if (current == null) return;
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // replaced by a new log meanwhile, synced by the next round
+        }
+    }
+
+    /**
+     * Starts the background sync of the log and the snapshots
+     */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "aims-cart-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (getRecordsSinceSnapshot() >= snapshotEvery) snapshot();
+                else sync();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warning("Cannot sync the cart journal: " + e.getMessage());
+            }
+        }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background work and writes a last snapshot, so that the next start reads no log
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        // waits for a snapshot the background sync may be writing
+        synchronized (snapshotLock) {
+            boolean changed;
+            synchronized (this) {
+                if (log == null) return;
+                changed = dirty || recordsSinceSnapshot > 0;
+            }
+            try {
+                if (changed) snapshot();
+            } catch (IOException e) {
+                LOGGER.warning("Cannot write the last cart snapshot: " + e.getMessage());
+            }
+            synchronized (this) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    LOGGER.warning("Cannot close the cart journal: " + e.getMessage());
+                }
+                log = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of records in the log, folded into the next snapshot
+     */
+    public synchronized int getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    /**
+     * A cart line with what the cart screen shows of its media
+     */
+    private static class Line {
+        private final int mediaId;
+        private int quantity;
+        private int price;
+        private final String title;
+        private final String category;
+        private final String type;
+        private final String imageUrl;
+
+        Line(int mediaId, int quantity, int price, String title, String category, String type, String imageUrl) {
+            this.mediaId = mediaId;
+            this.quantity = quantity;
+            this.price = price;
+            this.title = title;
+            this.category = category;
+            this.type = type;
+            this.imageUrl = imageUrl;
+        }
+
+        Line copy() {
+            return new Line(mediaId, quantity, price, title, category, type, imageUrl);
+        }
+
+        static Line of(CartMedia cartMedia) {
+            Media media = cartMedia.getMedia();
+            return new Line(media.getId(), cartMedia.getQuantity(), cartMedia.getPrice(), media.getTitle(),
+                    media.getCategory(), media.getType(), media.getImageURL());
+        }
+
+        static Line read(ByteBuffer in) {
+            return new Line(in.getInt(), in.getInt(), in.getInt(), readString(in), readString(in), readString(in), readString(in));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(mediaId);
+            out.writeInt(quantity);
+            out.writeInt(price);
+            writeString(out, title);
+            writeString(out, category);
+            writeString(out, type);
+            writeString(out, imageUrl);
+        }
+
+        CartMedia toCartMedia() {
+            try {
+                // the stock is unknown until the availability check of the cart
+                Media media = new Media(mediaId, title, category, price, 0, type).setMediaURL(imageUrl);
+                return new CartMedia(media, null, quantity, price);
+            } catch (SQLException e) {
+                // the media constructor declares it but never throws it
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A length, -1 for null, then the UTF-8 bytes
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        String text = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return text;
+    }
+}
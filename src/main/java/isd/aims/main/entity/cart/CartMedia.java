@@ -8,6 +8,8 @@ public class CartMedia {
     private Media media;
     private int quantity;
     private int price;
+    private Cart cart;
+    private int availableQuantity = -1;
 
     public CartMedia(){
 
@@ -24,6 +26,8 @@ public class CartMedia {
     }
 
     public void setMedia(Media media) {
+        // the cart indexes its lines by media id
+        if (cart != null) throw new IllegalStateException("Cannot change the media of a line in a cart");
         this.media = media;
     }
 
@@ -32,7 +36,9 @@ public class CartMedia {
     }
 
     public void setQuantity(int quantity) {
+        int oldQuantity = this.quantity;
         this.quantity = quantity;
+        if (cart != null) cart.lineChanged(this, oldQuantity, price);
     }
 
     public int getPrice() {
@@ -40,7 +46,31 @@ public class CartMedia {
     }
 
     public void setPrice(int price) {
+        int oldPrice = this.price;
         this.price = price;
+        if (cart != null) cart.lineChanged(this, quantity, oldPrice);
+    }
+
+    /**
+     * @return the stock of the media found by the last availability check of the cart,
+     * or the stock loaded with the media if the cart was not checked yet
+     */
+    public int getAvailableQuantity() {
+        return availableQuantity < 0 ? media.getLoadedQuantity() : availableQuantity;
+    }
+
+    /**
+     * Set by the availability check of the cart, the media itself is left untouched
+     */
+    void setAvailableQuantity(int availableQuantity) {
+        this.availableQuantity = availableQuantity;
+    }
+
+    /**
+     * Set by the cart when the line is added to it, so that changes of the line update its totals
+     */
+    void setCart(Cart cart) {
+        this.cart = cart;
     }
 
     @Override
@@ -0,0 +1,399 @@
+package isd.aims.main.entity.cart;
+
+import isd.aims.main.entity.media.StockReservations;
+import isd.aims.main.listener.CartChangeListener;
+import isd.aims.main.utils.Configs;
+import isd.aims.main.utils.Utils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * The carts of every shopping session served by this process, keyed by session id, so that one
+ * JVM can back many kiosks or a web front end. A cart is created on first use; carts untouched for
+ * {@link Configs#CART_IDLE_TIMEOUT} ms are dropped by a background sweep, and when the store holds
+ * {@link Configs#CART_STORE_MAX_CARTS} carts, or {@link Configs#CART_STORE_MAX_LINES} lines over all its carts,
+ * the least recently used carts make room. The sessions are kept in the order of their last use under
+ * one lock, so a lookup, its touch and an eviction are O(1) and never interleave.
+ * A cart may be used by several threads, its methods are synchronized.
+ * With a {@link CartJournal} attached the carts survive a restart of the application; the
+ * application wide store also keeps the {@link StockReservations} in step with its carts,
+ * see {@link #setReservations}.
+ * @author nguyenlm
+ */
+public class CartStore {
+
+    private static Logger LOGGER = Utils.getLogger(CartStore.class.getName());
+    private static CartStore instance;
+
+    private final int maxCarts;
+    private final int maxLines;
+    private final long idleTimeoutNanos;
+    private final LongSupplier clock;
+    // least recently used first, a touch moves the session to the end; guarded by itself
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>();
+    private int lines; // guarded by sessions
+    private ScheduledExecutorService sweeper;
+    private volatile CartJournal journal;
+    private volatile StockReservations reservations;
+    private final List<CartChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public static synchronized CartStore getInstance() {
+        if (instance == null) {
+            instance = new CartStore(Configs.CART_STORE_MAX_CARTS, Configs.CART_STORE_MAX_LINES, Configs.CART_IDLE_TIMEOUT,
+                    System::nanoTime);
+            if (!Configs.CART_JOURNAL_PATH.isEmpty()) {
+                CartJournal journal = new CartJournal(Paths.get(Configs.CART_JOURNAL_PATH), Configs.CART_SNAPSHOT_EVERY,
+                        Configs.CART_JOURNAL_SYNC_INTERVAL);
+                try {
+                    instance.attach(journal);
+                    journal.start();
+                } catch (IOException e) {
+                    LOGGER.warning("Cannot restore the carts from " + Configs.CART_JOURNAL_PATH + ", they are kept in memory only: "
+                            + e.getMessage());
+                }
+            }
+            // after the journal, so that the restored carts hold their stock too
+            instance.setReservations(StockReservations.getInstance());
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the sweep of the application wide store if it was started and closes its journal,
+     * called when the application stops
+     */
+    public static synchronized void shutdown() {
+        if (instance == null) return;
+        instance.stop();
+        CartJournal journal = instance.journal;
+        if (journal != null) journal.close();
+    }
+
+    /**
+     * @param maxCarts    the maximum number of carts kept
+     * @param idleTimeout how long an untouched cart is kept, in ms
+     * @param clock       nanosecond time source
+     */
+    CartStore(int maxCarts, long idleTimeout, LongSupplier clock) {
+        this(maxCarts, Integer.MAX_VALUE, idleTimeout, clock);
+    }
+
+    /**
+     * @param maxCarts    the maximum number of carts kept
+     * @param maxLines    the maximum number of lines over all the carts kept
+     * @param idleTimeout how long an untouched cart is kept, in ms
+     * @param clock       nanosecond time source
+     */
+    CartStore(int maxCarts, int maxLines, long idleTimeout, LongSupplier clock) {
+        if (maxCarts < 1) throw new IllegalArgumentException("maxCarts must be at least 1");
+        if (maxLines < 1) throw new IllegalArgumentException("maxLines must be at least 1");
+        this.maxCarts = maxCarts;
+        this.maxLines = maxLines;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.clock = clock;
+    }
+
+    /**
+     * Puts back the carts kept by the journal, then logs every change of the carts to it
+     * @param journal a journal not restored yet, attached before any cart is used
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized void attach(CartJournal journal) throws IOException {
+        if (this.journal != null) throw new IllegalStateException("A journal is already attached");
+        synchronized (sessions) {
+            if (!sessions.isEmpty()) throw new IllegalStateException("The journal must be attached before the first cart is used");
+        }
+        Map<String, List<CartMedia>> restored = journal.restore();
+        long now = clock.getAsLong();
+        synchronized (sessions) {
+            for (Map.Entry<String, List<CartMedia>> entry : restored.entrySet()) {
+                Cart cart = new Cart(entry.getKey());
+                // added before the listeners, the restored lines are not logged again
+                for (CartMedia line : entry.getValue()) cart.addCartMedia(line);
+                Session session = new Session(cart, now, entry.getValue().size());
+                cart.addListener(session);
+                cart.addListener(journal);
+                sessions.put(entry.getKey(), session);
+                lines += session.lines;
+            }
+            this.journal = journal;
+        }
+    }
+
+    /**
+     * Keeps the stock holds in step with the carts: the lines of the carts already held, eg: restored
+     * from the journal, are held at once, the holds then follow every change of the lines and the
+     * holds of a session are released when its cart is dropped
+     * @param reservations
+     */
+    public CartStore setReservations(StockReservations reservations) {
+        this.reservations = reservations;
+        for (Cart cart : register(reservations)) {
+            for (CartMedia line : cart.getListMedia()) reservations.onLineAdded(cart, line);
+        }
+        return this;
+    }
+
+    /**
+     * Registers a listener on every cart of the store, the carts already held and the ones to come
+     */
+    public void addCartListener(CartChangeListener listener) {
+        register(listener);
+    }
+
+    /**
+     * @return the carts already held, the listener was added to them
+     */
+    private List<Cart> register(CartChangeListener listener) {
+        List<Cart> held = new ArrayList<>();
+        synchronized (sessions) {
+            listeners.add(listener);
+            for (Session session : sessions.values()) {
+                session.cart.addListener(listener);
+                held.add(session.cart);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * @param sessionId
+     * @return the cart of the session, a new empty one if it has none
+     */
+    public Cart getCart(String sessionId) {
+        if (sessionId == null) throw new IllegalArgumentException("sessionId is null");
+        Session session;
+        List<String> evicted;
+        synchronized (sessions) {
+            long now = clock.getAsLong();
+            // taken out and put back at the end, the most recently used
+            session = sessions.remove(sessionId);
+            if (session == null) {
+                created.incrementAndGet();
+                Cart cart = new Cart(sessionId);
+                session = new Session(cart, now, 0);
+                cart.addListener(session);
+                CartJournal attached = journal;
+                if (attached != null) cart.addListener(attached);
+                for (CartChangeListener listener : listeners) cart.addListener(listener);
+            }
+            session.lastAccess = now;
+            sessions.put(sessionId, session);
+            evicted = evictLeastRecentlyUsed(sessionId);
+        }
+        evicted(evicted);
+        return session.cart;
+    }
+
+    /**
+     * @param sessionId
+     * @return the cart of the session, or null if it has none; the cart is not touched
+     */
+    public Cart peekCart(String sessionId) {
+        synchronized (sessions) {
+            Session session = sessions.get(sessionId);
+            return session == null ? null : session.cart;
+        }
+    }
+
+    /**
+     * Drops the cart of a session, eg: when the shopper logs out
+     * @param sessionId
+     * @return the dropped cart, or null if the session had none
+     */
+    public Cart removeCart(String sessionId) {
+        Session session;
+        synchronized (sessions) {
+            session = sessions.remove(sessionId);
+            if (session == null) return null;
+            lines -= session.lines;
+        }
+        dropped(sessionId);
+        return session.cart;
+    }
+
+    /**
+     * @return the number of carts held
+     */
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * @return the number of lines over all the carts held
+     */
+    public int getLineCount() {
+        synchronized (sessions) {
+            return lines;
+        }
+    }
+
+    /**
+     * Drops the carts untouched for longer than the idle timeout, from the least recently used
+     * up to the first cart still in use
+     * @return the number of carts dropped
+     */
+    public int evictIdle() {
+        List<String> expired = new ArrayList<>();
+        synchronized (sessions) {
+            long now = clock.getAsLong();
+            Iterator<Map.Entry<String, Session>> eldest = sessions.entrySet().iterator();
+            while (eldest.hasNext()) {
+                Map.Entry<String, Session> entry = eldest.next();
+                if (now - entry.getValue().lastAccess <= idleTimeoutNanos) break;
+                eldest.remove();
+                lines -= entry.getValue().lines;
+                expired.add(entry.getKey());
+            }
+        }
+        for (String sessionId : expired) dropped(sessionId);
+        expirations.addAndGet(expired.size());
+        return expired.size();
+    }
+
+    /**
+     * Drops the least recently used carts while the store is over one of its caps; guarded by sessions
+     * @param keep the session just used, never dropped
+     * @return the sessions dropped
+     */
+    private List<String> evictLeastRecentlyUsed(String keep) {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Session>> eldest = sessions.entrySet().iterator();
+        while ((sessions.size() > maxCarts || lines > maxLines) && eldest.hasNext()) {
+            Map.Entry<String, Session> entry = eldest.next();
+            if (entry.getKey().equals(keep)) continue;
+            eldest.remove();
+            lines -= entry.getValue().lines;
+            evicted.add(entry.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * Tells the journal and the holds of the carts evicted, out of the lock of the sessions
+     */
+    private void evicted(List<String> sessionIds) {
+        for (String sessionId : sessionIds) {
+            dropped(sessionId);
+            evictions.incrementAndGet();
+            LOGGER.info("Cart store full, dropped the cart of session " + sessionId);
+        }
+    }
+
+    private void dropped(String sessionId) {
+        CartJournal attached = journal;
+        if (attached != null) attached.cartDropped(sessionId);
+        StockReservations held = reservations;
+        if (held != null) held.releaseSession(sessionId);
+    }
+
+    /**
+     * Starts the background sweep of the idle carts
+     */
+    public synchronized void start() {
+        if (sweeper != null) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "aims-cart-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 4, 1000);
+        sweeper.scheduleWithFixedDelay(() -> {
+            int count = evictIdle();
+            if (count > 0) LOGGER.info("Dropped " + count + " idle carts");
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (sweeper == null) return;
+        sweeper.shutdownNow();
+        sweeper = null;
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of carts dropped to stay under the cap
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of carts dropped after the idle timeout
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * A cart held by the store, it follows the number of lines of its cart for the cap on the lines
+     */
+    private class Session implements CartChangeListener {
+        private final Cart cart;
+        private long lastAccess; // guarded by sessions
+        private int lines; // guarded by sessions
+
+        Session(Cart cart, long lastAccess, int lines) {
+            this.cart = cart;
+            this.lastAccess = lastAccess;
+            this.lines = lines;
+        }
+
+        @Override
+        public void onLineAdded(Cart cart, CartMedia line) {
+            resized(cart.getLineCount());
+        }
+
+        @Override
+        public void onLineRemoved(Cart cart, CartMedia line) {
+            resized(cart.getLineCount());
+        }
+
+        @Override
+        public void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice) {
+        }
+
+        @Override
+        public void onCartEmptied(Cart cart) {
+            resized(0);
+        }
+
+        /**
+         * Called with the cart locked, the other carts evicted are not called back
+         */
+        private void resized(int count) {
+            List<String> evicted;
+            synchronized (sessions) {
+                // a cart already dropped no longer counts
+                if (sessions.get(cart.getSessionId()) != this) return;
+                CartStore.this.lines += count - lines;
+                lines = count;
+                evicted = evictLeastRecentlyUsed(cart.getSessionId());
+            }
+            evicted(evicted);
+        }
+    }
+}
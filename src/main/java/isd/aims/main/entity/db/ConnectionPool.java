@@ -0,0 +1,493 @@
+package isd.aims.main.entity.db;
+
+import isd.aims.main.utils.Utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of SQLite connections: several reader connections and one
+ * writer connection which is handed out to a single caller at a time.
+ * Reader connections are opened read-only and with query_only, so a write sent to
+ * a reader fails at once instead of taking the database lock behind the writer's back.
+ * Every connection returned by this class is a lease, closing it gives the
+ * physical connection back to the pool.
+ * @author nguyenlm
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static Logger LOGGER = Utils.getLogger(ConnectionPool.class.getName());
+
+    /**
+     * SQLITE_OPEN_READONLY, the open flags of the driver
+     */
+    private static final String READ_ONLY_OPEN_MODE = "1";
+
+    private final String url;
+    private final int maxReaders;
+    private final List<String> pragmas = new ArrayList<>();
+    private long checkoutTimeoutMillis = 30_000;
+    private long leakThresholdMillis = 0;
+    private int statementCacheSize = 64;
+    private boolean readOnlyReaders = true;
+
+    private final Semaphore readerPermits;
+    private final Semaphore writerPermit = new Semaphore(1, true);
+    private final ConcurrentLinkedDeque<Connection> idleReaders = new ConcurrentLinkedDeque<>();
+    private volatile Connection writer;
+    private final Map<Connection, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService leakDetector;
+    private volatile boolean closed;
+
+    // metrics
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    /**
+     * @param url        the JDBC url of the database, eg: jdbc:sqlite:aims.db
+     * @param maxReaders the maximum number of reader connections
+     */
+    public ConnectionPool(String url, int maxReaders) {
+        if (maxReaders < 1) throw new IllegalArgumentException("maxReaders must be at least 1");
+        this.url = url;
+        this.maxReaders = maxReaders;
+        this.readerPermits = new Semaphore(maxReaders, true);
+    }
+
+    /**
+     * Adds a PRAGMA (without the PRAGMA keyword, eg: "busy_timeout = 5000")
+     * which is run on every new physical connection
+     */
+    public ConnectionPool addPragma(String pragma) {
+        this.pragmas.add(pragma);
+        return this;
+    }
+
+    public ConnectionPool setCheckoutTimeout(long millis) {
+        this.checkoutTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * A lease held longer than this threshold is logged with the stack trace of the caller who took it,
+     * 0, the default, disables the leak detection: it captures a stack trace on every checkout
+     */
+    public ConnectionPool setLeakThreshold(long millis) {
+        this.leakThresholdMillis = millis;
+        return this;
+    }
+
+    /**
+     * Number of prepared statements kept per physical connection, 0 disables the statement cache
+     */
+    public ConnectionPool setStatementCacheSize(int size) {
+        this.statementCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Whether reader connections are opened read-only (mode=ro and PRAGMA query_only), true by default
+     */
+    public ConnectionPool setReadOnlyReaders(boolean readOnlyReaders) {
+        this.readOnlyReaders = readOnlyReaders;
+        return this;
+    }
+
+    public boolean isReadOnlyReaders() {
+        return readOnlyReaders;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    /**
+     * Borrows a reader connection, the caller must close it to give it back
+     * @return Connection
+     * @throws SQLException if no connection could be borrowed within the checkout timeout
+     */
+    public Connection getConnection() throws SQLException {
+        long waited = acquire(readerPermits);
+        Connection physical = idleReaders.pollFirst();
+        try {
+            if (physical == null || physical.isClosed()) {
+                if (physical != null) statementCaches.remove(physical);
+                if (readOnlyReaders && writer == null) {
+                    // a read-only connection cannot switch the database to WAL, the writer does it first
+                    getWriteConnection().close();
+                }
+                physical = open(false);
+            }
+        } catch (SQLException e) {
+            readerPermits.release();
+            throw e;
+        }
+        return lease(physical, false, waited);
+    }
+
+    /**
+     * Borrows the single writer connection, callers are serialized until the lease is closed
+     * @return Connection
+     * @throws SQLException if the writer could not be borrowed within the checkout timeout
+     */
+    public Connection getWriteConnection() throws SQLException {
+        long waited = acquire(writerPermit);
+        try {
+            if (writer == null || writer.isClosed()) {
+                if (writer != null) statementCaches.remove(writer);
+                writer = open(true);
+            }
+        } catch (SQLException e) {
+            writerPermit.release();
+            throw e;
+        }
+        return lease(writer, true, waited);
+    }
+
+    /**
+     * @return the time spent waiting for the permit, in nanoseconds
+     */
+    private long acquire(Semaphore permits) throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + checkoutTimeoutMillis + "ms waiting for a connection, " + getStats());
+            }
+            return System.nanoTime() - start;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    private Connection open(boolean write) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite driver not found", e);
+        }
+        boolean readOnly = !write && readOnlyReaders;
+        Properties properties = new Properties();
+        if (readOnly) properties.setProperty("open_mode", READ_ONLY_OPEN_MODE);
+        Connection connection = DriverManager.getConnection(url, properties);
+        try (Statement stm = connection.createStatement()) {
+            for (String pragma : pragmas) {
+                // the journal mode is stored in the database, it is set by the writer
+                if (readOnly && pragma.trim().startsWith("journal_mode")) continue;
+                stm.execute("PRAGMA " + pragma);
+            }
+            if (readOnly) stm.execute("PRAGMA query_only = ON");
+        }
+        created.incrementAndGet();
+        if (statementCacheSize > 0) {
+            statementCaches.put(connection, new StatementCache(connection, statementCacheSize, statementHits, statementMisses));
+        }
+        LOGGER.info("Connect database successfully");
+        return connection;
+    }
+
+    private Connection lease(Connection physical, boolean write, long waited) {
+        checkouts.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        Lease lease = new Lease(physical, write, leakThresholdMillis > 0 ? new Throwable("Connection leased here") : null);
+        Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, lease);
+        leases.put(proxy, lease);
+        if (leakThresholdMillis > 0 && leakDetector == null) startLeakDetector();
+        return proxy;
+    }
+
+    private void release(Connection proxy, Lease lease) {
+        leases.remove(proxy);
+        Connection physical = lease.physical;
+        StatementCache cache = statementCaches.get(physical);
+        if (cache != null) cache.releaseAll();
+        try {
+            if (!physical.isClosed() && !physical.getAutoCommit()) {
+                // never hand out a connection with a half done transaction
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOGGER.warning("Cannot reset connection, discarding it: " + e.getMessage());
+            closeQuietly(physical);
+        }
+        if (lease.write) {
+            if (closed) {
+                closeQuietly(physical);
+                writer = null;
+            }
+            writerPermit.release();
+        } else {
+            if (closed) closeQuietly(physical);
+            else idleReaders.offerFirst(physical);
+            readerPermits.release();
+        }
+    }
+
+    private synchronized void startLeakDetector() {
+        if (leakDetector != null || closed) return;
+        leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "aims-db-leak-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(leakThresholdMillis / 2, 100);
+        leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            if (!lease.reported && now - lease.leasedAt > leakThresholdMillis) {
+                lease.reported = true;
+                leaks.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Possible connection leak, held for " + (now - lease.leasedAt) + "ms by "
+                        + lease.thread, lease.origin);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the pool metrics
+     */
+    public PoolStats getStats() {
+        int activeReaders = 0;
+        int activeWriters = 0;
+        for (Lease lease : leases.values()) {
+            if (lease.write) activeWriters++;
+            else activeReaders++;
+        }
+        long count = checkouts.get();
+        return new PoolStats(activeReaders, idleReaders.size(), activeWriters,
+                readerPermits.getQueueLength() + writerPermit.getQueueLength(), count,
+                count == 0 ? 0 : waitNanos.get() / count, maxWaitNanos.get(), timeouts.get(), leaks.get(), created.get(),
+                statementHits.get(), statementMisses.get());
+    }
+
+    /**
+     * Closes every idle connection; leased connections are closed as soon as they are given back
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (leakDetector != null) leakDetector.shutdownNow();
+        Connection physical;
+        while ((physical = idleReaders.pollFirst()) != null) closeQuietly(physical);
+        if (writer != null && writerPermit.tryAcquire()) {
+            closeQuietly(writer);
+            writer = null;
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        StatementCache cache = statementCaches.remove(connection);
+        if (cache != null) cache.close();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.warning("Cannot close connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The invocation handler behind a leased connection
+     */
+    private class Lease implements InvocationHandler {
+
+        private final Connection physical;
+        private final boolean write;
+        private final Throwable origin;
+        private final String thread = Thread.currentThread().getName();
+        private final long leasedAt = System.currentTimeMillis();
+        private volatile boolean released;
+        private volatile boolean reported;
+
+        Lease(Connection physical, boolean write, Throwable origin) {
+            this.physical = physical;
+            this.write = write;
+            this.origin = origin;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!released) {
+                            released = true;
+                            release((Connection) proxy, this);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return released || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + (write ? "Writer" : "Reader") + "[" + physical + "]";
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "prepareStatement":
+                    StatementCache cache = statementCaches.get(physical);
+                    if (!released && cache != null && args.length == 1) return cache.prepare((String) args[0]);
+                    break;
+                default:
+                    break;
+            }
+            if (released) throw new SQLException("Connection has already been returned to the pool");
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of the pool metrics
+     */
+    public static class PoolStats {
+
+        private final int activeReaders;
+        private final int idleReaders;
+        private final int activeWriters;
+        private final int waiting;
+        private final long checkouts;
+        private final long avgWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeouts;
+        private final long leaks;
+        private final long created;
+        private final long statementHits;
+        private final long statementMisses;
+
+        PoolStats(int activeReaders, int idleReaders, int activeWriters, int waiting, long checkouts,
+                  long avgWaitNanos, long maxWaitNanos, long timeouts, long leaks, long created,
+                  long statementHits, long statementMisses) {
+            this.activeReaders = activeReaders;
+            this.idleReaders = idleReaders;
+            this.activeWriters = activeWriters;
+            this.waiting = waiting;
+            this.checkouts = checkouts;
+            this.avgWaitNanos = avgWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.leaks = leaks;
+            this.created = created;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        public int getActive() {
+            return activeReaders + activeWriters;
+        }
+
+        public int getActiveReaders() {
+            return activeReaders;
+        }
+
+        public int getIdleReaders() {
+            return idleReaders;
+        }
+
+        public int getActiveWriters() {
+            return activeWriters;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getCheckouts() {
+            return checkouts;
+        }
+
+        public long getAvgWaitNanos() {
+            return avgWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getLeaks() {
+            return leaks;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getStatementHits() {
+            return statementHits;
+        }
+
+        public long getStatementMisses() {
+            return statementMisses;
+        }
+
+        public double getStatementHitRatio() {
+            long total = statementHits + statementMisses;
+            return total == 0 ? 0 : (double) statementHits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                " active='" + getActive() + "'" +
+                ", idleReaders='" + idleReaders + "'" +
+                ", waiting='" + waiting + "'" +
+                ", checkouts='" + checkouts + "'" +
+                ", avgWaitMicros='" + avgWaitNanos / 1000 + "'" +
+                ", maxWaitMicros='" + maxWaitNanos / 1000 + "'" +
+                ", timeouts='" + timeouts + "'" +
+                ", leaks='" + leaks + "'" +
+                ", created='" + created + "'" +
+                ", statementHits='" + statementHits + "'" +
+                ", statementMisses='" + statementMisses + "'" +
+                "}";
+        }
+    }
+}
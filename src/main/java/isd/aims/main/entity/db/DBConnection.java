@@ -1,32 +1,72 @@
 package isd.aims.main.entity.db;
 
-import java.sql.DriverManager;
-import java.util.logging.Logger;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+import isd.aims.main.utils.Configs;
 import isd.aims.main.utils.Utils;
 
+/**
+ * Entry point of the data layer, it owns the application wide {@link ConnectionPool}.
+ * Connections returned here are leases and must be closed (try-with-resources) after use.
+ * The schema migrations are applied when the pool is created.
+ */
 public class DBConnection {
 
 	private static Logger LOGGER = Utils.getLogger(Connection.class.getName());
-	private static Connection connect;
-
-    public static Connection getConnection() {
-        if (connect != null) return connect;
-
-        try {
-			Class.forName("org.sqlite.JDBC");
-            String connectionString = "jdbc:sqlite:src/main/resources/isd/aims/main/assets/db/aims.db";
-            connect = DriverManager.getConnection(connectionString);
-            LOGGER.info("Connect database successfully");
-            return connect;
-        } catch (Exception e) {
-            LOGGER.info(e.getMessage());
-            return connect;
-        }
-    }
-
-
-    public static void main(String[] args) {
-        DBConnection.getConnection();
-    }
+	private static ConnectionPool pool;
+
+	public static synchronized ConnectionPool getPool() {
+		if (pool == null) {
+			StorageProfile profile = StorageProfile.load(Configs.DB_STORAGE_PROFILE);
+			ConnectionPool created = profile.applyTo(new ConnectionPool("jdbc:sqlite:" + Configs.DB_PATH, Configs.DB_POOL_SIZE))
+					.setCheckoutTimeout(Configs.DB_CHECKOUT_TIMEOUT)
+					.setLeakThreshold(Configs.DB_LEAK_THRESHOLD);
+			// the pool is published only once the schema is up to date, a failed migration is retried on the next call
+			try {
+				new MigrationRunner().migrate(created);
+			} catch (SQLException e) {
+				created.close();
+				throw new IllegalStateException("Cannot migrate " + Configs.DB_PATH, e);
+			}
+			pool = created;
+			LOGGER.info("Database pool created for " + Configs.DB_PATH + " with storage profile " + profile);
+		}
+		return pool;
+	}
+
+	/**
+	 * Replaces the application wide pool, the previous one is closed
+	 * @param newPool
+	 */
+	public static synchronized void setPool(ConnectionPool newPool) {
+		if (pool != null && pool != newPool) pool.close();
+		pool = newPool;
+	}
+
+	/**
+	 * Borrows a reader connection from the pool, it is read-only: queries only, several at once
+	 * @return Connection
+	 * @throws SQLException
+	 */
+	public static Connection getConnection() throws SQLException {
+		return getPool().getConnection();
+	}
+
+	/**
+	 * Borrows the writer connection from the pool, every mutation goes through it and writers are serialized
+	 * @return Connection
+	 * @throws SQLException
+	 */
+	public static Connection getWriteConnection() throws SQLException {
+		return getPool().getWriteConnection();
+	}
+
+	public static void main(String[] args) throws SQLException {
+		try (Connection connection = DBConnection.getConnection()) {
+			LOGGER.info("Connected to " + connection.getMetaData().getURL());
+		}
+		LOGGER.info("Pool stats: " + getPool().getStats());
+	}
 }
@@ -0,0 +1,186 @@
+package isd.aims.main.entity.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import isd.aims.main.utils.Utils;
+
+/**
+ * Brings the schema of a database up to date with the numbered SQL migrations
+ * listed in {@value #INDEX}. Every migration runs in its own transaction on the
+ * writer connection together with its row in the {@value #VERSION_TABLE} table,
+ * so a database is always at a well defined version and running it again is a no-op.
+ * @author nguyenlm
+ */
+public class MigrationRunner {
+
+    private static Logger LOGGER = Utils.getLogger(MigrationRunner.class.getName());
+
+    public static final String LOCATION = "/isd/aims/main/assets/db/migrations/";
+    public static final String INDEX = LOCATION + "migrations.txt";
+    public static final String VERSION_TABLE = "schema_version";
+
+    private static final Pattern NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+    private final List<Migration> migrations;
+
+    /**
+     * Uses the migrations bundled with the application
+     */
+    public MigrationRunner() {
+        this(loadIndex());
+    }
+
+    MigrationRunner(List<Migration> migrations) {
+        List<Migration> sorted = new ArrayList<>(migrations);
+        sorted.sort((a, b) -> Integer.compare(a.getVersion(), b.getVersion()));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).getVersion() == sorted.get(i - 1).getVersion()) {
+                throw new IllegalStateException("Duplicate migration version " + sorted.get(i).getVersion());
+            }
+        }
+        this.migrations = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Applies the migrations newer than the current version of the database
+     * @param pool
+     * @return the number of migrations applied
+     * @throws SQLException if a migration fails, the database stays at the last version applied
+     */
+    public int migrate(ConnectionPool pool) throws SQLException {
+        int applied = 0;
+        try (Connection connection = pool.getWriteConnection()) {
+            try (Statement stm = connection.createStatement()) {
+                stm.executeUpdate("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + "("
+                        + "version INTEGER PRIMARY KEY NOT NULL, "
+                        + "description VARCHAR(100) NOT NULL, "
+                        + "appliedAt DATETIME NOT NULL)");
+            }
+            int current = getVersion(connection);
+            for (Migration migration : migrations) {
+                if (migration.getVersion() <= current) continue;
+                apply(connection, migration);
+                applied++;
+            }
+        }
+        if (applied > 0) LOGGER.info("Applied " + applied + " migration(s), schema at version " + getLatestVersion());
+        return applied;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement stm = connection.createStatement();
+             PreparedStatement version = connection.prepareStatement(
+                     "INSERT INTO " + VERSION_TABLE + "(version, description, appliedAt) VALUES (?, ?, ?)")) {
+            // the driver runs every statement of the script
+            stm.executeUpdate(migration.getSql());
+            version.setInt(1, migration.getVersion());
+            version.setString(2, migration.getDescription());
+            version.setLong(3, System.currentTimeMillis());
+            version.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new SQLException("Migration " + migration + " failed: " + e.getMessage(), e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        LOGGER.info("Applied migration " + migration);
+    }
+
+    /**
+     * @param connection
+     * @return the version of the last migration applied to the database, 0 if none
+     * @throws SQLException
+     */
+    public static int getVersion(Connection connection) throws SQLException {
+        try (Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery("SELECT COALESCE(MAX(version), 0) FROM " + VERSION_TABLE)) {
+            return res.next() ? res.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * @return the version a database is at once migrated
+     */
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+
+    public List<Migration> getMigrations() {
+        return migrations;
+    }
+
+    private static List<Migration> loadIndex() {
+        List<Migration> migrations = new ArrayList<>();
+        for (String line : readLines(INDEX)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            Matcher matcher = NAME.matcher(line);
+            if (!matcher.matches()) throw new IllegalStateException("Invalid migration name '" + line + "' in " + INDEX);
+            String sql = String.join("\n", readLines(LOCATION + line));
+            migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2), sql));
+        }
+        return migrations;
+    }
+
+    private static List<String> readLines(String resource) {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = MigrationRunner.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalStateException("Missing resource " + resource);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + resource, e);
+        }
+        return lines;
+    }
+
+    /**
+     * One numbered SQL script
+     */
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final String sql;
+
+        public Migration(int version, String description, String sql) {
+            this.version = version;
+            this.description = description;
+            this.sql = sql;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        @Override
+        public String toString() {
+            return "V" + version + " " + description;
+        }
+    }
+}
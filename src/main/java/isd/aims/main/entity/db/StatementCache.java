@@ -0,0 +1,179 @@
+package isd.aims.main.entity.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of {@link PreparedStatement} keyed by SQL text, one per physical connection.
+ * Closing a statement handed out by this cache only clears its parameters, the
+ * physical statement stays prepared until it is evicted or the connection is closed;
+ * a physical statement found closed is prepared again.
+ * @author nguyenlm
+ */
+public class StatementCache {
+
+    private final Connection physical;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final LinkedHashMap<String, Entry> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param physical the connection the statements are prepared on
+     * @param maxSize  the maximum number of statements kept prepared
+     * @param hits     counter shared by every cache of the pool
+     * @param misses   counter shared by every cache of the pool
+     */
+    StatementCache(Connection physical, int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    /**
+     * Returns the cached statement for this SQL text, preparing it on a miss.
+     * If the cached statement is still open by the caller a fresh, uncached statement is returned.
+     * @param sql
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        Entry entry = statements.get(sql);
+        if (entry != null && !entry.inUse && entry.statement.isClosed()) {
+            // closed behind the cache's back (eg: through unwrap), prepare it again
+            statements.remove(sql);
+            entry = null;
+        }
+        if (entry != null && !entry.inUse) {
+            hits.incrementAndGet();
+            entry.inUse = true;
+            return entry.proxy;
+        }
+        misses.incrementAndGet();
+        if (entry != null) {
+            // same SQL already open in this lease (eg: nested loop), do not share it
+            return physical.prepareStatement(sql);
+        }
+        entry = new Entry(sql, physical.prepareStatement(sql));
+        entry.inUse = true;
+        statements.put(sql, entry);
+        evict();
+        return entry.proxy;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = statements.entrySet().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest.inUse) continue;
+            it.remove();
+            eldest.closePhysical();
+        }
+    }
+
+    /**
+     * Gives back every statement the caller forgot to close, called when the lease is returned
+     */
+    void releaseAll() {
+        Entry[] entries;
+        synchronized (this) {
+            entries = statements.values().toArray(new Entry[0]);
+        }
+        for (Entry entry : entries) {
+            try {
+                entry.release();
+            } catch (SQLException e) {
+                synchronized (this) {
+                    statements.remove(entry.sql);
+                }
+                entry.closePhysical();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes every prepared statement, called when the physical connection is closed
+     */
+    synchronized void close() {
+        for (Entry entry : statements.values()) entry.closePhysical();
+        statements.clear();
+    }
+
+    private class Entry implements InvocationHandler {
+
+        private final String sql;
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+        private ResultSet lastResultSet;
+
+        Entry(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    synchronized (StatementCache.this) {
+                        return !inUse || statement.isClosed();
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                Object result = method.invoke(statement, args);
+                if (result instanceof ResultSet) lastResultSet = (ResultSet) result;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() throws SQLException {
+            synchronized (StatementCache.this) {
+                if (!inUse) return;
+                inUse = false;
+            }
+            if (statement.isClosed()) return;
+            // an unconsumed result set keeps the SQLite statement (and its read lock) active
+            if (lastResultSet != null && !lastResultSet.isClosed()) lastResultSet.close();
+            lastResultSet = null;
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        private void closePhysical() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is going away anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package isd.aims.main.entity.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A named set of SQLite pragmas (journal_mode, synchronous, cache_size, mmap_size,
+ * temp_store, busy_timeout) read from {@value #RESOURCE} and applied on every connection of a pool.
+ * @author nguyenlm
+ */
+public class StorageProfile {
+
+    public static final String RESOURCE = "/isd/aims/main/assets/db/storage-profiles.properties";
+
+    /**
+     * The pragmas a profile may set, in the order they are applied:
+     * busy_timeout comes first so that switching the journal mode waits for other connections
+     */
+    public static final String[] PRAGMAS = { "busy_timeout", "journal_mode", "synchronous", "cache_size", "mmap_size", "temp_store" };
+
+    private static final Pattern VALUE = Pattern.compile("-?[A-Za-z0-9_]+");
+
+    private final String name;
+    private final Map<String, String> pragmas;
+
+    private StorageProfile(String name, Map<String, String> pragmas) {
+        this.name = name;
+        this.pragmas = Collections.unmodifiableMap(pragmas);
+    }
+
+    /**
+     * @param name kiosk, server, bulk-import or any other profile of {@value #RESOURCE}
+     * @return StorageProfile
+     * @throws IllegalArgumentException if the profile does not exist or sets an invalid value
+     */
+    public static StorageProfile load(String name) {
+        return load(name, loadProperties());
+    }
+
+    static StorageProfile load(String name, Properties properties) {
+        Map<String, String> pragmas = new LinkedHashMap<>();
+        for (String pragma : PRAGMAS) {
+            String value = properties.getProperty(name + "." + pragma);
+            if (value == null) continue;
+            value = value.trim();
+            // pragma values cannot be bound as parameters, only plain words and numbers are accepted
+            if (!VALUE.matcher(value).matches()) {
+                throw new IllegalArgumentException("Invalid value '" + value + "' for " + name + "." + pragma);
+            }
+            pragmas.put(pragma, value);
+        }
+        if (pragmas.isEmpty()) {
+            throw new IllegalArgumentException("Unknown storage profile '" + name + "', available: " + names(properties));
+        }
+        return new StorageProfile(name, pragmas);
+    }
+
+    /**
+     * @return the names of the profiles defined in {@value #RESOURCE}
+     */
+    public static Set<String> names() {
+        return names(loadProperties());
+    }
+
+    private static Set<String> names(Properties properties) {
+        Set<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if (dot > 0) names.add(key.substring(0, dot));
+        }
+        return names;
+    }
+
+    private static Properties loadProperties() {
+        Properties properties = new Properties();
+        try (InputStream in = StorageProfile.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) throw new IllegalStateException("Missing resource " + RESOURCE);
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + RESOURCE, e);
+        }
+        return properties;
+    }
+
+    /**
+     * Adds the pragmas of this profile to the pool, they are run on every new connection
+     * @param pool
+     * @return the same pool
+     */
+    public ConnectionPool applyTo(ConnectionPool pool) {
+        for (Map.Entry<String, String> pragma : pragmas.entrySet()) {
+            pool.addPragma(pragma.getKey() + " = " + pragma.getValue());
+        }
+        return pool;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getPragmas() {
+        return pragmas;
+    }
+
+    @Override
+    public String toString() {
+        return name + pragmas;
+    }
+}
@@ -0,0 +1,367 @@
+package isd.aims.main.entity.importer;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.db.StorageProfile;
+import isd.aims.main.utils.Configs;
+import isd.aims.main.utils.Utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Streams a CSV or JSON lines feed into the catalog. The calling thread reads the records
+ * in chunks of {@link Configs#IMPORT_CHUNK_SIZE}, a pool of workers parses and validates
+ * the chunks, and the calling thread writes each one, in feed order, in a single transaction
+ * with the ImportCheckpoint row of the source. An interrupted import run again with the same
+ * source resumes after the last chunk committed; an import run once more after it completed
+ * writes nothing. Invalid records are counted, reported and appended to the rejects file if any.
+ * The ids of the new media follow the largest id in use.
+ * @author nguyenlm
+ */
+public class CatalogImporter {
+
+    private static Logger LOGGER = Utils.getLogger(CatalogImporter.class.getName());
+
+    /**
+     * Number of rejections kept in the {@link ImportReport}, the rejects file gets all of them
+     */
+    public static final int MAX_REPORTED_REJECTIONS = 100;
+
+    static final String NEXT_ID = "SELECT MAX("
+            + "COALESCE((SELECT MAX(id) FROM Media), 0), COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'Media'), 0), "
+            + "COALESCE((SELECT MAX(id) FROM Book), 0), COALESCE((SELECT MAX(id) FROM CD), 0), "
+            + "COALESCE((SELECT MAX(id) FROM DVD), 0)) + 1";
+    static final String SAVE_CHECKPOINT = "INSERT INTO ImportCheckpoint(source, position, imported, rejected, updatedAt) "
+            + "VALUES (?, ?, ?, ?, ?) ON CONFLICT(source) DO UPDATE SET position = excluded.position, "
+            + "imported = excluded.imported, rejected = excluded.rejected, updatedAt = excluded.updatedAt";
+
+    private final ConnectionPool pool;
+    private int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int chunkSize = Configs.IMPORT_CHUNK_SIZE;
+    private long progressInterval = 100_000;
+    private Path rejectsFile;
+
+    /**
+     * @param pool the database to import into, a pool with the bulk-import {@link StorageProfile} writes fastest
+     */
+    public CatalogImporter(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Number of threads parsing the records, the reading and writing happen on the calling thread
+     */
+    public CatalogImporter setWorkers(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("workers must be at least 1");
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * Number of records parsed together and written in one transaction
+     */
+    public CatalogImporter setChunkSize(int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be at least 1");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * The progress is logged every time this many records were read
+     */
+    public CatalogImporter setProgressInterval(long records) {
+        this.progressInterval = records;
+        return this;
+    }
+
+    /**
+     * File the rejected records are appended to, one per line: record number, reason and the record, tab separated
+     */
+    public CatalogImporter setRejectsFile(Path rejectsFile) {
+        this.rejectsFile = rejectsFile;
+        return this;
+    }
+
+    /**
+     * Imports a .csv, .jsonl or .ndjson file, its absolute path names the checkpoint
+     * @param feed
+     * @return ImportReport
+     * @throws IOException
+     * @throws SQLException if a chunk could not be written, the chunks committed before are kept
+     */
+    public ImportReport importFile(Path feed) throws IOException, SQLException {
+        try (BufferedReader in = Files.newBufferedReader(feed, StandardCharsets.UTF_8)) {
+            return importFeed(feed.toAbsolutePath().normalize().toString(), FeedFormat.forPath(feed), in);
+        }
+    }
+
+    /**
+     * @param source names the feed, an import of the same source resumes where the last one stopped
+     * @param format
+     * @param reader the feed, it is not closed
+     * @return ImportReport
+     * @throws IOException
+     * @throws SQLException if a chunk could not be written, the chunks committed before are kept
+     */
+    public ImportReport importFeed(String source, FeedFormat format, Reader reader) throws IOException, SQLException {
+        long start = System.nanoTime();
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        FeedFormat.Feed feed = format.open(in);
+
+        Progress progress = new Progress(source, loadCheckpoint(source));
+        for (long i = 0; i < progress.resumedAt; i++) {
+            if (feed.next() == null) throw new IOException(source + " is shorter than its checkpoint, " + progress.resumedAt + " records");
+        }
+        if (progress.resumedAt > 0) LOGGER.info("Resuming the import of " + source + " after record " + progress.resumedAt);
+
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "aims-import-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the parsed chunks waiting to be written, in feed order; bounded so the reader cannot run far ahead
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        try (BufferedWriter rejects = openRejects()) {
+            long next = progress.resumedAt + 1;
+            List<String> records = new ArrayList<>(chunkSize);
+            String record;
+            while ((record = feed.next()) != null) {
+                records.add(record);
+                if (records.size() < chunkSize) continue;
+                pending.add(submit(parsers, feed, next, records));
+                next += records.size();
+                records = new ArrayList<>(chunkSize);
+                if (pending.size() > workers * 2) write(await(pending.poll()), progress, rejects);
+            }
+            if (!records.isEmpty()) pending.add(submit(parsers, feed, next, records));
+            while (!pending.isEmpty()) write(await(pending.poll()), progress, rejects);
+        } finally {
+            parsers.shutdownNow();
+        }
+
+        ImportReport report = new ImportReport(source, progress.resumedAt, progress.imported, progress.rejected,
+                progress.importedNow, System.nanoTime() - start, progress.rejections);
+        LOGGER.info("Import finished: " + report);
+        return report;
+    }
+
+    private Future<Chunk> submit(ExecutorService parsers, FeedFormat.Feed feed, long first, List<String> records) {
+        return parsers.submit(() -> Chunk.parse(feed, first, records));
+    }
+
+    private Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The import was interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot parse the feed", e.getCause());
+        }
+    }
+
+    private BufferedWriter openRejects() throws IOException {
+        if (rejectsFile == null) return null;
+        return Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the valid records of a chunk and moves the checkpoint past the chunk, in one transaction
+     */
+    private void write(Chunk chunk, Progress progress, BufferedWriter rejects) throws SQLException, IOException {
+        long position = chunk.first + chunk.size - 1;
+        long imported = progress.imported + chunk.records.size();
+        long rejected = progress.rejected + chunk.rejections.size();
+        try (Connection connection = pool.getWriteConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int id;
+                try (PreparedStatement stm = connection.prepareStatement(NEXT_ID); ResultSet res = stm.executeQuery()) {
+                    id = res.getInt(1);
+                }
+                // the subtype rows go first: the search trigger of the Media row then indexes the full record at once
+                Map<String, List<Integer>> byType = new LinkedHashMap<>();
+                for (int i = 0; i < chunk.records.size(); i++) {
+                    byType.computeIfAbsent(chunk.records.get(i).getType(), type -> new ArrayList<>()).add(i);
+                }
+                for (Map.Entry<String, List<Integer>> type : byType.entrySet()) {
+                    try (PreparedStatement stm = connection.prepareStatement(CatalogRecord.insertDetails(type.getKey()))) {
+                        for (int i : type.getValue()) {
+                            chunk.records.get(i).bindDetails(stm, id + i);
+                            stm.addBatch();
+                        }
+                        stm.executeBatch();
+                    }
+                }
+                try (PreparedStatement stm = connection.prepareStatement(CatalogRecord.INSERT_MEDIA)) {
+                    for (int i = 0; i < chunk.records.size(); i++) {
+                        chunk.records.get(i).bindMedia(stm, id + i);
+                        stm.addBatch();
+                    }
+                    stm.executeBatch();
+                }
+                try (PreparedStatement stm = connection.prepareStatement(SAVE_CHECKPOINT)) {
+                    stm.setString(1, progress.source);
+                    stm.setLong(2, position);
+                    stm.setLong(3, imported);
+                    stm.setLong(4, rejected);
+                    stm.setLong(5, System.currentTimeMillis());
+                    stm.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Cannot import records " + chunk.first + " to " + position + " of " + progress.source
+                        + ", the import can resume from record " + chunk.first + ": " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        long before = progress.position;
+        progress.position = position;
+        progress.imported = imported;
+        progress.rejected = rejected;
+        progress.importedNow += chunk.records.size();
+        for (ImportReport.Rejection rejection : chunk.rejections) {
+            if (progress.rejections.size() < MAX_REPORTED_REJECTIONS) progress.rejections.add(rejection);
+        }
+        if (rejects != null && !chunk.rejections.isEmpty()) {
+            for (int i = 0; i < chunk.rejections.size(); i++) {
+                ImportReport.Rejection rejection = chunk.rejections.get(i);
+                rejects.write(rejection.getRecord() + "\t" + rejection.getReason() + "\t"
+                        + chunk.rejectedRecords.get(i).replace("\n", "\\n"));
+                rejects.newLine();
+            }
+            rejects.flush();
+        }
+        if (progressInterval > 0 && before / progressInterval != position / progressInterval) {
+            double seconds = (System.nanoTime() - progress.startedAt) / 1e9;
+            LOGGER.info(String.format("%s: %d records read, %d imported, %d rejected, %.0f rows/s",
+                    progress.source, position, imported, rejected, progress.importedNow / seconds));
+        }
+    }
+
+    /**
+     * @return the position, imported and rejected counts saved for the source, zeros if there are none
+     */
+    private long[] loadCheckpoint(String source) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stm = connection.prepareStatement(
+                     "SELECT position, imported, rejected FROM ImportCheckpoint WHERE source = ?")) {
+            stm.setString(1, source);
+            try (ResultSet res = stm.executeQuery()) {
+                if (!res.next()) return new long[3];
+                return new long[] { res.getLong(1), res.getLong(2), res.getLong(3) };
+            }
+        }
+    }
+
+    /**
+     * Forgets the checkpoint of a source, its next import starts from the first record
+     * @param source
+     * @throws SQLException
+     */
+    public void clearCheckpoint(String source) throws SQLException {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stm = connection.prepareStatement("DELETE FROM ImportCheckpoint WHERE source = ?")) {
+            stm.setString(1, source);
+            stm.executeUpdate();
+        }
+    }
+
+    /**
+     * The records of one chunk once parsed: the valid ones and the rejected ones with their reason
+     */
+    private static class Chunk {
+        private final long first;
+        private final int size;
+        private final List<CatalogRecord> records;
+        private final List<ImportReport.Rejection> rejections = new ArrayList<>();
+        private final List<String> rejectedRecords = new ArrayList<>();
+
+        private Chunk(long first, int size) {
+            this.first = first;
+            this.size = size;
+            this.records = new ArrayList<>(size);
+        }
+
+        static Chunk parse(FeedFormat.Feed feed, long first, List<String> texts) {
+            Chunk chunk = new Chunk(first, texts.size());
+            for (int i = 0; i < texts.size(); i++) {
+                try {
+                    chunk.records.add(CatalogRecord.of(feed.parse(texts.get(i))));
+                } catch (IllegalArgumentException e) {
+                    chunk.rejections.add(new ImportReport.Rejection(first + i, e.getMessage()));
+                    chunk.rejectedRecords.add(texts.get(i));
+                }
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * The counts of the running import, only touched by the calling thread
+     */
+    private static class Progress {
+        private final String source;
+        private final long startedAt = System.nanoTime();
+        private final long resumedAt;
+        private long position;
+        private long imported;
+        private long rejected;
+        private long importedNow;
+        private final List<ImportReport.Rejection> rejections = new ArrayList<>();
+
+        private Progress(String source, long[] checkpoint) {
+            this.source = source;
+            this.resumedAt = checkpoint[0];
+            this.position = checkpoint[0];
+            this.imported = checkpoint[1];
+            this.rejected = checkpoint[2];
+        }
+    }
+
+    /**
+     * Imports a feed into the database of {@link Configs#DB_PATH} with the bulk-import storage profile
+     * @param args the feed, then optionally the rejects file
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CatalogImporter <feed.csv|feed.jsonl> [rejects.txt]");
+            System.exit(2);
+        }
+        try (ConnectionPool pool = StorageProfile.load("bulk-import").applyTo(new ConnectionPool("jdbc:sqlite:" + Configs.DB_PATH, 1))) {
+            new MigrationRunner().migrate(pool);
+            CatalogImporter importer = new CatalogImporter(pool);
+            if (args.length > 1) importer.setRejectsFile(Path.of(args[1]));
+            ImportReport report = importer.importFile(Path.of(args[0]));
+            System.out.println(report);
+            for (ImportReport.Rejection rejection : report.getRejections()) System.out.println("  " + rejection);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package isd.aims.main.entity.importer;
+
+import isd.aims.main.entity.media.MediaRepository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A validated record of a catalog feed: one Media row and the row of its Book, CD or DVD table.
+ * The fields are named after the columns:
+ * type, title, category, price, value, quantity and imageUrl (optional) for every media, then
+ * author, coverType, publisher, publishDate, numOfPages, language, bookCategory for a book,
+ * artist, recordLabel, musicType, releasedDate (optional) for a CD,
+ * discType, director, runtime, studio, subtitle, filmType, releasedDate (optional) for a DVD.
+ * Dates are written yyyy-MM-dd and stored as epoch millis like the dates written through JDBC.
+ * @author nguyenlm
+ */
+public class CatalogRecord {
+
+    static final String INSERT_MEDIA = "INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final List<Column> BOOK = List.of(Column.text("author"), Column.text("coverType"),
+            Column.text("publisher"), Column.date("publishDate", true), Column.number("numOfPages"),
+            Column.text("language"), Column.text("bookCategory"));
+    private static final List<Column> CD = List.of(Column.text("artist"), Column.text("recordLabel"),
+            Column.text("musicType"), Column.date("releasedDate", false));
+    private static final List<Column> DVD = List.of(Column.text("discType"), Column.text("director"),
+            Column.number("runtime"), Column.text("studio"), Column.text("subtitle"),
+            Column.date("releasedDate", false), Column.text("filmType"));
+
+    private final String type;
+    private final String title;
+    private final String category;
+    private final int price;
+    private final int value;
+    private final int quantity;
+    private final String imageUrl;
+    private final Object[] details;
+
+    private CatalogRecord(String type, String title, String category, int price, int value, int quantity,
+                          String imageUrl, Object[] details) {
+        this.type = type;
+        this.title = title;
+        this.category = category;
+        this.price = price;
+        this.value = value;
+        this.quantity = quantity;
+        this.imageUrl = imageUrl;
+        this.details = details;
+    }
+
+    /**
+     * @param fields the fields of a feed record keyed by name, unknown fields are ignored
+     * @return the validated record
+     * @throws IllegalArgumentException naming the first invalid field
+     */
+    public static CatalogRecord of(Map<String, String> fields) {
+        String type = required(fields, "type").toLowerCase(Locale.ROOT);
+        List<Column> columns = columnsOf(type);
+        if (columns == null) {
+            throw new IllegalArgumentException("type must be " + MediaRepository.TYPE_BOOK + ", "
+                    + MediaRepository.TYPE_CD + " or " + MediaRepository.TYPE_DVD + ", not '" + type + "'");
+        }
+        String title = required(fields, "title");
+        String category = required(fields, "category");
+        int price = number(fields, "price", 1);
+        int value = number(fields, "value", 0);
+        int quantity = number(fields, "quantity", 0);
+        String imageUrl = fields.get("imageUrl");
+        imageUrl = imageUrl == null ? "" : imageUrl.trim();
+
+        Object[] details = new Object[columns.size()];
+        for (int i = 0; i < details.length; i++) details[i] = columns.get(i).read(fields);
+        return new CatalogRecord(type, title, category, price, value, quantity, imageUrl, details);
+    }
+
+    private static List<Column> columnsOf(String type) {
+        switch (type) {
+            case MediaRepository.TYPE_BOOK: return BOOK;
+            case MediaRepository.TYPE_CD: return CD;
+            case MediaRepository.TYPE_DVD: return DVD;
+            default: return null;
+        }
+    }
+
+    /**
+     * @param type book, cd or dvd
+     * @return the INSERT of the subtype row, its first parameter is the id
+     */
+    static String insertDetails(String type) {
+        List<Column> columns = columnsOf(type);
+        String table = type.equals(MediaRepository.TYPE_BOOK) ? "Book" : type.toUpperCase(Locale.ROOT);
+        StringBuilder names = new StringBuilder("id");
+        StringBuilder params = new StringBuilder("?");
+        for (Column column : columns) {
+            names.append(", ").append(column.name);
+            params.append(", ?");
+        }
+        return "INSERT INTO " + table + "(" + names + ") VALUES (" + params + ")";
+    }
+
+    void bindMedia(PreparedStatement stm, int id) throws SQLException {
+        stm.setInt(1, id);
+        stm.setString(2, type);
+        stm.setString(3, category);
+        stm.setInt(4, price);
+        stm.setInt(5, quantity);
+        stm.setString(6, title);
+        stm.setInt(7, value);
+        stm.setString(8, imageUrl);
+    }
+
+    void bindDetails(PreparedStatement stm, int id) throws SQLException {
+        stm.setInt(1, id);
+        for (int i = 0; i < details.length; i++) stm.setObject(i + 2, details[i]);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String text = fields.get(name);
+        if (text == null || text.isBlank()) throw new IllegalArgumentException(name + " is required");
+        return text.trim();
+    }
+
+    private static int number(Map<String, String> fields, String name, int min) {
+        String text = required(fields, name);
+        int number;
+        try {
+            number = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number, not '" + text + "'");
+        }
+        if (number < min) throw new IllegalArgumentException(name + " must be at least " + min + ", not " + number);
+        return number;
+    }
+
+    /**
+     * A column of a subtype table and how its field is validated
+     */
+    private static class Column {
+        private enum Kind { TEXT, NUMBER, DATE }
+
+        private final String name;
+        private final Kind kind;
+        private final boolean required;
+
+        private Column(String name, Kind kind, boolean required) {
+            this.name = name;
+            this.kind = kind;
+            this.required = required;
+        }
+
+        static Column text(String name) {
+            return new Column(name, Kind.TEXT, true);
+        }
+
+        static Column number(String name) {
+            return new Column(name, Kind.NUMBER, true);
+        }
+
+        static Column date(String name, boolean required) {
+            return new Column(name, Kind.DATE, required);
+        }
+
+        Object read(Map<String, String> fields) {
+            if (!required) {
+                String text = fields.get(name);
+                if (text == null || text.isBlank()) return null;
+            }
+            switch (kind) {
+                case NUMBER:
+                    return CatalogRecord.number(fields, name, 1);
+                case DATE:
+                    String text = required(fields, name);
+                    try {
+                        return java.sql.Date.valueOf(LocalDate.parse(text)).getTime();
+                    } catch (DateTimeParseException e) {
+                        throw new IllegalArgumentException(name + " must be a yyyy-MM-dd date, not '" + text + "'");
+                    }
+                default:
+                    return required(fields, name);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package isd.aims.main.entity.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The feed formats read by {@link CatalogImporter}. Both carry the same fields, see {@link CatalogRecord}:
+ * CSV names them in its header line, JSON lines as the keys of one flat object per line.
+ * Reading the records is split from parsing them so the records can be parsed on several threads.
+ * @author nguyenlm
+ */
+public enum FeedFormat {
+
+    /**
+     * RFC 4180: comma separated, a header line, double quoted fields may hold commas, quotes ("") and line breaks
+     */
+    CSV {
+        @Override
+        Feed open(BufferedReader in) throws IOException {
+            String header = readCsvRecord(in);
+            if (header == null) throw new IOException("The CSV feed has no header line");
+            if (header.startsWith(BOM)) header = header.substring(1);
+            List<String> names = splitCsv(header);
+            for (int i = 0; i < names.size(); i++) names.set(i, names.get(i).trim());
+            return new Feed() {
+                @Override
+                String next() throws IOException {
+                    return readCsvRecord(in);
+                }
+
+                @Override
+                Map<String, String> parse(String record) {
+                    List<String> values = splitCsv(record);
+                    if (values.size() != names.size()) {
+                        throw new IllegalArgumentException("expected " + names.size() + " fields, found " + values.size());
+                    }
+                    Map<String, String> fields = new HashMap<>();
+                    for (int i = 0; i < values.size(); i++) fields.put(names.get(i), values.get(i));
+                    return fields;
+                }
+            };
+        }
+    },
+
+    /**
+     * One JSON object per line, its values are strings, numbers, booleans or null
+     */
+    JSONL {
+        @Override
+        Feed open(BufferedReader in) {
+            return new Feed() {
+                private boolean first = true;
+
+                @Override
+                String next() throws IOException {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (first && line.startsWith(BOM)) line = line.substring(1);
+                        first = false;
+                        if (!line.isBlank()) return line;
+                    }
+                    return null;
+                }
+
+                @Override
+                Map<String, String> parse(String record) {
+                    return new FlatJsonParser(record).parse();
+                }
+            };
+        }
+    };
+
+    private static final String BOM = "\uFEFF";
+
+    /**
+     * Starts reading a feed, the CSV header is read here
+     * @param in
+     * @return the feed positioned on its first record
+     * @throws IOException
+     */
+    abstract Feed open(BufferedReader in) throws IOException;
+
+    /**
+     * @param path a .csv, .jsonl or .ndjson file
+     * @return the format of the file
+     * @throws IllegalArgumentException if the extension is not known
+     */
+    public static FeedFormat forPath(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) return CSV;
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) return JSONL;
+        throw new IllegalArgumentException("Unknown feed format of " + path + ", expected .csv, .jsonl or .ndjson");
+    }
+
+    /**
+     * The records of an open feed: {@link #next()} is called by the reading thread only,
+     * {@link #parse(String)} may be called by any thread
+     */
+    abstract static class Feed {
+
+        /**
+         * @return the text of the next record, null at the end of the feed
+         * @throws IOException
+         */
+        abstract String next() throws IOException;
+
+        /**
+         * @param record the text returned by {@link #next()}
+         * @return the fields of the record keyed by name
+         * @throws IllegalArgumentException if the record is malformed
+         */
+        abstract Map<String, String> parse(String record);
+    }
+
+    /**
+     * Reads the next CSV record, joining the lines of a quoted field that spans several lines.
+     * Blank lines are skipped.
+     */
+    private static String readCsvRecord(BufferedReader in) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) return null;
+        } while (line.isBlank());
+
+        // an odd number of quotes leaves a field open, "" inside a field counts twice
+        int quotes = countQuotes(line);
+        if (quotes % 2 == 0) return line;
+        StringBuilder record = new StringBuilder(line);
+        String more;
+        // an unterminated quote at the end of the feed is reported when parsing
+        while (quotes % 2 != 0 && (more = in.readLine()) != null) {
+            record.append('\n').append(more);
+            quotes += countQuotes(more);
+        }
+        return record.toString();
+    }
+
+    private static int countQuotes(CharSequence text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') count++;
+        }
+        return count;
+    }
+
+    static List<String> splitCsv(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        int length = record.length();
+        while (true) {
+            if (i < length && record.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= length) throw new IllegalArgumentException("unterminated quoted field");
+                    char c = record.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < length && record.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < length && record.charAt(i) != ',') {
+                    throw new IllegalArgumentException("unexpected character after a quoted field at column " + (i + 1));
+                }
+            } else {
+                int comma = record.indexOf(',', i);
+                int end = comma < 0 ? length : comma;
+                field.append(record, i, end);
+                i = end;
+            }
+            fields.add(field.toString());
+            field.setLength(0);
+            if (i >= length) return fields;
+            i++; // the comma
+        }
+    }
+
+    /**
+     * Parser of a single JSON object whose values are all scalars, nested objects and arrays are rejected
+     */
+    static class FlatJsonParser {
+
+        private final String text;
+        private int pos;
+
+        FlatJsonParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> parse() {
+            Map<String, String> fields = new HashMap<>();
+            skipSpaces();
+            expect('{');
+            skipSpaces();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipSpaces();
+                    expect('"');
+                    String key = readString();
+                    skipSpaces();
+                    expect(':');
+                    skipSpaces();
+                    fields.put(key, readValue());
+                    skipSpaces();
+                    char c = next();
+                    if (c == '}') break;
+                    if (c != ',') throw error("expected ',' or '}'");
+                }
+            }
+            skipSpaces();
+            if (pos < text.length()) throw error("unexpected text after the object");
+            return fields;
+        }
+
+        private String readValue() {
+            char c = peek();
+            if (c == '"') {
+                pos++;
+                return readString();
+            }
+            if (c == '{' || c == '[') throw error("nested objects and arrays are not supported");
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) pos++;
+            String literal = text.substring(start, pos);
+            if (literal.equals("null")) return null;
+            if (literal.equals("true") || literal.equals("false")) return literal;
+            if (literal.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?")) return literal;
+            throw error("invalid value '" + literal + "'");
+        }
+
+        /**
+         * Reads the rest of a string, the opening quote is already consumed
+         */
+        private String readString() {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"': case '\\': case '/': sb.append(escaped); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw error("truncated \\u escape");
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("invalid \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: throw error("invalid escape \\" + escaped);
+                }
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        private char peek() {
+            if (pos >= text.length()) throw error("unexpected end of line");
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) throw error("expected '" + expected + "'");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("invalid JSON, " + message + " at column " + pos);
+        }
+    }
+}
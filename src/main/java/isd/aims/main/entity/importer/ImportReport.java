@@ -0,0 +1,120 @@
+package isd.aims.main.entity.importer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable outcome of a {@link CatalogImporter} run. The counts include the records
+ * committed by the earlier runs of the same source, the rate only counts this run.
+ * @author nguyenlm
+ */
+public class ImportReport {
+
+    private final String source;
+    private final long resumedAt;
+    private final long imported;
+    private final long rejected;
+    private final long importedNow;
+    private final long elapsedNanos;
+    private final List<Rejection> rejections;
+
+    ImportReport(String source, long resumedAt, long imported, long rejected, long importedNow, long elapsedNanos,
+                 List<Rejection> rejections) {
+        this.source = source;
+        this.resumedAt = resumedAt;
+        this.imported = imported;
+        this.rejected = rejected;
+        this.importedNow = importedNow;
+        this.elapsedNanos = elapsedNanos;
+        this.rejections = Collections.unmodifiableList(rejections);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the number of records skipped because an earlier run committed them, 0 for a fresh import
+     */
+    public long getResumedAt() {
+        return resumedAt;
+    }
+
+    /**
+     * @return the number of media written for this source
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * @return the number of invalid records of this source
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of media written by this run
+     */
+    public long getImportedNow() {
+        return importedNow;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return the media written by this run per second
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : importedNow * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the first rejections of this run, at most {@link CatalogImporter#MAX_REPORTED_REJECTIONS}
+     */
+    public List<Rejection> getRejections() {
+        return rejections;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{source=" + source + ", imported=" + imported + ", rejected=" + rejected
+                + (resumedAt > 0 ? ", resumedAt=" + resumedAt : "")
+                + ", " + importedNow + " rows in " + getElapsedMillis() + " ms"
+                + ", " + String.format("%.0f", getRowsPerSecond()) + " rows/s}";
+    }
+
+    /**
+     * A record of the feed which was not imported
+     */
+    public static class Rejection {
+
+        private final long record;
+        private final String reason;
+
+        Rejection(long record, String reason) {
+            this.record = record;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the number of the record in the feed, from 1, the CSV header is not counted
+         */
+        public long getRecord() {
+            return record;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "record " + record + ": " + reason;
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package isd.aims.main.entity.media;
 
-import isd.aims.main.entity.db.DBConnection;
-
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Date;
 import java.util.List;
 
@@ -67,6 +63,13 @@ public class Book extends Media {
         return this;
     }
 
+    @Override
+    public Book copy() {
+        Book copy = (Book) super.copy();
+        if (publishDate != null) copy.publishDate = (Date) publishDate.clone();
+        return copy;
+    }
+
     public Date getPublishDate() {
         return this.publishDate;
     }
@@ -105,37 +108,9 @@ public class Book extends Media {
 
     @Override
     public Media getMediaById(int id) throws SQLException {
-        String sql = "SELECT * FROM "+
-                     "aims.Book " +
-                     "INNER JOIN aims.Media " +
-                     "ON Media.id = Book.id " +
-                     "where Media.id = " + id + ";";
-        Statement stm = DBConnection.getConnection().createStatement();
-        ResultSet res = stm.executeQuery(sql);
-		if(res.next()) {
-
-            // from Media table
-            String title = "";
-            String type = res.getString("type");
-            int price = res.getInt("price");
-            String category = res.getString("category");
-            int quantity = res.getInt("quantity");
-
-            // from Book table
-            String author = res.getString("author");
-            String coverType = res.getString("coverType");
-            String publisher = res.getString("publisher");
-            Date publishDate = res.getDate("publishDate");
-            int numOfPages = res.getInt("numOfPages");
-            String language = res.getString("language");
-            String bookCategory = res.getString("bookCategory");
-            
-            return new Book(id, title, category, price, quantity, type, 
-                            author, coverType, publisher, publishDate, numOfPages, language, bookCategory);
-            
-		} else {
-			throw new SQLException();
-		}
+        Media media = MediaCache.getInstance().get(id);
+        if (media instanceof Book) return media;
+        throw new SQLException("No book with id " + id);
     }
 
     @Override
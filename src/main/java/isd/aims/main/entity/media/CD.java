@@ -1,6 +1,5 @@
 package isd.aims.main.entity.media;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
@@ -52,6 +51,13 @@ public class CD extends Media {
         return this;
     }
 
+    @Override
+    public CD copy() {
+        CD copy = (CD) super.copy();
+        if (releasedDate != null) copy.releasedDate = (Date) releasedDate.clone();
+        return copy;
+    }
+
     public Date getReleasedDate() {
         return this.releasedDate;
     }
@@ -70,33 +76,9 @@ public class CD extends Media {
 
     @Override
     public Media getMediaById(int id) throws SQLException {
-        String sql = "SELECT * FROM "+
-                     "aims.CD " +
-                     "INNER JOIN aims.Media " +
-                     "ON Media.id = CD.id " +
-                     "where Media.id = " + id + ";";
-        ResultSet res = stm.executeQuery(sql);
-		if(res.next()) {
-            
-            // from media table
-            String title = "";
-            String type = res.getString("type");
-            int price = res.getInt("price");
-            String category = res.getString("category");
-            int quantity = res.getInt("quantity");
-
-            // from CD table
-            String artist = res.getString("artist");
-            String recordLabel = res.getString("recordLabel");
-            String musicType = res.getString("musicType");
-            Date releasedDate = res.getDate("releasedDate");
-           
-            return new CD(id, title, category, price, quantity, type, 
-                          artist, recordLabel, musicType, releasedDate);
-            
-		} else {
-			throw new SQLException();
-		}
+        Media media = MediaCache.getInstance().get(id);
+        if (media instanceof CD) return media;
+        throw new SQLException("No CD with id " + id);
     }
 
     @Override
@@ -0,0 +1,165 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.listener.CatalogChangeListener;
+import isd.aims.main.utils.Configs;
+import isd.aims.main.utils.Utils;
+
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the in-memory catalog structures fresh by reading the MediaChange log every
+ * {@link Configs#CATALOG_POLL_INTERVAL} ms: only the media written since the last sequence
+ * seen are dropped from the {@link MediaCache}, then the {@link CatalogChangeListener}s are told which ones.
+ * Writes of this process show up in the log as well, invalidating them again is harmless.
+ * @author nguyenlm
+ */
+public class CatalogChangePoller {
+
+    private static Logger LOGGER = Utils.getLogger(CatalogChangePoller.class.getName());
+    private static CatalogChangePoller instance;
+
+    /**
+     * Maximum number of changes read per query
+     */
+    static final int BATCH = 500;
+
+    private final MediaChangeLog log;
+    private final MediaCache cache;
+    private final long intervalMillis;
+    private final List<CatalogChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+    private long lastSequence = -1; // guarded by this
+    private long lastPrunedAt;
+
+    public static synchronized CatalogChangePoller getInstance() {
+        if (instance == null) instance = new CatalogChangePoller(new MediaChangeLog(), MediaCache.getInstance(), Configs.CATALOG_POLL_INTERVAL);
+        return instance;
+    }
+
+    /**
+     * Stops the application wide poller if it was started, called when the application stops
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) instance.stop();
+    }
+
+    CatalogChangePoller(MediaChangeLog log, MediaCache cache, long intervalMillis) {
+        this.log = log;
+        this.cache = cache;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void addListener(CatalogChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CatalogChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts polling in the background, the changes already in the log are skipped
+     */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "aims-catalog-changes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (SQLException | RuntimeException e) {
+                // the next round reads the same changes again
+                LOGGER.warning("Cannot read the catalog changes: " + e.getMessage());
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Polling the catalog changes every " + intervalMillis + " ms");
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * Applies the changes logged since the previous poll, the first poll only records where the log stands
+     * @return the number of changes read
+     * @throws SQLException
+     */
+    public synchronized int poll() throws SQLException {
+        if (lastSequence < 0) {
+            lastSequence = log.getLastSequence();
+            return 0;
+        }
+        long first = log.getFirstSequence();
+        // an empty log was pruned of everything, including the entries after ours if any were written
+        long last = first == 0 ? log.getLastSequence() : -1;
+        if (first > lastSequence + 1 || last > lastSequence) {
+            // the entries we have not read yet were pruned, the deltas are lost
+            LOGGER.warning("Catalog changes after " + lastSequence + " were pruned, reloading the catalog");
+            lastSequence = first == 0 ? last : log.getLastSequence();
+            cache.invalidateAll();
+            for (CatalogChangeListener listener : listeners) {
+                try {
+                    listener.onCatalogReset();
+                } catch (RuntimeException e) {
+                    LOGGER.warning("Catalog listener " + listener + " failed: " + e.getMessage());
+                }
+            }
+            return 0;
+        }
+
+        int count = 0;
+        Set<Integer> mediaIds = new LinkedHashSet<>();
+        List<MediaChange> changes;
+        do {
+            changes = log.readSince(lastSequence, BATCH);
+            for (MediaChange change : changes) mediaIds.add(change.getMediaId());
+            if (!changes.isEmpty()) lastSequence = changes.get(changes.size() - 1).getSequence();
+            count += changes.size();
+        } while (changes.size() == BATCH);
+
+        if (!mediaIds.isEmpty()) {
+            for (Integer id : mediaIds) cache.invalidate(id);
+            for (CatalogChangeListener listener : listeners) {
+                try {
+                    listener.onCatalogChanged(mediaIds);
+                } catch (RuntimeException e) {
+                    LOGGER.warning("Catalog listener " + listener + " failed: " + e.getMessage());
+                }
+            }
+        }
+        pruneIfDue();
+        return count;
+    }
+
+    /**
+     * Drops the log entries older than {@link Configs#MEDIA_CHANGE_RETENTION}, at most once per retention period
+     */
+    private void pruneIfDue() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastPrunedAt < Configs.MEDIA_CHANGE_RETENTION) return;
+        lastPrunedAt = now;
+        int pruned = log.prune(now - Configs.MEDIA_CHANGE_RETENTION);
+        if (pruned > 0) LOGGER.info("Pruned " + pruned + " catalog change(s)");
+    }
+
+    /**
+     * @return the sequence of the last change applied, -1 before the first poll
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+}
@@ -0,0 +1,360 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The whole catalog in a compact binary file, memory mapped when opened so that a page of
+ * media is decoded straight from the mapping without a query nor loading the rest of the file.
+ * The file records the MediaChange sequence it was exported at: it is fresh as long as no
+ * catalog write was logged since, see {@link #isFresh()}.
+ * <p>
+ * Layout, big endian: a header (magic, {@link #VERSION}, creation time, change sequence,
+ * number of media, offset of the index), the records, then the index of (id, record offset)
+ * pairs sorted by id. A record holds the kind of media, its numbers, then its strings as
+ * a length (-1 for null) followed by UTF-8 bytes; dates are epoch millis, {@link #NO_DATE} for none.
+ * @author nguyenlm
+ */
+public class CatalogFile {
+
+    private static Logger LOGGER = Utils.getLogger(CatalogFile.class.getName());
+
+    static final int MAGIC = 0x41494D43; // "AIMC"
+    /**
+     * Bumped on every change of the layout, a file of another version is never read
+     */
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 36;
+    static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final byte MEDIA = 0;
+    private static final byte BOOK = 1;
+    private static final byte CD = 2;
+    private static final byte DVD = 3;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final long createdAt;
+    private final long changeSequence;
+    private final int size;
+    private final int indexOffset;
+
+    private CatalogFile(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException(path + " is not a catalog file");
+        int version = buffer.getInt(4);
+        if (version != VERSION) throw new IOException(path + " has version " + version + ", expected " + VERSION);
+        this.createdAt = buffer.getLong(8);
+        this.changeSequence = buffer.getLong(16);
+        this.size = buffer.getInt(24);
+        long indexOffset = buffer.getLong(28);
+        if (size < 0 || indexOffset < HEADER_SIZE || indexOffset + 8L * size != buffer.capacity()) {
+            throw new IOException(path + " is truncated or corrupt");
+        }
+        this.indexOffset = (int) indexOffset;
+    }
+
+    /**
+     * Maps a file written by {@link #export(Path)}, nothing is decoded yet
+     * @param path
+     * @return CatalogFile
+     * @throws IOException if the file is missing, of another version or corrupt
+     */
+    public static CatalogFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is too large to be mapped");
+            // the mapping stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CatalogFile(path, buffer);
+        }
+    }
+
+    /**
+     * Writes the whole catalog to the file, through a temporary file moved in place at the end
+     * so that readers never see a partial file
+     * @param target
+     * @return the number of media written
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static int export(Path target) throws SQLException, IOException {
+        long start = System.nanoTime();
+        // read before the media: a write racing with the export makes the file stale, never wrongly fresh
+        long sequence = new MediaChangeLog().getLastSequence();
+        Path parent = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        int count = 0;
+        try {
+            int[] ids = new int[1024];
+            int[] offsets = new int[1024];
+            long indexOffset;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.position(HEADER_SIZE);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                try (Stream<Media> medium = new MediaRepository().stream(null)) {
+                    for (Media media : (Iterable<Media>) medium::iterator) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                            offsets = Arrays.copyOf(offsets, count * 2);
+                        }
+                        long offset = HEADER_SIZE + (long) out.size();
+                        if (offset > Integer.MAX_VALUE) throw new IOException("The catalog is too large for a catalog file");
+                        ids[count] = media.getId();
+                        offsets[count] = (int) offset;
+                        count++;
+                        writeRecord(out, media);
+                    }
+                }
+                indexOffset = HEADER_SIZE + (long) out.size();
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(ids[i]);
+                    out.writeInt(offsets[i]);
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(sequence)
+                        .putInt(count).putLong(indexOffset).flip();
+                channel.write(header, 0);
+                channel.force(false);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOGGER.info("Exported " + count + " media to " + target + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return count;
+    }
+
+    private static void writeRecord(DataOutputStream out, Media media) throws IOException {
+        if (media instanceof Book) out.writeByte(BOOK);
+        else if (media instanceof CD) out.writeByte(CD);
+        else if (media instanceof DVD) out.writeByte(DVD);
+        else out.writeByte(MEDIA);
+        out.writeInt(media.getPrice());
+        out.writeInt(media.getValue());
+        out.writeInt(media.getLoadedQuantity());
+        writeString(out, media.getType());
+        writeString(out, media.getTitle());
+        writeString(out, media.getCategory());
+        writeString(out, media.getImageURL());
+        if (media instanceof Book) {
+            Book book = (Book) media;
+            writeString(out, book.getAuthor());
+            writeString(out, book.getCoverType());
+            writeString(out, book.getPublisher());
+            writeDate(out, book.getPublishDate());
+            out.writeInt(book.getNumOfPages());
+            writeString(out, book.getLanguage());
+            writeString(out, book.getBookCategory());
+        } else if (media instanceof CD) {
+            CD cd = (CD) media;
+            writeString(out, cd.getArtist());
+            writeString(out, cd.getRecordLabel());
+            writeString(out, cd.getMusicType());
+            writeDate(out, cd.getReleasedDate());
+        } else if (media instanceof DVD) {
+            DVD dvd = (DVD) media;
+            writeString(out, dvd.getDiscType());
+            writeString(out, dvd.getDirector());
+            out.writeInt(dvd.getRuntime());
+            writeString(out, dvd.getStudio());
+            writeString(out, dvd.getSubtitles());
+            writeDate(out, dvd.getReleasedDate());
+            writeString(out, dvd.getFilmType());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date == null ? NO_DATE : date.getTime());
+    }
+
+    /**
+     * @return true if no catalog write was logged since the export
+     * @throws SQLException
+     */
+    public boolean isFresh() throws SQLException {
+        return new MediaChangeLog().getLastSequence() == changeSequence;
+    }
+
+    /**
+     * Decodes one page of the catalog ordered by id, like {@link MediaRepository#findPage(int, int, MediaFilter)} without a filter
+     * @param afterId the last id of the previous page, 0 for the first page
+     * @param limit   the maximum number of media in the page
+     * @return MediaPage
+     */
+    public MediaPage page(int afterId, int limit) {
+        int from = firstAfter(afterId);
+        int to = (int) Math.min((long) from + limit, size);
+        List<Media> items = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) items.add(get(i));
+        int lastId = items.isEmpty() ? afterId : items.get(items.size() - 1).getId();
+        return new MediaPage(items, lastId, to < size);
+    }
+
+    /**
+     * @param id
+     * @return the media, or null if it is not in the file
+     */
+    public Media findById(int id) {
+        int index = firstAfter(id - 1);
+        return index < size && idAt(index) == id ? get(index) : null;
+    }
+
+    /**
+     * Decodes every media, in id order
+     * @return List[Media]
+     */
+    public List<Media> getAll() {
+        List<Media> medium = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) medium.add(get(i));
+        return medium;
+    }
+
+    /**
+     * @return the position in the index of the first media whose id is greater than the given one
+     */
+    private int firstAfter(int id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (idAt(mid) <= id) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int idAt(int index) {
+        return buffer.getInt(indexOffset + index * 8);
+    }
+
+    /**
+     * Decodes the media at a position of the index. Only absolute reads are used on the
+     * shared buffer, so several threads can decode at once.
+     */
+    Media get(int index) {
+        try {
+            return new Reader(buffer.getInt(indexOffset + index * 8 + 4)).read(idAt(index));
+        } catch (SQLException e) {
+            // the media constructors declare it but never throw it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of media in the file
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the time of the export, in epoch millis
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the last MediaChange sequence included in the file
+     */
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+
+    /**
+     * Cursor over one record
+     */
+    private class Reader {
+        private int pos;
+
+        Reader(int offset) {
+            this.pos = offset;
+        }
+
+        Media read(int id) throws SQLException {
+            byte kind = buffer.get(pos++);
+            int price = readInt();
+            int value = readInt();
+            int quantity = readInt();
+            String type = readString();
+            String title = readString();
+            String category = readString();
+            String imageUrl = readString();
+            Media media;
+            switch (kind) {
+                case BOOK:
+                    media = new Book(id, title, category, price, quantity, type, readString(), readString(),
+                            readString(), readDate(), readInt(), readString(), readString());
+                    break;
+                case CD:
+                    media = new CD(id, title, category, price, quantity, type, readString(), readString(),
+                            readString(), readDate());
+                    break;
+                case DVD:
+                    media = new DVD(id, title, category, price, quantity, type, readString(), readString(),
+                            readInt(), readString(), readString(), readDate(), readString());
+                    break;
+                default:
+                    media = new Media(id, title, category, price, quantity, type);
+            }
+            return media.setValue(value).setMediaURL(imageUrl);
+        }
+
+        private int readInt() {
+            int value = buffer.getInt(pos);
+            pos += 4;
+            return value;
+        }
+
+        private Date readDate() {
+            long millis = buffer.getLong(pos);
+            pos += 8;
+            return millis == NO_DATE ? null : new Date(millis);
+        }
+
+        private String readString() {
+            int length = readInt();
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            buffer.get(pos, bytes);
+            pos += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
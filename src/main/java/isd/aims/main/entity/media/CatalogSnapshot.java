@@ -0,0 +1,440 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.entity.db.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only, column oriented copy of the numbers of the catalog, for filtering and
+ * sorting without touching the database or walking media objects.
+ * The rows are ordered by id; id, price, value and quantity are int columns and the
+ * type and category are dictionary encoded into int codes, so a query is a scan of
+ * a few primitive arrays and returns the matching ids.
+ * @author nguyenlm
+ */
+public class CatalogSnapshot {
+
+    static final String COLUMNS = "SELECT id, type, category, price, value, quantity FROM Media ";
+    static final String SELECT_COLUMNS = COLUMNS + "ORDER BY id";
+
+    /**
+     * The numeric columns a query can be sorted by
+     */
+    public enum Column { ID, PRICE, VALUE, QUANTITY }
+
+    private final int size;
+    private final int[] ids;
+    private final int[] prices;
+    private final int[] values;
+    private final int[] quantities;
+    private final int[] typeCodes;
+    private final int[] categoryCodes;
+    private final Dictionary types;
+    private final Dictionary categories;
+    private final long createdAt;
+
+    private CatalogSnapshot(Builder builder) {
+        this.size = builder.size;
+        this.ids = Arrays.copyOf(builder.ids, size);
+        this.prices = Arrays.copyOf(builder.prices, size);
+        this.values = Arrays.copyOf(builder.values, size);
+        this.quantities = Arrays.copyOf(builder.quantities, size);
+        this.typeCodes = Arrays.copyOf(builder.typeCodes, size);
+        this.categoryCodes = Arrays.copyOf(builder.categoryCodes, size);
+        this.types = builder.types;
+        this.categories = builder.categories;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads the whole catalog in one query, only the columns of the snapshot are loaded
+     * @return CatalogSnapshot
+     * @throws SQLException
+     */
+    public static CatalogSnapshot load() throws SQLException {
+        Builder builder = new Builder(64);
+        try (Connection connection = DBConnection.getConnection();
+             PreparedStatement stm = connection.prepareStatement(SELECT_COLUMNS)) {
+            stm.setFetchSize(MediaRepository.DEFAULT_FETCH_SIZE);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) {
+                    builder.add(res.getInt(1), res.getString(2), res.getString(3),
+                            res.getInt(4), res.getInt(5), res.getInt(6));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param medium media already loaded, in any order
+     * @return CatalogSnapshot
+     */
+    public static CatalogSnapshot of(Collection<? extends Media> medium) {
+        List<Media> sorted = new ArrayList<>(medium);
+        sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        Builder builder = new Builder(sorted.size());
+        for (Media media : sorted) {
+            builder.add(media.getId(), media.getType(), media.getCategory(),
+                    media.getPrice(), media.getValue(), media.getLoadedQuantity());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Applies a delta: the rows of the given media are read again, the other rows are copied
+     * @param changedIds the media inserted, updated or deleted since this snapshot was taken
+     * @return a new snapshot, deleted media are left out
+     * @throws SQLException
+     */
+    public CatalogSnapshot withChanges(Collection<Integer> changedIds) throws SQLException {
+        int[] changed = changedIds.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        // the chunks follow the sorted ids, so the fresh rows come in ascending id order
+        Builder fresh = new Builder(changed.length);
+        try (Connection connection = DBConnection.getConnection()) {
+            for (int from = 0; from < changed.length; from += MediaRepository.MAX_BATCH) {
+                List<Integer> chunk = new ArrayList<>();
+                for (int k = from; k < Math.min(from + MediaRepository.MAX_BATCH, changed.length); k++) chunk.add(changed[k]);
+                int slots = MediaRepository.bucket(chunk.size());
+                try (PreparedStatement stm = connection.prepareStatement(COLUMNS + "WHERE id IN " + MediaRepository.placeholders(slots) + " ORDER BY id")) {
+                    MediaRepository.bindPadded(stm, 1, chunk, slots);
+                    try (ResultSet res = stm.executeQuery()) {
+                        while (res.next()) {
+                            fresh.add(res.getInt(1), res.getString(2), res.getString(3), res.getInt(4), res.getInt(5), res.getInt(6));
+                        }
+                    }
+                }
+            }
+        }
+
+        // merge the unchanged rows with the fresh ones, a changed id without a fresh row was deleted
+        Builder builder = new Builder(size + fresh.size);
+        int row = 0;
+        int next = 0;
+        int freshRow = 0;
+        while (row < size) {
+            int id = ids[row];
+            while (next < changed.length && changed[next] < id) {
+                if (freshRow < fresh.size && fresh.ids[freshRow] == changed[next]) builder.addRow(fresh, freshRow++);
+                next++;
+            }
+            if (next < changed.length && changed[next] == id) {
+                if (freshRow < fresh.size && fresh.ids[freshRow] == id) builder.addRow(fresh, freshRow++);
+                next++;
+            } else {
+                builder.add(id, types.decode(typeCodes[row]), categories.decode(categoryCodes[row]),
+                        prices[row], values[row], quantities[row]);
+            }
+            row++;
+        }
+        while (freshRow < fresh.size) builder.addRow(fresh, freshRow++);
+        return builder.build();
+    }
+
+    /**
+     * @return a query matching every media, ordered by id
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the time the snapshot was taken, in epoch millis
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the ids of every media, in ascending order
+     */
+    public int[] getIds() {
+        return ids.clone();
+    }
+
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * @param id
+     * @return the price of the media at the time of the snapshot
+     * @throws IllegalArgumentException if the media is not in the snapshot
+     */
+    public int getPrice(int id) {
+        return prices[row(id)];
+    }
+
+    public int getValue(int id) {
+        return values[row(id)];
+    }
+
+    public int getQuantity(int id) {
+        return quantities[row(id)];
+    }
+
+    public String getType(int id) {
+        return types.decode(typeCodes[row(id)]);
+    }
+
+    public String getCategory(int id) {
+        return categories.decode(categoryCodes[row(id)]);
+    }
+
+    /**
+     * @return the distinct types, in the order they were first seen
+     */
+    public List<String> getTypes() {
+        return types.getValues();
+    }
+
+    /**
+     * @return the distinct categories, in the order they were first seen
+     */
+    public List<String> getCategories() {
+        return categories.getValues();
+    }
+
+    private int row(int id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        if (row < 0) throw new IllegalArgumentException("Media " + id + " is not in the snapshot");
+        return row;
+    }
+
+    private int[] column(Column column) {
+        switch (column) {
+            case PRICE: return prices;
+            case VALUE: return values;
+            case QUANTITY: return quantities;
+            default: return ids;
+        }
+    }
+
+    /**
+     * Conditions and order over the snapshot, every condition left unset is ignored
+     */
+    public class Query {
+        private String type;
+        private String category;
+        private int minPrice = Integer.MIN_VALUE;
+        private int maxPrice = Integer.MAX_VALUE;
+        private boolean inStock;
+        private Column sortBy = Column.ID;
+        private boolean descending;
+        private int limit = Integer.MAX_VALUE;
+
+        private Query() {
+        }
+
+        public Query setType(String type) {
+            this.type = type;
+            return this;
+        }
+
+        public Query setCategory(String category) {
+            this.category = category;
+            return this;
+        }
+
+        /**
+         * @param minPrice inclusive
+         * @param maxPrice inclusive
+         * @return Query
+         */
+        public Query setPriceRange(int minPrice, int maxPrice) {
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+            return this;
+        }
+
+        public Query setInStock(boolean inStock) {
+            this.inStock = inStock;
+            return this;
+        }
+
+        /**
+         * @param column     the column to sort by, ties are broken by ascending id
+         * @param descending
+         * @return Query
+         */
+        public Query setSortBy(Column column, boolean descending) {
+            this.sortBy = column;
+            this.descending = descending;
+            return this;
+        }
+
+        public Query setLimit(int limit) {
+            if (limit < 0) throw new IllegalArgumentException("limit must not be negative: " + limit);
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * @return the number of matching media
+         */
+        public int count() {
+            return matchingRows().length;
+        }
+
+        /**
+         * @return the ids of the matching media in the requested order, at most limit of them
+         */
+        public int[] ids() {
+            int[] rows = matchingRows();
+            if (sortBy != Column.ID || descending) sortRows(rows);
+            int length = Math.min(rows.length, limit);
+            int[] result = new int[length];
+            for (int i = 0; i < length; i++) result[i] = ids[rows[i]];
+            return result;
+        }
+
+        private int[] matchingRows() {
+            // an unknown type or category cannot match anything
+            int typeCode = type == null ? -1 : types.code(type);
+            int categoryCode = category == null ? -1 : categories.code(category);
+            if ((type != null && typeCode < 0) || (category != null && categoryCode < 0)) return new int[0];
+
+            int[] types = typeCodes;
+            int[] categories = categoryCodes;
+            int[] prices = CatalogSnapshot.this.prices;
+            int[] quantities = CatalogSnapshot.this.quantities;
+            int min = minPrice;
+            int max = maxPrice;
+            int minQuantity = inStock ? 1 : Integer.MIN_VALUE;
+
+            int[] rows = new int[size];
+            int count = 0;
+            // branch free: every row is written, the cursor only moves past the matching ones
+            for (int row = 0; row < size; row++) {
+                int price = prices[row];
+                boolean match = (typeCode < 0 | types[row] == typeCode)
+                        & (categoryCode < 0 | categories[row] == categoryCode)
+                        & price >= min & price <= max
+                        & quantities[row] >= minQuantity;
+                rows[count] = row;
+                count += match ? 1 : 0;
+            }
+            return Arrays.copyOf(rows, count);
+        }
+
+        /**
+         * Sorts the rows by the key column with a primitive sort: the key goes in the high
+         * half of a long and the row (ie: the id order) in the low half
+         */
+        private void sortRows(int[] rows) {
+            int[] keys = column(sortBy);
+            long[] packed = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                int key = descending ? ~keys[rows[i]] : keys[rows[i]];
+                packed[i] = ((long) key << 32) | rows[i];
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < rows.length; i++) rows[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Maps the distinct strings of a column to dense int codes
+     */
+    static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        /**
+         * @return the code of the value, -1 if it was never encoded
+         */
+        int code(String value) {
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        List<String> getValues() {
+            return Collections.unmodifiableList(values);
+        }
+    }
+
+    /**
+     * Appends rows in ascending id order
+     */
+    static class Builder {
+        private int size;
+        private int[] ids;
+        private int[] prices;
+        private int[] values;
+        private int[] quantities;
+        private int[] typeCodes;
+        private int[] categoryCodes;
+        private final Dictionary types = new Dictionary();
+        private final Dictionary categories = new Dictionary();
+
+        Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            ids = new int[capacity];
+            prices = new int[capacity];
+            values = new int[capacity];
+            quantities = new int[capacity];
+            typeCodes = new int[capacity];
+            categoryCodes = new int[capacity];
+        }
+
+        Builder add(int id, String type, String category, int price, int value, int quantity) {
+            if (size > 0 && id <= ids[size - 1]) throw new IllegalArgumentException("ids must be added in ascending order: " + id);
+            if (size == ids.length) grow();
+            ids[size] = id;
+            prices[size] = price;
+            values[size] = value;
+            quantities[size] = quantity;
+            typeCodes[size] = types.encode(type);
+            categoryCodes[size] = categories.encode(category);
+            size++;
+            return this;
+        }
+
+        Builder addRow(Builder other, int row) {
+            return add(other.ids[row], other.types.decode(other.typeCodes[row]), other.categories.decode(other.categoryCodes[row]),
+                    other.prices[row], other.values[row], other.quantities[row]);
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            values = Arrays.copyOf(values, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            typeCodes = Arrays.copyOf(typeCodes, capacity);
+            categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+        }
+
+        CatalogSnapshot build() {
+            return new CatalogSnapshot(this);
+        }
+    }
+}
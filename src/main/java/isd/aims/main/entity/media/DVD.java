@@ -1,6 +1,5 @@
 package isd.aims.main.entity.media;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
@@ -76,6 +75,13 @@ public class DVD extends Media {
         return this;
     }
 
+    @Override
+    public DVD copy() {
+        DVD copy = (DVD) super.copy();
+        if (releasedDate != null) copy.releasedDate = (Date) releasedDate.clone();
+        return copy;
+    }
+
     public Date getReleasedDate() {
         return this.releasedDate;
     }
@@ -103,35 +109,9 @@ public class DVD extends Media {
 
     @Override
     public Media getMediaById(int id) throws SQLException {
-        String sql = "SELECT * FROM "+
-                     "aims.DVD " +
-                     "INNER JOIN aims.Media " +
-                     "ON Media.id = DVD.id " +
-                     "where Media.id = " + id + ";";
-        ResultSet res = stm.executeQuery(sql);
-        if(res.next()) {
-            
-        // from media table
-        String title = "";
-        String type = res.getString("type");
-        int price = res.getInt("price");
-        String category = res.getString("category");
-        int quantity = res.getInt("quantity");
-
-        // from DVD table
-        String discType = res.getString("discType");
-        String director = res.getString("director");
-        int runtime = res.getInt("runtime");
-        String studio = res.getString("studio");
-        String subtitles = res.getString("subtitle");
-        Date releasedDate = res.getDate("releasedDate");
-        String filmType = res.getString("filmType");
-
-        return new DVD(id, title, category, price, quantity, type, discType, director, runtime, studio, subtitles, releasedDate, filmType);
-
-        } else {
-            throw new SQLException();
-        }
+        Media media = MediaCache.getInstance().get(id);
+        if (media instanceof DVD) return media;
+        throw new SQLException("No DVD with id " + id);
     }
 
     @Override
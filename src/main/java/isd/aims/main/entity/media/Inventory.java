@@ -0,0 +1,115 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.order.OrderMedia;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the stock of the Media table. Every line is decremented with a conditional
+ * UPDATE in a single transaction, so two kiosks selling the last items cannot both
+ * succeed and no global lock is needed. The decrement may run in the transaction of the
+ * caller, eg: the one saving the paid order, see {@link #commit(Connection, Collection)}.
+ * @author nguyenlm
+ */
+public class Inventory {
+
+    static final String DECREMENT = "UPDATE Media SET quantity = quantity - ? WHERE id = ? AND quantity >= ?";
+
+    /**
+     * Takes the ordered quantities out of the stock, all lines or none
+     * @param lines the lines of the order, several lines of the same media are summed
+     * @return the result, listing the lines that could not be served if it was rolled back
+     * @throws SQLException
+     */
+    public InventoryCommit commit(Collection<OrderMedia> lines) throws SQLException {
+        InventoryCommit result;
+        try (Connection connection = DBConnection.getWriteConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                result = commit(connection, lines);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        committed(result);
+        return result;
+    }
+
+    /**
+     * Takes the ordered quantities out of the stock in the open transaction of the caller, all lines
+     * or none: the lines are rolled back to a savepoint when one of them cannot be served.
+     * Once the caller committed, {@link #committed} drops the old stock levels from the cache.
+     * @param connection the writer, not in auto-commit
+     * @param lines      the lines of the order, several lines of the same media are summed
+     * @return the result, listing the lines that could not be served if it was rolled back
+     * @throws SQLException
+     */
+    public InventoryCommit commit(Connection connection, Collection<OrderMedia> lines) throws SQLException {
+        Map<Integer, Integer> requested = sumByMedia(lines);
+        Map<Integer, String> titles = new LinkedHashMap<>();
+        for (OrderMedia line : lines) titles.put(line.getMedia().getId(), line.getMedia().getTitle());
+        if (requested.isEmpty()) return new InventoryCommit(List.of(), List.of());
+
+        List<Integer> ids = new ArrayList<>(requested.keySet());
+        Savepoint savepoint = connection.setSavepoint();
+        int[] counts;
+        try (PreparedStatement stm = connection.prepareStatement(DECREMENT)) {
+            for (Integer id : ids) {
+                int quantity = requested.get(id);
+                stm.setInt(1, quantity);
+                stm.setInt(2, id);
+                stm.setInt(3, quantity);
+                stm.addBatch();
+            }
+            counts = stm.executeBatch();
+        }
+
+        List<Integer> failedIds = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            // 0 row updated: the media is missing or has not enough stock left
+            if (counts[i] == 0) failedIds.add(ids.get(i));
+        }
+        if (failedIds.isEmpty()) {
+            connection.releaseSavepoint(savepoint);
+            return new InventoryCommit(List.of(), ids);
+        }
+        connection.rollback(savepoint);
+
+        // the failed lines were left untouched, their last committed stock is current
+        Map<Integer, Integer> available = new MediaRepository().findQuantities(failedIds);
+        MediaCache.getInstance().putQuantities(available);
+        List<InventoryCommit.FailedLine> failed = new ArrayList<>();
+        for (Integer id : failedIds) {
+            failed.add(new InventoryCommit.FailedLine(id, titles.get(id), requested.get(id), available.getOrDefault(id, 0)));
+        }
+        return new InventoryCommit(failed, List.of());
+    }
+
+    /**
+     * Drops the stock levels taken by a committed decrement from the cache
+     * @param result the result of {@link #commit(Connection, Collection)}, once its transaction is committed
+     */
+    public void committed(InventoryCommit result) {
+        if (!result.getMediaIds().isEmpty()) MediaCache.getInstance().invalidateStock(result.getMediaIds());
+    }
+
+    private static Map<Integer, Integer> sumByMedia(Collection<OrderMedia> lines) {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (OrderMedia line : lines) {
+            if (line.getQuantity() <= 0) continue;
+            quantities.merge(line.getMedia().getId(), line.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+}
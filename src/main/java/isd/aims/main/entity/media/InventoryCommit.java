@@ -0,0 +1,95 @@
+package isd.aims.main.entity.media;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of {@link Inventory#commit}: either every line was taken out of the stock,
+ * or nothing was and the lines that could not be served are listed
+ * @author nguyenlm
+ */
+public class InventoryCommit {
+
+    private final List<FailedLine> failedLines;
+    private final List<Integer> mediaIds;
+
+    /**
+     * @param failedLines the lines not served, empty if the stock was taken
+     * @param mediaIds    the media whose stock was taken
+     */
+    InventoryCommit(List<FailedLine> failedLines, List<Integer> mediaIds) {
+        this.failedLines = Collections.unmodifiableList(failedLines);
+        this.mediaIds = Collections.unmodifiableList(mediaIds);
+    }
+
+    /**
+     * @return true if the stock was decremented for every line
+     */
+    public boolean isCommitted() {
+        return failedLines.isEmpty();
+    }
+
+    public List<FailedLine> getFailedLines() {
+        return failedLines;
+    }
+
+    /**
+     * @return the media whose stock was decremented, empty if nothing was taken
+     */
+    public List<Integer> getMediaIds() {
+        return mediaIds;
+    }
+
+    @Override
+    public String toString() {
+        if (isCommitted()) return "Stock committed";
+        StringBuilder sb = new StringBuilder();
+        for (FailedLine line : failedLines) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A media whose stock was below the ordered quantity when the order was committed
+     */
+    public static class FailedLine {
+
+        private final int mediaId;
+        private final String title;
+        private final int requested;
+        private final int available;
+
+        FailedLine(int mediaId, String title, int requested, int available) {
+            this.mediaId = mediaId;
+            this.title = title;
+            this.requested = requested;
+            this.available = available;
+        }
+
+        public int getMediaId() {
+            return mediaId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getRequested() {
+            return requested;
+        }
+
+        /**
+         * @return the stock read right after the rollback
+         */
+        public int getAvailable() {
+            return available;
+        }
+
+        @Override
+        public String toString() {
+            return title + ": requested " + requested + ", only " + available + " in stock";
+        }
+    }
+}
@@ -3,22 +3,25 @@ package isd.aims.main.entity.media;
 import isd.aims.main.entity.db.DBConnection;
 import isd.aims.main.utils.Utils;
 
-import java.sql.ResultSet;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The general media class, for another media it can be done by inheriting this class
  * @author nguyenlm
  */
-public class Media {
+public class Media implements Cloneable {
 
     private static Logger LOGGER = Utils.getLogger(Media.class.getName());
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
 
-    protected Statement stm;
     protected int id;
     protected String title;
     protected String category;
@@ -29,7 +32,7 @@ public class Media {
     protected String imageURL;
 
     public Media() throws SQLException{
-        stm = DBConnection.getConnection().createStatement();
+
     }
 
     public Media (int id, String title, String category, int price, int quantity, String type) throws SQLException{
@@ -39,60 +42,65 @@ public class Media {
         this.price = price;
         this.quantity = quantity;
         this.type = type;
-
-        //stm = DBConnection.getConnection().createStatement();
     }
 
+    /**
+     * Refreshes the quantity in stock, it may be up to {@link isd.aims.main.utils.Configs#STOCK_CACHE_TTL} ms old
+     * @return the quantity, also stored in this media
+     * @throws SQLException
+     */
     public int getQuantity() throws SQLException{
-        int updated_quantity = getMediaById(id).quantity;
+        int updated_quantity = MediaCache.getInstance().getQuantity(id);
         this.quantity = updated_quantity;
         return updated_quantity;
     }
 
+    /**
+     * Loads the media with its subtype details (Book, CD or DVD) in one query, through the {@link MediaCache}
+     * @param id
+     * @return Media or null if not found, a copy of the cached one that the caller may change
+     * @throws SQLException
+     */
     public Media getMediaById(int id) throws SQLException{
-        String sql = "SELECT * FROM Media ;";
-        Statement stm = DBConnection.getConnection().createStatement();
-        ResultSet res = stm.executeQuery(sql);
-		if(res.next()) {
-
-            return new Media()
-                .setId(res.getInt("id"))
-                .setTitle(res.getString("title"))
-                .setQuantity(res.getInt("quantity"))
-                .setCategory(res.getString("category"))
-                .setMediaURL(res.getString("imageUrl"))
-                .setPrice(res.getInt("price"))
-                .setType(res.getString("type"));
-        }
-        return null;
+        return MediaCache.getInstance().get(id);
     }
 
+    /**
+     * Loads every media of the catalog, prefer {@link MediaRepository#stream(MediaFilter)}
+     * or {@link MediaRepository#findPage(int, int, MediaFilter)} when the catalog is large
+     * @return List[Media]
+     * @throws SQLException
+     */
     public List getAllMedia() throws SQLException{
-        Statement stm = DBConnection.getConnection().createStatement();
-        ResultSet res = stm.executeQuery("select * from Media");
-        ArrayList medium = new ArrayList<>();
-        while (res.next()) {
-            Media media = new Media()
-                .setId(res.getInt("id"))
-                .setTitle(res.getString("title"))
-                .setQuantity(res.getInt("quantity"))
-                .setCategory(res.getString("category"))
-                .setMediaURL(res.getString("imageUrl"))
-                .setPrice(res.getInt("price"))
-                .setType(res.getString("type"));
-            medium.add(media);
+        try (Stream<Media> medium = new MediaRepository().stream(null)) {
+            return medium.collect(Collectors.toCollection(ArrayList::new));
         }
-        return medium;
     }
 
     public void updateMediaFieldById(String tbname, int id, String field, Object value) throws SQLException {
-        Statement stm = DBConnection.getConnection().createStatement();
-        if (value instanceof String){
-            value = "\"" + value + "\"";
+        // table and column names cannot be bound, so only plain identifiers are accepted
+        if (!IDENTIFIER.matcher(tbname).matches() || !IDENTIFIER.matcher(field).matches()) {
+            throw new SQLException("Invalid table or field name: " + tbname + "." + field);
+        }
+        String sql = "UPDATE \"" + tbname + "\" SET \"" + field + "\" = ? WHERE id = ?";
+        try (Connection connection = DBConnection.getWriteConnection();
+             PreparedStatement stm = connection.prepareStatement(sql)) {
+            stm.setObject(1, value);
+            stm.setInt(2, id);
+            stm.executeUpdate();
+        }
+        MediaCache.getInstance().invalidate(id);
+    }
+
+    /**
+     * @return a copy of this media and of its subtype details, the copy can be changed on its own
+     */
+    public Media copy() {
+        try {
+            return (Media) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
         }
-        stm.executeUpdate(" update " + tbname + " set" + " " 
-                          + field + "=" + value + " " 
-                          + "where id=" + id + ";");
     }
 
     // getter and setter 
@@ -132,6 +140,15 @@ public class Media {
         return this;
     }
 
+    public int getValue() {
+        return this.value;
+    }
+
+    public Media setValue(int value) {
+        this.value = value;
+        return this;
+    }
+
     public String getImageURL(){
         return this.imageURL;
     }
@@ -141,6 +158,13 @@ public class Media {
         return this;
     }
 
+    /**
+     * @return the quantity loaded with this object, without querying the database again
+     */
+    public int getLoadedQuantity() {
+        return this.quantity;
+    }
+
     public Media setQuantity(int quantity) {
         this.quantity = quantity;
         return this;
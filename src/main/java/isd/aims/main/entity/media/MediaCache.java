@@ -0,0 +1,370 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.utils.Configs;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded read-through cache in front of {@link MediaRepository}, least recently used
+ * entries are evicted first. The media details expire after {@link Configs#MEDIA_CACHE_TTL}
+ * and the stock levels, which change with every order, after the much shorter
+ * {@link Configs#STOCK_CACHE_TTL}. Code writing to the Media tables must invalidate
+ * the ids it touched; a value loaded while an invalidation happens is returned but not cached.
+ * Every media returned is a copy of the cached one, the caller may change it.
+ * @author nguyenlm
+ */
+public class MediaCache {
+
+    private static MediaCache instance;
+
+    private final MediaRepository repository;
+    private final int maxEntries;
+    private final long mediaTtlNanos;
+    private final long stockTtlNanos;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<Integer, Entry> entries;
+    private long invalidationCount; // guarded by this
+
+    private final AtomicLong mediaHits = new AtomicLong();
+    private final AtomicLong mediaMisses = new AtomicLong();
+    private final AtomicLong stockHits = new AtomicLong();
+    private final AtomicLong stockMisses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public static synchronized MediaCache getInstance() {
+        if (instance == null) {
+            instance = new MediaCache(new MediaRepository(), Configs.MEDIA_CACHE_SIZE,
+                    Configs.MEDIA_CACHE_TTL, Configs.STOCK_CACHE_TTL, System::nanoTime);
+        }
+        return instance;
+    }
+
+    /**
+     * @param repository   where the misses are loaded from
+     * @param maxEntries   the maximum number of media kept
+     * @param mediaTtl     how long the media details are served from the cache, in ms
+     * @param stockTtl     how long the stock levels are served from the cache, in ms
+     * @param clock        nanosecond time source
+     */
+    MediaCache(MediaRepository repository, int maxEntries, long mediaTtl, long stockTtl, LongSupplier clock) {
+        this.repository = repository;
+        this.maxEntries = maxEntries;
+        this.mediaTtlNanos = TimeUnit.MILLISECONDS.toNanos(mediaTtl);
+        this.stockTtlNanos = TimeUnit.MILLISECONDS.toNanos(stockTtl);
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() <= MediaCache.this.maxEntries) return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param id
+     * @return the typed media, or null if there is no media with this id
+     * @throws SQLException
+     */
+    public Media get(int id) throws SQLException {
+        long epoch;
+        synchronized (this) {
+            Media cached = fresh(id);
+            if (cached != null) return cached;
+            epoch = invalidationCount;
+        }
+        mediaMisses.incrementAndGet();
+        Media media = repository.findById(id);
+        if (media == null) return null;
+        synchronized (this) {
+            if (epoch == invalidationCount) store(media);
+        }
+        return media;
+    }
+
+    /**
+     * Loads many media at once, the misses are read together
+     * @param ids
+     * @return the typed media keyed by id, in the order of the given ids; missing ids are absent
+     * @throws SQLException
+     */
+    public Map<Integer, Media> getAll(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Media> found = new LinkedHashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        long epoch;
+        synchronized (this) {
+            for (Integer id : new LinkedHashSet<>(ids)) {
+                // keeps the place of the id in the result
+                found.put(id, fresh(id));
+                if (found.get(id) == null) misses.add(id);
+            }
+            epoch = invalidationCount;
+        }
+        if (misses.isEmpty()) return found;
+        mediaMisses.addAndGet(misses.size());
+        Map<Integer, Media> loaded = repository.findByIds(misses);
+        synchronized (this) {
+            if (epoch == invalidationCount) {
+                for (Media media : loaded.values()) store(media);
+            }
+        }
+        for (Integer id : misses) {
+            Media media = loaded.get(id);
+            if (media == null) found.remove(id);
+            else found.put(id, media);
+        }
+        return found;
+    }
+
+    /**
+     * @return a copy of the cached media if it is fresh, else null; its quantity is the cached stock level,
+     * which is refreshed more often than the media itself; guarded by this
+     */
+    private Media fresh(int id) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.media == null) return null;
+        if (!isFresh(entry.mediaLoadedAt, mediaTtlNanos)) {
+            expirations.incrementAndGet();
+            return null;
+        }
+        mediaHits.incrementAndGet();
+        Media copy = entry.media.copy();
+        if (entry.stockLoadedAt != Entry.NOT_LOADED) copy.setQuantity(entry.quantity);
+        return copy;
+    }
+
+    /**
+     * Caches a media just read from the database, the caller keeps the instance given; guarded by this
+     */
+    private void store(Media media) {
+        long now = clock.getAsLong();
+        Entry entry = entries.computeIfAbsent(media.getId(), key -> new Entry());
+        entry.media = media.copy();
+        entry.mediaLoadedAt = now;
+        // the row came with its stock
+        entry.quantity = media.getLoadedQuantity();
+        entry.stockLoadedAt = now;
+    }
+
+    /**
+     * @param id
+     * @return the quantity in stock, 0 if there is no media with this id
+     * @throws SQLException
+     */
+    public int getQuantity(int id) throws SQLException {
+        return getQuantities(List.of(id)).getOrDefault(id, 0);
+    }
+
+    /**
+     * Reads the stock of many media, the misses are loaded together
+     * @param ids
+     * @return the quantity in stock keyed by id, in the order of the given ids; missing ids are absent
+     * @throws SQLException
+     */
+    public Map<Integer, Integer> getQuantities(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        long epoch;
+        synchronized (this) {
+            for (Integer id : new LinkedHashSet<>(ids)) {
+                Entry entry = entries.get(id);
+                if (entry != null && entry.stockLoadedAt != Entry.NOT_LOADED) {
+                    if (isFresh(entry.stockLoadedAt, stockTtlNanos)) {
+                        stockHits.incrementAndGet();
+                        quantities.put(id, entry.quantity);
+                        continue;
+                    }
+                    expirations.incrementAndGet();
+                }
+                // keeps the place of the id in the result
+                quantities.put(id, null);
+                misses.add(id);
+            }
+            epoch = invalidationCount;
+        }
+        if (!misses.isEmpty()) {
+            stockMisses.addAndGet(misses.size());
+            Map<Integer, Integer> loaded = repository.findQuantities(misses);
+            for (Integer id : misses) {
+                Integer quantity = loaded.get(id);
+                if (quantity == null) quantities.remove(id);
+                else quantities.put(id, quantity);
+            }
+            synchronized (this) {
+                if (epoch == invalidationCount) putQuantities(loaded);
+            }
+        }
+        return quantities;
+    }
+
+    /**
+     * Stores stock levels just read from the database
+     * @param quantities keyed by media id
+     */
+    public synchronized void putQuantities(Map<Integer, Integer> quantities) {
+        long now = clock.getAsLong();
+        for (Map.Entry<Integer, Integer> quantity : quantities.entrySet()) {
+            Entry entry = entries.computeIfAbsent(quantity.getKey(), key -> new Entry());
+            entry.quantity = quantity.getValue();
+            entry.stockLoadedAt = now;
+        }
+    }
+
+    /**
+     * Forgets everything about the media, after any write to its rows
+     * @param id
+     */
+    public synchronized void invalidate(int id) {
+        entries.remove(id);
+        invalidated();
+    }
+
+    /**
+     * Forgets the stock levels of the media, after their quantities changed
+     * @param ids
+     */
+    public synchronized void invalidateStock(Collection<Integer> ids) {
+        for (Integer id : ids) {
+            Entry entry = entries.get(id);
+            if (entry == null) continue;
+            entry.stockLoadedAt = Entry.NOT_LOADED;
+            // the cached media carries the old quantity too
+            entry.media = null;
+        }
+        invalidated();
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        invalidated();
+    }
+
+    private void invalidated() {
+        invalidationCount++;
+        invalidations.incrementAndGet();
+    }
+
+    private boolean isFresh(long loadedAt, long ttlNanos) {
+        return clock.getAsLong() - loadedAt < ttlNanos;
+    }
+
+    /**
+     * @return a snapshot of the cache metrics
+     */
+    public synchronized CacheStats getStats() {
+        return new CacheStats(entries.size(), maxEntries, mediaHits.get(), mediaMisses.get(), stockHits.get(),
+                stockMisses.get(), evictions.get(), expirations.get(), invalidations.get());
+    }
+
+    private static class Entry {
+        private static final long NOT_LOADED = Long.MIN_VALUE;
+
+        private Media media;
+        private long mediaLoadedAt;
+        private int quantity;
+        private long stockLoadedAt = NOT_LOADED;
+    }
+
+    /**
+     * Immutable snapshot of the cache metrics
+     */
+    public static class CacheStats {
+
+        private final int size;
+        private final int maxSize;
+        private final long mediaHits;
+        private final long mediaMisses;
+        private final long stockHits;
+        private final long stockMisses;
+        private final long evictions;
+        private final long expirations;
+        private final long invalidations;
+
+        CacheStats(int size, int maxSize, long mediaHits, long mediaMisses, long stockHits, long stockMisses,
+                   long evictions, long expirations, long invalidations) {
+            this.size = size;
+            this.maxSize = maxSize;
+            this.mediaHits = mediaHits;
+            this.mediaMisses = mediaMisses;
+            this.stockHits = stockHits;
+            this.stockMisses = stockMisses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public long getMediaHits() {
+            return mediaHits;
+        }
+
+        public long getMediaMisses() {
+            return mediaMisses;
+        }
+
+        public long getStockHits() {
+            return stockHits;
+        }
+
+        public long getStockMisses() {
+            return stockMisses;
+        }
+
+        /**
+         * @return the number of entries dropped because the cache was full
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the number of lookups that found an entry older than its TTL
+         */
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        /**
+         * @return the share of media and stock lookups served from the cache, between 0 and 1
+         */
+        public double getHitRatio() {
+            long hits = mediaHits + stockHits;
+            long lookups = hits + mediaMisses + stockMisses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{size=" + size + "/" + maxSize
+                    + ", media " + mediaHits + " hits/" + mediaMisses + " misses"
+                    + ", stock " + stockHits + " hits/" + stockMisses + " misses"
+                    + ", hitRatio=" + String.format("%.2f", getHitRatio())
+                    + ", evictions=" + evictions + ", expirations=" + expirations
+                    + ", invalidations=" + invalidations + "}";
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package isd.aims.main.entity.media;
+
+/**
+ * One entry of the MediaChange log: a write to the Media, Book, CD or DVD row of a media
+ * @author nguyenlm
+ */
+public class MediaChange {
+
+    public static final char INSERT = 'I';
+    public static final char UPDATE = 'U';
+    public static final char DELETE = 'D';
+
+    private final long sequence;
+    private final int mediaId;
+    private final String tableName;
+    private final char operation;
+    private final long changedAt;
+
+    public MediaChange(long sequence, int mediaId, String tableName, char operation, long changedAt) {
+        this.sequence = sequence;
+        this.mediaId = mediaId;
+        this.tableName = tableName;
+        this.operation = operation;
+        this.changedAt = changedAt;
+    }
+
+    /**
+     * @return the position of the change in the log, increasing with every write
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getMediaId() {
+        return mediaId;
+    }
+
+    /**
+     * @return Media, Book, CD or DVD
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}
+     */
+    public char getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the time of the write, in epoch millis
+     */
+    public long getChangedAt() {
+        return changedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + operation + " " + tableName + " " + mediaId;
+    }
+}
@@ -0,0 +1,79 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.entity.db.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the MediaChange log filled by the triggers of the catalog tables
+ * @author nguyenlm
+ */
+public class MediaChangeLog {
+
+    /**
+     * @param afterSequence the last sequence already seen
+     * @param limit         the maximum number of changes returned
+     * @return the changes after the given sequence, oldest first
+     * @throws SQLException
+     */
+    public List<MediaChange> readSince(long afterSequence, int limit) throws SQLException {
+        List<MediaChange> changes = new ArrayList<>();
+        try (Connection connection = DBConnection.getConnection();
+             PreparedStatement stm = connection.prepareStatement(
+                     "SELECT seq, mediaID, tableName, operation, changedAt FROM MediaChange WHERE seq > ? ORDER BY seq LIMIT ?")) {
+            stm.setLong(1, afterSequence);
+            stm.setInt(2, limit);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) {
+                    changes.add(new MediaChange(res.getLong("seq"), res.getInt("mediaID"), res.getString("tableName"),
+                            res.getString("operation").charAt(0), res.getLong("changedAt")));
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return the sequence of the latest change, 0 if nothing was ever logged
+     * @throws SQLException
+     */
+    public long getLastSequence() throws SQLException {
+        // sqlite_sequence remembers the last sequence even when the log was pruned empty
+        return querySequence("SELECT COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'MediaChange'), 0)");
+    }
+
+    /**
+     * @return the sequence of the oldest change still in the log, 0 if the log is empty
+     * @throws SQLException
+     */
+    public long getFirstSequence() throws SQLException {
+        return querySequence("SELECT COALESCE(MIN(seq), 0) FROM MediaChange");
+    }
+
+    private long querySequence(String sql) throws SQLException {
+        try (Connection connection = DBConnection.getConnection();
+             PreparedStatement stm = connection.prepareStatement(sql);
+             ResultSet res = stm.executeQuery()) {
+            return res.next() ? res.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Deletes the changes older than the given time
+     * @param before epoch millis
+     * @return the number of changes deleted
+     * @throws SQLException
+     */
+    public int prune(long before) throws SQLException {
+        try (Connection connection = DBConnection.getWriteConnection();
+             PreparedStatement stm = connection.prepareStatement("DELETE FROM MediaChange WHERE changedAt < ?")) {
+            stm.setLong(1, before);
+            return stm.executeUpdate();
+        }
+    }
+}
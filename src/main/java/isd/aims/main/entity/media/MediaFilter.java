@@ -0,0 +1,120 @@
+package isd.aims.main.entity.media;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Optional conditions applied to a catalog page, every field left null is ignored
+ * @author nguyenlm
+ */
+public class MediaFilter {
+
+    private String type;
+    private String category;
+    private String titlePrefix;
+    private Integer minPrice;
+    private Integer maxPrice;
+
+    public String getType() {
+        return type;
+    }
+
+    public MediaFilter setType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public MediaFilter setCategory(String category) {
+        this.category = category;
+        return this;
+    }
+
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    public MediaFilter setTitlePrefix(String titlePrefix) {
+        this.titlePrefix = titlePrefix;
+        return this;
+    }
+
+    public Integer getMinPrice() {
+        return minPrice;
+    }
+
+    /**
+     * @param minPrice inclusive
+     * @return MediaFilter
+     */
+    public MediaFilter setMinPrice(Integer minPrice) {
+        this.minPrice = minPrice;
+        return this;
+    }
+
+    public Integer getMaxPrice() {
+        return maxPrice;
+    }
+
+    /**
+     * @param maxPrice inclusive
+     * @return MediaFilter
+     */
+    public MediaFilter setMaxPrice(Integer maxPrice) {
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    /**
+     * @return the SQL conditions, each starting with " AND ", in the order of {@link #parameters()}
+     */
+    String conditions() {
+        StringBuilder sb = new StringBuilder();
+        if (type != null) sb.append(" AND Media.type = ?");
+        if (category != null) sb.append(" AND Media.category = ?");
+        if (titlePrefix != null) sb.append(" AND Media.title LIKE ? ESCAPE '\\'");
+        if (minPrice != null) sb.append(" AND Media.price >= ?");
+        if (maxPrice != null) sb.append(" AND Media.price <= ?");
+        return sb.toString();
+    }
+
+    List<Object> parameters() {
+        List<Object> parameters = new ArrayList<>();
+        if (type != null) parameters.add(type);
+        if (category != null) parameters.add(category);
+        if (titlePrefix != null) parameters.add(titlePrefix.replaceAll("([\\\\%_])", "\\\\$1") + "%");
+        if (minPrice != null) parameters.add(minPrice);
+        if (maxPrice != null) parameters.add(maxPrice);
+        return parameters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MediaFilter)) return false;
+        MediaFilter that = (MediaFilter) o;
+        return Objects.equals(type, that.type) && Objects.equals(category, that.category)
+                && Objects.equals(titlePrefix, that.titlePrefix) && Objects.equals(minPrice, that.minPrice)
+                && Objects.equals(maxPrice, that.maxPrice);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, category, titlePrefix, minPrice, maxPrice);
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+            " type='" + type + "'" +
+            ", category='" + category + "'" +
+            ", titlePrefix='" + titlePrefix + "'" +
+            ", minPrice='" + minPrice + "'" +
+            ", maxPrice='" + maxPrice + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,36 @@
+package isd.aims.main.entity.media;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the catalog, ordered by id. The next page starts after {@link #getLastId()}.
+ * @author nguyenlm
+ */
+public class MediaPage {
+
+    private final List<Media> items;
+    private final int lastId;
+    private final boolean hasMore;
+
+    public MediaPage(List<Media> items, int lastId, boolean hasMore) {
+        this.items = Collections.unmodifiableList(items);
+        this.lastId = lastId;
+        this.hasMore = hasMore;
+    }
+
+    public List<Media> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the id of the last media of this page, to be passed as afterId for the next page
+     */
+    public int getLastId() {
+        return lastId;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
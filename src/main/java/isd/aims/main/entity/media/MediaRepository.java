@@ -0,0 +1,397 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.exception.DataAccessException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Loads fully typed media (Book, CD, DVD or plain Media) in a single round trip:
+ * the subtype tables are LEFT JOINed on the Media row according to its type.
+ * @author nguyenlm
+ */
+public class MediaRepository {
+
+    public static final String TYPE_BOOK = "book";
+    public static final String TYPE_CD = "cd";
+    public static final String TYPE_DVD = "dvd";
+
+    /**
+     * Maximum number of ids bound in one IN (...) list
+     */
+    static final int MAX_BATCH = 512;
+
+    /**
+     * Rows fetched per round trip by {@link #stream(MediaFilter)}
+     */
+    public static final int DEFAULT_FETCH_SIZE = 256;
+
+    static final String SELECT_TYPED = "SELECT Media.*, "
+            + "Book.id AS bookId, Book.author, Book.coverType, Book.publisher, Book.publishDate, "
+            + "Book.numOfPages, Book.language, Book.bookCategory, "
+            + "CD.id AS cdId, CD.artist, CD.recordLabel, CD.musicType, CD.releasedDate AS cdReleasedDate, "
+            + "DVD.id AS dvdId, DVD.discType, DVD.director, DVD.runtime, DVD.studio, DVD.subtitle, "
+            + "DVD.releasedDate AS dvdReleasedDate, DVD.filmType "
+            + "FROM Media "
+            + "LEFT JOIN Book ON Book.id = Media.id AND Media.type = '" + TYPE_BOOK + "' "
+            + "LEFT JOIN CD ON CD.id = Media.id AND Media.type = '" + TYPE_CD + "' "
+            + "LEFT JOIN DVD ON DVD.id = Media.id AND Media.type = '" + TYPE_DVD + "' ";
+
+    /**
+     * @param id
+     * @return the typed media, or null if there is no media with this id
+     * @throws SQLException
+     */
+    public Media findById(int id) throws SQLException {
+        try (Connection connection = DBConnection.getConnection();
+             PreparedStatement stm = connection.prepareStatement(SELECT_TYPED + "WHERE Media.id = ?")) {
+            stm.setInt(1, id);
+            try (ResultSet res = stm.executeQuery()) {
+                return res.next() ? map(res) : null;
+            }
+        }
+    }
+
+    /**
+     * Loads many media at once, one query per {@value #MAX_BATCH} ids
+     * @param ids
+     * @return the typed media keyed by id, in the order of the given ids; missing ids are absent
+     * @throws SQLException
+     */
+    public Map<Integer, Media> findByIds(Collection<Integer> ids) throws SQLException {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Integer, Media> found = new LinkedHashMap<>();
+        if (distinct.isEmpty()) return found;
+
+        Map<Integer, Media> loaded = new LinkedHashMap<>();
+        try (Connection connection = DBConnection.getConnection()) {
+            for (int from = 0; from < distinct.size(); from += MAX_BATCH) {
+                List<Integer> chunk = distinct.subList(from, Math.min(from + MAX_BATCH, distinct.size()));
+                int slots = bucket(chunk.size());
+                try (PreparedStatement stm = connection.prepareStatement(SELECT_TYPED + "WHERE Media.id IN " + placeholders(slots))) {
+                    bindPadded(stm, 1, chunk, slots);
+                    try (ResultSet res = stm.executeQuery()) {
+                        while (res.next()) {
+                            Media media = map(res);
+                            loaded.put(media.getId(), media);
+                        }
+                    }
+                }
+            }
+        }
+        for (Integer id : distinct) {
+            Media media = loaded.get(id);
+            if (media != null) found.put(id, media);
+        }
+        return found;
+    }
+
+    /**
+     * Reads only the stock of the given media, one query per {@value #MAX_BATCH} ids
+     * @param ids
+     * @return the quantity in stock keyed by id, missing ids are absent
+     * @throws SQLException
+     */
+    public Map<Integer, Integer> findQuantities(Collection<Integer> ids) throws SQLException {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        if (distinct.isEmpty()) return quantities;
+
+        try (Connection connection = DBConnection.getConnection()) {
+            for (int from = 0; from < distinct.size(); from += MAX_BATCH) {
+                List<Integer> chunk = distinct.subList(from, Math.min(from + MAX_BATCH, distinct.size()));
+                int slots = bucket(chunk.size());
+                try (PreparedStatement stm = connection.prepareStatement("SELECT id, quantity FROM Media WHERE id IN " + placeholders(slots))) {
+                    bindPadded(stm, 1, chunk, slots);
+                    try (ResultSet res = stm.executeQuery()) {
+                        while (res.next()) quantities.put(res.getInt("id"), res.getInt("quantity"));
+                    }
+                }
+            }
+        }
+        return quantities;
+    }
+
+    /**
+     * @param conditions the conditions of a {@link MediaFilter}
+     * @return the query of {@link #findPage(int, int, MediaFilter)}: afterId, the filter parameters, then the limit
+     */
+    static String pageQuery(String conditions) {
+        return SELECT_TYPED + "WHERE Media.id > ?" + conditions + " ORDER BY Media.id LIMIT ?";
+    }
+
+    /**
+     * Loads the catalog page by page with keyset pagination on Media.id, so every
+     * page costs the same whatever its position in the table
+     * @param afterId the last id of the previous page, 0 for the first page
+     * @param limit   the maximum number of media in the page
+     * @param filter  optional conditions, may be null
+     * @return MediaPage
+     * @throws SQLException
+     */
+    public MediaPage findPage(int afterId, int limit, MediaFilter filter) throws SQLException {
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+        String conditions = filter == null ? "" : filter.conditions();
+        List<Object> parameters = filter == null ? List.of() : filter.parameters();
+
+        List<Media> items = new ArrayList<>(limit);
+        boolean hasMore = false;
+        try (Connection connection = DBConnection.getConnection();
+             PreparedStatement stm = connection.prepareStatement(pageQuery(conditions))) {
+            int index = 1;
+            stm.setInt(index++, afterId);
+            for (Object parameter : parameters) stm.setObject(index++, parameter);
+            // one extra row tells whether there is a next page
+            stm.setInt(index, limit + 1);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) {
+                    if (items.size() == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    items.add(map(res));
+                }
+            }
+        }
+        int lastId = items.isEmpty() ? afterId : items.get(items.size() - 1).getId();
+        return new MediaPage(items, lastId, hasMore);
+    }
+
+    /**
+     * @param filter optional conditions, may be null
+     * @return the query of {@link #search(String, MediaFilter, int, int)}: the match expression,
+     * the filter parameters, the limit then the offset
+     */
+    static String searchQuery(MediaFilter filter) {
+        return SELECT_TYPED + "JOIN MediaSearch ON MediaSearch.rowid = Media.id "
+                + "WHERE MediaSearch MATCH ?" + (filter == null ? "" : filter.conditions())
+                + " ORDER BY MediaSearch.rank LIMIT ? OFFSET ?";
+    }
+
+    /**
+     * Full-text search of the titles, authors, artists, directors, publishers, record labels
+     * and studios, best matches (bm25) first. Every word of the text must match,
+     * as a whole word or as the beginning of one, case and diacritics are ignored.
+     * @param text   what the user typed
+     * @param filter optional conditions, may be null
+     * @param offset the number of results to skip, 0 for the first page
+     * @param limit  the maximum number of media in the page
+     * @return SearchPage, empty if the text has no word to search
+     * @throws SQLException
+     */
+    public SearchPage search(String text, MediaFilter filter, int offset, int limit) throws SQLException {
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+        String match = matchExpression(text);
+        List<Media> items = new ArrayList<>(limit);
+        if (match == null) return new SearchPage(items, offset, false);
+        List<Object> parameters = filter == null ? List.of() : filter.parameters();
+
+        boolean hasMore = false;
+        try (Connection connection = DBConnection.getConnection();
+             PreparedStatement stm = connection.prepareStatement(searchQuery(filter))) {
+            int index = 1;
+            stm.setString(index++, match);
+            for (Object parameter : parameters) stm.setObject(index++, parameter);
+            // one extra row tells whether there is a next page
+            stm.setInt(index++, limit + 1);
+            stm.setInt(index, offset);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) {
+                    if (items.size() == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    items.add(map(res));
+                }
+            }
+        }
+        return new SearchPage(items, offset + items.size(), hasMore);
+    }
+
+    /**
+     * Turns free text into an FTS5 query: every word becomes a quoted prefix term,
+     * so the FTS5 operators and punctuation typed by the user are never interpreted
+     * @param text
+     * @return the match expression, or null if the text has no word
+     */
+    static String matchExpression(String text) {
+        if (text == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{M}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(word).append("\"*");
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * @see #stream(MediaFilter, int)
+     */
+    public Stream<Media> stream(MediaFilter filter) throws SQLException {
+        return stream(filter, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Walks the whole catalog ordered by id, mapping one row at a time so that only
+     * the current media is held in memory. The stream holds a pooled connection
+     * until it is closed, so it must be used in a try-with-resources block.
+     * A SQLException raised while the stream is consumed is rethrown as a {@link DataAccessException}.
+     * @param filter    optional conditions, may be null
+     * @param fetchSize number of rows fetched per round trip
+     * @return Stream[Media]
+     * @throws SQLException
+     */
+    public Stream<Media> stream(MediaFilter filter, int fetchSize) throws SQLException {
+        String conditions = filter == null ? "" : filter.conditions();
+        List<Object> parameters = filter == null ? List.of() : filter.parameters();
+
+        Connection connection = DBConnection.getConnection();
+        PreparedStatement stm = null;
+        ResultSet res;
+        try {
+            stm = connection.prepareStatement(SELECT_TYPED + "WHERE 1 = 1" + conditions + " ORDER BY Media.id");
+            stm.setFetchSize(fetchSize);
+            int index = 1;
+            for (Object parameter : parameters) stm.setObject(index++, parameter);
+            res = stm.executeQuery();
+        } catch (SQLException e) {
+            closeAll(null, stm, connection);
+            throw e;
+        }
+        PreparedStatement statement = stm;
+        Spliterator<Media> rows = new Spliterators.AbstractSpliterator<Media>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Media> action) {
+                try {
+                    if (!res.next()) return false;
+                    action.accept(map(res));
+                    return true;
+                } catch (SQLException e) {
+                    throw new DataAccessException("Cannot read the next media: " + e.getMessage(), e);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                closeAll(res, statement, connection);
+            } catch (SQLException e) {
+                throw new DataAccessException("Cannot close the media stream: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Closes the result set, the statement then the connection, each of them even if closing the
+     * previous one failed; the first failure is thrown with the later ones suppressed
+     */
+    private static void closeAll(ResultSet res, PreparedStatement stm, Connection connection) throws SQLException {
+        SQLException failure = null;
+        for (AutoCloseable resource : new AutoCloseable[] {res, stm, connection}) {
+            if (resource == null) continue;
+            try {
+                resource.close();
+            } catch (Exception e) {
+                SQLException error = e instanceof SQLException ? (SQLException) e : new SQLException(e);
+                if (failure == null) failure = error;
+                else failure.addSuppressed(error);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Rounds the size of an IN list up to a power of two so that only a handful
+     * of distinct SQL texts reach the statement cache
+     */
+    static int bucket(int size) {
+        int slots = Integer.highestOneBit(Math.max(size, 1));
+        if (slots < size) slots <<= 1;
+        return Math.min(slots, MAX_BATCH);
+    }
+
+    static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2 + 2).append('(');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('?');
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Binds the ids from the given index, the unused slots repeat the last id
+     */
+    static void bindPadded(PreparedStatement stm, int firstIndex, List<Integer> ids, int slots) throws SQLException {
+        for (int i = 0; i < slots; i++) {
+            stm.setInt(firstIndex + i, ids.get(Math.min(i, ids.size() - 1)));
+        }
+    }
+
+    /**
+     * Maps the current row of a {@link #SELECT_TYPED} query to the right media class
+     */
+    Media map(ResultSet res) throws SQLException {
+        int id = res.getInt("id");
+        String title = res.getString("title");
+        String category = res.getString("category");
+        int price = res.getInt("price");
+        int quantity = res.getInt("quantity");
+        String type = res.getString("type");
+
+        Media media;
+        if (res.getObject("bookId") != null) {
+            media = new Book(id, title, category, price, quantity, type,
+                    res.getString("author"), res.getString("coverType"), res.getString("publisher"),
+                    readDate(res, "publishDate"), res.getInt("numOfPages"), res.getString("language"),
+                    res.getString("bookCategory"));
+        } else if (res.getObject("cdId") != null) {
+            media = new CD(id, title, category, price, quantity, type,
+                    res.getString("artist"), res.getString("recordLabel"), res.getString("musicType"),
+                    readDate(res, "cdReleasedDate"));
+        } else if (res.getObject("dvdId") != null) {
+            media = new DVD(id, title, category, price, quantity, type,
+                    res.getString("discType"), res.getString("director"), res.getInt("runtime"),
+                    res.getString("studio"), res.getString("subtitle"), readDate(res, "dvdReleasedDate"),
+                    res.getString("filmType"));
+        } else {
+            // no subtype row yet, fall back to the general media
+            media = new Media(id, title, category, price, quantity, type);
+        }
+        return media.setValue(res.getInt("value")).setMediaURL(res.getString("imageUrl"));
+    }
+
+    /**
+     * Dates written through JDBC are stored as epoch millis, dates typed in by hand as yyyy-MM-dd text
+     */
+    static Date readDate(ResultSet res, String column) throws SQLException {
+        Object value = res.getObject(column);
+        if (value == null) return null;
+        if (value instanceof Number) return new Date(((Number) value).longValue());
+        String text = value.toString().trim();
+        try {
+            String pattern = text.length() > 10 ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd";
+            return new SimpleDateFormat(pattern).parse(text);
+        } catch (ParseException e) {
+            throw new SQLException("Cannot parse date '" + text + "' in column " + column, e);
+        }
+    }
+}
@@ -0,0 +1,884 @@
+package isd.aims.main.entity.media;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
+
+/**
+ * The catalog kept outside the Java heap, for inventories too large to hold as Media objects
+ * without long GC pauses. Every media is a fixed width row of {@value #ROW} bytes in a direct
+ * buffer, ordered by id so that the id column is the index, and its strings live in a second
+ * direct buffer, the arena, short repeated values (type, category, publisher...) stored once.
+ * The heap only holds the two buffers whatever the number of media.
+ * <p>
+ * {@link #findById(int)}, {@link #page(int, int)} and {@link #asList()} return flyweight views:
+ * Media, Book, CD or DVD objects holding a row number, whose getters decode the row on demand.
+ * The views are read-only, except the quantity which can be overridden on the view like the
+ * home screen does when media are put in the cart. Each buffer is limited to 2 GB, that is
+ * about 29 million rows; the direct memory is limited by -XX:MaxDirectMemorySize.
+ * The catalog is immutable, {@link #isFresh()} tells when to load it again.
+ * @author nguyenlm
+ */
+public class OffHeapCatalog {
+
+    static final int ROW = 72;
+    static final long NO_DATE = Long.MIN_VALUE;
+    static final int NO_STRING = -1;
+
+    // offsets of the columns in a row
+    private static final int ID = 0;
+    private static final int PRICE = 4;
+    private static final int VALUE = 8;
+    private static final int QUANTITY = 12;
+    private static final int NUMBER = 16; // numOfPages of a book, runtime of a DVD
+    private static final int KIND = 20;
+    private static final int DATE = 24; // publishDate of a book, releasedDate of a CD or DVD
+    private static final int TYPE = 32;
+    private static final int TITLE = 36;
+    private static final int CATEGORY = 40;
+    private static final int IMAGE_URL = 44;
+    private static final int DETAILS = 48; // up to 5 strings of the subtype, in the order of its constructor
+
+    private static final byte MEDIA = 0;
+    private static final byte BOOK = 1;
+    private static final byte CD = 2;
+    private static final byte DVD = 3;
+
+    private final ByteBuffer rows;
+    private final ByteBuffer arena;
+    private final int size;
+    private final long changeSequence;
+
+    private OffHeapCatalog(ByteBuffer rows, ByteBuffer arena, int size, long changeSequence) {
+        this.rows = rows;
+        this.arena = arena;
+        this.size = size;
+        this.changeSequence = changeSequence;
+    }
+
+    /**
+     * Streams the whole catalog into a new off-heap catalog, one media object at a time
+     * @return OffHeapCatalog
+     * @throws SQLException
+     */
+    public static OffHeapCatalog load() throws SQLException {
+        // read before the media: a write racing with the load makes the catalog stale, never wrongly fresh
+        Builder builder = new Builder(1024, new MediaChangeLog().getLastSequence());
+        try (Stream<Media> medium = new MediaRepository().stream(null)) {
+            medium.forEachOrdered(builder::add);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param medium media already loaded, in any order
+     * @return OffHeapCatalog, never fresh
+     */
+    public static OffHeapCatalog of(Collection<? extends Media> medium) {
+        List<Media> sorted = new ArrayList<>(medium);
+        sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        Builder builder = new Builder(sorted.size(), -1);
+        for (Media media : sorted) builder.add(media);
+        return builder.build();
+    }
+
+    /**
+     * @return true if no catalog write was logged since the catalog was loaded
+     * @throws SQLException
+     */
+    public boolean isFresh() throws SQLException {
+        return changeSequence >= 0 && new MediaChangeLog().getLastSequence() == changeSequence;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the bytes of direct memory held by this catalog
+     */
+    public long getOffHeapBytes() {
+        return (long) rows.capacity() + arena.capacity();
+    }
+
+    /**
+     * @param id
+     * @return a view of the media, or null if it is not in the catalog
+     */
+    public Media findById(int id) {
+        int row = firstAfter(id - 1);
+        return row < size && idAt(row) == id ? view(row) : null;
+    }
+
+    /**
+     * One page of the catalog ordered by id, like {@link MediaRepository#findPage(int, int, MediaFilter)} without a filter
+     * @param afterId the last id of the previous page, 0 for the first page
+     * @param limit   the maximum number of media in the page
+     * @return MediaPage of views
+     */
+    public MediaPage page(int afterId, int limit) {
+        int from = firstAfter(afterId);
+        int to = (int) Math.min((long) from + limit, size);
+        List<Media> items = new ArrayList<>(Math.max(to - from, 0));
+        for (int row = from; row < to; row++) items.add(view(row));
+        return new MediaPage(items, items.isEmpty() ? afterId : idAt(to - 1), to < size);
+    }
+
+    /**
+     * @return the whole catalog in id order, every get creates a new view so the list itself holds no media
+     */
+    public List<Media> asList() {
+        return new Views();
+    }
+
+    private class Views extends AbstractList<Media> implements RandomAccess {
+        @Override
+        public Media get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            return view(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * @return the first row whose id is greater than the given one
+     */
+    private int firstAfter(int id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (idAt(mid) <= id) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int idAt(int row) {
+        return rows.getInt(row * ROW + ID);
+    }
+
+    private int intAt(int row, int column) {
+        return rows.getInt(row * ROW + column);
+    }
+
+    private Date dateAt(int row) {
+        long millis = rows.getLong(row * ROW + DATE);
+        return millis == NO_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Decodes a string of the row; only absolute reads are used so several threads can read at once
+     */
+    private String stringAt(int row, int column) {
+        int offset = rows.getInt(row * ROW + column);
+        if (offset == NO_STRING) return null;
+        byte[] bytes = new byte[arena.getInt(offset)];
+        arena.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String detailAt(int row, int index) {
+        return stringAt(row, DETAILS + index * 4);
+    }
+
+    private Media view(int row) {
+        try {
+            switch (rows.get(row * ROW + KIND)) {
+                case BOOK: return new BookView(this, row);
+                case CD: return new CDView(this, row);
+                case DVD: return new DVDView(this, row);
+                default: return new MediaView(this, row);
+            }
+        } catch (SQLException e) {
+            // the media constructors declare it but never throw it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The media of the off-heap catalog are read-only");
+    }
+
+    /**
+     * Appends the rows in ascending id order, growing the buffers by doubling them
+     */
+    static class Builder {
+        /**
+         * Distinct short strings remembered to be stored once, titles and image urls are never shared
+         */
+        private static final int MAX_SHARED = 1 << 16;
+
+        private final long changeSequence;
+        private ByteBuffer rows;
+        private ByteBuffer arena;
+        private int size;
+        private final Map<String, Integer> shared = new HashMap<>();
+
+        Builder(int capacity, long changeSequence) {
+            this.changeSequence = changeSequence;
+            this.rows = allocate(Math.max(capacity, 16) * ROW);
+            this.arena = allocate(Math.max(capacity, 16) * 32);
+        }
+
+        Builder add(Media media) {
+            if (size > 0 && media.getId() <= rows.getInt((size - 1) * ROW + ID)) {
+                throw new IllegalArgumentException("Media must be added by ascending id, " + media.getId() + " came after "
+                        + rows.getInt((size - 1) * ROW + ID));
+            }
+            if ((long) (size + 1) * ROW > Integer.MAX_VALUE) throw new IllegalStateException("Too many media for an off-heap catalog");
+            rows = ensure(rows, (size + 1) * ROW);
+            int base = size * ROW;
+            rows.putInt(base + ID, media.getId());
+            rows.putInt(base + PRICE, media.getPrice());
+            rows.putInt(base + VALUE, media.getValue());
+            rows.putInt(base + QUANTITY, media.getLoadedQuantity());
+            rows.putLong(base + DATE, NO_DATE);
+            rows.putInt(base + TYPE, put(media.getType(), true));
+            rows.putInt(base + TITLE, put(media.getTitle(), false));
+            rows.putInt(base + CATEGORY, put(media.getCategory(), true));
+            rows.putInt(base + IMAGE_URL, put(media.getImageURL(), false));
+            for (int i = 0; i < 5; i++) rows.putInt(base + DETAILS + i * 4, NO_STRING);
+
+            if (media instanceof Book) {
+                Book book = (Book) media;
+                rows.put(base + KIND, BOOK);
+                rows.putInt(base + NUMBER, book.getNumOfPages());
+                putDate(base, book.getPublishDate());
+                putDetails(base, put(book.getAuthor(), false), put(book.getCoverType(), true), put(book.getPublisher(), true),
+                        put(book.getLanguage(), true), put(book.getBookCategory(), true));
+            } else if (media instanceof CD) {
+                CD cd = (CD) media;
+                rows.put(base + KIND, CD);
+                putDate(base, cd.getReleasedDate());
+                putDetails(base, put(cd.getArtist(), false), put(cd.getRecordLabel(), true), put(cd.getMusicType(), true));
+            } else if (media instanceof DVD) {
+                DVD dvd = (DVD) media;
+                rows.put(base + KIND, DVD);
+                rows.putInt(base + NUMBER, dvd.getRuntime());
+                putDate(base, dvd.getReleasedDate());
+                putDetails(base, put(dvd.getDiscType(), true), put(dvd.getDirector(), false), put(dvd.getStudio(), true),
+                        put(dvd.getSubtitles(), true), put(dvd.getFilmType(), true));
+            } else {
+                rows.put(base + KIND, MEDIA);
+            }
+            size++;
+            return this;
+        }
+
+        private void putDate(int base, Date date) {
+            if (date != null) rows.putLong(base + DATE, date.getTime());
+        }
+
+        private void putDetails(int base, int... offsets) {
+            for (int i = 0; i < offsets.length; i++) rows.putInt(base + DETAILS + i * 4, offsets[i]);
+        }
+
+        /**
+         * @return the offset of the string in the arena
+         */
+        private int put(String text, boolean share) {
+            if (text == null) return NO_STRING;
+            if (share) {
+                Integer known = shared.get(text);
+                if (known != null) return known;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            int offset = arena.position();
+            if ((long) offset + 4 + bytes.length > Integer.MAX_VALUE) throw new IllegalStateException("The string arena is full");
+            arena = ensure(arena, offset + 4 + bytes.length);
+            arena.putInt(bytes.length).put(bytes);
+            if (share && shared.size() < MAX_SHARED) shared.put(text, offset);
+            return offset;
+        }
+
+        /**
+         * The buffers are trimmed to their content, the builder must not be used afterwards
+         */
+        OffHeapCatalog build() {
+            ByteBuffer exactRows = allocate(size * ROW);
+            exactRows.put(0, rows, 0, size * ROW);
+            ByteBuffer exactArena = allocate(arena.position());
+            exactArena.put(0, arena, 0, arena.position());
+            rows = null;
+            arena = null;
+            return new OffHeapCatalog(exactRows, exactArena, size, changeSequence);
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * @return the buffer, or a copy twice as large if it cannot hold the given number of bytes
+         */
+        private static ByteBuffer ensure(ByteBuffer buffer, int needed) {
+            if (needed <= buffer.capacity()) return buffer;
+            int capacity = (int) Math.min(Math.max((long) buffer.capacity() * 2, needed), Integer.MAX_VALUE);
+            ByteBuffer grown = allocate(capacity);
+            grown.put(0, buffer, 0, buffer.capacity());
+            grown.position(buffer.position());
+            return grown;
+        }
+    }
+
+    /**
+     * The view of a media without Book, CD or DVD row
+     */
+    static class MediaView extends Media {
+        private final OffHeapCatalog catalog;
+        private final int row;
+        private boolean quantitySet;
+
+        MediaView(OffHeapCatalog catalog, int row) throws SQLException {
+            this.catalog = catalog;
+            this.row = row;
+            // Media.getQuantity() reads the field
+            this.id = catalog.idAt(row);
+        }
+
+        @Override
+        public String getTitle() {
+            return catalog.stringAt(row, TITLE);
+        }
+
+        @Override
+        public String getCategory() {
+            return catalog.stringAt(row, CATEGORY);
+        }
+
+        @Override
+        public int getPrice() {
+            return catalog.intAt(row, PRICE);
+        }
+
+        @Override
+        public int getValue() {
+            return catalog.intAt(row, VALUE);
+        }
+
+        @Override
+        public String getImageURL() {
+            return catalog.stringAt(row, IMAGE_URL);
+        }
+
+        @Override
+        public int getLoadedQuantity() {
+            return quantitySet ? quantity : catalog.intAt(row, QUANTITY);
+        }
+
+        @Override
+        public String getType() {
+            return catalog.stringAt(row, TYPE);
+        }
+
+        @Override
+        public Media setQuantity(int quantity) {
+            this.quantity = quantity;
+            this.quantitySet = true;
+            return this;
+        }
+
+        @Override
+        public Media setTitle(String title) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setCategory(String category) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setPrice(int price) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setValue(int value) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setMediaURL(String url) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setType(String type) {
+            throw readOnly();
+        }
+
+        @Override
+        public String toString() {
+            return describe(this);
+        }
+    }
+
+    static class BookView extends Book {
+        private final OffHeapCatalog catalog;
+        private final int row;
+        private boolean quantitySet;
+
+        BookView(OffHeapCatalog catalog, int row) throws SQLException {
+            this.catalog = catalog;
+            this.row = row;
+            this.id = catalog.idAt(row);
+        }
+
+        @Override
+        public String getTitle() {
+            return catalog.stringAt(row, TITLE);
+        }
+
+        @Override
+        public String getCategory() {
+            return catalog.stringAt(row, CATEGORY);
+        }
+
+        @Override
+        public int getPrice() {
+            return catalog.intAt(row, PRICE);
+        }
+
+        @Override
+        public int getValue() {
+            return catalog.intAt(row, VALUE);
+        }
+
+        @Override
+        public String getImageURL() {
+            return catalog.stringAt(row, IMAGE_URL);
+        }
+
+        @Override
+        public int getLoadedQuantity() {
+            return quantitySet ? quantity : catalog.intAt(row, QUANTITY);
+        }
+
+        @Override
+        public String getType() {
+            return catalog.stringAt(row, TYPE);
+        }
+
+        @Override
+        public String getAuthor() {
+            return catalog.detailAt(row, 0);
+        }
+
+        @Override
+        public String getCoverType() {
+            return catalog.detailAt(row, 1);
+        }
+
+        @Override
+        public String getPublisher() {
+            return catalog.detailAt(row, 2);
+        }
+
+        @Override
+        public Date getPublishDate() {
+            return catalog.dateAt(row);
+        }
+
+        @Override
+        public int getNumOfPages() {
+            return catalog.intAt(row, NUMBER);
+        }
+
+        @Override
+        public String getLanguage() {
+            return catalog.detailAt(row, 3);
+        }
+
+        @Override
+        public String getBookCategory() {
+            return catalog.detailAt(row, 4);
+        }
+
+        @Override
+        public Media setQuantity(int quantity) {
+            this.quantity = quantity;
+            this.quantitySet = true;
+            return this;
+        }
+
+        @Override
+        public Media setTitle(String title) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setCategory(String category) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setPrice(int price) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setValue(int value) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setMediaURL(String url) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setType(String type) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setAuthor(String author) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setCoverType(String coverType) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setPublisher(String publisher) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setPublishDate(Date publishDate) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setNumOfPages(int numOfPages) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setLanguage(String language) {
+            throw readOnly();
+        }
+
+        @Override
+        public Book setBookCategory(String bookCategory) {
+            throw readOnly();
+        }
+
+        @Override
+        public String toString() {
+            return describe(this) + " author='" + getAuthor() + "', publisher='" + getPublisher() + "'";
+        }
+    }
+
+    static class CDView extends CD {
+        private final OffHeapCatalog catalog;
+        private final int row;
+        private boolean quantitySet;
+
+        CDView(OffHeapCatalog catalog, int row) throws SQLException {
+            this.catalog = catalog;
+            this.row = row;
+            this.id = catalog.idAt(row);
+        }
+
+        @Override
+        public String getTitle() {
+            return catalog.stringAt(row, TITLE);
+        }
+
+        @Override
+        public String getCategory() {
+            return catalog.stringAt(row, CATEGORY);
+        }
+
+        @Override
+        public int getPrice() {
+            return catalog.intAt(row, PRICE);
+        }
+
+        @Override
+        public int getValue() {
+            return catalog.intAt(row, VALUE);
+        }
+
+        @Override
+        public String getImageURL() {
+            return catalog.stringAt(row, IMAGE_URL);
+        }
+
+        @Override
+        public int getLoadedQuantity() {
+            return quantitySet ? quantity : catalog.intAt(row, QUANTITY);
+        }
+
+        @Override
+        public String getType() {
+            return catalog.stringAt(row, TYPE);
+        }
+
+        @Override
+        public String getArtist() {
+            return catalog.detailAt(row, 0);
+        }
+
+        @Override
+        public String getRecordLabel() {
+            return catalog.detailAt(row, 1);
+        }
+
+        @Override
+        public String getMusicType() {
+            return catalog.detailAt(row, 2);
+        }
+
+        @Override
+        public Date getReleasedDate() {
+            return catalog.dateAt(row);
+        }
+
+        @Override
+        public Media setQuantity(int quantity) {
+            this.quantity = quantity;
+            this.quantitySet = true;
+            return this;
+        }
+
+        @Override
+        public Media setTitle(String title) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setCategory(String category) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setPrice(int price) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setValue(int value) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setMediaURL(String url) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setType(String type) {
+            throw readOnly();
+        }
+
+        @Override
+        public CD setArtist(String artist) {
+            throw readOnly();
+        }
+
+        @Override
+        public CD setRecordLabel(String recordLabel) {
+            throw readOnly();
+        }
+
+        @Override
+        public CD setMusicType(String musicType) {
+            throw readOnly();
+        }
+
+        @Override
+        public CD setReleasedDate(Date releasedDate) {
+            throw readOnly();
+        }
+
+        @Override
+        public String toString() {
+            return describe(this) + " artist='" + getArtist() + "', recordLabel='" + getRecordLabel() + "'";
+        }
+    }
+
+    static class DVDView extends DVD {
+        private final OffHeapCatalog catalog;
+        private final int row;
+        private boolean quantitySet;
+
+        DVDView(OffHeapCatalog catalog, int row) throws SQLException {
+            this.catalog = catalog;
+            this.row = row;
+            this.id = catalog.idAt(row);
+        }
+
+        @Override
+        public String getTitle() {
+            return catalog.stringAt(row, TITLE);
+        }
+
+        @Override
+        public String getCategory() {
+            return catalog.stringAt(row, CATEGORY);
+        }
+
+        @Override
+        public int getPrice() {
+            return catalog.intAt(row, PRICE);
+        }
+
+        @Override
+        public int getValue() {
+            return catalog.intAt(row, VALUE);
+        }
+
+        @Override
+        public String getImageURL() {
+            return catalog.stringAt(row, IMAGE_URL);
+        }
+
+        @Override
+        public int getLoadedQuantity() {
+            return quantitySet ? quantity : catalog.intAt(row, QUANTITY);
+        }
+
+        @Override
+        public String getType() {
+            return catalog.stringAt(row, TYPE);
+        }
+
+        @Override
+        public String getDiscType() {
+            return catalog.detailAt(row, 0);
+        }
+
+        @Override
+        public String getDirector() {
+            return catalog.detailAt(row, 1);
+        }
+
+        @Override
+        public int getRuntime() {
+            return catalog.intAt(row, NUMBER);
+        }
+
+        @Override
+        public String getStudio() {
+            return catalog.detailAt(row, 2);
+        }
+
+        @Override
+        public String getSubtitles() {
+            return catalog.detailAt(row, 3);
+        }
+
+        @Override
+        public Date getReleasedDate() {
+            return catalog.dateAt(row);
+        }
+
+        @Override
+        public String getFilmType() {
+            return catalog.detailAt(row, 4);
+        }
+
+        @Override
+        public Media setQuantity(int quantity) {
+            this.quantity = quantity;
+            this.quantitySet = true;
+            return this;
+        }
+
+        @Override
+        public Media setTitle(String title) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setCategory(String category) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setPrice(int price) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setValue(int value) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setMediaURL(String url) {
+            throw readOnly();
+        }
+
+        @Override
+        public Media setType(String type) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setDiscType(String discType) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setDirector(String director) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setRuntime(int runtime) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setStudio(String studio) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setSubtitles(String subtitles) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setReleasedDate(Date releasedDate) {
+            throw readOnly();
+        }
+
+        @Override
+        public DVD setFilmType(String filmType) {
+            throw readOnly();
+        }
+
+        @Override
+        public String toString() {
+            return describe(this) + " director='" + getDirector() + "', studio='" + getStudio() + "'";
+        }
+    }
+
+    private static String describe(Media media) {
+        return "{ id='" + media.getId() + "', title='" + media.getTitle() + "', category='" + media.getCategory()
+                + "', price='" + media.getPrice() + "', quantity='" + media.getLoadedQuantity() + "', type='"
+                + media.getType() + "', imageURL='" + media.getImageURL() + "'}";
+    }
+}
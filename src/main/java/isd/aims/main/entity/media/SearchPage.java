@@ -0,0 +1,36 @@
+package isd.aims.main.entity.media;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a full-text search, best matches first. The next page starts at {@link #getNextOffset()}.
+ * @author nguyenlm
+ */
+public class SearchPage {
+
+    private final List<Media> items;
+    private final int nextOffset;
+    private final boolean hasMore;
+
+    public SearchPage(List<Media> items, int nextOffset, boolean hasMore) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextOffset = nextOffset;
+        this.hasMore = hasMore;
+    }
+
+    public List<Media> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the offset of the first result of the next page
+     */
+    public int getNextOffset() {
+        return nextOffset;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -0,0 +1,336 @@
+package isd.aims.main.entity.media;
+
+import isd.aims.main.entity.cart.Cart;
+import isd.aims.main.entity.cart.CartMedia;
+import isd.aims.main.listener.CartChangeListener;
+import isd.aims.main.utils.Configs;
+import isd.aims.main.utils.Utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Soft holds on the stock of the media put in a cart, so that two shoppers cannot both reach the
+ * payment for the last copy. A hold is kept per session and media, its quantity follows the cart
+ * line (the store registers this class as a listener of every cart) and it expires
+ * {@link Configs#RESERVATION_TTL} ms after the line last changed.
+ *
+ * The deadlines are kept in a hashed timing wheel: {@link Configs#RESERVATION_WHEEL_SIZE} buckets of
+ * {@link Configs#RESERVATION_TICK} ms, a hold sits in the bucket of its deadline tick and one
+ * background task looks at a single bucket per tick, so placing, moving and dropping a hold is O(1)
+ * whatever the number of holds. The quantity held on each media is kept as a running total, the
+ * available-to-sell quantity shown to the shoppers is the stock minus that total.
+ *
+ * The stock itself is taken by {@link Inventory#commit} once the payment succeeded and the holds of the
+ * session are dropped right after it ({@link #confirm}), the decrement having replaced them: in between
+ * the media shows less available than it has, never more.
+ * @author nguyenlm
+ */
+public class StockReservations implements CartChangeListener {
+
+    private static Logger LOGGER = Utils.getLogger(StockReservations.class.getName());
+    private static StockReservations instance;
+
+    private final long tickMillis;
+    private final long ttlTicks;
+    private final Hold[] wheel;
+    private final int mask;
+    private long tick; // guarded by this
+    private final Map<String, Map<Integer, Hold>> sessions = new HashMap<>(); // guarded by this
+    private final ConcurrentHashMap<Integer, Integer> held = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong placed = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+
+    public static synchronized StockReservations getInstance() {
+        if (instance == null) {
+            instance = new StockReservations(Configs.RESERVATION_TTL, Configs.RESERVATION_TICK, Configs.RESERVATION_WHEEL_SIZE);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the wheel of the application wide instance if it was started, called when the application stops
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) instance.stop();
+    }
+
+    /**
+     * @param ttl        how long a hold is kept after its last change, in ms
+     * @param tickMillis the time covered by one bucket of the wheel, in ms
+     * @param wheelSize  the number of buckets, rounded up to a power of two
+     */
+    StockReservations(long ttl, long tickMillis, int wheelSize) {
+        if (tickMillis < 1) throw new IllegalArgumentException("tickMillis must be at least 1");
+        if (wheelSize < 1) throw new IllegalArgumentException("wheelSize must be at least 1");
+        this.tickMillis = tickMillis;
+        // a hold never expires before its TTL, at worst one tick after it
+        this.ttlTicks = Math.max(1, (ttl + tickMillis - 1) / tickMillis);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) size <<= 1;
+        this.wheel = new Hold[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Holds a quantity of a media for a session, replacing the quantity it held before and
+     * restarting its TTL
+     * @param sessionId
+     * @param mediaId
+     * @param quantity the quantity the session wants in total, 0 drops the hold
+     * @param stock    the stock of the media, freshly loaded
+     * @return false, holding nothing more, if the stock not held by other sessions is below the quantity
+     */
+    public synchronized boolean reserve(String sessionId, int mediaId, int quantity, int stock) {
+        if (quantity > getAvailableTo(sessionId, mediaId, stock)) {
+            refused.incrementAndGet();
+            return false;
+        }
+        set(sessionId, mediaId, quantity);
+        return true;
+    }
+
+    /**
+     * Drops the hold of a session on a media, eg: when the line is removed from the cart
+     */
+    public synchronized void release(String sessionId, int mediaId) {
+        set(sessionId, mediaId, 0);
+    }
+
+    /**
+     * Drops every hold of a session
+     * @return the number of holds dropped
+     */
+    public synchronized int releaseSession(String sessionId) {
+        Map<Integer, Hold> holds = sessions.remove(sessionId);
+        if (holds == null) return 0;
+        for (Hold hold : holds.values()) {
+            unlink(hold);
+            addHeld(hold.mediaId, -hold.quantity);
+        }
+        return holds.size();
+    }
+
+    /**
+     * Turns the holds of a session into the sale, once its payment succeeded: the stock was
+     * decremented by {@link Inventory#commit} so the holds are dropped
+     * @return the number of holds converted
+     */
+    public synchronized int confirm(String sessionId) {
+        int count = releaseSession(sessionId);
+        confirmed.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * @return the quantity of the media held by every session, read without locking
+     */
+    public int getHeld(int mediaId) {
+        return held.getOrDefault(mediaId, 0);
+    }
+
+    /**
+     * @return the quantity of the media held by the session
+     */
+    public synchronized int getHeld(String sessionId, int mediaId) {
+        Map<Integer, Hold> holds = sessions.get(sessionId);
+        Hold hold = holds == null ? null : holds.get(mediaId);
+        return hold == null ? 0 : hold.quantity;
+    }
+
+    /**
+     * @param mediaId
+     * @param stock the stock of the media
+     * @return the quantity a new shopper can still buy, in constant time
+     */
+    public int getAvailableToSell(int mediaId, int stock) {
+        return Math.max(0, stock - getHeld(mediaId));
+    }
+
+    /**
+     * @return the quantity a new shopper can still buy, from the stock loaded with the media
+     */
+    public int getAvailableToSell(Media media) {
+        return getAvailableToSell(media.getId(), media.getLoadedQuantity());
+    }
+
+    /**
+     * @return the quantity the session can have in total: the stock not held by other sessions
+     */
+    public synchronized int getAvailableTo(String sessionId, int mediaId, int stock) {
+        return Math.max(0, stock - getHeld(mediaId) + getHeld(sessionId, mediaId));
+    }
+
+    /**
+     * @return the number of holds kept
+     */
+    public synchronized int size() {
+        int count = 0;
+        for (Map<Integer, Hold> holds : sessions.values()) count += holds.size();
+        return count;
+    }
+
+    @Override
+    public void onLineAdded(Cart cart, CartMedia line) {
+        set(cart, line);
+    }
+
+    @Override
+    public void onLineRemoved(Cart cart, CartMedia line) {
+        if (cart.getSessionId() != null) release(cart.getSessionId(), line.getMedia().getId());
+    }
+
+    @Override
+    public void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice) {
+        if (line.getQuantity() != oldQuantity) set(cart, line);
+    }
+
+    @Override
+    public void onCartEmptied(Cart cart) {
+        if (cart.getSessionId() != null) releaseSession(cart.getSessionId());
+    }
+
+    /**
+     * Follows a cart line, the stock was checked by the screen that changed it
+     */
+    private synchronized void set(Cart cart, CartMedia line) {
+        if (cart.getSessionId() == null) return;
+        set(cart.getSessionId(), line.getMedia().getId(), line.getQuantity());
+    }
+
+    private void set(String sessionId, int mediaId, int quantity) {
+        Map<Integer, Hold> holds = sessions.get(sessionId);
+        Hold hold = holds == null ? null : holds.get(mediaId);
+        if (quantity <= 0) {
+            if (hold == null) return;
+            holds.remove(mediaId);
+            if (holds.isEmpty()) sessions.remove(sessionId);
+            unlink(hold);
+            addHeld(mediaId, -hold.quantity);
+            return;
+        }
+        if (hold == null) {
+            hold = new Hold(sessionId, mediaId);
+            sessions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(mediaId, hold);
+            placed.incrementAndGet();
+        } else {
+            unlink(hold);
+        }
+        addHeld(mediaId, quantity - hold.quantity);
+        hold.quantity = quantity;
+        hold.deadline = tick + ttlTicks;
+        link(hold);
+    }
+
+    private void addHeld(int mediaId, int delta) {
+        if (delta != 0) held.compute(mediaId, (id, total) -> {
+            int sum = (total == null ? 0 : total) + delta;
+            return sum == 0 ? null : sum;
+        });
+    }
+
+    private void link(Hold hold) {
+        int bucket = (int) (hold.deadline & mask);
+        hold.next = wheel[bucket];
+        if (hold.next != null) hold.next.prev = hold;
+        wheel[bucket] = hold;
+    }
+
+    private void unlink(Hold hold) {
+        if (hold.prev != null) hold.prev.next = hold.next;
+        else wheel[(int) (hold.deadline & mask)] = hold.next;
+        if (hold.next != null) hold.next.prev = hold.prev;
+        hold.prev = null;
+        hold.next = null;
+    }
+
+    /**
+     * Moves the wheel one tick forward and drops the holds due, the holds of the bucket due in
+     * a later turn of the wheel are left in place
+     * @return the number of holds expired
+     */
+    synchronized int advance() {
+        tick++;
+        int count = 0;
+        Hold hold = wheel[(int) (tick & mask)];
+        while (hold != null) {
+            Hold next = hold.next;
+            if (hold.deadline <= tick) {
+                set(hold.sessionId, hold.mediaId, 0);
+                count++;
+            }
+            hold = next;
+        }
+        expired.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Starts turning the wheel in the background
+     */
+    public synchronized void start() {
+        if (ticker != null) return;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "aims-reservations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> {
+            int count = advance();
+            if (count > 0) LOGGER.info("Released " + count + " expired stock holds");
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker == null) return;
+        ticker.shutdownNow();
+        ticker = null;
+    }
+
+    public long getPlaced() {
+        return placed.get();
+    }
+
+    /**
+     * @return the number of holds refused for lack of stock
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return the number of holds turned into a sale
+     */
+    public long getConfirmed() {
+        return confirmed.get();
+    }
+
+    private static class Hold {
+        private final String sessionId;
+        private final int mediaId;
+        private int quantity;
+        private long deadline;
+        private Hold prev;
+        private Hold next;
+
+        Hold(String sessionId, int mediaId) {
+            this.sessionId = sessionId;
+            this.mediaId = mediaId;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package isd.aims.main.entity.order;
+
+import isd.aims.main.entity.db.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes an order: the "Order" header and all its OrderMedia lines in one transaction,
+ * the lines being sent as a single JDBC batch whatever their number. The order can also be
+ * written in the transaction of the caller, eg: with the payment transaction of the order.
+ * @author nguyenlm
+ */
+public class OrderRepository {
+
+    /**
+     * Orders are placed at the kiosk without logging in, the guest user row is added by migration V006
+     */
+    public static final int GUEST_USER_ID = 0;
+
+    static final String INSERT_ORDER = "INSERT INTO \"Order\" (email, address, phone, userID, shipping_fee) "
+            + "VALUES (?, ?, ?, ?, ?) RETURNING id";
+    // two lines of the same media are merged, (mediaID, orderID) is the primary key
+    static final String INSERT_LINE = "INSERT INTO OrderMedia (mediaID, orderID, price, quantity) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT (mediaID, orderID) DO UPDATE SET quantity = quantity + excluded.quantity";
+
+    /**
+     * Inserts the order and its lines, then sets the generated id on the order
+     * @param order
+     * @return the generated id
+     * @throws SQLException
+     */
+    public int save(Order order) throws SQLException {
+        try (Connection connection = DBConnection.getWriteConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int id = insert(connection, order);
+                connection.commit();
+                order.setId(id);
+                return id;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Inserts the order and its lines in the current transaction of the connection, which the
+     * caller commits or rolls back; the order is left untouched, its id is only known to be
+     * saved once the transaction is committed
+     * @param connection a write connection with auto-commit off
+     * @param order
+     * @return the generated id
+     * @throws SQLException
+     */
+    @SuppressWarnings("unchecked")
+    public int insert(Connection connection, Order order) throws SQLException {
+        HashMap<String, String> info = order.getDeliveryInfo() == null ? new HashMap<>() : order.getDeliveryInfo();
+        List<OrderMedia> lines = order.getlstOrderMedia();
+
+        int id;
+        try (PreparedStatement stm = connection.prepareStatement(INSERT_ORDER)) {
+            stm.setString(1, info.getOrDefault("email", ""));
+            stm.setString(2, address(info));
+            stm.setString(3, info.getOrDefault("phone", ""));
+            stm.setInt(4, GUEST_USER_ID);
+            stm.setInt(5, order.getShippingFees());
+            try (ResultSet res = stm.executeQuery()) {
+                res.next();
+                id = res.getInt(1);
+            }
+        }
+        try (PreparedStatement stm = connection.prepareStatement(INSERT_LINE)) {
+            for (OrderMedia line : lines) {
+                stm.setInt(1, line.getMedia().getId());
+                stm.setInt(2, id);
+                stm.setInt(3, line.getPrice());
+                stm.setInt(4, line.getQuantity());
+                stm.addBatch();
+            }
+            if (!lines.isEmpty()) stm.executeBatch();
+        }
+        return id;
+    }
+
+    private static String address(HashMap<String, String> info) {
+        String address = info.getOrDefault("address", "");
+        String province = info.get("province");
+        return province == null || province.isEmpty() ? address : address + ", " + province;
+    }
+}
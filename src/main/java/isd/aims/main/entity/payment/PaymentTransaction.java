@@ -1,9 +1,13 @@
 package isd.aims.main.entity.payment;
 
 import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.media.InventoryCommit;
+import isd.aims.main.entity.order.Order;
 
 import java.sql.*;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PaymentTransaction {
 	private String errorCode;
@@ -25,20 +29,56 @@ public class PaymentTransaction {
 		this.createdAt = createdAt;
 	}
 
+	/**
+	 * Records the transaction for the order, it returns once the record is committed.
+	 * The records of concurrent payments are committed together by the {@link TransactionJournal}.
+	 * @param orderId
+	 * @throws SQLException
+	 */
 	public void save(int orderId) throws SQLException {
+		try {
+			saveAsync(orderId).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Cannot save the transaction " + transactionId, e.getCause());
+		}
+	}
+
+	/**
+	 * Queues the record of the transaction for the order without waiting for the commit
+	 * @param orderId
+	 * @return a future completed once the record is committed
+	 */
+	public CompletableFuture<Void> saveAsync(int orderId) {
+		return saveAsync(orderId, TransactionJournal.getInstance());
+	}
+
+	CompletableFuture<Void> saveAsync(int orderId, TransactionJournal journal) {
 		this.orderID = orderId;
-		Statement stm = DBConnection.getConnection().createStatement();
-		String query = "INSERT INTO \"Transaction\" ( orderID, createAt, content) " +
-				"VALUES ( ?, ?, ?)";
-		try (PreparedStatement preparedStatement = DBConnection.getConnection().prepareStatement(query)) {
-			preparedStatement.setInt(1, 1);
-			preparedStatement.setDate(2, new java.sql.Date(createdAt.getTime()));
-			preparedStatement.setString(3,transactionContent );
-
-			preparedStatement.executeUpdate();
-		} catch (Exception exception) {
-			exception.printStackTrace();
+		return journal.append(this);
+	}
+
+	/**
+	 * Takes the stock of a paid order and saves the order with the transaction in one database
+	 * transaction, it returns once all are committed and the generated id is set on the order
+	 * @param order the order, not saved yet
+	 * @return the stock taken, the order is saved even if it could not be
+	 * @throws SQLException
+	 */
+	public InventoryCommit save(Order order) throws SQLException {
+		InventoryCommit stock;
+		try {
+			stock = saveAsync(order, TransactionJournal.getInstance()).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw new SQLException("Cannot save the transaction " + transactionId, e.getCause());
 		}
+		this.orderID = order.getId();
+		return stock;
+	}
+
+	CompletableFuture<InventoryCommit> saveAsync(Order order, TransactionJournal journal) {
+		return journal.append(order, this);
 	}
 
 	public int checkPaymentByOrderId(int orderId) throws SQLException {
@@ -46,7 +86,8 @@ public class PaymentTransaction {
 
 		String query = "SELECT COUNT(*) FROM Transaction WHERE orderID = ?";
 
-		try (PreparedStatement preparedStatement = DBConnection.getConnection().prepareStatement(query)) {
+		try (Connection connection = DBConnection.getConnection();
+			 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
 			preparedStatement.setInt(1, orderId);
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
@@ -59,6 +100,18 @@ public class PaymentTransaction {
 		return count;
 	}
 
+	public Integer getOrderID() {
+		return orderID;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public String getTransactionContent() {
+		return transactionContent;
+	}
+
 	public boolean isSuccess() {
 		// Assuming a null errorCode or an errorCode "00" means success
 		return errorCode == null || "00".equals(errorCode);
@@ -0,0 +1,282 @@
+package isd.aims.main.entity.payment;
+
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.media.Inventory;
+import isd.aims.main.entity.media.InventoryCommit;
+import isd.aims.main.entity.order.Order;
+import isd.aims.main.entity.order.OrderRepository;
+import isd.aims.main.utils.Configs;
+import isd.aims.main.utils.Utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Group commit of the "Transaction" records: the records queued while the previous batch
+ * is being committed, plus those appended within {@link Configs#TRANSACTION_COMMIT_WINDOW} ms,
+ * are inserted in one database transaction, so back-to-back payments share a single fsync.
+ * A record may carry its paid order, the stock of the order is then taken and the order and its
+ * lines are inserted in the same database transaction as the record: either all are saved or none.
+ * The order is paid, so it is saved even if its stock ran out; the decrement alone is rolled back.
+ *
+ * The queue only lives in memory, it is not a write-behind log: a record is saved once the
+ * future returned by {@link #append(PaymentTransaction)} completes and is lost if the process
+ * dies before, so the callers wait for that future ({@link PaymentTransaction#save} does)
+ * before reporting the payment as recorded. The queue is drained when the journal is closed,
+ * at the latest by a shutdown hook.
+ * @author nguyenlm
+ */
+public class TransactionJournal implements AutoCloseable {
+
+    private static Logger LOGGER = Utils.getLogger(TransactionJournal.class.getName());
+    private static TransactionJournal instance;
+
+    static final String INSERT = "INSERT INTO \"Transaction\" (orderID, createAt, content) VALUES (?, ?, ?)";
+
+    private final long windowMillis;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private Thread shutdownHook;
+    private volatile boolean closed;
+    private volatile Pending last;
+
+    private final OrderRepository orders = new OrderRepository();
+    private final Inventory inventory = new Inventory();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    public static synchronized TransactionJournal getInstance() {
+        if (instance == null || instance.closed) {
+            instance = new TransactionJournal(Configs.TRANSACTION_COMMIT_WINDOW, Configs.TRANSACTION_MAX_BATCH).start();
+        }
+        return instance;
+    }
+
+    /**
+     * Closes the application wide journal if it was started, called when the application stops
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) instance.close();
+    }
+
+    /**
+     * The records appended are only committed once the journal is started
+     * @param windowMillis how long the writer waits for more records once the first one arrives
+     * @param maxBatch     the maximum number of records committed together
+     */
+    public TransactionJournal(long windowMillis, int maxBatch) {
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Starts the writer thread and registers the shutdown hook that drains the queue
+     * @return the same journal
+     */
+    public synchronized TransactionJournal start() {
+        if (writer != null || closed) return this;
+        writer = new Thread(this::run, "aims-transaction-journal");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(this::close, "aims-transaction-journal-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return this;
+    }
+
+    /**
+     * Queues the record of a transaction, its orderID must be set
+     * @param transaction
+     * @return a future completed once the record is committed
+     */
+    public CompletableFuture<Void> append(PaymentTransaction transaction) {
+        return append(new Pending(transaction.getOrderID(), null, transaction.getCreatedAt().getTime(),
+                transaction.getTransactionContent()));
+    }
+
+    /**
+     * Queues a paid order with the record of its transaction: the stock of the order is taken,
+     * all lines or none, and both are inserted in the same database transaction; the generated id
+     * is set on the order once it is committed
+     * @param order       the order, not saved yet
+     * @param transaction
+     * @return a future completed with the stock taken once the order and the record are committed
+     */
+    public CompletableFuture<InventoryCommit> append(Order order, PaymentTransaction transaction) {
+        Pending pending = new Pending(0, order, transaction.getCreatedAt().getTime(), transaction.getTransactionContent());
+        return append(pending).thenApply(done -> pending.stock);
+    }
+
+    private CompletableFuture<Void> append(Pending pending) {
+        if (closed) {
+            pending.done.completeExceptionally(new SQLException("The transaction journal is closed"));
+            return pending.done;
+        }
+        queue.add(pending);
+        last = pending;
+        // close() may have drained the queue between the check and the add
+        if (closed && queue.remove(pending)) {
+            pending.done.completeExceptionally(new SQLException("The transaction journal is closed"));
+        }
+        return pending.done;
+    }
+
+    /**
+     * Waits until every record appended so far is committed
+     */
+    public void flush() {
+        // records are committed in the order they were appended
+        Pending pending = last;
+        if (pending == null) return;
+        try {
+            pending.done.join();
+        } catch (RuntimeException e) {
+            // the failure is reported to the caller of append
+        }
+    }
+
+    /**
+     * Stops accepting records and commits the queued ones
+     */
+    @Override
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            writer = this.writer;
+        }
+        if (writer == null) {
+            // never started, nothing will commit the queued records
+            for (Pending pending; (pending = queue.poll()) != null; ) {
+                pending.done.completeExceptionally(new SQLException("The transaction journal was not started"));
+            }
+            return;
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
+        LOGGER.info("Transaction journal closed: " + written.get() + " record(s) in " + commits.get() + " commit(s)");
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                // group the records arriving within the window
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // keep draining, close() decides when to stop
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        try {
+            insert(batch);
+            for (Pending pending : batch) pending.done.complete(null);
+        } catch (SQLException e) {
+            if (batch.size() > 1) {
+                // one bad record must not fail the payments it was grouped with
+                LOGGER.warning("Cannot commit " + batch.size() + " transaction records together, committing them one by one: " + e.getMessage());
+                for (Pending pending : batch) commit(List.of(pending));
+                return;
+            }
+            LOGGER.severe("Cannot commit the transaction record of order " + batch.get(0).orderId + ": " + e.getMessage());
+            batch.get(0).done.completeExceptionally(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void insert(List<Pending> batch) throws SQLException {
+        try (Connection connection = DBConnection.getWriteConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stm = connection.prepareStatement(INSERT)) {
+                for (Pending pending : batch) {
+                    if (pending.order == null) continue;
+                    pending.stock = inventory.commit(connection, pending.order.getlstOrderMedia());
+                    pending.orderId = orders.insert(connection, pending.order);
+                }
+                for (Pending pending : batch) {
+                    stm.setInt(1, pending.orderId);
+                    stm.setDate(2, new java.sql.Date(pending.createdAt));
+                    stm.setString(3, pending.content);
+                    stm.addBatch();
+                }
+                stm.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            for (Pending pending : batch) {
+                if (pending.order == null) continue;
+                pending.order.setId(pending.orderId);
+                inventory.committed(pending.stock);
+            }
+            written.addAndGet(batch.size());
+            commits.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of records committed
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of database commits, ie: fsyncs
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    private static class Pending {
+        private int orderId;
+        private final Order order;
+        private final long createdAt;
+        private final String content;
+        private InventoryCommit stock;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(int orderId, Order order, long createdAt, String content) {
+            this.orderId = orderId;
+            this.order = order;
+            this.createdAt = createdAt;
+            this.content = content;
+        }
+    }
+}
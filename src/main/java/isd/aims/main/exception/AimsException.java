@@ -15,4 +15,8 @@ public class AimsException extends RuntimeException {
 	public AimsException(String message) {
 		super(message);
 	}
+
+	public AimsException(String message, Throwable cause) {
+		super(message, cause);
+	}
 }
\ No newline at end of file
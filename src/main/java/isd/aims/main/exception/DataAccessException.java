@@ -0,0 +1,25 @@
+package isd.aims.main.exception;
+
+/**
+ * The DataAccessException wraps the SQLException raised where a checked
+ * exception cannot be thrown, eg: while a Stream of media is consumed
+ * 
+ * @author nguyenlm
+ */
+public class DataAccessException extends AimsException {
+
+	private static final long serialVersionUID = 4120833417266410538L;
+
+	public DataAccessException() {
+
+	}
+
+	public DataAccessException(String message) {
+		super(message);
+	}
+
+	public DataAccessException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -1,5 +1,7 @@
 package isd.aims.main.exception;
 
+import isd.aims.main.entity.cart.AvailabilityReport;
+
 /**
  * The MediaNotAvailableException wraps all unchecked exceptions You can use this
  * exception to inform
@@ -14,8 +16,22 @@ public class MediaNotAvailableException extends AimsException {
 
 	}
 
+	private transient AvailabilityReport report;
+
 	public MediaNotAvailableException(String message) {
 		super(message);
 	}
 
+	public MediaNotAvailableException(String message, AvailabilityReport report) {
+		super(message + ":\n" + report);
+		this.report = report;
+	}
+
+	/**
+	 * @return the per-line shortfalls, or null when the exception was not raised by a cart check
+	 */
+	public AvailabilityReport getReport() {
+		return report;
+	}
+
 }
\ No newline at end of file
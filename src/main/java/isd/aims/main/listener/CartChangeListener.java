@@ -0,0 +1,33 @@
+package isd.aims.main.listener;
+
+import isd.aims.main.entity.cart.Cart;
+import isd.aims.main.entity.cart.CartMedia;
+
+/**
+ * Notified by a Cart of every change of its lines, on the thread making the change while the cart is locked:
+ * implementations must be quick and must not call back into other carts
+ */
+public interface CartChangeListener {
+
+    void onLineAdded(Cart cart, CartMedia line);
+
+    void onLineRemoved(Cart cart, CartMedia line);
+
+    /**
+     * The quantity or the price of a line changed
+     */
+    void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice);
+
+    /**
+     * Every line was removed at once, eg: after the payment
+     */
+    void onCartEmptied(Cart cart);
+
+    /**
+     * The item count or the subtotal changed, told after the line event that changed them
+     * @param totalMedia the new number of items
+     * @param subtotal   the new subtotal
+     */
+    default void onTotalsChanged(Cart cart, int totalMedia, int subtotal) {
+    }
+}
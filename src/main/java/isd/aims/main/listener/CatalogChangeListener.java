@@ -0,0 +1,19 @@
+package isd.aims.main.listener;
+
+import java.util.Set;
+
+/**
+ * Notified by the CatalogChangePoller, on its own thread, when media were written by this or another process
+ */
+public interface CatalogChangeListener {
+
+    /**
+     * @param mediaIds the media inserted, updated or deleted since the previous notification
+     */
+    void onCatalogChanged(Set<Integer> mediaIds);
+
+    /**
+     * Some changes were pruned from the log before they were read: everything cached from the catalog must be reloaded
+     */
+    void onCatalogReset();
+}
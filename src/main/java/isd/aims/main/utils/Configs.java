@@ -33,6 +33,31 @@ public class Configs {
 	public static final String DB_NAME = "aims";
 	public static final String DB_USERNAME = System.getenv("DB_USERNAME");
 	public static final String DB_PASSWORD = System.getenv("DB_PASSWORD");
+	public static final String DB_PATH = System.getProperty("aims.db.path", "src/main/resources/isd/aims/main/assets/db/aims.db");
+	public static final int DB_POOL_SIZE = Integer.getInteger("aims.db.poolSize", 4);
+	public static final String DB_STORAGE_PROFILE = System.getProperty("aims.db.profile", "kiosk"); // see storage-profiles.properties
+	public static final String CATALOG_FILE_PATH = System.getProperty("aims.catalog.path", System.getProperty("user.home") + "/.aims/aims.catalog"); // see CatalogFile
+	public static final boolean CATALOG_OFF_HEAP = Boolean.getBoolean("aims.catalog.offHeap"); // keep the home catalog in direct memory, see OffHeapCatalog
+	public static final long DB_CHECKOUT_TIMEOUT = 30000; // ms
+	public static final long DB_LEAK_THRESHOLD = Long.getLong("aims.db.leakThreshold", 0); // ms a lease is held before it is reported, 0: off, it costs a stack trace per checkout
+	public static final long TRANSACTION_COMMIT_WINDOW = 0; // ms to linger for more payments, 0: the payments queued during a commit form the next one
+	public static final int TRANSACTION_MAX_BATCH = 256;
+	public static final int MEDIA_CACHE_SIZE = 2048; // media kept by MediaCache
+	public static final long MEDIA_CACHE_TTL = 300000; // ms the media details are served from the cache
+	public static final long STOCK_CACHE_TTL = 2000; // ms the stock levels are served from the cache
+	public static final long CATALOG_POLL_INTERVAL = 2000; // ms between two reads of the MediaChange log
+	public static final long MEDIA_CHANGE_RETENTION = 86400000; // ms the MediaChange entries are kept
+	public static final String SESSION_ID = System.getProperty("aims.session", "kiosk"); // the shopping session of this client in the CartStore
+	public static final int CART_STORE_MAX_CARTS = 10000;
+	public static final int CART_STORE_MAX_LINES = 200000; // lines over all the carts, bounds the memory of the store
+	public static final long CART_IDLE_TIMEOUT = 1800000; // ms an untouched cart is kept
+	public static final String CART_JOURNAL_PATH = System.getProperty("aims.cart.journal", System.getProperty("user.home") + "/.aims/carts.journal"); // see CartJournal, empty to keep the carts in memory only
+	public static final int CART_SNAPSHOT_EVERY = 10000; // cart changes logged before they are folded into a snapshot
+	public static final long CART_JOURNAL_SYNC_INTERVAL = 1000; // ms between two syncs of the cart log to disk
+	public static final long RESERVATION_TTL = Long.getLong("aims.reservation.ttl", 900000); // ms the stock of a cart line stays held after its last change
+	public static final long RESERVATION_TICK = 1000; // ms covered by one bucket of the StockReservations wheel
+	public static final int RESERVATION_WHEEL_SIZE = 512; // buckets of the StockReservations wheel
+	public static final int IMPORT_CHUNK_SIZE = 10000; // feed records parsed together and committed in one transaction by CatalogImporter
 
 	public static String CURRENCY = "VND";
 	public static float PERCENT_VAT = 10;
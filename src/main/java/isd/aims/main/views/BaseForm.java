@@ -3,6 +3,7 @@ package isd.aims.main.views;
 import java.io.IOException;
 import java.util.Hashtable;
 
+import isd.aims.main.controller.AsyncDataService;
 import isd.aims.main.controller.BaseController;
 import isd.aims.main.views.home.HomeForm;
 import javafx.scene.Scene;
@@ -10,12 +11,15 @@ import javafx.stage.Stage;
 
 public class BaseForm extends FXMLForm {
 
+	private static final String CURRENT_FORM = "aims.currentForm";
+
 	private Scene scene;
 	private BaseForm prev;
 	protected final Stage stage;
 	protected HomeForm homeScreenHandler;
 	protected Hashtable<String, String> messages;
 	private BaseController bController;
+	private AsyncDataService.Scope scope;
 
 	private BaseForm(String screenPath) throws IOException {
 		super(screenPath);
@@ -37,6 +41,10 @@ public class BaseForm extends FXMLForm {
 	}
 
 	public void show() {
+		// the screen we navigate away from drops its pending data calls
+		Object current = this.stage.getProperties().get(CURRENT_FORM);
+		if (current != this && current instanceof BaseForm) ((BaseForm) current).leave();
+		this.stage.getProperties().put(CURRENT_FORM, this);
 		if (this.scene == null) {
 			this.scene = new Scene(this.content);
 		}
@@ -44,6 +52,24 @@ public class BaseForm extends FXMLForm {
 		this.stage.show();
 	}
 
+	/**
+	 * @return the scope of the data calls made by this screen, renewed when the screen is shown again
+	 */
+	@SuppressWarnings("exports")
+	public AsyncDataService.Scope getScope() {
+		if (this.scope == null || this.scope.isCancelled()) {
+			this.scope = new AsyncDataService.Scope(getClass().getSimpleName());
+		}
+		return this.scope;
+	}
+
+	/**
+	 * Called when another screen is shown on the same stage
+	 */
+	protected void leave() {
+		if (this.scope != null) this.scope.cancel();
+	}
+
 	public void setScreenTitle(String string) {
 		this.stage.setTitle(string);
 	}
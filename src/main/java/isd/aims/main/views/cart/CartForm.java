@@ -4,20 +4,25 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Arrays;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import isd.aims.main.exception.MediaNotAvailableException;
 import isd.aims.main.exception.PlaceOrderException;
+import isd.aims.main.controller.AsyncDataService;
 import isd.aims.main.controller.PlaceOrderController;
 import isd.aims.main.controller.ViewCartController;
+import isd.aims.main.entity.cart.Cart;
 import isd.aims.main.entity.cart.CartMedia;
 import isd.aims.main.entity.order.Order;
 import isd.aims.main.utils.Configs;
 import isd.aims.main.utils.Utils;
 import isd.aims.main.views.BaseForm;
 import isd.aims.main.views.popup.PopupForm;
+import isd.aims.main.listener.CartChangeListener;
 import isd.aims.main.views.shipping.DeliveryForm;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -26,7 +31,11 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
-public class CartForm extends BaseForm {
+/**
+ * The cart screen. The rows are built once when the screen is shown, then each change of the cart
+ * patches the row and the labels it concerns, whatever the size of the cart.
+ */
+public class CartForm extends BaseForm implements CartChangeListener {
 
 	private static Logger LOGGER = Utils.getLogger(CartForm.class.getName());
 
@@ -54,6 +63,9 @@ public class CartForm extends BaseForm {
 	@FXML
 	private Button btnPlaceOrder;
 
+	// the rows of vboxCart by media id, in the order of the cart
+	private final Map<Integer, MediaForm> rows = new LinkedHashMap<>();
+
 	public CartForm(Stage stage, String screenPath) throws IOException {
 		super(stage, screenPath);
 
@@ -96,9 +108,62 @@ public class CartForm extends BaseForm {
 	public void requestToViewCart(BaseForm prevScreen) throws SQLException {
 		setPreviousScreen(prevScreen);
 		setScreenTitle("Cart Screen");
-		getBController().checkAvailabilityOfProduct();
-		displayCartWithMediaAvailability();
+		// show the cart at once, the stock of each line is refreshed in the background
 		show();
+		refreshAvailability();
+	}
+
+	@Override
+	public void show() {
+		Cart cart = getBController().getCart();
+		cart.addListener(this);
+		// the cart may have changed while another screen was shown
+		displayCartWithMediaAvailability();
+		super.show();
+	}
+
+	@Override
+	protected void leave() {
+		super.leave();
+		getBController().getCart().removeListener(this);
+	}
+
+	@Override
+	public void onLineAdded(Cart cart, CartMedia line) {
+		Platform.runLater(() -> {
+			if (!rows.containsKey(line.getMedia().getId())) addRow(line);
+		});
+	}
+
+	@Override
+	public void onLineRemoved(Cart cart, CartMedia line) {
+		Platform.runLater(() -> {
+			MediaForm row = rows.get(line.getMedia().getId());
+			if (row == null || row.getCartMedia() != line) return;
+			rows.remove(line.getMedia().getId());
+			vboxCart.getChildren().remove(row.getContent());
+		});
+	}
+
+	@Override
+	public void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice) {
+		Platform.runLater(() -> {
+			MediaForm row = rows.get(line.getMedia().getId());
+			if (row != null && row.getCartMedia() == line) row.refresh();
+		});
+	}
+
+	@Override
+	public void onCartEmptied(Cart cart) {
+		Platform.runLater(() -> {
+			rows.clear();
+			vboxCart.getChildren().clear();
+		});
+	}
+
+	@Override
+	public void onTotalsChanged(Cart cart, int totalMedia, int subtotal) {
+		Platform.runLater(() -> showAmount(subtotal));
 	}
 
 	public void requestToPlaceOrder() throws SQLException, IOException {
@@ -113,7 +178,7 @@ public class CartForm extends BaseForm {
 			placeOrderController.placeOrder();
 
 			// display available media
-			displayCartWithMediaAvailability();
+			showAvailability();
 
 			// create order
 			Order order = placeOrderController.createOrder();
@@ -128,18 +193,31 @@ public class CartForm extends BaseForm {
 
 		} catch (MediaNotAvailableException e) {
 			// if some media are not available then display cart and break usecase Place Order
-			displayCartWithMediaAvailability();
+			showAvailability();
+			PopupForm.error(e.getReport() != null ? e.getReport().toString() : e.getMessage());
 		}
 	}
 
-	public void updateCart() throws SQLException{
-		getBController().checkAvailabilityOfProduct();
-		displayCartWithMediaAvailability();
+	/**
+	 * Checks the stock of the cart off the FX thread and shows the shortfalls on the rows
+	 */
+	private void refreshAvailability() {
+		AsyncDataService.getInstance().checkAvailability(getScope(), getBController())
+			.thenAccept(report -> showAvailability())
+			.exceptionally(e -> {
+				if (!AsyncDataService.isCancellation(e)) {
+					LOGGER.severe("Cannot check the availability of the cart: " + AsyncDataService.unwrap(e).getMessage());
+				}
+				return null;
+			});
 	}
 
 	void updateCartAmount(){
-		// calculate subtotal and amount
-		int subtotal = getBController().getCartSubtotal();
+		showAmount(getBController().getCartSubtotal());
+	}
+
+	private void showAmount(int subtotal){
+		// calculate vat and amount
 		int vat = (int)((Configs.PERCENT_VAT/100)*subtotal);
 		int amount = subtotal + vat;
 		LOGGER.info("amount" + amount);
@@ -150,26 +228,34 @@ public class CartForm extends BaseForm {
 		labelAmount.setText(Utils.getCurrencyFormat(amount));
 	}
 
+	/**
+	 * Shows the stock last loaded on every row, no row is rebuilt
+	 */
+	private void showAvailability(){
+		for (MediaForm row : rows.values()) row.showStock();
+	}
+
 	private void displayCartWithMediaAvailability(){
 		// clear all old cartMedia
+		rows.clear();
 		vboxCart.getChildren().clear();
 
 		// get list media of cart after check availability
-		List lstMedia = getBController().getListCartMedia();
+		for (CartMedia cartMedia : getBController().getListCartMedia()) addRow(cartMedia);
 
-		try {
-			for (Object cm : lstMedia) {
+		// calculate subtotal and amount
+		updateCartAmount();
+	}
 
-				// display the attribute of vboxCart media
-				CartMedia cartMedia = (CartMedia) cm;
-				MediaForm mediaCartScreen = new MediaForm(Configs.CART_MEDIA_PATH, this);
-				mediaCartScreen.setCartMedia(cartMedia);
+	private void addRow(CartMedia cartMedia){
+		try {
+			// display the attribute of vboxCart media
+			MediaForm mediaCartScreen = new MediaForm(Configs.CART_MEDIA_PATH, this);
+			mediaCartScreen.setCartMedia(cartMedia);
 
-				// add spinner
-				vboxCart.getChildren().add(mediaCartScreen.getContent());
-			}
-			// calculate subtotal and amount
-			updateCartAmount();
+			// add spinner
+			rows.put(cartMedia.getMedia().getId(), mediaCartScreen);
+			vboxCart.getChildren().add(mediaCartScreen.getContent());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
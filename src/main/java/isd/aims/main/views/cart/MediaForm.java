@@ -2,14 +2,11 @@ package isd.aims.main.views.cart;
 
 import java.io.File;
 import java.io.IOException;
-import java.sql.SQLException;
-import java.util.Arrays;
 import java.util.logging.Logger;
 
-import isd.aims.main.exception.MediaUpdateException;
-import isd.aims.main.exception.ViewCartException;
-import isd.aims.main.entity.cart.Cart;
+import isd.aims.main.controller.AsyncDataService;
 import isd.aims.main.entity.cart.CartMedia;
+import isd.aims.main.entity.media.StockReservations;
 import isd.aims.main.utils.Configs;
 import isd.aims.main.utils.Utils;
 import isd.aims.main.views.FXMLForm;
@@ -70,6 +67,26 @@ public class MediaForm extends FXMLForm {
 		setMediaInfo();
 	}
 
+	public CartMedia getCartMedia() {
+		return cartMedia;
+	}
+
+	/**
+	 * Shows the quantity and the total of the line after it changed
+	 */
+	void refresh() {
+		if (!spinner.getValue().equals(cartMedia.getQuantity())) spinner.getValueFactory().setValue(cartMedia.getQuantity());
+		price.setText(Utils.getCurrencyFormat(cartMedia.getQuantity()*cartMedia.getPrice()));
+	}
+
+	/**
+	 * Shows whether the stock last loaded with the media covers the line
+	 */
+	void showStock() {
+		int remainQuantity = cartMedia.getAvailableQuantity();
+		labelOutOfStock.setText(cartMedia.getQuantity() > remainQuantity ? "Sorry, Only " + remainQuantity + " remain in stock" : "");
+	}
+
 	private void setMediaInfo() {
 		title.setText(cartMedia.getMedia().getTitle());
 		price.setText(Utils.getCurrencyFormat(cartMedia.getPrice()));
@@ -83,48 +100,48 @@ public class MediaForm extends FXMLForm {
 		// add delete button
 		btnDelete.setFont(Configs.REGULAR_FONT);
 		btnDelete.setOnMouseClicked(e -> {
-			try {
-				Cart.getCart().removeCartMedia(cartMedia); // update user cart
-				cartScreen.updateCart(); // re-display user cart
-				LOGGER.info("Deleted " + cartMedia.getMedia().getTitle() + " from the cart");
-			} catch (SQLException exp) {
-				exp.printStackTrace();
-				throw new ViewCartException();
-			}
+			// the cart screen drops the row when the cart tells it the line was removed
+			cartScreen.getBController().getCart().removeCartMedia(cartMedia);
+			LOGGER.info("Deleted " + cartMedia.getMedia().getTitle() + " from the cart");
 		});
 
+		// the stock was refreshed by the availability check of the cart
+		showStock();
+
 		initializeSpinner();
 	}
 
+	private void updateQuantity(int numOfProd, int stock) {
+		// the stock held by the other carts is not for sale
+		int remainQuantity = StockReservations.getInstance().getAvailableTo(cartScreen.getBController().getSessionId(),
+				cartMedia.getMedia().getId(), stock);
+		LOGGER.info("NumOfProd: " + numOfProd + " -- remainOfProd: " + remainQuantity);
+		if (numOfProd > remainQuantity){
+			LOGGER.info("product " + cartMedia.getMedia().getTitle() + " only remains " + remainQuantity + " (required " + numOfProd + ")");
+			labelOutOfStock.setText("Sorry, Only " + remainQuantity + " remain in stock");
+			spinner.getValueFactory().setValue(remainQuantity);
+			numOfProd = remainQuantity;
+		}
+
+		// update quantity of mediaCart in useCart, the cart screen redisplays this line and the totals
+		cartMedia.setQuantity(numOfProd);
+	}
+
 	private void initializeSpinner(){
 		SpinnerValueFactory<Integer> valueFactory = //
 			new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 100, cartMedia.getQuantity());
 		spinner = new Spinner<Integer>(valueFactory);
 		spinner.setOnMouseClicked( e -> {
-			try {
-				int numOfProd = this.spinner.getValue();
-				int remainQuantity = cartMedia.getMedia().getQuantity();
-				LOGGER.info("NumOfProd: " + numOfProd + " -- remainOfProd: " + remainQuantity);
-				if (numOfProd > remainQuantity){
-					LOGGER.info("product " + cartMedia.getMedia().getTitle() + " only remains " + remainQuantity + " (required " + numOfProd + ")");
-					labelOutOfStock.setText("Sorry, Only " + remainQuantity + " remain in stock");
-					spinner.getValueFactory().setValue(remainQuantity);
-					numOfProd = remainQuantity;
-				}
-
-				// update quantity of mediaCart in useCart
-				cartMedia.setQuantity(numOfProd);
-
-				// update the total of mediaCart
-				price.setText(Utils.getCurrencyFormat(numOfProd*cartMedia.getPrice()));
-
-				// update subtotal and amount of Cart
-				cartScreen.updateCartAmount();
-
-			} catch (SQLException e1) {
-				throw new MediaUpdateException(Arrays.toString(e1.getStackTrace()).replaceAll(", ", "\n"));
-			}
-
+			int required = this.spinner.getValue();
+			// reload the stock off the FX thread, then apply the new quantity back on it
+			AsyncDataService.getInstance().getQuantity(cartScreen.getScope(), cartMedia.getMedia())
+				.thenAccept(remainQuantity -> updateQuantity(required, remainQuantity))
+				.exceptionally(exp -> {
+					if (!AsyncDataService.isCancellation(exp)) {
+						LOGGER.severe("Cannot update the quantity of " + cartMedia.getMedia().getTitle() + ": " + AsyncDataService.unwrap(exp).getMessage());
+					}
+					return null;
+				});
 		});
 		spinnerFX.setAlignment(Pos.CENTER);
 		spinnerFX.getChildren().add(this.spinner);
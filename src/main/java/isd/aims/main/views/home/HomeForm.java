@@ -1,20 +1,29 @@
 package isd.aims.main.views.home;
 
 import isd.aims.main.exception.ViewCartException;
+import isd.aims.main.controller.AsyncDataService;
 import isd.aims.main.controller.HomeController;
 import isd.aims.main.controller.ViewCartController;
-import isd.aims.main.entity.cart.Cart;
+import isd.aims.main.entity.media.CatalogChangePoller;
+import isd.aims.main.entity.media.CatalogSnapshot;
 import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.MediaFilter;
+import isd.aims.main.entity.media.MediaRepository;
+import isd.aims.main.entity.media.SearchPage;
+import isd.aims.main.listener.CatalogChangeListener;
 import isd.aims.main.utils.Configs;
 import isd.aims.main.utils.Utils;
 import isd.aims.main.views.BaseForm;
 import isd.aims.main.views.cart.CartForm;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.MenuButton;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.SplitMenuButton;
+import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
@@ -26,13 +35,19 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
-public class HomeForm extends BaseForm implements Initializable {
+public class HomeForm extends BaseForm implements Initializable, CatalogChangeListener {
 
     public static Logger LOGGER = Utils.getLogger(HomeForm.class.getName());
 
@@ -60,9 +75,44 @@ public class HomeForm extends BaseForm implements Initializable {
     @FXML
     private SplitMenuButton splitMenuBtnSearch;
 
+    @FXML
+    private TextField searchField;
+
+    @FXML
+    private TextField minPriceField;
+
+    @FXML
+    private TextField maxPriceField;
+
+    @FXML
+    private MenuButton sortMenuBtn;
+
+    @FXML
+    private Button btnPreviousPage;
+
+    @FXML
+    private Button btnNextPage;
+
+    // the media of the page shown, the other pages are loaded again when the user comes back to them
     @SuppressWarnings("rawtypes")
     private List homeItems;
 
+    /**
+     * The home shows at most 3 media in each of its 4 columns, one page of the catalog
+     */
+    private static final int HOME_SLOTS = 12;
+
+    private int pageAfterId;
+    private int lastLoadedId;
+    private boolean hasMorePages;
+    private boolean loadingPage;
+    // the afterId of every page before the one shown, set by initialize() which runs before the field initializers
+    private Deque<Integer> previousPages;
+    // the order and the type of the last search, kept when the sort or the price range change
+    private CatalogSnapshot.Column sortBy;
+    private boolean descending;
+    private String searchType;
+
     public HomeForm(Stage stage, String screenPath) throws IOException {
         super(stage, screenPath);
     }
@@ -77,31 +127,81 @@ public class HomeForm extends BaseForm implements Initializable {
 
     @Override
     public void show() {
-        numMediaInCart.setText(String.valueOf(Cart.getCart().getListMedia().size()) + " media");
+        numMediaInCart.setText(String.valueOf(getBController().getCart().getLineCount()) + " media");
         super.show();
+        CatalogChangePoller.getInstance().addListener(this);
+    }
+
+    @Override
+    protected void leave() {
+        super.leave();
+        CatalogChangePoller.getInstance().removeListener(this);
+    }
+
+    @Override
+    public void onCatalogChanged(Set<Integer> mediaIds) {
+        Platform.runLater(() -> refreshItems(mediaIds));
+    }
+
+    @Override
+    public void onCatalogReset() {
+        Platform.runLater(() -> refreshItems(null));
+    }
+
+    /**
+     * Reloads the loaded media that changed, drops the deleted ones and fetches the new ones
+     * @param mediaIds the changed media, null for all of them
+     */
+    @SuppressWarnings("unchecked")
+    private void refreshItems(Set<Integer> mediaIds) {
+        Map<Integer, MediaForm> affected = new LinkedHashMap<>();
+        for (Object item : homeItems) {
+            MediaForm form = (MediaForm) item;
+            if (mediaIds == null || mediaIds.contains(form.getMedia().getId())) affected.put(form.getMedia().getId(), form);
+        }
+        boolean added = mediaIds == null || mediaIds.stream().anyMatch(id -> id > lastLoadedId);
+        if (added && !hasMorePages) {
+            // the new media are on the next pages
+            hasMorePages = true;
+            updatePageButtons();
+        }
+        if (affected.isEmpty()) return;
+        AsyncDataService.getInstance().supply(getScope(), () -> new MediaRepository().findByIds(affected.keySet()))
+            .thenAccept(found -> {
+                boolean removed = false;
+                for (Map.Entry<Integer, MediaForm> item : affected.entrySet()) {
+                    Media media = found.get(item.getKey());
+                    if (media != null) {
+                        item.getValue().updateMedia(media);
+                    } else {
+                        removed |= homeItems.remove(item.getValue());
+                    }
+                }
+                if (removed) addMediaHome(homeItems);
+            })
+            .exceptionally(e -> {
+                if (!AsyncDataService.isCancellation(e)) LOGGER.info("Errors occured: " + AsyncDataService.unwrap(e).getMessage());
+                return null;
+            });
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public void initialize(URL arg0, ResourceBundle arg1) {
         setBController(new HomeController());
-        try{
-            List medium = getBController().getAllMedia();
-            this.homeItems = new ArrayList();
-            for (Object object : medium) {
-                Media media = (Media) object;
-                MediaForm m1 = new MediaForm(Configs.HOME_MEDIA_PATH, media, this);
-                this.homeItems.add(m1);
-            }
-        }catch (SQLException | IOException e){
-            LOGGER.info("Errors occured: " + e.getMessage());
-            e.printStackTrace();
-        }
+        this.homeItems = new ArrayList();
+        this.previousPages = new ArrayDeque<>();
+        this.sortBy = CatalogSnapshot.Column.ID;
+        // the screen is drawn at once, the first page fills it once loaded off the FX thread
+        loadPage(0, () -> { });
 
 
         aimsImage.setOnMouseClicked(e -> {
             addMediaHome(this.homeItems);
+            updatePageButtons();
         });
+        btnNextPage.setOnMouseClicked(e -> nextPage());
+        btnPreviousPage.setOnMouseClicked(e -> previousPage());
 
         cartImage.setOnMouseClicked(e -> {
             try {
@@ -116,9 +216,74 @@ public class HomeForm extends BaseForm implements Initializable {
         });
 
         addMediaHome(this.homeItems);
-        addMenuItem(0, "Book", splitMenuBtnSearch);
-        addMenuItem(1, "DVD", splitMenuBtnSearch);
-        addMenuItem(2, "CD", splitMenuBtnSearch);
+        updatePageButtons();
+        splitMenuBtnSearch.setOnAction(e -> search(null));
+        searchField.setOnAction(e -> search(null));
+        addMenuItem(0, "Book", MediaRepository.TYPE_BOOK, splitMenuBtnSearch);
+        addMenuItem(1, "DVD", MediaRepository.TYPE_DVD, splitMenuBtnSearch);
+        addMenuItem(2, "CD", MediaRepository.TYPE_CD, splitMenuBtnSearch);
+        addSortItem("Catalog order", CatalogSnapshot.Column.ID, false);
+        addSortItem("Price: low to high", CatalogSnapshot.Column.PRICE, false);
+        addSortItem("Price: high to low", CatalogSnapshot.Column.PRICE, true);
+        addSortItem("Most in stock", CatalogSnapshot.Column.QUANTITY, true);
+        minPriceField.setOnAction(e -> search(searchType));
+        maxPriceField.setOnAction(e -> search(searchType));
+
+    }
+
+    /**
+     * Shows the page after the one shown, it was usually prefetched by the controller
+     */
+    private void nextPage() {
+        if (!hasMorePages || loadingPage) return;
+        int current = pageAfterId;
+        loadPage(lastLoadedId, () -> previousPages.push(current));
+    }
+
+    private void previousPage() {
+        if (previousPages.isEmpty() || loadingPage) return;
+        loadPage(previousPages.peek(), previousPages::pop);
+    }
+
+    /**
+     * Loads one page of the catalog off the FX thread and shows it in place of the current one
+     * @param afterId the last id of the page before it
+     * @param onShown run once the page is shown
+     */
+    @SuppressWarnings("unchecked")
+    private void loadPage(int afterId, Runnable onShown) {
+        loadingPage = true;
+        updatePageButtons();
+        AsyncDataService.getInstance().getMediaPage(getScope(), getBController(), afterId, HOME_SLOTS, null)
+            .whenComplete((page, e) -> loadingPage = false)
+            .thenAccept(page -> {
+                List<MediaForm> forms = new ArrayList<>();
+                try {
+                    for (Media media : page.getItems()) forms.add(new MediaForm(Configs.HOME_MEDIA_PATH, media, this));
+                } catch (SQLException | IOException e) {
+                    LOGGER.info("Errors occured: " + e.getMessage());
+                    updatePageButtons();
+                    return;
+                }
+                homeItems.clear();
+                homeItems.addAll(forms);
+                pageAfterId = afterId;
+                lastLoadedId = page.getLastId();
+                hasMorePages = page.hasMore();
+                onShown.run();
+                addMediaHome(homeItems);
+                updatePageButtons();
+            })
+            .exceptionally(e -> {
+                if (!AsyncDataService.isCancellation(e)) LOGGER.info("Errors occured: " + AsyncDataService.unwrap(e).getMessage());
+                updatePageButtons();
+                return null;
+            });
+    }
+
+    private void updatePageButtons() {
+        btnPreviousPage.setDisable(loadingPage || previousPages.isEmpty());
+        btnNextPage.setDisable(loadingPage || !hasMorePages);
     }
 
     public void setImage() {
@@ -153,33 +318,84 @@ public class HomeForm extends BaseForm implements Initializable {
         }
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private void addMenuItem(int position, String text, MenuButton menuButton){
+    private void addMenuItem(int position, String text, String type, MenuButton menuButton){
         MenuItem menuItem = new MenuItem();
         Label label = new Label();
         label.prefWidthProperty().bind(menuButton.widthProperty().subtract(31));
         label.setText(text);
         label.setTextAlignment(TextAlignment.RIGHT);
         menuItem.setGraphic(label);
+        menuItem.setOnAction(e -> search(type));
+        menuButton.getItems().add(position, menuItem);
+    }
+
+    private void addSortItem(String text, CatalogSnapshot.Column column, boolean descending) {
+        MenuItem menuItem = new MenuItem(text);
         menuItem.setOnAction(e -> {
-            // empty home media
-            hboxMedia.getChildren().forEach(node -> {
-                VBox vBox = (VBox) node;
-                vBox.getChildren().clear();
-            });
+            sortBy = column;
+            this.descending = descending;
+            sortMenuBtn.setText(text);
+            search(searchType);
+        });
+        sortMenuBtn.getItems().add(menuItem);
+    }
 
-            // filter only media with the choosen category
-            List filteredItems = new ArrayList<>();
-            homeItems.forEach(me -> {
-                MediaForm media = (MediaForm) me;
-                if (media.getMedia().getTitle().toLowerCase().startsWith(text.toLowerCase())){
-                    filteredItems.add(media);
-                }
+    /**
+     * @return the price typed in the field, null if it is empty or not a number
+     */
+    private static Integer price(TextField field) {
+        String text = field.getText();
+        if (text == null || text.isBlank()) return null;
+        try {
+            return Integer.valueOf(text.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Searches the whole catalog, not only the loaded items, with the text of the search field:
+     * the best matches of the title, author, artist, director, publisher, record label or studio come first.
+     * Without text the catalog is filtered and sorted over the catalog snapshot instead.
+     * @param type restricts the search to one type of media, null for all of them
+     */
+    private void search(String type) {
+        searchType = type;
+        String text = searchField.getText();
+        Integer minPrice = price(minPriceField);
+        Integer maxPrice = price(maxPriceField);
+        MediaFilter filter = type == null && minPrice == null && maxPrice == null ? null
+                : new MediaFilter().setType(type).setMinPrice(minPrice).setMaxPrice(maxPrice);
+        boolean blank = text == null || text.isBlank();
+        if (blank && filter == null && sortBy == CatalogSnapshot.Column.ID && !descending) {
+            addMediaHome(this.homeItems);
+            updatePageButtons();
+            return;
+        }
+        AsyncDataService service = AsyncDataService.getInstance();
+        CompletableFuture<List<Media>> results = blank
+                ? service.browse(getScope(), getBController(), filter, sortBy, descending, 0, HOME_SLOTS).thenApply(SearchPage::getItems)
+                : service.search(getScope(), getBController(), text, filter, 0, HOME_SLOTS).thenApply(SearchPage::getItems);
+        LOGGER.info("User searched for '" + text + "'" + (type == null ? "" : " in " + type));
+        results.thenAccept(this::showResults)
+            .exceptionally(e -> {
+                if (!AsyncDataService.isCancellation(e)) LOGGER.info("Errors occured: " + AsyncDataService.unwrap(e).getMessage());
+                return null;
             });
+    }
 
-            // fill out the home with filted media as category
-            addMediaHome(filteredItems);
-        });
-        menuButton.getItems().add(position, menuItem);
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void showResults(List<Media> medium) {
+        List resultItems = new ArrayList<>();
+        try {
+            for (Media media : medium) resultItems.add(new MediaForm(Configs.HOME_MEDIA_PATH, media, this));
+        } catch (SQLException | IOException e) {
+            LOGGER.info("Errors occured: " + e.getMessage());
+            return;
+        }
+        addMediaHome(resultItems);
+        // the results are not a page of the catalog, the logo brings the catalog back
+        btnPreviousPage.setDisable(true);
+        btnNextPage.setDisable(true);
     }
 }
@@ -5,10 +5,12 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.logging.Logger;
 
+import isd.aims.main.controller.AsyncDataService;
 import isd.aims.main.exception.MediaNotAvailableException;
 import isd.aims.main.entity.cart.Cart;
 import isd.aims.main.entity.cart.CartMedia;
 import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.StockReservations;
 import isd.aims.main.utils.Configs;
 import isd.aims.main.utils.Utils;
 import isd.aims.main.views.FXMLForm;
@@ -50,45 +52,76 @@ public class MediaForm extends FXMLForm {
         this.media = media;
         this.home = home;
         addToCartBtn.setOnMouseClicked(event -> {
+            int required = spinnerChangeNumber.getValue();
+            addToCartBtn.setDisable(true);
+            // the stock is reloaded off the FX thread, the cart is updated back on it
+            AsyncDataService.getInstance().getQuantity(home.getScope(), this.media)
+                .whenComplete((avail, e) -> addToCartBtn.setDisable(false))
+                .thenAccept(avail -> addToCart(required, avail))
+                .exceptionally(e -> {
+                    if (!AsyncDataService.isCancellation(e)) {
+                        LOGGER.severe("Cannot add media to cart: " + AsyncDataService.unwrap(e).getMessage());
+                    }
+                    return null;
+                });
+        });
+        setMediaInfo();
+    }
+
+    private void addToCart(int required, int avail) {
+        StockReservations reservations = StockReservations.getInstance();
+        String sessionId = home.getBController().getSessionId();
+        CartMedia mediaInCart = home.getBController().checkMediaInCart(media);
+        int inCart = mediaInCart == null ? 0 : mediaInCart.getQuantity();
+        try {
+            // hold the stock first, the other shoppers only see what is not held
+            if (!reservations.reserve(sessionId, media.getId(), inCart + required, avail)) throw new MediaNotAvailableException();
+            Cart cart = home.getBController().getCart();
+            // if media already in cart then we will increase its quantity instead of create the new cartMedia
+            if (mediaInCart != null) {
+                mediaInCart.setQuantity(inCart + required);
+            }else{
+                CartMedia cartMedia = new CartMedia(media, cart, required, media.getPrice());
+                cart.addCartMedia(cartMedia);
+                LOGGER.info("Added " + cartMedia.getQuantity() + " " + media.getTitle() + " to cart");
+            }
+
+            // show what is left to sell and redisplay
+            media.setQuantity(reservations.getAvailableToSell(media.getId(), avail));
+            mediaAvail.setText(String.valueOf(media.getLoadedQuantity()));
+            home.getNumMediaCartLabel().setText(String.valueOf(cart.getTotalMedia() + " media"));
+            PopupForm.success("The media " + media.getTitle() + " added to Cart");
+        } catch (MediaNotAvailableException exp) {
             try {
-                if (spinnerChangeNumber.getValue() > media.getQuantity()) throw new MediaNotAvailableException();
-                Cart cart = Cart.getCart();
-                // if media already in cart then we will increase the quantity by 1 instead of create the new cartMedia
-                CartMedia mediaInCart = home.getBController().checkMediaInCart(media);
-                if (mediaInCart != null) {
-                    mediaInCart.setQuantity(mediaInCart.getQuantity() + 1);
-                }else{
-                    CartMedia cartMedia = new CartMedia(media, cart, spinnerChangeNumber.getValue(), media.getPrice());
-                    cart.getListMedia().add(cartMedia);
-                    LOGGER.info("Added " + cartMedia.getQuantity() + " " + media.getTitle() + " to cart");
-                }
-
-                // subtract the quantity and redisplay
-                media.setQuantity(media.getQuantity() - spinnerChangeNumber.getValue());
-                mediaAvail.setText(String.valueOf(media.getQuantity()));
-                home.getNumMediaCartLabel().setText(String.valueOf(cart.getTotalMedia() + " media"));
-                PopupForm.success("The media " + media.getTitle() + " added to Cart");
-            } catch (MediaNotAvailableException exp) {
-                try {
-                    String message = "Not enough media:\nRequired: " + spinnerChangeNumber.getValue() + "\nAvail: " + media.getQuantity();
-                    LOGGER.severe(message);
-                    PopupForm.error(message);
-                } catch (Exception e) {
-                    LOGGER.severe("Cannot add media to cart: ");
-                }
-
-            } catch (Exception exp) {
+                int left = Math.max(0, reservations.getAvailableTo(sessionId, media.getId(), avail) - inCart);
+                String message = "Not enough media:\nRequired: " + required + "\nAvail: " + left;
+                LOGGER.severe(message);
+                PopupForm.error(message);
+            } catch (Exception e) {
                 LOGGER.severe("Cannot add media to cart: ");
-                exp.printStackTrace();
             }
-        });
-        setMediaInfo();
+
+        } catch (Exception exp) {
+            LOGGER.severe("Cannot add media to cart: ");
+            exp.printStackTrace();
+        }
     }
 
     public Media getMedia(){
         return media;
     }
 
+    /**
+     * Shows the media as it was just reloaded, eg: after another process changed its price or stock
+     * @param media the same media, freshly loaded
+     */
+    public void updateMedia(Media media) {
+        this.media = media;
+        mediaTitle.setText(media.getTitle());
+        mediaPrice.setText(Utils.getCurrencyFormat(media.getPrice()));
+        mediaAvail.setText(Integer.toString(StockReservations.getInstance().getAvailableToSell(media)));
+    }
+
     private void setMediaInfo() throws SQLException {
         // set the cover image of media
         File file = new File(Configs.IMAGE_PATH + media.getImageURL());
@@ -99,7 +132,8 @@ public class MediaForm extends FXMLForm {
 
         mediaTitle.setText(media.getTitle());
         mediaPrice.setText(Utils.getCurrencyFormat(media.getPrice()));
-        mediaAvail.setText(Integer.toString(media.getQuantity()));
+        // the media was just loaded with its stock, no need to query it again, less what the carts hold
+        mediaAvail.setText(Integer.toString(StockReservations.getInstance().getAvailableToSell(media)));
         spinnerChangeNumber.setValueFactory(
             new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 100, 1)
         );
@@ -11,12 +11,14 @@ import isd.aims.main.InterbankSubsystem.VnPaySubsystem;
 import isd.aims.main.exception.MediaNotAvailableException;
 import isd.aims.main.exception.PaymentException;
 import isd.aims.main.exception.ProcessInvoiceException;
+import isd.aims.main.controller.AsyncDataService;
 import isd.aims.main.controller.PaymentController;
 import isd.aims.main.entity.invoice.Invoice;
 import isd.aims.main.entity.order.OrderMedia;
 import isd.aims.main.utils.Configs;
 import isd.aims.main.utils.Utils;
 import isd.aims.main.views.BaseForm;
+import isd.aims.main.views.popup.PopupForm;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -106,14 +108,36 @@ public class InvoiceForm extends BaseForm {
 	}
 
 	public void requestToPayOrder() throws SQLException, IOException {
-		try {
-			// create placeOrderController and process the order
-			IPayment vnPayService = new VnPaySubsystem();
-			PaymentController payOrderController = new PaymentController(vnPayService);
-			payOrderController.payOrder(invoice.getAmount(), "Thanh toán hóa đơn AIMS");
-			this.stage.close();
-		} catch (MediaNotAvailableException e) {
-
-		}
+		// create placeOrderController and process the order
+		IPayment vnPayService = new VnPaySubsystem();
+		PaymentController payOrderController = new PaymentController(vnPayService);
+		// the stock is checked off the FX thread, the payment screen is opened back on it
+		btnConfirm.setDisable(true);
+		AsyncDataService.getInstance().checkStock(getScope(), payOrderController, invoice)
+			.thenRun(() -> {
+				try {
+					payOrderController.payOrder(invoice, "Thanh toán hóa đơn AIMS");
+					this.stage.close();
+				} catch (IOException e) {
+					LOGGER.severe("Cannot open the payment screen: " + e.getMessage());
+					btnConfirm.setDisable(false);
+				}
+			})
+			.exceptionally(e -> {
+				btnConfirm.setDisable(false);
+				Throwable cause = AsyncDataService.unwrap(e);
+				if (cause instanceof MediaNotAvailableException) {
+					// another kiosk took the last items since the cart was checked
+					LOGGER.info(cause.getMessage());
+					try {
+						PopupForm.error(cause.getMessage());
+					} catch (IOException exp) {
+						LOGGER.severe("Cannot show the popup: " + exp.getMessage());
+					}
+				} else if (!AsyncDataService.isCancellation(e)) {
+					LOGGER.severe("Cannot check the stock of the order: " + cause.getMessage());
+				}
+				return null;
+			});
 	}
 }
@@ -0,0 +1,6 @@
+-- Catalog filtering: the pages are read in Media.id order, the rowid is part of
+-- every index entry so a type or category filter walks its index in id order.
+CREATE INDEX IF NOT EXISTS "Media.idx_media_type" ON "Media" ("type");
+CREATE INDEX IF NOT EXISTS "Media.idx_media_category" ON "Media" ("category");
+-- LIKE is case insensitive, only a NOCASE index serves the title prefix search
+CREATE INDEX IF NOT EXISTS "Media.idx_media_title" ON "Media" ("title" COLLATE NOCASE);
@@ -0,0 +1,2 @@
+-- Transaction history by date: covering for the date range and the order it belongs to
+CREATE INDEX IF NOT EXISTS "Transaction.idx_transaction_createAt" ON "Transaction" ("createAt", "orderID");
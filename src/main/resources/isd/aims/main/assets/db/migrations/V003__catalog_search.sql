@@ -0,0 +1,66 @@
+-- Full-text search of the catalog: one row per media, its rowid is the Media.id.
+-- creator is the Book author, CD artist or DVD director, label the Book publisher,
+-- CD record label or DVD studio. Diacritics are folded so "ha noi" finds "Hà Nội".
+CREATE VIRTUAL TABLE IF NOT EXISTS "MediaSearch" USING fts5(
+  "title", "creator", "label",
+  tokenize = 'unicode61 remove_diacritics 2',
+  prefix = '2 3'
+);
+-- ORDER BY rank sorts by bm25 with a title match worth more than a creator or label match
+INSERT INTO "MediaSearch"("MediaSearch", "rank") VALUES ('rank', 'bm25(10.0, 4.0, 2.0)');
+
+INSERT INTO "MediaSearch"("rowid", "title", "creator", "label")
+  SELECT "Media"."id", "Media"."title",
+         COALESCE("Book"."author", "CD"."artist", "DVD"."director", ''),
+         COALESCE("Book"."publisher", "CD"."recordLabel", "DVD"."studio", '')
+  FROM "Media"
+  LEFT JOIN "Book" ON "Book"."id" = "Media"."id" AND "Media"."type" = 'book'
+  LEFT JOIN "CD" ON "CD"."id" = "Media"."id" AND "Media"."type" = 'cd'
+  LEFT JOIN "DVD" ON "DVD"."id" = "Media"."id" AND "Media"."type" = 'dvd';
+
+-- The subtype row may be written before or after its Media row, both orders end up indexed
+CREATE TRIGGER IF NOT EXISTS "media_search_insert" AFTER INSERT ON "Media" BEGIN
+  INSERT INTO "MediaSearch"("rowid", "title", "creator", "label") VALUES (new."id", new."title",
+    COALESCE((SELECT "author" FROM "Book" WHERE "id" = new."id" AND new."type" = 'book'),
+             (SELECT "artist" FROM "CD" WHERE "id" = new."id" AND new."type" = 'cd'),
+             (SELECT "director" FROM "DVD" WHERE "id" = new."id" AND new."type" = 'dvd'), ''),
+    COALESCE((SELECT "publisher" FROM "Book" WHERE "id" = new."id" AND new."type" = 'book'),
+             (SELECT "recordLabel" FROM "CD" WHERE "id" = new."id" AND new."type" = 'cd'),
+             (SELECT "studio" FROM "DVD" WHERE "id" = new."id" AND new."type" = 'dvd'), ''));
+END;
+CREATE TRIGGER IF NOT EXISTS "media_search_update" AFTER UPDATE OF "title" ON "Media" BEGIN
+  UPDATE "MediaSearch" SET "title" = new."title" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "media_search_delete" AFTER DELETE ON "Media" BEGIN
+  DELETE FROM "MediaSearch" WHERE "rowid" = old."id";
+END;
+
+CREATE TRIGGER IF NOT EXISTS "book_search_insert" AFTER INSERT ON "Book" BEGIN
+  UPDATE "MediaSearch" SET "creator" = new."author", "label" = new."publisher" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "book_search_update" AFTER UPDATE OF "author", "publisher" ON "Book" BEGIN
+  UPDATE "MediaSearch" SET "creator" = new."author", "label" = new."publisher" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "book_search_delete" AFTER DELETE ON "Book" BEGIN
+  UPDATE "MediaSearch" SET "creator" = '', "label" = '' WHERE "rowid" = old."id";
+END;
+
+CREATE TRIGGER IF NOT EXISTS "cd_search_insert" AFTER INSERT ON "CD" BEGIN
+  UPDATE "MediaSearch" SET "creator" = new."artist", "label" = new."recordLabel" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "cd_search_update" AFTER UPDATE OF "artist", "recordLabel" ON "CD" BEGIN
+  UPDATE "MediaSearch" SET "creator" = new."artist", "label" = new."recordLabel" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "cd_search_delete" AFTER DELETE ON "CD" BEGIN
+  UPDATE "MediaSearch" SET "creator" = '', "label" = '' WHERE "rowid" = old."id";
+END;
+
+CREATE TRIGGER IF NOT EXISTS "dvd_search_insert" AFTER INSERT ON "DVD" BEGIN
+  UPDATE "MediaSearch" SET "creator" = new."director", "label" = new."studio" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "dvd_search_update" AFTER UPDATE OF "director", "studio" ON "DVD" BEGIN
+  UPDATE "MediaSearch" SET "creator" = new."director", "label" = new."studio" WHERE "rowid" = new."id";
+END;
+CREATE TRIGGER IF NOT EXISTS "dvd_search_delete" AFTER DELETE ON "DVD" BEGIN
+  UPDATE "MediaSearch" SET "creator" = '', "label" = '' WHERE "rowid" = old."id";
+END;
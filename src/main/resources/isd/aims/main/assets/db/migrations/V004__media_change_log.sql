@@ -0,0 +1,64 @@
+-- Change log of the catalog: every write to Media, Book, CD or DVD appends the id of
+-- the media it touched, so long running processes can refresh what they cached from
+-- these tables by reading the entries after the last sequence number they saw.
+-- AUTOINCREMENT keeps the sequence monotonic even once old entries are pruned.
+CREATE TABLE IF NOT EXISTS "MediaChange"(
+  "seq" INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+  "mediaID" INTEGER NOT NULL,
+  "tableName" VARCHAR(10) NOT NULL,
+  "operation" CHAR(1) NOT NULL,
+  "changedAt" INTEGER NOT NULL
+);
+CREATE INDEX IF NOT EXISTS "MediaChange.idx_mediachange_changedAt" ON "MediaChange" ("changedAt");
+
+CREATE TRIGGER IF NOT EXISTS "media_change_insert" AFTER INSERT ON "Media" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'Media', 'I', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "media_change_update" AFTER UPDATE ON "Media" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'Media', 'U', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "media_change_delete" AFTER DELETE ON "Media" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (old."id", 'Media', 'D', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+
+CREATE TRIGGER IF NOT EXISTS "book_change_insert" AFTER INSERT ON "Book" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'Book', 'I', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "book_change_update" AFTER UPDATE ON "Book" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'Book', 'U', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "book_change_delete" AFTER DELETE ON "Book" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (old."id", 'Book', 'D', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+
+CREATE TRIGGER IF NOT EXISTS "cd_change_insert" AFTER INSERT ON "CD" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'CD', 'I', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "cd_change_update" AFTER UPDATE ON "CD" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'CD', 'U', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "cd_change_delete" AFTER DELETE ON "CD" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (old."id", 'CD', 'D', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+
+CREATE TRIGGER IF NOT EXISTS "dvd_change_insert" AFTER INSERT ON "DVD" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'DVD', 'I', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "dvd_change_update" AFTER UPDATE ON "DVD" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (new."id", 'DVD', 'U', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
+CREATE TRIGGER IF NOT EXISTS "dvd_change_delete" AFTER DELETE ON "DVD" BEGIN
+  INSERT INTO "MediaChange"("mediaID", "tableName", "operation", "changedAt")
+  VALUES (old."id", 'DVD', 'D', CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER));
+END;
@@ -0,0 +1,10 @@
+-- Progress of the bulk catalog imports, one row per feed. The row is updated in the
+-- transaction that writes the records it counts, so an interrupted import resumes
+-- right after the last records committed, none is written twice.
+CREATE TABLE IF NOT EXISTS "ImportCheckpoint"(
+  "source" VARCHAR(255) PRIMARY KEY NOT NULL,
+  "position" INTEGER NOT NULL,
+  "imported" INTEGER NOT NULL,
+  "rejected" INTEGER NOT NULL,
+  "updatedAt" INTEGER NOT NULL
+);
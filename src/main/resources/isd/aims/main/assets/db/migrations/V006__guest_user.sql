@@ -0,0 +1,3 @@
+-- Orders are placed at the kiosk without logging in, they all belong to this guest user
+-- (OrderRepository.GUEST_USER_ID) so that "Order".userID references a real row.
+INSERT OR IGNORE INTO "User"(id, name, email, address, phone) VALUES (0, 'Guest', '', '', '');
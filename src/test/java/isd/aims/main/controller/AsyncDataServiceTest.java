@@ -0,0 +1,114 @@
+package isd.aims.main.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for AsyncDataService
+ *
+ * The results are delivered through a direct executor that counts them, in place of the
+ * FX thread, so the callbacks can be checked without the JavaFX toolkit.
+ */
+public class AsyncDataServiceTest {
+
+    private final AtomicInteger deliveries = new AtomicInteger();
+    private AsyncDataService service;
+
+    @BeforeEach
+    public void setUp() {
+        service = new AsyncDataService().setUiExecutor(task -> {
+            deliveries.incrementAndGet();
+            task.run();
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void supply_callReturns_deliversTheResult() throws Exception {
+        AsyncDataService.Scope scope = new AsyncDataService.Scope("test");
+        CompletableFuture<String> result = service.supply(scope, () -> Thread.currentThread().isVirtual() ? "virtual" : "platform");
+
+        assertEquals("virtual", result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, deliveries.get(), "the result goes through the UI executor");
+    }
+
+    @Test
+    public void supply_callFails_deliversTheFailure() throws Exception {
+        CompletableFuture<Object> result = service.supply(null, () -> {
+            throw new SQLException("database is locked");
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, AsyncDataService.unwrap(e.getCause()));
+        assertFalse(AsyncDataService.isCancellation(e.getCause()));
+        assertEquals(1, deliveries.get());
+    }
+
+    @Test
+    public void cancel_scope_neverCallsBack() throws Exception {
+        AsyncDataService.Scope scope = new AsyncDataService.Scope("test");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean calledBack = new AtomicBoolean();
+        CompletableFuture<String> result = service.supply(scope, () -> {
+            started.countDown();
+            try {
+                // ignores the interrupt, so the call returns a value after the cancel
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                release.await(5, TimeUnit.SECONDS);
+            } finally {
+                finished.countDown();
+            }
+            return "late";
+        });
+        result.thenAccept(value -> calledBack.set(true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scope.cancel();
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        assertTrue(result.isCancelled());
+        assertFalse(calledBack.get(), "the value of a cancelled call is dropped");
+        assertTrue(scope.isCancelled());
+        CompletableFuture<String> later = service.supply(scope, () -> "never run");
+        assertTrue(later.isCancelled(), "a call on a cancelled scope is cancelled at once");
+    }
+
+    @Test
+    public void cancel_runningCall_isInterrupted() throws Exception {
+        AsyncDataService.Scope scope = new AsyncDataService.Scope("test");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        service.supply(scope, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scope.cancel();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "the call was not interrupted");
+    }
+}
@@ -0,0 +1,202 @@
+package isd.aims.main.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.media.CatalogFile;
+import isd.aims.main.entity.media.CatalogSnapshot;
+import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.media.MediaCache;
+import isd.aims.main.entity.media.MediaFilter;
+import isd.aims.main.entity.media.MediaPage;
+import isd.aims.main.entity.media.MediaRepository;
+import isd.aims.main.entity.media.SearchPage;
+
+/**
+ * Test class for the catalog file fallback and the snapshot queries of HomeController
+ *
+ * To tell where a page was read from, the title of the first media is changed in the database
+ * after the export: a page from the catalog file still shows the old title. The shared snapshot
+ * is dropped before each test and the changes are handed to its updater as the poller would.
+ */
+public class HomeControllerTest {
+
+    private static final String RENAMED = "Renamed after the export";
+
+    private Path db;
+    private Path dir;
+    private Path file;
+    private ConnectionPool pool;
+    private int firstId;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-home", ".db");
+        dir = Files.createTempDirectory("aims-home");
+        file = dir.resolve("aims.catalog");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        new MigrationRunner().migrate(pool);
+        DBConnection.setPool(pool);
+        MediaCache.getInstance().invalidateAll();
+        HomeController.SNAPSHOT_UPDATER.onCatalogReset();
+        firstId = controller().setUseCatalogFile(false).getMediaPage(0, 1, null).getItems().get(0).getId();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        DBConnection.setPool(null);
+        MediaCache.getInstance().invalidateAll();
+        pool.close();
+        Files.deleteIfExists(db);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) Files.delete(path);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void getMediaPage_freshCatalogFile_isReadFromTheFile() throws Exception {
+        CatalogFile.export(file);
+        // an unlogged write leaves the file fresh, the old title shows where the page came from
+        execute("DROP TRIGGER media_change_update");
+        execute("UPDATE Media SET title = '" + RENAMED + "' WHERE id = " + firstId);
+
+        MediaPage page = controller().getMediaPage(0, 5, null);
+
+        assertNotEquals(RENAMED, page.getItems().get(0).getTitle());
+        assertTrue(page.hasMore());
+    }
+
+    @Test
+    public void getMediaPage_staleCatalogFile_fallsBackToTheDatabaseAndExportsAgain() throws Exception {
+        CatalogFile.export(file);
+        execute("UPDATE Media SET title = '" + RENAMED + "' WHERE id = " + firstId);
+
+        HomeController controller = controller();
+        MediaPage page = controller.getMediaPage(0, 5, null);
+
+        assertEquals(RENAMED, page.getItems().get(0).getTitle());
+        awaitExport(controller);
+        assertEquals(RENAMED, CatalogFile.open(file).findById(firstId).getTitle());
+    }
+
+    @Test
+    public void getMediaPage_corruptOrMissingCatalogFile_fallsBackToTheDatabase() throws Exception {
+        Files.write(file, "not a catalog file".getBytes());
+
+        HomeController controller = controller();
+        MediaPage page = controller.getMediaPage(0, 5, null);
+
+        assertEquals(firstId, page.getItems().get(0).getId());
+        awaitExport(controller);
+
+        Files.delete(file);
+        HomeController other = controller();
+        assertEquals(firstId, other.getMediaPage(0, 5, null).getItems().get(0).getId());
+        awaitExport(other);
+    }
+
+    @Test
+    public void getMediaPage_missingDirectory_isCreatedByTheExport() throws Exception {
+        HomeController controller = controller().setCatalogFilePath(dir.resolve("nested").resolve("aims.catalog"));
+
+        controller.getMediaPage(0, 5, null);
+
+        controller.getCatalogExport().get(10, TimeUnit.SECONDS);
+        assertTrue(CatalogFile.open(dir.resolve("nested").resolve("aims.catalog")).isFresh());
+        Files.delete(dir.resolve("nested").resolve("aims.catalog"));
+        Files.delete(dir.resolve("nested"));
+    }
+
+    @Test
+    public void getMediaPage_lastPage_isReadFromTheDatabase() throws Exception {
+        CatalogFile.export(file);
+        execute("DROP TRIGGER media_change_insert");
+        execute("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                + "VALUES (900001, 'book', 'novel', 50, 1, 'Added after the export', 45, 'x.jpg')");
+        HomeController controller = controller();
+
+        MediaPage page = controller.getMediaPage(0, 5, null);
+        while (page.hasMore()) page = controller.getMediaPage(page.getLastId(), 5, null);
+
+        assertEquals(900001, page.getLastId(), "the media added since the export are on the last page");
+    }
+
+    @Test
+    public void browse_priceRangeSortedByPrice_returnsTheMatchingMediaInOrder() throws Exception {
+        MediaFilter filter = new MediaFilter().setType("book").setMinPrice(0).setMaxPrice(Integer.MAX_VALUE / 2);
+        List<Media> expected = new MediaRepository().findPage(0, 100_000, filter).getItems().stream()
+                .sorted((a, b) -> a.getPrice() != b.getPrice() ? Integer.compare(b.getPrice(), a.getPrice()) : Integer.compare(a.getId(), b.getId()))
+                .collect(Collectors.toList());
+        assertTrue(expected.size() > 3, "the test catalog holds a few books");
+        HomeController controller = controller();
+
+        SearchPage first = controller.browse(filter, CatalogSnapshot.Column.PRICE, true, 0, 2);
+        SearchPage second = controller.browse(filter, CatalogSnapshot.Column.PRICE, true, first.getNextOffset(), expected.size());
+
+        assertEquals(ids(expected.subList(0, 2)), ids(first.getItems()));
+        assertTrue(first.hasMore());
+        assertEquals(ids(expected.subList(2, expected.size())), ids(second.getItems()));
+        assertFalse(second.hasMore());
+        assertThrows(IllegalArgumentException.class, () -> controller.browse(new MediaFilter().setTitlePrefix("a"), CatalogSnapshot.Column.ID, false, 0, 5));
+    }
+
+    @Test
+    public void browse_catalogChanged_seesTheChangesPassedToTheUpdater() throws Exception {
+        HomeController controller = controller();
+        MediaFilter cheap = new MediaFilter().setMaxPrice(1);
+        assertTrue(controller.browse(cheap, CatalogSnapshot.Column.ID, false, 0, 5).getItems().isEmpty());
+        execute("UPDATE Media SET price = 1 WHERE id = " + firstId);
+        assertTrue(controller.browse(cheap, CatalogSnapshot.Column.ID, false, 0, 5).getItems().isEmpty(), "not polled yet");
+
+        // what the poller does with the change it reads
+        MediaCache.getInstance().invalidate(firstId);
+        HomeController.SNAPSHOT_UPDATER.onCatalogChanged(Set.of(firstId));
+
+        List<Media> items = controller.browse(cheap, CatalogSnapshot.Column.ID, false, 0, 5).getItems();
+        assertEquals(List.of(firstId), ids(items));
+        assertEquals(1, items.get(0).getPrice());
+    }
+
+    private static List<Integer> ids(List<Media> medium) {
+        return medium.stream().map(Media::getId).collect(Collectors.toList());
+    }
+
+    private HomeController controller() {
+        return new HomeController().setPrefetch(false).setUseOffHeapCatalog(false).setCatalogFilePath(file);
+    }
+
+    /**
+     * Waits for the background export started by the fallback, then checks the file is fresh
+     */
+    private void awaitExport(HomeController controller) throws Exception {
+        assertNotNull(controller.getCatalogExport(), "the fallback exports the catalog again");
+        controller.getCatalogExport().get(10, TimeUnit.SECONDS);
+        assertTrue(CatalogFile.open(file).isFresh());
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate(sql);
+        }
+    }
+}
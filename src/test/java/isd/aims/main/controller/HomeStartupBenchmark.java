@@ -0,0 +1,119 @@
+package isd.aims.main.controller;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.media.CatalogFile;
+import isd.aims.main.utils.Configs;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time to first render of the home screen, with and without the catalog file, on a copy of
+ * aims.db grown to {@value #ITEMS} media. Every scenario runs in a new JVM, the time is measured
+ * from the start of main, once JavaFX is loaded, to the media of the home being built: the first
+ * page, or the whole catalog as the home used to load it with getAllMedia().
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.controller.HomeStartupBenchmark
+ */
+public class HomeStartupBenchmark {
+
+    private static final int ITEMS = 100_000;
+    private static final int RUNS = 3;
+    private static final String[] SCENARIOS = { "sql-page", "file-page", "sql-all", "file-all" };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            runScenario(args[0]);
+            return;
+        }
+        Path dir = Files.createTempDirectory("aims-startup");
+        Path db = dir.resolve("aims.db");
+        Path catalog = dir.resolve("aims.catalog");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            try (ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + db, 1)) {
+                new MigrationRunner().migrate(pool);
+                seed(pool);
+            }
+            // Configs reads the paths when it is first loaded
+            System.setProperty("aims.db.path", db.toString());
+            System.setProperty("aims.catalog.path", catalog.toString());
+            long start = System.nanoTime();
+            int count = CatalogFile.export(catalog);
+            System.out.printf("%d media exported to a %d KB catalog file in %.0f ms%n%n", count,
+                    Files.size(catalog) >> 10, (System.nanoTime() - start) / 1e6);
+
+            System.out.printf("%-10s %s%n", "scenario", "time to first render, ms (each run in a new JVM)");
+            for (String scenario : SCENARIOS) {
+                List<String> times = new ArrayList<>();
+                for (int run = 0; run < RUNS; run++) times.add(fork(scenario, db, catalog));
+                System.out.printf("%-10s %s%n", scenario, String.join("  ", times));
+            }
+        } finally {
+            for (String name : new String[] { "aims.db", "aims.db-wal", "aims.db-shm", "aims.catalog" }) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void seed(ConnectionPool pool) throws Exception {
+        String numbers = "WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < " + ITEMS + ") ";
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            stm.executeUpdate(numbers + "INSERT INTO Book SELECT 1000 + i, 'Author ' || (i % 5000), 'paperback', "
+                    + "'Publisher ' || (i % 200), 1500000000000 + i, 100 + i % 500, 'vi', 'novel' FROM n WHERE i % 3 = 0");
+            stm.executeUpdate(numbers + "INSERT INTO CD SELECT 1000 + i, 'Artist ' || (i % 3000), 'Label ' || (i % 100), "
+                    + "'pop', 1500000000000 + i FROM n WHERE i % 3 = 1");
+            stm.executeUpdate(numbers + "INSERT INTO DVD SELECT 1000 + i, 'bluray', 'Director ' || (i % 2000), 90 + i % 60, "
+                    + "'Studio ' || (i % 50), 'en', 1500000000000 + i, 'feature' FROM n WHERE i % 3 = 2");
+            stm.executeUpdate(numbers + "INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                    + "SELECT 1000 + i, CASE i % 3 WHEN 0 THEN 'book' WHEN 1 THEN 'cd' ELSE 'dvd' END, 'category' || (i % 40), "
+                    + "10000 + i % 90000, i % 20, 'Title ' || i, 9000 + i % 80000, 'images/' || i || '.jpg' FROM n");
+            connection.commit();
+        }
+    }
+
+    private static String fork(String scenario, Path db, Path catalog) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Daims.db.path=" + db, "-Daims.catalog.path=" + catalog,
+                "-cp", System.getProperty("java.class.path"), HomeStartupBenchmark.class.getName(), scenario));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("RESULT ")) result = line.substring(7);
+            }
+        }
+        if (process.waitFor() != 0 || result == null) throw new IllegalStateException(scenario + " failed");
+        return result;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void runScenario(String scenario) throws Exception {
+        // Configs loads JavaFX fonts, done by the application before the home screen anyway
+        if (Configs.CATALOG_FILE_PATH.isEmpty()) throw new IllegalStateException();
+        long start = System.nanoTime();
+        HomeController controller = new HomeController().setPrefetch(false).setUseCatalogFile(scenario.startsWith("file"));
+        int count;
+        if (scenario.endsWith("page")) {
+            count = controller.getMediaPage(0, HomeController.PAGE_SIZE, null).getItems().size();
+        } else {
+            List all = controller.getAllMedia();
+            count = all.size();
+        }
+        System.out.printf("RESULT %6.0f (%d media)%n", (System.nanoTime() - start) / 1e6, count);
+    }
+}
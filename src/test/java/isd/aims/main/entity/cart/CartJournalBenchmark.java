@@ -0,0 +1,93 @@
+package isd.aims.main.entity.cart;
+
+import isd.aims.main.entity.media.Media;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Restore time of the carts after a crash: {@value #CARTS} carts of {@value #LINES} lines are
+ * snapshotted, changed {@value #CHANGES} more times (the log tail), then the process "crashes"
+ * leaving the journal unclosed with half a record at its end. A new store restores the carts from
+ * the same files and every cart must match the one before the crash.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.cart.CartJournalBenchmark [carts]
+ */
+public class CartJournalBenchmark {
+
+    private static final int CARTS = 5_000;
+    private static final int LINES = 5;
+    /**
+     * The most the log holds with the default {@link isd.aims.main.utils.Configs#CART_SNAPSHOT_EVERY}
+     */
+    private static final int CHANGES = 10_000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int carts = args.length > 0 ? Integer.parseInt(args[0]) : CARTS;
+        Path dir = Files.createTempDirectory("aims-carts");
+        Path log = dir.resolve("carts.journal");
+        try {
+            CartStore before = new CartStore(carts * 2, 3_600_000, System::nanoTime);
+            CartJournal journal = new CartJournal(log, Integer.MAX_VALUE, 1000);
+            before.attach(journal);
+
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            for (int i = 0; i < carts; i++) {
+                Cart cart = before.getCart("session-" + i);
+                for (int line = 0; line < LINES; line++) {
+                    int id = 1 + random.nextInt(10_000);
+                    Media media = new Media(id, "Title " + id, "category" + id % 40, 10_000 + id, 0, "book")
+                            .setMediaURL("images/" + id + ".jpg");
+                    cart.addCartMedia(new CartMedia(media, cart, 1 + random.nextInt(3), media.getPrice()));
+                }
+            }
+            journal.snapshot();
+            for (int i = 0; i < CHANGES; i++) {
+                Cart cart = before.getCart("session-" + random.nextInt(carts));
+                CartMedia line = cart.getListMedia().isEmpty() ? null : cart.getListMedia().get(random.nextInt(cart.getLineCount()));
+                if (line == null) continue;
+                if (i % 10 == 0) cart.removeCartMedia(line);
+                else line.setQuantity(1 + random.nextInt(9));
+            }
+            System.out.printf("%d carts filled and changed %d times in %.0f ms, snapshot %d KB, log %d KB%n", carts, CHANGES,
+                    (System.nanoTime() - start) / 1e6, Files.size(dir.resolve("carts.journal.snapshot")) >> 10, Files.size(log) >> 10);
+
+            // the crash: nothing is closed and the last record was cut short
+            journal.sync();
+            try (OutputStream out = Files.newOutputStream(log, StandardOpenOption.APPEND)) {
+                out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+            }
+
+            for (int run = 0; run < RUNS; run++) {
+                CartStore after = new CartStore(carts * 2, 3_600_000, System::nanoTime);
+                Path copy = dir.resolve("run" + run + ".journal");
+                Files.copy(log, copy);
+                Files.copy(dir.resolve("carts.journal.snapshot"), dir.resolve("run" + run + ".journal.snapshot"));
+                start = System.nanoTime();
+                CartJournal restored = new CartJournal(copy, Integer.MAX_VALUE, 1000);
+                after.attach(restored);
+                double millis = (System.nanoTime() - start) / 1e6;
+                int mismatches = 0;
+                for (int i = 0; i < carts; i++) {
+                    Cart expected = before.getCart("session-" + i);
+                    Cart actual = after.peekCart("session-" + i);
+                    int total = actual == null ? 0 : actual.getTotalMedia();
+                    int subtotal = actual == null ? 0 : actual.calSubtotal();
+                    if (expected.getTotalMedia() != total || expected.calSubtotal() != subtotal) mismatches++;
+                }
+                System.out.printf("restore %d: %d carts in %.1f ms, %d mismatches%n", run, after.size(), millis, mismatches);
+                restored.close();
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+}
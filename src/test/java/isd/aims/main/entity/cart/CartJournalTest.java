@@ -0,0 +1,287 @@
+package isd.aims.main.entity.cart;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Test class for CartJournal
+ *
+ * A crash is simulated by copying the log and the snapshot as they are on disk to another
+ * directory, optionally damaging them, and restoring a new journal from the copy.
+ */
+public class CartJournalTest {
+
+    private Path dir;
+    private Path logPath;
+    private CartJournal journal;
+    private final List<CartJournal> restored = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("aims-carts");
+        logPath = dir.resolve("carts.journal");
+        journal = new CartJournal(logPath, 1_000, 1_000);
+        assertTrue(journal.restore().isEmpty());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        journal.close();
+        for (CartJournal other : restored) other.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+        }
+    }
+
+    @Test
+    public void restore_afterRestart_replaysEveryChange() throws Exception {
+        Cart a = cart("a");
+        CartMedia first = CartTest.line(1, 2, 100);
+        a.addCartMedia(first);
+        a.addCartMedia(CartTest.line(2, 1, 50));
+        a.addCartMedia(CartTest.line(3, 1, 30));
+        first.setQuantity(4);
+        first.setPrice(90);
+        a.removeCartMedia(a.getCartMedia(2));
+        Cart b = cart("b");
+        b.addCartMedia(CartTest.line(1, 1, 100));
+        b.emptyCart();
+        b.addCartMedia(CartTest.line(5, 2, 10));
+
+        Map<String, List<CartMedia>> carts = restoreFrom(crash());
+
+        assertEquals(Map.of("a", List.of("1 x4 @90", "3 x1 @30"), "b", List.of("5 x2 @10")), describe(carts));
+        CartMedia line = carts.get("a").get(0);
+        assertEquals("Media 1", line.getMedia().getTitle());
+        assertEquals("book", line.getMedia().getType());
+    }
+
+    @Test
+    public void restore_tornTailRecord_keepsTheRecordsBeforeIt() throws Exception {
+        Cart a = cart("a");
+        a.addCartMedia(CartTest.line(1, 1, 100));
+        a.addCartMedia(CartTest.line(2, 1, 50));
+        long before = Files.size(logPath);
+        a.addCartMedia(CartTest.line(3, 1, 30));
+        long after = Files.size(logPath);
+
+        Path crash = crash();
+        // the crash cut the last record in the middle
+        truncate(crash.resolve("carts.journal"), before + (after - before) / 2);
+        CartJournal reopened = journalAt(crash);
+        Map<String, List<CartMedia>> carts = reopened.restore();
+
+        assertEquals(Map.of("a", List.of("1 x1 @100", "2 x1 @50")), describe(carts));
+        assertEquals(2, reopened.getRecordsSinceSnapshot());
+        assertEquals(before, Files.size(crash.resolve("carts.journal")), "the torn bytes are truncated");
+        assertAppendsAfterTheTail(reopened, crash);
+    }
+
+    @Test
+    public void restore_corruptTailRecord_isDroppedByItsChecksum() throws Exception {
+        Cart a = cart("a");
+        a.addCartMedia(CartTest.line(1, 1, 100));
+        long before = Files.size(logPath);
+        a.getCartMedia(1).setQuantity(7);
+
+        Path crash = crash();
+        // the record is whole but its last byte, part of the price, was not written right
+        Path log = crash.resolve("carts.journal");
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(log, bytes);
+        CartJournal reopened = journalAt(crash);
+        Map<String, List<CartMedia>> carts = reopened.restore();
+
+        assertEquals(Map.of("a", List.of("1 x1 @100")), describe(carts), "the change of quantity is lost, not misread");
+        assertEquals(before, Files.size(log));
+        assertAppendsAfterTheTail(reopened, crash);
+    }
+
+    @Test
+    public void snapshot_newGeneration_ignoresTheOlderLog() throws Exception {
+        Cart a = cart("a");
+        a.addCartMedia(CartTest.line(1, 1, 100));
+        // the log as it was before the line was removed, of the generation of no snapshot
+        Path staleLog = Files.copy(logPath, dir.resolve("stale.journal"));
+        assertEquals(0, generation(staleLog));
+        a.removeCartMedia(a.getCartMedia(1));
+        a.addCartMedia(CartTest.line(2, 1, 50));
+
+        journal.snapshot();
+
+        assertEquals(1, generation(logPath));
+        assertEquals(0, journal.getRecordsSinceSnapshot());
+        // a crash right after the snapshot was moved in place, before the log was started again
+        Path crash = crash();
+        Files.copy(staleLog, crash.resolve("carts.journal"), StandardCopyOption.REPLACE_EXISTING);
+        CartJournal reopened = journalAt(crash);
+        Map<String, List<CartMedia>> carts = reopened.restore();
+
+        assertEquals(Map.of("a", List.of("2 x1 @50")), describe(carts), "line 1 must not come back from the older log");
+        assertEquals(0, reopened.getRecordsSinceSnapshot());
+        assertEquals(1, generation(crash.resolve("carts.journal")), "a new log of the snapshot's generation is started");
+    }
+
+    @Test
+    public void restore_changesAfterASnapshot_areReplayedOnTopOfIt() throws Exception {
+        Cart a = cart("a");
+        a.addCartMedia(CartTest.line(1, 1, 100));
+        journal.snapshot();
+        a.getCartMedia(1).setQuantity(3);
+        a.addCartMedia(CartTest.line(2, 1, 50));
+
+        Map<String, List<CartMedia>> carts = restoreFrom(crash());
+
+        assertEquals(Map.of("a", List.of("1 x3 @100", "2 x1 @50")), describe(carts));
+    }
+
+    @Test
+    public void snapshot_whileCartsChange_carriesTheChangesIntoTheNextLog() throws Exception {
+        Cart a = cart("a");
+        CompletableFuture<Void> snapshots = CompletableFuture.runAsync(() -> {
+            try {
+                for (int i = 0; i < 20; i++) journal.snapshot();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Random random = new Random(7);
+        while (!snapshots.isDone()) {
+            CartMedia line = a.getCartMedia(1 + random.nextInt(20));
+            if (line == null) a.addCartMedia(CartTest.line(1 + random.nextInt(20), 1, 10));
+            else line.setQuantity(1 + random.nextInt(9));
+        }
+        snapshots.get(10, TimeUnit.SECONDS);
+
+        Map<String, List<CartMedia>> carts = restoreFrom(crash());
+
+        assertEquals(describe(Map.of("a", a.getListMedia())), describe(carts));
+    }
+
+    @Test
+    public void cartDropped_isReplayed() throws Exception {
+        CartStore store = new CartStore(10, 60_000, System::nanoTime);
+        CartJournal attached = journalAt(dir.resolve("store"));
+        store.attach(attached);
+        store.getCart("a").addCartMedia(CartTest.line(1, 1, 100));
+        store.getCart("b").addCartMedia(CartTest.line(2, 1, 50));
+
+        store.removeCart("a");
+
+        CartStore reopened = new CartStore(10, 60_000, System::nanoTime);
+        reopened.attach(journalAt(crash(dir.resolve("store"))));
+        assertNull(reopened.peekCart("a"), "the dropped cart stays dropped");
+        assertEquals(1, reopened.peekCart("b").getLineCount());
+        assertEquals(50, reopened.peekCart("b").calSubtotal());
+    }
+
+    @Test
+    public void close_writesASnapshotReadWithoutLog() throws Exception {
+        Cart a = cart("a");
+        a.addCartMedia(CartTest.line(1, 2, 100));
+
+        journal.close();
+
+        CartJournal reopened = journalAt(dir);
+        assertEquals(Map.of("a", List.of("1 x2 @100")), describe(reopened.restore()));
+        assertEquals(0, reopened.getRecordsSinceSnapshot());
+    }
+
+    @Test
+    public void restore_corruptSnapshot_throwsIOException() throws Exception {
+        cart("a").addCartMedia(CartTest.line(1, 2, 100));
+        journal.snapshot();
+        Path crash = crash();
+        Path snapshot = crash.resolve("carts.journal.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[20] ^= 0x01;
+        Files.write(snapshot, bytes);
+
+        assertThrows(IOException.class, () -> journalAt(crash).restore());
+    }
+
+    @Test
+    public void restore_missingDirectory_isCreated() throws Exception {
+        CartJournal nested = journalAt(dir.resolve("nested").resolve("deeper"));
+
+        assertTrue(nested.restore().isEmpty());
+        assertTrue(Files.exists(dir.resolve("nested").resolve("deeper").resolve("carts.journal")));
+    }
+
+    private Cart cart(String sessionId) {
+        Cart cart = new Cart(sessionId);
+        cart.addListener(journal);
+        return cart;
+    }
+
+    private Path crash() throws IOException {
+        return crash(dir);
+    }
+
+    /**
+     * @return a directory holding a copy of the journal files as they are on disk now
+     */
+    private Path crash(Path from) throws IOException {
+        Path crash = Files.createTempDirectory(dir, "crash");
+        for (String name : List.of("carts.journal", "carts.journal.snapshot")) {
+            if (Files.exists(from.resolve(name))) Files.copy(from.resolve(name), crash.resolve(name));
+        }
+        return crash;
+    }
+
+    private CartJournal journalAt(Path directory) {
+        CartJournal other = new CartJournal(directory.resolve("carts.journal"), 1_000, 1_000);
+        restored.add(other);
+        return other;
+    }
+
+    private Map<String, List<CartMedia>> restoreFrom(Path directory) throws IOException {
+        return journalAt(directory).restore();
+    }
+
+    /**
+     * Checks that the journal appends its next record right after the records it kept
+     */
+    private void assertAppendsAfterTheTail(CartJournal reopened, Path directory) throws Exception {
+        Cart cart = new Cart("c");
+        cart.addListener(reopened);
+        cart.addCartMedia(CartTest.line(9, 1, 10));
+
+        Map<String, List<CartMedia>> carts = journalAt(crash(directory)).restore();
+        assertEquals(List.of("9 x1 @10"), describe(carts).get("c"));
+    }
+
+    private static Map<String, List<String>> describe(Map<String, List<CartMedia>> carts) {
+        return carts.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().stream()
+                .map(line -> line.getMedia().getId() + " x" + line.getQuantity() + " @" + line.getPrice())
+                .collect(Collectors.toList())));
+    }
+
+    private static long generation(Path log) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(log)).getLong(8);
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, (int) size));
+    }
+}
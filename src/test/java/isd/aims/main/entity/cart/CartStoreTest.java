@@ -0,0 +1,265 @@
+package isd.aims.main.entity.cart;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import isd.aims.main.entity.media.StockReservations;
+import isd.aims.main.listener.CartChangeListener;
+
+/**
+ * Test class for CartStore
+ *
+ * The store reads the time from a clock moved by hand, so the idle sweep and the
+ * least recently used eviction are checked without waiting.
+ */
+public class CartStoreTest {
+
+    private static final long IDLE_TIMEOUT = 1_000;
+
+    private AtomicLong now;
+    private CartStore store;
+
+    @BeforeEach
+    public void setUp() {
+        now = new AtomicLong();
+        store = new CartStore(3, IDLE_TIMEOUT, now::get);
+    }
+
+    @Test
+    public void getCart_sameSession_returnsTheSameCart() {
+        Cart cart = store.getCart("a");
+
+        assertSame(cart, store.getCart("a"));
+        assertNotSame(cart, store.getCart("b"));
+        assertEquals("a", cart.getSessionId());
+        assertEquals(2, store.size());
+        assertEquals(2, store.getCreated());
+        assertNull(store.peekCart("c"));
+        assertThrows(IllegalArgumentException.class, () -> store.getCart(null));
+    }
+
+    @Test
+    public void evictIdle_untouchedCarts_areDropped() {
+        Cart a = store.getCart("a");
+        store.getCart("b");
+        advance(600);
+        store.getCart("a");
+        advance(600);
+
+        assertEquals(1, store.evictIdle());
+
+        assertSame(a, store.peekCart("a"));
+        assertNull(store.peekCart("b"));
+        assertEquals(1, store.getExpirations());
+        assertEquals(0, store.evictIdle(), "a was used 600 ms ago");
+    }
+
+    @Test
+    public void evictIdle_peekCart_doesNotKeepTheCartAlive() {
+        store.getCart("a");
+        advance(600);
+        store.peekCart("a");
+        advance(600);
+
+        assertEquals(1, store.evictIdle());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void evictIdle_exactlyAtTheTimeout_keepsTheCart() {
+        store.getCart("a");
+        advance(IDLE_TIMEOUT);
+
+        assertEquals(0, store.evictIdle());
+        advance(1);
+        assertEquals(1, store.evictIdle());
+    }
+
+    @Test
+    public void getCart_storeFull_dropsTheLeastRecentlyUsedCart() {
+        store.getCart("a");
+        advance(1);
+        store.getCart("b");
+        advance(1);
+        store.getCart("c");
+        advance(1);
+        // a becomes the most recently used, b the eldest
+        store.getCart("a");
+        advance(1);
+
+        Cart d = store.getCart("d");
+
+        assertEquals(3, store.size());
+        assertNull(store.peekCart("b"));
+        assertNotNull(store.peekCart("a"));
+        assertNotNull(store.peekCart("c"));
+        assertSame(d, store.peekCart("d"));
+        assertEquals(1, store.getEvictions());
+    }
+
+    @Test
+    public void getCart_newSessionWithTheOldestClock_isNeverTheOneEvicted() {
+        store.getCart("a");
+        store.getCart("b");
+        store.getCart("c");
+
+        // all four carts share the same access time, the new one must survive
+        store.getCart("d");
+
+        assertNotNull(store.peekCart("d"));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void getCart_overTheLineCap_dropsTheLeastRecentlyUsedCarts() throws Exception {
+        CartStore bounded = new CartStore(10, 4, IDLE_TIMEOUT, now::get);
+        bounded.getCart("a").addCartMedia(CartTest.line(1, 1, 10));
+        bounded.getCart("a").addCartMedia(CartTest.line(2, 1, 10));
+        bounded.getCart("b").addCartMedia(CartTest.line(1, 1, 10));
+        Cart c = bounded.getCart("c");
+        c.addCartMedia(CartTest.line(1, 1, 10));
+        assertEquals(4, bounded.getLineCount());
+
+        // the fifth line makes a, the least recently used cart, give way
+        c.addCartMedia(CartTest.line(2, 1, 10));
+
+        assertNull(bounded.peekCart("a"));
+        assertNotNull(bounded.peekCart("b"));
+        assertEquals(3, bounded.getLineCount());
+        assertEquals(1, bounded.getEvictions());
+
+        c.emptyCart();
+        bounded.removeCart("b");
+        assertEquals(0, bounded.getLineCount());
+    }
+
+    @Test
+    public void removeCart_session_dropsItsCart() {
+        Cart a = store.getCart("a");
+
+        assertSame(a, store.removeCart("a"));
+
+        assertNull(store.removeCart("a"));
+        assertNotSame(a, store.getCart("a"), "a new cart is created for the session");
+    }
+
+    @Test
+    public void addCartListener_registersOnHeldAndFutureCarts() throws Exception {
+        List<String> events = new ArrayList<>();
+        store.getCart("a");
+        store.addCartListener(new CartChangeListener() {
+            @Override
+            public void onLineAdded(Cart cart, CartMedia line) {
+                events.add(cart.getSessionId() + " " + line.getMedia().getId());
+            }
+
+            @Override
+            public void onLineRemoved(Cart cart, CartMedia line) {
+            }
+
+            @Override
+            public void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice) {
+            }
+
+            @Override
+            public void onCartEmptied(Cart cart) {
+            }
+        });
+
+        store.getCart("a").addCartMedia(CartTest.line(1, 1, 10));
+        store.getCart("b").addCartMedia(CartTest.line(2, 1, 10));
+
+        assertEquals(List.of("a 1", "b 2"), events);
+    }
+
+    @Test
+    public void getCart_concurrentCalls_createOneCartPerSession() throws Exception {
+        CartStore large = new CartStore(100, IDLE_TIMEOUT, now::get);
+        Set<Cart> seen = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int j = 0; j < 1_000; j++) seen.add(large.getCart("session" + j % 10));
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(10, seen.size());
+        assertEquals(10, large.getCreated());
+    }
+
+    @Test
+    public void setReservations_droppedCarts_releaseTheirHolds() throws Exception {
+        // the application wide holds, the sessions of this test are its own
+        StockReservations reservations = StockReservations.getInstance();
+        store.setReservations(reservations);
+        store.getCart("drop-a").addCartMedia(CartTest.line(1, 2, 10));
+        store.getCart("drop-b").addCartMedia(CartTest.line(1, 1, 10));
+        store.getCart("drop-c").addCartMedia(CartTest.line(1, 1, 10));
+        assertEquals(2, reservations.getHeld("drop-a", 1));
+
+        store.removeCart("drop-a");
+        assertEquals(0, reservations.getHeld("drop-a", 1));
+
+        advance(IDLE_TIMEOUT + 1);
+        store.getCart("drop-c");
+        store.evictIdle();
+        assertEquals(0, reservations.getHeld("drop-b", 1), "expired");
+
+        advance(1);
+        store.getCart("drop-d");
+        store.getCart("drop-e");
+        advance(1);
+        store.getCart("drop-f");
+        assertNull(store.peekCart("drop-c"));
+        assertEquals(0, reservations.getHeld("drop-c", 1), "evicted");
+    }
+
+    @Test
+    public void setReservations_restoredCarts_holdTheirLines() throws Exception {
+        Path dir = Files.createTempDirectory("aims-store");
+        Path log = dir.resolve("carts.journal");
+        StockReservations reservations = StockReservations.getInstance();
+        try {
+            CartJournal journal = new CartJournal(log, 1_000, 1_000);
+            store.attach(journal);
+            store.getCart("restored-a").addCartMedia(CartTest.line(1, 2, 10));
+            store.getCart("restored-a").addCartMedia(CartTest.line(2, 1, 10));
+            journal.close();
+
+            CartStore restarted = new CartStore(3, IDLE_TIMEOUT, now::get);
+            CartJournal reopened = new CartJournal(log, 1_000, 1_000);
+            restarted.attach(reopened);
+            restarted.setReservations(reservations);
+
+            assertEquals(2, reservations.getHeld("restored-a", 1));
+            assertEquals(1, reservations.getHeld("restored-a", 2));
+            restarted.peekCart("restored-a").getCartMedia(1).setQuantity(3);
+            assertEquals(3, reservations.getHeld("restored-a", 1), "the holds follow the restored lines");
+            restarted.removeCart("restored-a");
+            assertEquals(0, reservations.getHeld("restored-a", 1));
+            reopened.close();
+        } finally {
+            reservations.releaseSession("restored-a");
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) files::iterator) Files.delete(path);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,266 @@
+package isd.aims.main.entity.cart;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import isd.aims.main.entity.media.Media;
+import isd.aims.main.listener.CartChangeListener;
+
+/**
+ * Test class for Cart
+ *
+ * The item count and the subtotal are kept up to date on every change of a line, they are
+ * checked against a sum over the lines after each step. The listeners are told of each change
+ * of a line, then of the new totals when they moved.
+ */
+public class CartTest {
+
+    private Cart cart;
+
+    @BeforeEach
+    public void setUp() {
+        cart = new Cart("session");
+    }
+
+    @Test
+    public void addCartMedia_newLines_addToTheTotals() throws SQLException {
+        cart.addCartMedia(line(1, 2, 100));
+        cart.addCartMedia(line(2, 3, 50));
+
+        assertTotals(5, 350);
+        assertEquals(2, cart.getLineCount());
+        assertEquals(List.of(1, 2), ids());
+    }
+
+    @Test
+    public void addCartMedia_mediaAlreadyInCart_mergesIntoTheLine() throws SQLException {
+        CartMedia first = line(1, 2, 100);
+        cart.addCartMedia(first);
+        cart.addCartMedia(line(2, 1, 50));
+
+        cart.addCartMedia(line(1, 3, 100));
+
+        assertEquals(5, first.getQuantity());
+        assertSame(first, cart.getCartMedia(1));
+        assertEquals(List.of(1, 2), ids(), "the merged line keeps its place");
+        assertTotals(6, 550);
+
+        // adding the same line again changes nothing
+        cart.addCartMedia(first);
+        assertTotals(6, 550);
+    }
+
+    @Test
+    public void setQuantityAndPrice_lineInCart_updateTheTotals() throws SQLException {
+        CartMedia line = line(1, 2, 100);
+        cart.addCartMedia(line);
+        cart.addCartMedia(line(2, 1, 50));
+
+        line.setQuantity(4);
+        assertTotals(5, 450);
+
+        line.setPrice(80);
+        assertTotals(5, 370);
+
+        line.setQuantity(0);
+        assertTotals(1, 50);
+    }
+
+    @Test
+    public void removeCartMedia_line_subtractsFromTheTotals() throws SQLException {
+        CartMedia line = line(1, 2, 100);
+        cart.addCartMedia(line);
+        cart.addCartMedia(line(2, 3, 50));
+
+        cart.removeCartMedia(line);
+
+        assertTotals(3, 150);
+        assertNull(cart.getCartMedia(1));
+        // a line out of the cart no longer moves its totals
+        line.setQuantity(10);
+        assertTotals(3, 150);
+    }
+
+    @Test
+    public void removeCartMedia_otherLineOfTheSameMedia_isIgnored() throws SQLException {
+        cart.addCartMedia(line(1, 2, 100));
+
+        cart.removeCartMedia(line(1, 2, 100));
+
+        assertTotals(2, 200);
+        assertEquals(1, cart.getLineCount());
+    }
+
+    @Test
+    public void emptyCart_clearsLinesAndTotals() throws SQLException {
+        CartMedia line = line(1, 2, 100);
+        cart.addCartMedia(line);
+        cart.addCartMedia(line(2, 3, 50));
+
+        cart.emptyCart();
+
+        assertTotals(0, 0);
+        assertEquals(0, cart.getLineCount());
+        line.setQuantity(5);
+        assertTotals(0, 0);
+        // the line left the cart, its media can be changed again
+        line.setMedia(new Media(3, "Media 3", "category", 100, 10, "book"));
+    }
+
+    @Test
+    public void setMedia_lineInCart_throwsIllegalState() throws SQLException {
+        CartMedia line = line(1, 2, 100);
+        cart.addCartMedia(line);
+
+        assertThrows(IllegalStateException.class, () -> line.setMedia(new Media(2, "Media 2", "category", 100, 10, "book")));
+    }
+
+    @Test
+    public void randomChanges_totalsMatchASumOverTheLines() throws SQLException {
+        Random random = new Random(3);
+        List<CartMedia> added = new ArrayList<>();
+        for (int step = 0; step < 2_000; step++) {
+            int action = random.nextInt(5);
+            if (action == 0 || added.isEmpty()) {
+                CartMedia line = line(1 + random.nextInt(30), 1 + random.nextInt(5), 10 + random.nextInt(100));
+                cart.addCartMedia(line);
+                added.add(line);
+            } else {
+                CartMedia line = added.get(random.nextInt(added.size()));
+                if (action == 1) cart.removeCartMedia(line);
+                else if (action == 2) line.setPrice(10 + random.nextInt(100));
+                else line.setQuantity(random.nextInt(6));
+            }
+            int total = 0;
+            int subtotal = 0;
+            for (CartMedia line : cart.getListMedia()) {
+                total += line.getQuantity();
+                subtotal += line.getQuantity() * line.getPrice();
+            }
+            assertEquals(total, cart.getTotalMedia(), "step " + step);
+            assertEquals(subtotal, cart.calSubtotal(), "step " + step);
+        }
+    }
+
+    @Test
+    public void listeners_everyChange_toldLineEventThenTotals() throws SQLException {
+        Recorder recorder = new Recorder();
+        cart.addListener(recorder);
+        CartMedia line = line(1, 2, 100);
+
+        cart.addCartMedia(line);
+        cart.addCartMedia(line(1, 1, 100));
+        line.setPrice(90);
+        cart.addCartMedia(line(2, 1, 50));
+        cart.removeCartMedia(line);
+        cart.emptyCart();
+
+        assertEquals(List.of(
+                "added 1", "totals 2 200",
+                "changed 1 from 2 @100", "totals 3 300",
+                "changed 1 from 3 @100", "totals 3 270",
+                "added 2", "totals 4 320",
+                "removed 1", "totals 1 50",
+                "emptied", "totals 0 0"), recorder.events);
+    }
+
+    @Test
+    public void listeners_changeLeavingTheTotals_toldNoTotals() throws SQLException {
+        CartMedia line = line(1, 2, 100);
+        cart.addCartMedia(line);
+        Recorder recorder = new Recorder();
+        cart.addListener(recorder);
+
+        // setting the same quantity again is a line event without new totals
+        line.setQuantity(2);
+        line.setPrice(50);
+        line.setQuantity(4);
+        line.setQuantity(4);
+        cart.emptyCart();
+        // an empty cart emptied again keeps its totals
+        cart.emptyCart();
+
+        assertEquals(List.of(
+                "changed 1 from 2 @100",
+                "changed 1 from 2 @100", "totals 2 100",
+                "changed 1 from 2 @50", "totals 4 200",
+                "changed 1 from 4 @50",
+                "emptied", "totals 0 0",
+                "emptied"), recorder.events);
+    }
+
+    @Test
+    public void listeners_failingListener_doesNotStopTheOthers() throws SQLException {
+        Recorder failing = new Recorder() {
+            @Override
+            public void onLineAdded(Cart cart, CartMedia line) {
+                throw new IllegalStateException("screen closed");
+            }
+        };
+        Recorder recorder = new Recorder();
+        cart.addListener(failing);
+        cart.addListener(recorder);
+
+        cart.addCartMedia(line(1, 2, 100));
+
+        assertEquals(List.of("added 1", "totals 2 200"), recorder.events);
+        assertEquals(List.of("totals 2 200"), failing.events);
+        assertTotals(2, 200);
+
+        cart.removeListener(recorder);
+        cart.emptyCart();
+        assertEquals(2, recorder.events.size(), "a removed listener is told nothing");
+    }
+
+    /**
+     * Records the events of a cart as text, in the order they are told
+     */
+    private static class Recorder implements CartChangeListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onLineAdded(Cart cart, CartMedia line) {
+            events.add("added " + line.getMedia().getId());
+        }
+
+        @Override
+        public void onLineRemoved(Cart cart, CartMedia line) {
+            events.add("removed " + line.getMedia().getId());
+        }
+
+        @Override
+        public void onLineChanged(Cart cart, CartMedia line, int oldQuantity, int oldPrice) {
+            events.add("changed " + line.getMedia().getId() + " from " + oldQuantity + " @" + oldPrice);
+        }
+
+        @Override
+        public void onCartEmptied(Cart cart) {
+            events.add("emptied");
+        }
+
+        @Override
+        public void onTotalsChanged(Cart cart, int totalMedia, int subtotal) {
+            events.add("totals " + totalMedia + " " + subtotal);
+        }
+    }
+
+    private void assertTotals(int totalMedia, int subtotal) {
+        assertEquals(totalMedia, cart.getTotalMedia(), "item count");
+        assertEquals(subtotal, cart.calSubtotal(), "subtotal");
+    }
+
+    private List<Integer> ids() {
+        return cart.getLines().stream().map(line -> line.getMedia().getId()).collect(Collectors.toList());
+    }
+
+    static CartMedia line(int mediaId, int quantity, int price) throws SQLException {
+        return new CartMedia(new Media(mediaId, "Media " + mediaId, "category", price, 10, "book"), null, quantity, price);
+    }
+}
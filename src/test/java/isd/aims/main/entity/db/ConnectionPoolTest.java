@@ -0,0 +1,206 @@
+package isd.aims.main.entity.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for ConnectionPool, on a WAL database in a temporary file
+ *
+ * Readers and the writer are leased separately: readers cannot write, the writer is given to
+ * one caller at a time, and neither kind of lease waits for the other.
+ */
+public class ConnectionPoolTest {
+
+    private Path db;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-pool", ".db");
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2).addPragma("journal_mode = WAL").setCheckoutTimeout(200);
+        execute("CREATE TABLE Item(id INTEGER PRIMARY KEY, name TEXT)");
+        execute("INSERT INTO Item VALUES (1, 'first')");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        pool.close();
+        Files.deleteIfExists(db);
+        Files.deleteIfExists(Paths.get(db + "-wal"));
+        Files.deleteIfExists(Paths.get(db + "-shm"));
+    }
+
+    @Test
+    public void getConnection_write_failsWithoutChangingTheDatabase() throws SQLException {
+        try (Connection reader = pool.getConnection(); Statement stm = reader.createStatement()) {
+            assertThrows(SQLException.class, () -> stm.executeUpdate("INSERT INTO Item VALUES (2, 'second')"));
+            assertThrows(SQLException.class, () -> stm.executeUpdate("DELETE FROM Item"));
+        }
+
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void getConnection_readOnlyReadersOff_canWrite() throws SQLException {
+        pool.setReadOnlyReaders(false);
+
+        try (Connection reader = pool.getConnection(); Statement stm = reader.createStatement()) {
+            stm.executeUpdate("INSERT INTO Item VALUES (2, 'second')");
+        }
+
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void getWriteConnection_heldByOneCaller_makesTheNextOneWait() throws Exception {
+        Connection first = pool.getWriteConnection();
+
+        SQLException e = assertThrows(SQLException.class, () -> pool.getWriteConnection());
+        assertTrue(e.getMessage().contains("Timed out"), e.getMessage());
+        assertEquals(1, pool.getStats().getTimeouts());
+
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {
+            try (Connection writer = pool.setCheckoutTimeout(5_000).getWriteConnection(); Statement stm = writer.createStatement()) {
+                stm.executeUpdate("INSERT INTO Item VALUES (2, 'second')");
+            } catch (SQLException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(second.isDone(), "the second writer waits for the first lease");
+        first.close();
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void getConnection_writerInTransaction_readsTheLastCommit() throws Exception {
+        try (Connection writer = pool.getWriteConnection(); Statement stm = writer.createStatement()) {
+            writer.setAutoCommit(false);
+            stm.executeUpdate("INSERT INTO Item VALUES (2, 'uncommitted')");
+
+            // readers are neither blocked by the writer nor see its open transaction
+            assertEquals(1, count());
+            assertEquals(1, count());
+
+            writer.commit();
+            assertEquals(2, count());
+        }
+    }
+
+    @Test
+    public void getConnection_allReadersLeased_timesOutButTheWriterIsFree() throws SQLException {
+        try (Connection a = pool.getConnection(); Connection b = pool.getConnection()) {
+            assertEquals(2, pool.getStats().getActiveReaders());
+            assertNotSame(a, b);
+            assertFalse(a.isClosed() || b.isClosed());
+            assertThrows(SQLException.class, () -> pool.getConnection());
+
+            try (Connection writer = pool.getWriteConnection(); Statement stm = writer.createStatement()) {
+                stm.executeUpdate("INSERT INTO Item VALUES (2, 'second')");
+                assertEquals(1, pool.getStats().getActiveWriters());
+            }
+        }
+
+        assertEquals(2, pool.getStats().getIdleReaders());
+        assertEquals(0, pool.getStats().getActive());
+    }
+
+    @Test
+    public void close_lease_isReusedAndCannotBeUsedAgain() throws SQLException {
+        Connection first = pool.getConnection();
+        first.close();
+        long created = pool.getStats().getCreated();
+
+        try (Connection second = pool.getConnection()) {
+            assertEquals(1, count(second));
+        }
+
+        assertEquals(created, pool.getStats().getCreated(), "the physical reader is reused");
+        assertTrue(first.isClosed());
+        assertThrows(SQLException.class, first::createStatement);
+        // closing twice gives the connection back once
+        first.close();
+        assertEquals(1, pool.getStats().getIdleReaders());
+    }
+
+    @Test
+    public void close_writerWithOpenTransaction_rollsItBack() throws SQLException {
+        try (Connection writer = pool.getWriteConnection(); Statement stm = writer.createStatement()) {
+            writer.setAutoCommit(false);
+            stm.executeUpdate("INSERT INTO Item VALUES (2, 'abandoned')");
+        }
+
+        assertEquals(1, count());
+        try (Connection writer = pool.getWriteConnection()) {
+            assertTrue(writer.getAutoCommit());
+        }
+    }
+
+    @Test
+    public void close_pool_refusesNewLeases() throws SQLException {
+        pool.close();
+
+        assertThrows(SQLException.class, () -> pool.getConnection());
+        assertThrows(SQLException.class, () -> pool.getWriteConnection());
+    }
+
+    @Test
+    public void close_poolWithWriterLeased_closesItWhenGivenBack() throws Exception {
+        Connection writer = pool.getWriteConnection();
+        Connection physical = (Connection) writer.unwrap(Class.forName("org.sqlite.SQLiteConnection"));
+
+        pool.close();
+        assertFalse(physical.isClosed(), "the lease is still in use");
+
+        writer.close();
+        assertTrue(physical.isClosed());
+        assertEquals(0, pool.getStats().getActiveWriters());
+    }
+
+    @Test
+    public void setLeakThreshold_leaseHeldLonger_isReportedOnce() throws Exception {
+        assertEquals(0, pool.getStats().getLeaks(), "leak detection is off by default");
+        pool.setLeakThreshold(100);
+
+        try (Connection held = pool.getConnection()) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getStats().getLeaks() == 0 && System.nanoTime() < deadline) Thread.sleep(20);
+            assertEquals(1, count(held));
+            Thread.sleep(300);
+        }
+
+        assertEquals(1, pool.getStats().getLeaks());
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate(sql);
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Connection reader = pool.getConnection()) {
+            return count(reader);
+        }
+    }
+
+    private static int count(Connection connection) throws SQLException {
+        try (Statement stm = connection.createStatement(); ResultSet res = stm.executeQuery("SELECT COUNT(*) FROM Item")) {
+            res.next();
+            return res.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package isd.aims.main.entity.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for MigrationRunner, on a fresh copy of aims.db for every test
+ */
+public class MigrationRunnerTest {
+
+    private Path db;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-migration", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        pool.close();
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void migrate_freshDatabase_appliesEveryMigrationOnce() throws SQLException {
+        MigrationRunner runner = new MigrationRunner();
+
+        assertEquals(runner.getMigrations().size(), runner.migrate(pool));
+        assertEquals(0, runner.migrate(pool));
+
+        try (Connection connection = pool.getConnection()) {
+            assertEquals(runner.getLatestVersion(), MigrationRunner.getVersion(connection));
+        }
+        List<String> indexes = indexes();
+        assertTrue(indexes.contains("Media.idx_media_type"));
+        assertTrue(indexes.contains("Media.idx_media_category"));
+        assertTrue(indexes.contains("Media.idx_media_title"));
+        assertTrue(indexes.contains("Transaction.idx_transaction_createAt"));
+    }
+
+    @Test
+    public void migrate_failingMigration_keepsLastGoodVersion() throws SQLException {
+        MigrationRunner runner = new MigrationRunner(List.of(
+                new MigrationRunner.Migration(1, "good", "CREATE INDEX idx_good ON Media(price)"),
+                new MigrationRunner.Migration(2, "bad", "CREATE INDEX idx_half ON Media(value); CREATE INDEX idx_bad ON Missing(x)")));
+
+        assertThrows(SQLException.class, () -> runner.migrate(pool));
+
+        try (Connection connection = pool.getConnection()) {
+            assertEquals(1, MigrationRunner.getVersion(connection));
+        }
+        assertTrue(indexes().contains("idx_good"));
+        assertFalse(indexes().contains("idx_half"), "a failed migration must be rolled back as a whole");
+    }
+
+    @Test
+    public void transactionHistory_usesCoveringIndex() throws SQLException {
+        new MigrationRunner().migrate(pool);
+
+        String plan = plan("SELECT orderID, createAt FROM \"Transaction\" WHERE createAt BETWEEN ? AND ? ORDER BY createAt");
+
+        assertTrue(plan.contains("USING COVERING INDEX Transaction.idx_transaction_createAt"), plan);
+        assertFalse(plan.contains("TEMP B-TREE"), plan);
+    }
+
+    @Test
+    public void catalogSearch_followsCatalogChanges() throws SQLException {
+        new MigrationRunner().migrate(pool);
+
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            // the subtype row before its media row, as the order of the writes must not matter
+            stm.executeUpdate("INSERT INTO Book VALUES (900001, 'Nam Cao', 'paperback', 'Kim Đồng', 0, 120, 'vi', 'novel')");
+            stm.executeUpdate("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                    + "VALUES (900001, 'book', 'novel', 50, 10, 'Chí Phèo', 45, 'x.jpg')");
+            stm.executeUpdate("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                    + "VALUES (900002, 'cd', 'pop', 50, 10, 'Thriller', 45, 'y.jpg')");
+            stm.executeUpdate("INSERT INTO CD VALUES (900002, 'Michael Jackson', 'Epic', 'pop', 0)");
+        }
+        assertEquals(List.of(900001), search("chi pheo"));
+        assertEquals(List.of(900001), search("kim"));
+        assertEquals(List.of(900002), search("jackson"));
+
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("UPDATE Media SET title = 'Lão Hạc' WHERE id = 900001");
+            stm.executeUpdate("DELETE FROM CD WHERE id = 900002");
+        }
+        assertEquals(List.of(), search("chi pheo"));
+        assertEquals(List.of(900001), search("lao hac"));
+        assertEquals(List.of(), search("jackson"));
+
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("DELETE FROM Media WHERE id = 900001");
+        }
+        assertEquals(List.of(), search("nam cao"));
+    }
+
+    private List<Integer> search(String match) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stm = connection.prepareStatement("SELECT rowid FROM MediaSearch WHERE MediaSearch MATCH ? ORDER BY rank")) {
+            stm.setString(1, match);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) ids.add(res.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private List<String> indexes() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index'")) {
+            while (res.next()) names.add(res.getString(1));
+        }
+        return names;
+    }
+
+    private String plan(String query) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stm = connection.prepareStatement("EXPLAIN QUERY PLAN " + query);
+             ResultSet res = stm.executeQuery()) {
+            while (res.next()) sb.append(res.getString("detail")).append('\n');
+        }
+        return sb.toString();
+    }
+}
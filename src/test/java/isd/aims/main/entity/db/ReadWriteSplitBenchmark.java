@@ -0,0 +1,124 @@
+package isd.aims.main.entity.db;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Catalog read throughput while the stock is being written, on a copy of aims.db seeded with
+ * {@value #CATALOG} media and the kiosk profile. Every mode is measured idle, then with one writer
+ * updating quantities ({@value #ROWS_PER_WRITE} rows per transaction) as fast as it can:
+ * <ul>
+ * <li>single handle: reads and writes share one connection, like the DBConnection of old</li>
+ * <li>split: {@value #READERS} reader connections and the serialized writer</li>
+ * <li>split read-only: the same with read-only readers (mode=ro, query_only), the default</li>
+ * </ul>
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.db.ReadWriteSplitBenchmark
+ */
+public class ReadWriteSplitBenchmark {
+
+    private static final int CATALOG = 50_000;
+    private static final int READERS = 3;
+    private static final int SECONDS = 3;
+    private static final int PAGE = 24;
+    private static final int ROWS_PER_WRITE = 100;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-18s %14s %14s %14s%n", "mode", "reads/s idle", "reads/s", "writes/s");
+        for (String mode : new String[] { "single handle", "split", "split read-only" }) {
+            Path db = Files.createTempFile("aims-split", ".db");
+            Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+            try (ConnectionPool pool = StorageProfile.load("kiosk").applyTo(new ConnectionPool("jdbc:sqlite:" + db, READERS))
+                    .setLeakThreshold(0).setReadOnlyReaders(mode.endsWith("read-only"))) {
+                seed(pool);
+                boolean shared = mode.equals("single handle");
+                double idle = run(pool, shared, false)[0];
+                double[] busy = run(pool, shared, true);
+                System.out.printf("%-18s %14.0f %14.0f %14.0f%n", mode, idle, busy[0], busy[1]);
+            } finally {
+                Files.deleteIfExists(db);
+                Files.deleteIfExists(Paths.get(db + "-wal"));
+                Files.deleteIfExists(Paths.get(db + "-shm"));
+            }
+        }
+    }
+
+    private static void seed(ConnectionPool pool) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < " + CATALOG + ") "
+                    + "INSERT INTO Media(type, category, price, quantity, title, value, imageUrl) "
+                    + "SELECT 'book', 'category' || (n % 7), n % 500, 100, 'title' || n, n % 450, 'assets/images/' || n || '.jpg' FROM seq");
+        }
+    }
+
+    /**
+     * @return reads per second, writes per second
+     */
+    private static double[] run(ConnectionPool pool, boolean shared, boolean write) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        int maxId = CATALOG + 100;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Random random = new Random(i);
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    try (Connection connection = shared ? pool.getWriteConnection() : pool.getConnection();
+                         PreparedStatement stm = connection.prepareStatement("SELECT * FROM Media WHERE id > ? ORDER BY id LIMIT " + PAGE)) {
+                        stm.setInt(1, random.nextInt(maxId));
+                        try (ResultSet res = stm.executeQuery()) {
+                            while (res.next()) res.getString("title");
+                        }
+                        reads.incrementAndGet();
+                    } catch (SQLException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        if (write) {
+            threads.add(new Thread(() -> {
+                Random random = new Random(42);
+                while (!stop.get()) {
+                    try (Connection connection = pool.getWriteConnection()) {
+                        connection.setAutoCommit(false);
+                        try (PreparedStatement stm = connection.prepareStatement("UPDATE Media SET quantity = ? WHERE id = ?")) {
+                            for (int row = 0; row < ROWS_PER_WRITE; row++) {
+                                stm.setInt(1, random.nextInt(100));
+                                stm.setInt(2, 1 + random.nextInt(maxId));
+                                stm.addBatch();
+                            }
+                            stm.executeBatch();
+                        }
+                        connection.commit();
+                        writes.incrementAndGet();
+                    } catch (SQLException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(SECONDS * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) thread.join();
+        if (errors.get() > 0) System.out.println(errors.get() + " failed reads or writes");
+        return new double[] { reads.get() / (double) SECONDS, writes.get() / (double) SECONDS };
+    }
+}
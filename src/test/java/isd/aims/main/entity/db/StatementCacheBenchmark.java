@@ -0,0 +1,101 @@
+package isd.aims.main.entity.db;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Compares the old lookup path (createStatement + concatenated SQL on every call)
+ * with the cached PreparedStatement path, 10k lookups by id on a copy of aims.db.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.db.StatementCacheBenchmark
+ */
+public class StatementCacheBenchmark {
+
+    private static final int LOOKUPS = 10_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path db = Files.createTempFile("aims-bench", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        int[] ids = ids(db);
+
+        try (ConnectionPool concatenated = new ConnectionPool("jdbc:sqlite:" + db, 1).setStatementCacheSize(0);
+             ConnectionPool cached = new ConnectionPool("jdbc:sqlite:" + db, 1)) {
+            for (int round = 1; round <= ROUNDS; round++) {
+                long concatNanos = run(() -> lookupConcatenated(concatenated, ids));
+                long cachedNanos = run(() -> lookupCached(cached, ids));
+                System.out.printf("round %d: concatenated %6.1f ms (%5.2f us/op) | cached %6.1f ms (%5.2f us/op) | speedup x%.2f%n",
+                        round, concatNanos / 1e6, concatNanos / 1e3 / LOOKUPS,
+                        cachedNanos / 1e6, cachedNanos / 1e3 / LOOKUPS, (double) concatNanos / cachedNanos);
+            }
+            ConnectionPool.PoolStats stats = cached.getStats();
+            System.out.printf("statement cache: hits=%d misses=%d ratio=%.4f%n",
+                    stats.getStatementHits(), stats.getStatementMisses(), stats.getStatementHitRatio());
+        } finally {
+            Files.deleteIfExists(db);
+        }
+    }
+
+    private interface Lookup {
+        long run() throws SQLException;
+    }
+
+    private static long run(Lookup lookup) throws SQLException {
+        long start = System.nanoTime();
+        long checksum = lookup.run();
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 42) System.out.println(); // keep the JIT from dropping the work
+        return elapsed;
+    }
+
+    private static long lookupConcatenated(ConnectionPool pool, int[] ids) throws SQLException {
+        long checksum = 0;
+        for (int id : ids) {
+            try (Connection connection = pool.getConnection();
+                 Statement stm = connection.createStatement();
+                 ResultSet res = stm.executeQuery("SELECT * FROM Media WHERE id = " + id + ";")) {
+                if (res.next()) checksum += res.getInt("quantity") + res.getString("title").length();
+            }
+        }
+        return checksum;
+    }
+
+    private static long lookupCached(ConnectionPool pool, int[] ids) throws SQLException {
+        long checksum = 0;
+        for (int id : ids) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement stm = connection.prepareStatement("SELECT * FROM Media WHERE id = ?")) {
+                stm.setInt(1, id);
+                try (ResultSet res = stm.executeQuery()) {
+                    if (res.next()) checksum += res.getInt("quantity") + res.getString("title").length();
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static int[] ids(Path db) throws SQLException {
+        int min;
+        int max;
+        try (ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + db, 1);
+             Connection connection = pool.getConnection();
+             Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery("SELECT min(id), max(id) FROM Media")) {
+            res.next();
+            min = res.getInt(1);
+            max = res.getInt(2);
+        }
+        Random random = new Random(42);
+        int[] ids = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) ids[i] = min + random.nextInt(max - min + 1);
+        return ids;
+    }
+}
@@ -0,0 +1,150 @@
+package isd.aims.main.entity.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test class for StatementCache, on an in-memory database
+ */
+public class StatementCacheTest {
+
+    private static final String SELECT_ONE = "SELECT 1";
+    private static final String SELECT_TWO = "SELECT 2";
+    private static final String SELECT_THREE = "SELECT 3";
+
+    private Connection physical;
+    private AtomicLong hits;
+    private AtomicLong misses;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        physical = DriverManager.getConnection("jdbc:sqlite::memory:");
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        physical.close();
+    }
+
+    @Test
+    public void prepare_closedStatement_isReused() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 4, hits, misses);
+        PreparedStatement first = cache.prepare(SELECT_ONE);
+        assertEquals(1, query(first));
+        first.close();
+        assertTrue(first.isClosed());
+
+        PreparedStatement second = cache.prepare(SELECT_ONE);
+        assertSame(first, second);
+        assertFalse(second.isClosed());
+        assertEquals(1, query(second));
+        assertEquals(1, hits.get());
+        assertEquals(1, misses.get());
+        // closing a cached statement keeps the physical one prepared
+        second.close();
+        assertFalse(second.unwrap(PreparedStatement.class).isClosed());
+    }
+
+    @Test
+    public void prepare_statementStillOpen_returnsUncachedStatement() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 4, hits, misses);
+        PreparedStatement outer = cache.prepare(SELECT_ONE);
+        try (PreparedStatement inner = cache.prepare(SELECT_ONE)) {
+            assertNotSame(outer, inner);
+            assertEquals(1, query(inner));
+        }
+        assertFalse(outer.isClosed());
+        assertEquals(1, query(outer));
+        assertEquals(1, cache.size());
+        assertEquals(2, misses.get());
+    }
+
+    @Test
+    public void prepare_overCapacity_evictsLeastRecentlyUsed() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 2, hits, misses);
+        PreparedStatement one = cache.prepare(SELECT_ONE);
+        one.close();
+        PreparedStatement two = cache.prepare(SELECT_TWO);
+        two.close();
+        // SELECT 1 becomes the most recently used, SELECT 2 the eldest
+        cache.prepare(SELECT_ONE).close();
+        cache.prepare(SELECT_THREE).close();
+
+        assertEquals(2, cache.size());
+        assertTrue(two.unwrap(PreparedStatement.class).isClosed(), "the evicted statement must be closed");
+        assertFalse(one.unwrap(PreparedStatement.class).isClosed());
+        long missesBefore = misses.get();
+        cache.prepare(SELECT_TWO).close();
+        assertEquals(missesBefore + 1, misses.get());
+    }
+
+    @Test
+    public void prepare_overCapacity_keepsStatementsInUse() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 1, hits, misses);
+        PreparedStatement one = cache.prepare(SELECT_ONE);
+        PreparedStatement two = cache.prepare(SELECT_TWO);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, query(one));
+        assertEquals(2, query(two));
+        one.close();
+        two.close();
+        // the next miss trims the cache back to its size
+        cache.prepare(SELECT_THREE).close();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void prepare_physicalClosed_preparesAgain() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 4, hits, misses);
+        PreparedStatement first = cache.prepare(SELECT_ONE);
+        first.unwrap(PreparedStatement.class).close();
+        first.close();
+
+        PreparedStatement second = cache.prepare(SELECT_ONE);
+        assertNotSame(first, second);
+        assertEquals(1, query(second));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void releaseAll_unclosedStatements_areGivenBack() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 4, hits, misses);
+        PreparedStatement first = cache.prepare(SELECT_ONE);
+        ResultSet unconsumed = first.executeQuery();
+        cache.releaseAll();
+
+        assertTrue(unconsumed.isClosed());
+        assertTrue(first.isClosed());
+        assertSame(first, cache.prepare(SELECT_ONE));
+    }
+
+    @Test
+    public void close_closesEveryPhysicalStatement() throws SQLException {
+        StatementCache cache = new StatementCache(physical, 4, hits, misses);
+        PreparedStatement first = cache.prepare(SELECT_ONE);
+        first.close();
+        cache.close();
+
+        assertEquals(0, cache.size());
+        assertTrue(first.unwrap(PreparedStatement.class).isClosed());
+    }
+
+    private static int query(PreparedStatement stm) throws SQLException {
+        try (ResultSet res = stm.executeQuery()) {
+            assertTrue(res.next());
+            return res.getInt(1);
+        }
+    }
+}
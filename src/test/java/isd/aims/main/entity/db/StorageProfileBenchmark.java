@@ -0,0 +1,142 @@
+package isd.aims.main.entity.db;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Catalog read and order write throughput of every storage profile, compared with the
+ * driver defaults (rollback journal, 2 MB cache, no mmap).
+ * Each profile runs on a fresh copy of aims.db seeded with {@value #CATALOG} media:
+ * one writer inserts orders (one transaction per order, like a checkout) while
+ * {@value #READERS} readers load catalog pages, for {@value #SECONDS} seconds.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.db.StorageProfileBenchmark
+ */
+public class StorageProfileBenchmark {
+
+    private static final int CATALOG = 20_000;
+    private static final int READERS = 3;
+    private static final int SECONDS = 3;
+    private static final int PAGE = 24;
+    private static final int LINES_PER_ORDER = 5;
+
+    public static void main(String[] args) throws Exception {
+        List<String> profiles = new ArrayList<>();
+        profiles.add("driver-default");
+        profiles.addAll(StorageProfile.names());
+
+        System.out.printf("%-16s %14s %14s %12s%n", "profile", "reads/s", "orders/s", "errors");
+        for (String name : profiles) {
+            Path db = Files.createTempFile("aims-profile", ".db");
+            Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + db, READERS).setLeakThreshold(0);
+                if (name.equals("driver-default")) {
+                    // the old DBConnection only waited on locks
+                    pool.addPragma("busy_timeout = 5000");
+                } else {
+                    StorageProfile.load(name).applyTo(pool);
+                }
+                try (ConnectionPool p = pool) {
+                    seed(p);
+                    run(name, p);
+                }
+            } finally {
+                Files.deleteIfExists(db);
+                Files.deleteIfExists(Paths.get(db + "-wal"));
+                Files.deleteIfExists(Paths.get(db + "-shm"));
+            }
+        }
+    }
+
+    private static void seed(ConnectionPool pool) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < " + CATALOG + ") "
+                    + "INSERT INTO Media(type, category, price, quantity, title, value, imageUrl) "
+                    + "SELECT 'book', 'category' || (n % 7), n % 500, 100, 'title' || n, n % 450, 'assets/images/' || n || '.jpg' FROM seq");
+        }
+    }
+
+    private static void run(String name, ConnectionPool pool) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong orders = new AtomicLong();
+        AtomicLong busy = new AtomicLong();
+        int maxId = CATALOG + 100;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Random random = new Random(i);
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    try (Connection connection = pool.getConnection();
+                         PreparedStatement stm = connection.prepareStatement("SELECT * FROM Media WHERE id > ? ORDER BY id LIMIT " + PAGE)) {
+                        stm.setInt(1, random.nextInt(maxId));
+                        try (ResultSet res = stm.executeQuery()) {
+                            while (res.next()) res.getString("title");
+                        }
+                        reads.incrementAndGet();
+                    } catch (SQLException e) {
+                        busy.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            Random random = new Random(42);
+            while (!stop.get()) {
+                try (Connection connection = pool.getWriteConnection()) {
+                    connection.setAutoCommit(false);
+                    int orderId;
+                    try (PreparedStatement stm = connection.prepareStatement(
+                            "INSERT INTO \"Order\"(email, address, phone, userID, shipping_fee) VALUES (?, ?, ?, ?, ?) RETURNING id")) {
+                        stm.setString(1, "bench@aims.vn");
+                        stm.setString(2, "1 Dai Co Viet, Ha Noi");
+                        stm.setString(3, "0912345678");
+                        stm.setInt(4, 1);
+                        stm.setInt(5, 22000);
+                        try (ResultSet keys = stm.executeQuery()) {
+                            keys.next();
+                            orderId = keys.getInt(1);
+                        }
+                    }
+                    try (PreparedStatement stm = connection.prepareStatement(
+                            "INSERT INTO OrderMedia(mediaID, orderID, price, quantity) VALUES (?, ?, ?, ?)")) {
+                        for (int line = 0; line < LINES_PER_ORDER; line++) {
+                            stm.setInt(1, 1 + line * (CATALOG / LINES_PER_ORDER) + random.nextInt(CATALOG / LINES_PER_ORDER - 1));
+                            stm.setInt(2, orderId);
+                            stm.setInt(3, 100);
+                            stm.setInt(4, 1);
+                            stm.addBatch();
+                        }
+                        stm.executeBatch();
+                    }
+                    connection.commit();
+                    orders.incrementAndGet();
+                } catch (SQLException e) {
+                    busy.incrementAndGet();
+                }
+            }
+        }));
+
+        threads.forEach(Thread::start);
+        Thread.sleep(SECONDS * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) thread.join();
+
+        System.out.printf("%-16s %14.0f %14.0f %12d%n", name,
+                reads.get() / (double) SECONDS, orders.get() / (double) SECONDS, busy.get());
+    }
+}
@@ -0,0 +1,120 @@
+package isd.aims.main.entity.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Test class for StorageProfile, the pragmas are read back from the connections of a pool
+ * opened on an empty temporary database
+ */
+public class StorageProfileTest {
+
+    private Path db;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-profile", ".db");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (pool != null) pool.close();
+        Files.deleteIfExists(db);
+        Files.deleteIfExists(Paths.get(db + "-wal"));
+        Files.deleteIfExists(Paths.get(db + "-shm"));
+    }
+
+    @Test
+    public void load_kiosk_keepsPragmasInApplyOrder() {
+        StorageProfile profile = StorageProfile.load("kiosk");
+
+        assertEquals("kiosk", profile.getName());
+        assertEquals(List.of(StorageProfile.PRAGMAS), List.copyOf(profile.getPragmas().keySet()));
+        assertEquals("WAL", profile.getPragmas().get("journal_mode"));
+        assertEquals("-16384", profile.getPragmas().get("cache_size"));
+    }
+
+    @Test
+    public void names_listsEveryShippedProfile() {
+        assertTrue(StorageProfile.names().containsAll(List.of("kiosk", "server", "bulk-import")));
+    }
+
+    @Test
+    public void applyTo_pool_setsPragmasOnWriterAndReaders() throws SQLException {
+        pool = StorageProfile.load("kiosk").applyTo(new ConnectionPool("jdbc:sqlite:" + db, 2));
+
+        try (Connection writer = pool.getWriteConnection()) {
+            assertEquals("wal", pragma(writer, "journal_mode"));
+            assertEquals("1", pragma(writer, "synchronous"), "NORMAL");
+            assertEquals("5000", pragma(writer, "busy_timeout"));
+            assertEquals("-16384", pragma(writer, "cache_size"));
+            assertEquals("2", pragma(writer, "temp_store"), "MEMORY");
+        }
+        try (Connection reader = pool.getConnection()) {
+            // the journal mode belongs to the database file, the other pragmas to each connection
+            assertEquals("wal", pragma(reader, "journal_mode"));
+            assertEquals("5000", pragma(reader, "busy_timeout"));
+            assertEquals("-16384", pragma(reader, "cache_size"));
+        }
+    }
+
+    @Test
+    public void applyTo_bulkImport_turnsSynchronousOff() throws SQLException {
+        pool = StorageProfile.load("bulk-import").applyTo(new ConnectionPool("jdbc:sqlite:" + db, 1));
+
+        try (Connection writer = pool.getWriteConnection()) {
+            assertEquals("0", pragma(writer, "synchronous"));
+            assertEquals("30000", pragma(writer, "busy_timeout"));
+        }
+    }
+
+    @Test
+    public void load_injectedValue_throwsIllegalArgument() {
+        Properties properties = new Properties();
+        properties.setProperty("evil.busy_timeout", "1000");
+        properties.setProperty("evil.synchronous", "OFF; DROP TABLE Media");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> StorageProfile.load("evil", properties));
+        assertTrue(e.getMessage().contains("evil.synchronous"), e.getMessage());
+    }
+
+    @Test
+    public void load_unknownProfile_throwsWithAvailableNames() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> StorageProfile.load("missing"));
+        assertTrue(e.getMessage().contains("kiosk"), e.getMessage());
+    }
+
+    @Test
+    public void load_unknownKeys_areIgnored() {
+        Properties properties = new Properties();
+        properties.setProperty("custom.cache_size", " -2000 ");
+        properties.setProperty("custom.foreign_keys", "ON");
+
+        StorageProfile profile = StorageProfile.load("custom", properties);
+
+        assertEquals(List.of("cache_size"), List.copyOf(profile.getPragmas().keySet()));
+        assertEquals("-2000", profile.getPragmas().get("cache_size"));
+    }
+
+    private static String pragma(Connection connection, String name) throws SQLException {
+        try (Statement stm = connection.createStatement(); ResultSet res = stm.executeQuery("PRAGMA " + name)) {
+            assertTrue(res.next());
+            return res.getString(1);
+        }
+    }
+}
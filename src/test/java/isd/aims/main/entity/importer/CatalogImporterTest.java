@@ -0,0 +1,230 @@
+package isd.aims.main.entity.importer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.MigrationRunner;
+
+/**
+ * Test class for CatalogImporter
+ *
+ * The feeds are imported into a fresh, migrated copy of aims.db in small chunks, so that an
+ * import failing while it reads the feed leaves some chunks committed behind its checkpoint.
+ */
+public class CatalogImporterTest {
+
+    private static final String SOURCE = "test-feed";
+
+    private Path db;
+    private Path rejects;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-import", ".db");
+        rejects = Files.createTempFile("aims-rejects", ".txt");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        new MigrationRunner().migrate(pool);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        pool.close();
+        Files.deleteIfExists(db);
+        Files.deleteIfExists(rejects);
+    }
+
+    @Test
+    public void importFeed_invalidRecords_areCountedAndWrittenToRejects() throws Exception {
+        List<String> feed = List.of(
+                book(1),
+                "{\"type\": \"vinyl\", \"title\": \"Import 2\", \"category\": \"pop\", \"price\": \"5\", \"value\": \"4\", \"quantity\": \"1\"}",
+                cd(3),
+                "{\"type\": \"cd\", \"title\": \"Import 4\", \"category\": \"pop\", \"price\": \"0\", \"value\": \"4\", \"quantity\": \"1\", "
+                        + "\"artist\": \"A\", \"recordLabel\": \"L\", \"musicType\": \"pop\"}",
+                "{\"type\": \"book\", \"title\": \"Import 5\", \"category\": \"novel\", \"price\": \"5\", \"value\": \"4\", \"quantity\": \"1\"}",
+                "{oops",
+                dvd(7));
+
+        ImportReport report = importer().importFeed(SOURCE, FeedFormat.JSONL, reader(feed));
+
+        assertEquals(3, report.getImported());
+        assertEquals(4, report.getRejected());
+        assertEquals(3, report.getImportedNow());
+        assertEquals(List.of(2L, 4L, 5L, 6L), report.getRejections().stream().map(ImportReport.Rejection::getRecord).collect(Collectors.toList()));
+        assertTrue(report.getRejections().get(0).getReason().contains("type"), report.getRejections().get(0).getReason());
+        assertTrue(report.getRejections().get(1).getReason().contains("price must be at least 1"));
+        assertTrue(report.getRejections().get(2).getReason().contains("author is required"));
+        assertEquals(List.of("Import 1", "Import 3", "Import 7"), importedTitles());
+        assertEquals(List.of(7L, 3L, 4L), checkpoint());
+
+        List<String> rejected = Files.readAllLines(rejects, StandardCharsets.UTF_8);
+        assertEquals(4, rejected.size());
+        assertTrue(rejected.get(3).startsWith("6\t"));
+        assertTrue(rejected.get(3).endsWith("\t{oops"));
+    }
+
+    @Test
+    public void importFeed_failingFeed_resumesAfterLastCommittedChunk() throws Exception {
+        List<String> feed = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) feed.add(i % 5 == 0 ? "{oops" : i % 2 == 0 ? cd(i) : book(i));
+
+        // the feed breaks while record 15 is read
+        assertThrows(IOException.class, () -> importer().importFeed(SOURCE, FeedFormat.JSONL, failingReader(feed, 15)));
+
+        List<Long> stopped = checkpoint();
+        long position = stopped.get(0);
+        assertTrue(position > 0 && position < 15 && position % 2 == 0, "a whole number of chunks is committed: " + position);
+        // the rows committed are exactly the ones behind the checkpoint
+        assertEquals(position - position / 5, importedTitles().size());
+        assertEquals(position - position / 5, (long) stopped.get(1));
+        assertEquals(position / 5, (long) stopped.get(2));
+
+        ImportReport report = importer().importFeed(SOURCE, FeedFormat.JSONL, reader(feed));
+
+        assertEquals(position, report.getResumedAt());
+        assertEquals(16, report.getImported());
+        assertEquals(4, report.getRejected(), "the rejections before the failure are still counted");
+        assertEquals(16 - (position - position / 5), report.getImportedNow());
+        List<String> titles = importedTitles();
+        assertEquals(16, titles.size());
+        assertEquals(16, titles.stream().distinct().count(), "no record is imported twice");
+    }
+
+    @Test
+    public void importFeed_completedFeedAgain_writesNothing() throws Exception {
+        List<String> feed = List.of(book(1), cd(2), dvd(3));
+        importer().importFeed(SOURCE, FeedFormat.JSONL, reader(feed));
+
+        ImportReport again = importer().importFeed(SOURCE, FeedFormat.JSONL, reader(feed));
+
+        assertEquals(3, again.getResumedAt());
+        assertEquals(0, again.getImportedNow());
+        assertEquals(3, again.getImported());
+        assertEquals(3, importedTitles().size());
+    }
+
+    @Test
+    public void clearCheckpoint_importsTheFeedFromTheStart() throws Exception {
+        List<String> feed = List.of(book(1), cd(2));
+        CatalogImporter importer = importer();
+        importer.importFeed(SOURCE, FeedFormat.JSONL, reader(feed));
+
+        importer.clearCheckpoint(SOURCE);
+        ImportReport report = importer.importFeed(SOURCE, FeedFormat.JSONL, reader(feed));
+
+        assertEquals(0, report.getResumedAt());
+        assertEquals(2, report.getImportedNow());
+        assertEquals(4, importedTitles().size());
+    }
+
+    @Test
+    public void importFeed_feedShorterThanCheckpoint_throwsIOException() throws Exception {
+        importer().importFeed(SOURCE, FeedFormat.JSONL, reader(List.of(book(1), cd(2), dvd(3))));
+
+        assertThrows(IOException.class, () -> importer().importFeed(SOURCE, FeedFormat.JSONL, reader(List.of(book(1)))));
+    }
+
+    @Test
+    public void importFeed_csvQuotedFields_keepCommasAndLineBreaks() throws Exception {
+        String csv = "type,title,category,price,value,quantity,artist,recordLabel,musicType\n"
+                + "cd,\"Import 1, live\",pop,5,4,1,\"The \"\"Band\"\"\",Label,pop\n"
+                + "cd,\"Import 2\nbonus\",pop,5,4,1,Artist,Label,pop\n"
+                + "cd,Import 3,pop,5,4\n";
+
+        ImportReport report = importer().importFeed(SOURCE, FeedFormat.CSV, new StringReader(csv));
+
+        assertEquals(2, report.getImported());
+        assertEquals(1, report.getRejected());
+        assertEquals(List.of("Import 1, live", "Import 2\nbonus"), importedTitles());
+        assertEquals("The \"Band\"", queryString("SELECT artist FROM CD JOIN Media USING (id) WHERE title = 'Import 1, live'"));
+    }
+
+    private CatalogImporter importer() {
+        return new CatalogImporter(pool).setWorkers(1).setChunkSize(2).setRejectsFile(rejects);
+    }
+
+    private static String book(int i) {
+        return "{\"type\": \"book\", \"title\": \"Import " + i + "\", \"category\": \"novel\", \"price\": \"12\", \"value\": \"10\", "
+                + "\"quantity\": \"3\", \"author\": \"A\", \"coverType\": \"paperback\", \"publisher\": \"P\", "
+                + "\"publishDate\": \"2020-01-31\", \"numOfPages\": \"100\", \"language\": \"vi\", \"bookCategory\": \"fiction\"}";
+    }
+
+    private static String cd(int i) {
+        return "{\"type\": \"cd\", \"title\": \"Import " + i + "\", \"category\": \"pop\", \"price\": \"12\", \"value\": \"10\", "
+                + "\"quantity\": \"3\", \"artist\": \"A\", \"recordLabel\": \"L\", \"musicType\": \"pop\"}";
+    }
+
+    private static String dvd(int i) {
+        return "{\"type\": \"dvd\", \"title\": \"Import " + i + "\", \"category\": \"action\", \"price\": \"12\", \"value\": \"10\", "
+                + "\"quantity\": \"3\", \"discType\": \"bluray\", \"director\": \"D\", \"runtime\": \"120\", \"studio\": \"S\", "
+                + "\"subtitle\": \"en\", \"filmType\": \"feature\"}";
+    }
+
+    private static BufferedReader reader(List<String> lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    /**
+     * A feed whose connection drops when the given line is read
+     */
+    private static BufferedReader failingReader(List<String> lines, int failingLine) {
+        return new BufferedReader(new StringReader(String.join("\n", lines))) {
+            private int read;
+
+            @Override
+            public String readLine() throws IOException {
+                if (++read == failingLine) throw new IOException("connection reset");
+                return super.readLine();
+            }
+        };
+    }
+
+    private List<String> importedTitles() throws SQLException {
+        List<String> titles = new ArrayList<>();
+        try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery("SELECT title FROM Media WHERE title LIKE 'Import %' ORDER BY id")) {
+            while (res.next()) titles.add(res.getString(1));
+        }
+        return titles;
+    }
+
+    /**
+     * @return the position, imported and rejected counts of the checkpoint
+     */
+    private List<Long> checkpoint() throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery("SELECT position, imported, rejected FROM ImportCheckpoint WHERE source = '" + SOURCE + "'")) {
+            assertTrue(res.next(), "no checkpoint");
+            return List.of(res.getLong(1), res.getLong(2), res.getLong(3));
+        }
+    }
+
+    private String queryString(String query) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery(query)) {
+            assertTrue(res.next());
+            return res.getString(1);
+        }
+    }
+}
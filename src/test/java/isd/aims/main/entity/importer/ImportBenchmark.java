@@ -0,0 +1,138 @@
+package isd.aims.main.entity.importer;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.db.StorageProfile;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Imports a generated feed of books, CDs and DVDs (one record in a hundred invalid) into a
+ * copy of aims.db with the bulk-import storage profile, then imports it again to check that
+ * the checkpoint makes the second run write nothing.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.importer.ImportBenchmark [records] [csv|jsonl]
+ */
+public class ImportBenchmark {
+
+    private static final String[] CATEGORIES = { "novel", "science", "history", "pop", "rock", "jazz", "action", "drama" };
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        FeedFormat format = args.length > 1 ? FeedFormat.valueOf(args[1].toUpperCase()) : FeedFormat.CSV;
+
+        Path dir = Files.createTempDirectory("aims-import");
+        Path db = dir.resolve("aims.db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        Path feed = dir.resolve(format == FeedFormat.CSV ? "catalog.csv" : "catalog.jsonl");
+        long start = System.nanoTime();
+        generate(feed, format, count);
+        System.out.printf("%d records written to %s (%d MB) in %.1f s%n", count, feed,
+                Files.size(feed) >> 20, (System.nanoTime() - start) / 1e9);
+
+        try (ConnectionPool pool = StorageProfile.load("bulk-import").applyTo(new ConnectionPool("jdbc:sqlite:" + db, 1))) {
+            new MigrationRunner().migrate(pool);
+            CatalogImporter importer = new CatalogImporter(pool).setRejectsFile(dir.resolve("rejects.txt"));
+
+            ImportReport first = importer.importFile(feed);
+            System.out.println("first run:  " + first);
+            ImportReport second = importer.importFile(feed);
+            System.out.println("second run: " + second);
+            if (second.getImportedNow() != 0) throw new IllegalStateException("the second run imported records again");
+
+            try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+                 ResultSet res = stm.executeQuery("SELECT (SELECT COUNT(*) FROM Media), (SELECT COUNT(*) FROM MediaSearch)")) {
+                System.out.printf("Media rows: %d, search rows: %d, rejects: %d lines%n", res.getLong(1), res.getLong(2),
+                        Files.lines(dir.resolve("rejects.txt")).count());
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void generate(Path feed, FeedFormat format, int count) throws Exception {
+        Random random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(feed, StandardCharsets.UTF_8)) {
+            if (format == FeedFormat.CSV) {
+                out.write("type,title,category,price,value,quantity,imageUrl,author,coverType,publisher,publishDate,"
+                        + "numOfPages,language,bookCategory,artist,recordLabel,musicType,releasedDate,"
+                        + "discType,director,runtime,studio,subtitle,filmType");
+                out.newLine();
+            }
+            for (int i = 1; i <= count; i++) {
+                String[] fields = new String[24];
+                int value = 10_000 + random.nextInt(500_000);
+                String type = i % 100 == 0 ? "vinyl" : i % 3 == 0 ? "book" : i % 3 == 1 ? "cd" : "dvd";
+                fields[0] = type;
+                fields[1] = "Title " + i + (i % 7 == 0 ? ", volume " + (i % 5) : "");
+                fields[2] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                fields[3] = String.valueOf(value + value / 5);
+                fields[4] = String.valueOf(value);
+                fields[5] = String.valueOf(random.nextInt(50));
+                fields[6] = "images/" + i + ".jpg";
+                if (type.equals("book")) {
+                    fields[7] = "Author " + random.nextInt(10_000);
+                    fields[8] = "paperback";
+                    fields[9] = "Publisher " + random.nextInt(200);
+                    fields[10] = "20" + (10 + random.nextInt(14)) + "-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(9);
+                    fields[11] = String.valueOf(50 + random.nextInt(800));
+                    fields[12] = "vi";
+                    fields[13] = "fiction";
+                } else if (type.equals("cd")) {
+                    fields[14] = "Artist " + random.nextInt(5_000);
+                    fields[15] = "Label " + random.nextInt(100);
+                    fields[16] = "pop";
+                    fields[17] = "2015-06-01";
+                } else {
+                    fields[18] = "bluray";
+                    fields[19] = "Director " + random.nextInt(3_000);
+                    fields[20] = String.valueOf(80 + random.nextInt(100));
+                    fields[21] = "Studio " + random.nextInt(50);
+                    fields[22] = "en";
+                    fields[23] = "feature";
+                }
+                out.write(format == FeedFormat.CSV ? csv(fields) : json(fields));
+                out.newLine();
+            }
+        }
+    }
+
+    private static final String[] NAMES = { "type", "title", "category", "price", "value", "quantity", "imageUrl",
+            "author", "coverType", "publisher", "publishDate", "numOfPages", "language", "bookCategory",
+            "artist", "recordLabel", "musicType", "releasedDate", "discType", "director", "runtime", "studio",
+            "subtitle", "filmType" };
+
+    private static String csv(String[] fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            String field = fields[i];
+            if (field == null) continue;
+            if (field.indexOf(',') >= 0) sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+            else sb.append(field);
+        }
+        return sb.toString();
+    }
+
+    private static String json(String[] fields) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) continue;
+            if (sb.length() > 1) sb.append(", ");
+            sb.append('"').append(NAMES[i]).append("\": \"").append(fields[i].replace("\"", "\\\"")).append('"');
+        }
+        return sb.append('}').toString();
+    }
+}
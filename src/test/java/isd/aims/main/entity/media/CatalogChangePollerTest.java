@@ -0,0 +1,224 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.listener.CatalogChangeListener;
+
+/**
+ * Test class for CatalogChangePoller
+ *
+ * The catalog is written through a second connection of the pool, as another kiosk would;
+ * the poller is driven by hand through poll(), its background thread is never started.
+ */
+public class CatalogChangePollerTest {
+
+    private Path db;
+    private ConnectionPool pool;
+    private MediaCache cache = MediaCache.getInstance();
+    private CatalogChangePoller poller;
+    private RecordingListener listener = new RecordingListener();
+    private int first;
+    private int second;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-poller", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        new MigrationRunner().migrate(pool);
+        DBConnection.setPool(pool);
+        cache.invalidateAll();
+        int[] ids = CatalogSnapshot.load().getIds();
+        first = ids[0];
+        second = ids[1];
+        poller = new CatalogChangePoller(new MediaChangeLog(), cache, 1000);
+        poller.addListener(listener);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        cache.invalidateAll();
+        DBConnection.setPool(null);
+        pool.close();
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void poll_first_skipsTheChangesAlreadyLogged() throws SQLException {
+        execute("UPDATE Media SET quantity = 1 WHERE id = " + first);
+
+        assertEquals(0, poller.poll());
+
+        assertEquals(new MediaChangeLog().getLastSequence(), poller.getLastSequence());
+        assertTrue(listener.changes.isEmpty());
+    }
+
+    @Test
+    public void poll_writes_reportsChangedIdsAndMovesTheCursor() throws SQLException {
+        poller.poll();
+        long start = poller.getLastSequence();
+        execute("UPDATE Media SET quantity = 3 WHERE id = " + first);
+        execute("UPDATE Media SET price = price + 1 WHERE id = " + second);
+        execute("UPDATE Media SET quantity = 4 WHERE id = " + first);
+
+        assertEquals(3, poller.poll());
+
+        assertEquals(List.of(Set.of(first, second)), listener.changes);
+        assertEquals(start + 3, poller.getLastSequence());
+        // nothing new, nothing reported
+        assertEquals(0, poller.poll());
+        assertEquals(1, listener.changes.size());
+    }
+
+    @Test
+    public void poll_moreThanABatch_readsEveryChange() throws SQLException {
+        poller.poll();
+        int writes = CatalogChangePoller.BATCH * 2 + 7;
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < writes; i++) stm.executeUpdate("UPDATE Media SET quantity = " + i + " WHERE id = " + first);
+            connection.commit();
+        }
+
+        assertEquals(writes, poller.poll());
+
+        assertEquals(new MediaChangeLog().getLastSequence(), poller.getLastSequence());
+        assertEquals(List.of(Set.of(first)), listener.changes);
+    }
+
+    @Test
+    public void poll_changedMedia_invalidatesOnlyTheirCachedStock() throws SQLException {
+        poller.poll();
+        int firstStock = cache.getQuantity(first);
+        int secondStock = cache.getQuantity(second);
+        // written behind the back of the cache, as another kiosk would
+        execute("UPDATE Media SET quantity = " + (firstStock + 10) + " WHERE id = " + first);
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            // a write the log does not see, the cache keeps serving the old value
+            stm.executeUpdate("DROP TRIGGER media_change_update");
+            stm.executeUpdate("UPDATE Media SET quantity = " + (secondStock + 10) + " WHERE id = " + second);
+        }
+        assertEquals(firstStock, cache.getQuantity(first), "cached before the poll");
+
+        poller.poll();
+
+        assertEquals(firstStock + 10, cache.getQuantity(first));
+        assertEquals(secondStock, cache.getQuantity(second));
+    }
+
+    @Test
+    public void poll_unreadChangesPruned_resetsTheCatalog() throws SQLException {
+        poller.poll();
+        cache.getQuantity(first);
+        execute("UPDATE Media SET quantity = 7 WHERE id = " + first);
+        execute("UPDATE Media SET quantity = 8 WHERE id = " + second);
+        // the unread entries are gone, a later one is in the log
+        new MediaChangeLog().prune(Long.MAX_VALUE);
+        execute("UPDATE Media SET quantity = 9 WHERE id = " + second);
+
+        assertEquals(0, poller.poll());
+
+        assertEquals(1, listener.resets);
+        assertEquals(7, cache.getQuantity(first), "the whole cache is dropped");
+        assertTrue(listener.changes.isEmpty());
+        assertEquals(new MediaChangeLog().getLastSequence(), poller.getLastSequence());
+        // the next writes are deltas again
+        execute("UPDATE Media SET quantity = 10 WHERE id = " + first);
+        assertEquals(1, poller.poll());
+        assertEquals(List.of(Set.of(first)), listener.changes);
+    }
+
+    @Test
+    public void poll_logPrunedEmpty_resetsTheCatalog() throws SQLException {
+        poller.poll();
+        execute("UPDATE Media SET quantity = 7 WHERE id = " + first);
+        new MediaChangeLog().prune(Long.MAX_VALUE);
+
+        assertEquals(0, poller.poll());
+
+        assertEquals(1, listener.resets);
+        assertEquals(new MediaChangeLog().getLastSequence(), poller.getLastSequence());
+        assertEquals(0, poller.poll());
+        assertEquals(1, listener.resets, "a log pruned after every entry was read is not a gap");
+    }
+
+    @Test
+    public void poll_failingListener_doesNotStopTheOthers() throws SQLException {
+        CatalogChangePoller failing = new CatalogChangePoller(new MediaChangeLog(), cache, 1000);
+        failing.addListener(new RecordingListener() {
+            @Override
+            public void onCatalogChanged(Set<Integer> mediaIds) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        failing.addListener(listener);
+        failing.poll();
+        execute("UPDATE Media SET quantity = 2 WHERE id = " + first);
+
+        assertEquals(1, failing.poll());
+
+        assertEquals(List.of(Set.of(first)), listener.changes);
+    }
+
+    @Test
+    public void withChanges_polledIds_matchesAFullReload() throws SQLException {
+        poller.poll();
+        CatalogSnapshot before = CatalogSnapshot.load();
+        execute("UPDATE Media SET price = 999, quantity = 0 WHERE id = " + first);
+        execute("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                + "VALUES (900001, 'cd', 'pop', 50, 10, 'Thriller', 45, 'y.jpg')");
+        execute("DELETE FROM Media WHERE id = " + second);
+        poller.poll();
+
+        CatalogSnapshot merged = before.withChanges(listener.changes.get(0));
+        CatalogSnapshot reloaded = CatalogSnapshot.load();
+
+        assertArrayEquals(reloaded.getIds(), merged.getIds());
+        for (int id : reloaded.getIds()) {
+            assertEquals(reloaded.getPrice(id), merged.getPrice(id));
+            assertEquals(reloaded.getQuantity(id), merged.getQuantity(id));
+            assertEquals(reloaded.getType(id), merged.getType(id));
+        }
+        assertFalse(merged.contains(second));
+        assertEquals(999, merged.getPrice(first));
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate(sql);
+        }
+    }
+
+    private static class RecordingListener implements CatalogChangeListener {
+        private final List<Set<Integer>> changes = new ArrayList<>();
+        private int resets;
+
+        @Override
+        public void onCatalogChanged(Set<Integer> mediaIds) {
+            changes.add(new LinkedHashSet<>(mediaIds));
+        }
+
+        @Override
+        public void onCatalogReset() {
+            resets++;
+        }
+    }
+}
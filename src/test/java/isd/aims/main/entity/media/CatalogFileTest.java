@@ -0,0 +1,201 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+
+/**
+ * Test class for CatalogFile
+ *
+ * The catalog of a fresh copy of aims.db, with a few media of every kind added, is exported
+ * then mapped again: every media must read back as the database returns it.
+ */
+public class CatalogFileTest {
+
+    private static final long DATE = 1_600_000_000_000L;
+
+    private Path db;
+    private Path dir;
+    private Path file;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-catalog", ".db");
+        dir = Files.createTempDirectory("aims-catalog");
+        file = dir.resolve("aims.catalog");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        new MigrationRunner().migrate(pool);
+        DBConnection.setPool(pool);
+        execute("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) VALUES "
+                + "(900001, 'book', 'novel', 120, 5, 'Truyện Kiều', 100, 'images/kieu.jpg'), "
+                + "(900002, 'cd', 'jazz', 90, 2, 'Kind of Blue', 80, 'images/blue.jpg'), "
+                + "(900003, 'dvd', 'drama', 150, 0, 'Ran', 140, 'images/ran.jpg')");
+        execute("INSERT INTO Book VALUES (900001, 'Nguyễn Du', 'hardcover', 'Kim Đồng', " + DATE + ", 412, 'vi', 'poetry')");
+        execute("INSERT INTO CD VALUES (900002, 'Miles Davis', 'Columbia', 'jazz', NULL)");
+        execute("INSERT INTO DVD VALUES (900003, 'bluray', 'Akira Kurosawa', 162, 'Herald Ace', 'en', " + DATE + ", 'feature')");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        DBConnection.setPool(null);
+        pool.close();
+        Files.deleteIfExists(db);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) Files.delete(path);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void export_thenOpen_readsBackEveryMedia() throws Exception {
+        List<Media> expected;
+        try (Stream<Media> medium = new MediaRepository().stream(null)) {
+            expected = medium.collect(Collectors.toList());
+        }
+
+        int count = CatalogFile.export(file);
+        CatalogFile catalog = CatalogFile.open(file);
+
+        assertEquals(expected.size(), count);
+        assertEquals(count, catalog.getSize());
+        assertEquals(new MediaChangeLog().getLastSequence(), catalog.getChangeSequence());
+        List<Media> actual = catalog.getAll();
+        for (int i = 0; i < expected.size(); i++) {
+            Media want = expected.get(i);
+            Media got = actual.get(i);
+            String id = "media " + want.getId();
+            assertEquals(want.getId(), got.getId(), id);
+            assertEquals(want.getClass(), got.getClass(), id);
+            assertEquals(want.getType(), got.getType(), id);
+            assertEquals(want.getTitle(), got.getTitle(), id);
+            assertEquals(want.getCategory(), got.getCategory(), id);
+            assertEquals(want.getPrice(), got.getPrice(), id);
+            assertEquals(want.getValue(), got.getValue(), id);
+            assertEquals(want.getLoadedQuantity(), got.getLoadedQuantity(), id);
+            assertEquals(want.getImageURL(), got.getImageURL(), id);
+        }
+
+        Book book = (Book) catalog.findById(900001);
+        assertEquals("Truyện Kiều", book.getTitle());
+        assertEquals("Nguyễn Du", book.getAuthor());
+        assertEquals("hardcover", book.getCoverType());
+        assertEquals("Kim Đồng", book.getPublisher());
+        assertEquals(new Date(DATE), book.getPublishDate());
+        assertEquals(412, book.getNumOfPages());
+        assertEquals("vi", book.getLanguage());
+        assertEquals("poetry", book.getBookCategory());
+        CD cd = (CD) catalog.findById(900002);
+        assertEquals("Miles Davis", cd.getArtist());
+        assertEquals("Columbia", cd.getRecordLabel());
+        assertEquals("jazz", cd.getMusicType());
+        assertNull(cd.getReleasedDate());
+        DVD dvd = (DVD) catalog.findById(900003);
+        assertEquals("bluray", dvd.getDiscType());
+        assertEquals("Akira Kurosawa", dvd.getDirector());
+        assertEquals(162, dvd.getRuntime());
+        assertEquals("Herald Ace", dvd.getStudio());
+        assertEquals("en", dvd.getSubtitles());
+        assertEquals(new Date(DATE), dvd.getReleasedDate());
+        assertEquals("feature", dvd.getFilmType());
+        assertNull(catalog.findById(900004));
+    }
+
+    @Test
+    public void page_walksTheFileLikeTheDatabase() throws Exception {
+        CatalogFile.export(file);
+        CatalogFile catalog = CatalogFile.open(file);
+        MediaRepository repository = new MediaRepository();
+
+        int afterId = 0;
+        MediaPage page;
+        do {
+            page = catalog.page(afterId, 10);
+            MediaPage fromDb = repository.findPage(afterId, 10, null);
+            assertEquals(ids(fromDb.getItems()), ids(page.getItems()), "page after " + afterId);
+            assertEquals(fromDb.hasMore(), page.hasMore(), "page after " + afterId);
+            afterId = page.getLastId();
+        } while (page.hasMore());
+        assertEquals(900003, afterId);
+        assertTrue(catalog.page(afterId, 10).getItems().isEmpty());
+    }
+
+    @Test
+    public void isFresh_catalogWriteAfterExport_isStale() throws Exception {
+        CatalogFile.export(file);
+        CatalogFile catalog = CatalogFile.open(file);
+        assertTrue(catalog.isFresh());
+
+        execute("UPDATE Media SET quantity = 4 WHERE id = 900001");
+
+        assertFalse(catalog.isFresh());
+        CatalogFile.export(file);
+        assertTrue(CatalogFile.open(file).isFresh());
+    }
+
+    @Test
+    public void export_existingFile_isReplacedWithoutLeftovers() throws Exception {
+        Files.write(file, new byte[] {1, 2, 3});
+
+        CatalogFile.export(file);
+
+        assertEquals(List.of(file), list(dir), "the temporary file is moved in place");
+        assertEquals(900003, CatalogFile.open(file).page(0, Integer.MAX_VALUE).getLastId());
+    }
+
+    @Test
+    public void open_corruptOrOtherVersion_throwsIOException() throws Exception {
+        CatalogFile.export(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> CatalogFile.open(file), "truncated");
+
+        byte[] otherVersion = bytes.clone();
+        ByteBuffer.wrap(otherVersion).putInt(4, CatalogFile.VERSION + 1);
+        Files.write(file, otherVersion);
+        IOException e = assertThrows(IOException.class, () -> CatalogFile.open(file));
+        assertTrue(e.getMessage().contains("version"), e.getMessage());
+
+        Files.write(file, "not a catalog file at all, just some text".getBytes());
+        assertThrows(IOException.class, () -> CatalogFile.open(file), "magic");
+        assertThrows(IOException.class, () -> CatalogFile.open(dir.resolve("missing.catalog")));
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate(sql);
+        }
+    }
+
+    private static List<Integer> ids(List<Media> medium) {
+        return medium.stream().map(Media::getId).collect(Collectors.toList());
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package isd.aims.main.entity.media;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * Filtering and sorting {@value #ITEMS} media with CatalogSnapshot against a scan of the
+ * media objects held by the home grid (what the List of MediaForm walks through getMedia()).
+ * Every operation is warmed up, then timed over {@value #ROUNDS} rounds.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.media.CatalogSnapshotBenchmark
+ */
+public class CatalogSnapshotBenchmark {
+
+    private static final int ITEMS = 100_000;
+    private static final int WARMUP = 300;
+    private static final int ROUNDS = 200;
+    private static final String[] TYPES = { "book", "cd", "dvd" };
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        List<Media> medium = new ArrayList<>(ITEMS);
+        Random random = new Random(42);
+        for (int id = 1; id <= ITEMS; id++) {
+            medium.add(new Media(id, "title" + id, "category" + random.nextInt(40), 10 + random.nextInt(990),
+                    random.nextInt(20), TYPES[random.nextInt(TYPES.length)]).setValue(random.nextInt(900)));
+        }
+        long start = System.nanoTime();
+        CatalogSnapshot snapshot = CatalogSnapshot.of(medium);
+        System.out.printf("snapshot of %d media built in %.1f ms%n%n", ITEMS, (System.nanoTime() - start) / 1e6);
+
+        System.out.printf("%-34s %12s %12s %8s%n", "operation", "objects", "snapshot", "speedup");
+        compare("type + category",
+                () -> {
+                    List<Integer> ids = new ArrayList<>();
+                    for (Media media : medium) {
+                        if (media.getType().equals("cd") && media.getCategory().equals("category7")) ids.add(media.getId());
+                    }
+                    return ids.size();
+                },
+                () -> snapshot.query().setType("cd").setCategory("category7").ids().length);
+        compare("price range, in stock",
+                () -> {
+                    List<Integer> ids = new ArrayList<>();
+                    for (Media media : medium) {
+                        if (media.getPrice() >= 200 && media.getPrice() <= 400 && media.getLoadedQuantity() > 0) ids.add(media.getId());
+                    }
+                    return ids.size();
+                },
+                () -> snapshot.query().setPriceRange(200, 400).setInStock(true).ids().length);
+        compare("sort all by price desc",
+                () -> {
+                    List<Media> sorted = new ArrayList<>(medium);
+                    sorted.sort(Comparator.comparingInt(Media::getPrice).reversed().thenComparingInt(Media::getId));
+                    int[] ids = new int[sorted.size()];
+                    for (int i = 0; i < ids.length; i++) ids[i] = sorted.get(i).getId();
+                    return ids.length;
+                },
+                () -> snapshot.query().setSortBy(CatalogSnapshot.Column.PRICE, true).ids().length);
+        compare("book, price range, by value",
+                () -> {
+                    List<Media> matching = new ArrayList<>();
+                    for (Media media : medium) {
+                        if (media.getType().equals("book") && media.getPrice() >= 100 && media.getPrice() <= 500) matching.add(media);
+                    }
+                    matching.sort(Comparator.comparingInt(Media::getValue).thenComparingInt(Media::getId));
+                    return matching.size();
+                },
+                () -> snapshot.query().setType("book").setPriceRange(100, 500)
+                        .setSortBy(CatalogSnapshot.Column.VALUE, false).ids().length);
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void compare(String name, IntSupplier objects, IntSupplier columns) {
+        if (objects.getAsInt() != columns.getAsInt()) throw new IllegalStateException(name + ": the results differ");
+        double objectsMicros = time(objects);
+        double columnsMicros = time(columns);
+        System.out.printf("%-34s %9.0f us %9.0f us %7.1fx%n", name, objectsMicros, columnsMicros, objectsMicros / columnsMicros);
+    }
+
+    private static double time(IntSupplier operation) {
+        for (int i = 0; i < WARMUP; i++) sink += operation.getAsInt();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) sink += operation.getAsInt();
+        return (System.nanoTime() - start) / 1e3 / ROUNDS;
+    }
+}
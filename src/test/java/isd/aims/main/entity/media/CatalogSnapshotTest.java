@@ -0,0 +1,141 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Test class for CatalogSnapshot
+ *
+ * The queries over the columns are checked against a plain scan and sort of the same
+ * media held in a List, for many random combinations of conditions and orders.
+ */
+public class CatalogSnapshotTest {
+
+    private static final String[] TYPES = { "book", "cd", "dvd" };
+
+    private List<Media> medium;
+    private CatalogSnapshot snapshot;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        Random random = new Random(7);
+        medium = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            // sparse ids, few distinct prices and values so that the sorts have many ties
+            int id = 1 + i * 3 + random.nextInt(3);
+            medium.add(new Media(id, "title" + id, "category" + random.nextInt(12), 10 + random.nextInt(50),
+                    random.nextInt(4) - 1, TYPES[random.nextInt(TYPES.length)]).setValue(random.nextInt(30)));
+        }
+        // the snapshot must not depend on the order of the media it is built from
+        List<Media> shuffled = new ArrayList<>(medium);
+        Collections.shuffle(shuffled, random);
+        snapshot = CatalogSnapshot.of(shuffled);
+    }
+
+    @Test
+    public void of_unorderedMedia_keepsEveryColumn() {
+        assertEquals(medium.size(), snapshot.getSize());
+        assertArrayEquals(medium.stream().mapToInt(Media::getId).toArray(), snapshot.getIds());
+        for (Media media : medium) {
+            assertTrue(snapshot.contains(media.getId()));
+            assertEquals(media.getPrice(), snapshot.getPrice(media.getId()));
+            assertEquals(media.getValue(), snapshot.getValue(media.getId()));
+            assertEquals(media.getLoadedQuantity(), snapshot.getQuantity(media.getId()));
+            assertEquals(media.getType(), snapshot.getType(media.getId()));
+            assertEquals(media.getCategory(), snapshot.getCategory(media.getId()));
+        }
+        assertFalse(snapshot.contains(0));
+        assertThrows(IllegalArgumentException.class, () -> snapshot.getPrice(0));
+    }
+
+    @Test
+    public void query_randomConditionsAndOrders_matchListScan() {
+        Random random = new Random(11);
+        for (int round = 0; round < 500; round++) {
+            String type = random.nextInt(3) == 0 ? null : TYPES[random.nextInt(TYPES.length)];
+            String category = random.nextInt(2) == 0 ? null : "category" + random.nextInt(12);
+            int minPrice = random.nextBoolean() ? Integer.MIN_VALUE : 10 + random.nextInt(50);
+            int maxPrice = random.nextBoolean() ? Integer.MAX_VALUE : minPrice + random.nextInt(30);
+            boolean inStock = random.nextBoolean();
+            CatalogSnapshot.Column column = CatalogSnapshot.Column.values()[random.nextInt(CatalogSnapshot.Column.values().length)];
+            boolean descending = random.nextBoolean();
+            int limit = random.nextInt(4) == 0 ? random.nextInt(20) : Integer.MAX_VALUE;
+
+            CatalogSnapshot.Query query = snapshot.query().setPriceRange(minPrice, maxPrice).setInStock(inStock)
+                    .setSortBy(column, descending).setLimit(limit);
+            if (type != null) query.setType(type);
+            if (category != null) query.setCategory(category);
+
+            Predicate<Media> condition = media -> (type == null || type.equals(media.getType()))
+                    && (category == null || category.equals(media.getCategory()))
+                    && media.getPrice() >= minPrice && media.getPrice() <= maxPrice
+                    && (!inStock || media.getLoadedQuantity() > 0);
+            List<Media> expected = new ArrayList<>();
+            for (Media media : medium) {
+                if (condition.test(media)) expected.add(media);
+            }
+            int count = expected.size();
+            Comparator<Media> order = Comparator.comparingInt(key(column));
+            if (descending) order = order.reversed();
+            expected.sort(order.thenComparingInt(Media::getId));
+            int[] expectedIds = expected.stream().limit(limit).mapToInt(Media::getId).toArray();
+
+            String description = "type=" + type + " category=" + category + " price=[" + minPrice + ", " + maxPrice
+                    + "] inStock=" + inStock + " sort=" + column + (descending ? " desc" : "") + " limit=" + limit;
+            assertArrayEquals(expectedIds, query.ids(), description);
+            assertEquals(count, query.count(), description);
+        }
+    }
+
+    @Test
+    public void query_unknownTypeOrCategory_matchesNothing() {
+        assertEquals(0, snapshot.query().setType("vinyl").count());
+        assertEquals(0, snapshot.query().setCategory("missing").ids().length);
+        assertEquals(medium.size(), snapshot.query().count());
+    }
+
+    @Test
+    public void query_descendingSort_handlesExtremeKeys() {
+        CatalogSnapshot extremes = new CatalogSnapshot.Builder(3)
+                .add(1, "book", "a", Integer.MIN_VALUE, 0, 0)
+                .add(2, "book", "a", Integer.MAX_VALUE, 0, 0)
+                .add(3, "book", "a", 0, 0, 0)
+                .add(4, "book", "a", Integer.MAX_VALUE, 0, 0)
+                .build();
+
+        assertArrayEquals(new int[] {2, 4, 3, 1}, extremes.query().setSortBy(CatalogSnapshot.Column.PRICE, true).ids());
+        assertArrayEquals(new int[] {1, 3, 2, 4}, extremes.query().setSortBy(CatalogSnapshot.Column.PRICE, false).ids());
+    }
+
+    @Test
+    public void setLimit_negative_throwsIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> snapshot.query().setLimit(-1));
+    }
+
+    @Test
+    public void builder_idsOutOfOrder_throwsIllegalArgument() {
+        CatalogSnapshot.Builder builder = new CatalogSnapshot.Builder(2).add(5, "book", "a", 1, 1, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.add(5, "book", "a", 1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(4, "book", "a", 1, 1, 1));
+    }
+
+    private static ToIntFunction<Media> key(CatalogSnapshot.Column column) {
+        switch (column) {
+            case PRICE: return Media::getPrice;
+            case VALUE: return Media::getValue;
+            case QUANTITY: return Media::getLoadedQuantity;
+            default: return Media::getId;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.order.OrderMedia;
+
+/**
+ * Test class for Inventory and InventoryCommit
+ *
+ * Every test runs on a fresh copy of aims.db with three media of known stock:
+ * the stock of an order is taken for all its lines or for none of them.
+ */
+public class InventoryTest {
+
+    private static final int BOOK = 900001;
+    private static final int CD = 900002;
+    private static final int DVD = 900003;
+
+    private Path db;
+    private ConnectionPool pool;
+    private Inventory inventory = new Inventory();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-inventory", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        new MigrationRunner().migrate(pool);
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) VALUES "
+                    + "(" + BOOK + ", 'book', 'novel', 50, 5, 'Book', 45, 'x.jpg'), "
+                    + "(" + CD + ", 'cd', 'pop', 50, 2, 'CD', 45, 'x.jpg'), "
+                    + "(" + DVD + ", 'dvd', 'action', 50, 0, 'DVD', 45, 'x.jpg')");
+        }
+        DBConnection.setPool(pool);
+        MediaCache.getInstance().invalidateAll();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        DBConnection.setPool(null);
+        MediaCache.getInstance().invalidateAll();
+        pool.close();
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void commit_enoughStock_decrementsEveryLine() throws SQLException {
+        InventoryCommit result = inventory.commit(List.of(line(BOOK, 3), line(CD, 2)));
+
+        assertTrue(result.isCommitted());
+        assertTrue(result.getFailedLines().isEmpty());
+        assertEquals(Map.of(BOOK, 2, CD, 0), stock(BOOK, CD));
+    }
+
+    @Test
+    public void commit_oneLineShort_rollsBackEveryLine() throws SQLException {
+        InventoryCommit result = inventory.commit(List.of(line(BOOK, 3), line(CD, 3)));
+
+        assertFalse(result.isCommitted());
+        assertEquals(1, result.getFailedLines().size());
+        InventoryCommit.FailedLine failed = result.getFailedLines().get(0);
+        assertEquals(CD, failed.getMediaId());
+        assertEquals("CD", failed.getTitle());
+        assertEquals(3, failed.getRequested());
+        assertEquals(2, failed.getAvailable());
+        // the book line was decremented before the CD line failed, it must be rolled back too
+        assertEquals(Map.of(BOOK, 5, CD, 2), stock(BOOK, CD));
+    }
+
+    @Test
+    public void commit_severalLinesShort_listsEachOfThem() throws SQLException {
+        InventoryCommit result = inventory.commit(List.of(line(BOOK, 1), line(CD, 9), line(DVD, 1)));
+
+        assertFalse(result.isCommitted());
+        assertEquals(List.of(CD, DVD), result.getFailedLines().stream().map(InventoryCommit.FailedLine::getMediaId).toList());
+        assertEquals(0, result.getFailedLines().get(1).getAvailable());
+        assertEquals(Map.of(BOOK, 5, CD, 2, DVD, 0), stock(BOOK, CD, DVD));
+    }
+
+    @Test
+    public void commit_sameMediaOnTwoLines_checksTheirSum() throws SQLException {
+        // each line alone fits in the stock of 2, both together do not
+        InventoryCommit result = inventory.commit(List.of(line(CD, 2), line(CD, 1)));
+
+        assertFalse(result.isCommitted());
+        assertEquals(3, result.getFailedLines().get(0).getRequested());
+        assertEquals(Map.of(CD, 2), stock(CD));
+    }
+
+    @Test
+    public void commit_missingMedia_isReportedWithNoStock() throws SQLException {
+        InventoryCommit result = inventory.commit(List.of(line(BOOK, 1), line(999999, 1)));
+
+        assertFalse(result.isCommitted());
+        assertEquals(999999, result.getFailedLines().get(0).getMediaId());
+        assertEquals(0, result.getFailedLines().get(0).getAvailable());
+        assertEquals(Map.of(BOOK, 5), stock(BOOK));
+    }
+
+    @Test
+    public void commit_concurrentOrders_neverOversell() throws Exception {
+        // 5 books, 8 kiosks ordering one each at the same time
+        int kiosks = 8;
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger committed = new AtomicInteger();
+        for (int i = 0; i < kiosks; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    if (inventory.commit(List.of(line(BOOK, 1))).isCommitted()) committed.incrementAndGet();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(5, committed.get());
+        assertEquals(Map.of(BOOK, 0), stock(BOOK));
+    }
+
+    @Test
+    public void commit_committed_invalidatesCachedStock() throws SQLException {
+        assertEquals(5, MediaCache.getInstance().getQuantity(BOOK));
+
+        inventory.commit(List.of(line(BOOK, 2)));
+
+        assertEquals(3, MediaCache.getInstance().getQuantity(BOOK));
+    }
+
+    private static OrderMedia line(int mediaId, int quantity) {
+        try {
+            return new OrderMedia(new Media(mediaId, mediaId == BOOK ? "Book" : mediaId == CD ? "CD" : "DVD", "x", 50, 0, "x"), quantity, 50);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<Integer, Integer> stock(Integer... ids) throws SQLException {
+        return new MediaRepository().findQuantities(List.of(ids));
+    }
+}
@@ -0,0 +1,111 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test class for MediaCache, in front of a repository that counts its queries
+ *
+ * The callers get their own copy of the cached media, and the misses of a
+ * batch are loaded in one query.
+ */
+public class MediaCacheTest {
+
+    @Test
+    public void get_returnsCopies() throws SQLException {
+        CountingRepository repository = new CountingRepository();
+        MediaCache cache = new MediaCache(repository, 10, 60_000, 60_000, System::nanoTime);
+
+        Book first = (Book) cache.get(1);
+        first.setTitle("changed").setQuantity(0);
+        first.getPublishDate().setTime(0);
+
+        Book second = (Book) cache.get(1);
+        assertNotSame(first, second);
+        assertEquals("Title 1", second.getTitle());
+        assertEquals(5, second.getLoadedQuantity());
+        assertEquals(1_600_000_000_000L, second.getPublishDate().getTime());
+        assertEquals(1, repository.queries);
+    }
+
+    @Test
+    public void get_stockReadAfterTheMedia_givesTheNewerQuantity() throws SQLException {
+        CountingRepository repository = new CountingRepository();
+        MediaCache cache = new MediaCache(repository, 10, 60_000, 60_000, System::nanoTime);
+        cache.get(1);
+
+        cache.putQuantities(Map.of(1, 2));
+
+        assertEquals(2, cache.get(1).getLoadedQuantity());
+        assertEquals(2, cache.getAll(List.of(1)).get(1).getLoadedQuantity());
+        assertEquals(1, repository.queries);
+    }
+
+    @Test
+    public void getAll_loadsTheMissesInOneQuery() throws SQLException {
+        CountingRepository repository = new CountingRepository();
+        MediaCache cache = new MediaCache(repository, 10, 60_000, 60_000, System::nanoTime);
+        cache.get(2);
+
+        Map<Integer, Media> medium = cache.getAll(List.of(3, 2, 99, 4, 3));
+        assertEquals(List.of(3, 2, 4), new ArrayList<>(medium.keySet()));
+        assertEquals(List.of(3, 99, 4), repository.lastBatch);
+        assertEquals(2, repository.queries);
+
+        // every media is cached now, the copies are not shared
+        medium.get(4).setTitle("changed");
+        Map<Integer, Media> again = cache.getAll(List.of(2, 3, 4));
+        assertEquals(3, again.size());
+        assertEquals("Title 4", again.get(4).getTitle());
+        assertEquals(2, repository.queries);
+    }
+
+    @Test
+    public void getAll_afterInvalidate_reloadsTheMedia() throws SQLException {
+        CountingRepository repository = new CountingRepository();
+        MediaCache cache = new MediaCache(repository, 10, 60_000, 60_000, System::nanoTime);
+        cache.getAll(List.of(1, 2));
+        cache.invalidate(2);
+
+        cache.getAll(List.of(1, 2));
+        assertEquals(List.of(2), repository.lastBatch);
+    }
+
+    /**
+     * Serves media 1 to 10, counting the queries
+     */
+    private static class CountingRepository extends MediaRepository {
+        private int queries;
+        private List<Integer> lastBatch;
+
+        @Override
+        public Media findById(int id) throws SQLException {
+            queries++;
+            return id <= 10 ? book(id) : null;
+        }
+
+        @Override
+        public Map<Integer, Media> findByIds(Collection<Integer> ids) throws SQLException {
+            queries++;
+            lastBatch = new ArrayList<>(ids);
+            Map<Integer, Media> found = new LinkedHashMap<>();
+            for (Integer id : ids) {
+                if (id <= 10) found.put(id, book(id));
+            }
+            return found;
+        }
+
+        private static Media book(int id) throws SQLException {
+            return new Book(id, "Title " + id, "novel", 1000, 5, "book", "Author", "paperback", "Publisher",
+                    new Date(1_600_000_000_000L), 100, "en", "novel");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+
+/**
+ * Test class for MediaChangeLog and the triggers of migration V004, on a fresh copy of aims.db for every test
+ */
+public class MediaChangeLogTest {
+
+    private Path db;
+    private ConnectionPool pool;
+    private MediaChangeLog log = new MediaChangeLog();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-changes", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        new MigrationRunner().migrate(pool);
+        DBConnection.setPool(pool);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        DBConnection.setPool(null);
+        pool.close();
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void triggers_everyCatalogTable_logTheirWrites() throws SQLException {
+        long start = log.getLastSequence();
+
+        execute("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                + "VALUES (900001, 'book', 'novel', 50, 10, 'Chí Phèo', 45, 'x.jpg')");
+        execute("INSERT INTO Book VALUES (900001, 'Nam Cao', 'paperback', 'Kim Đồng', 0, 120, 'vi', 'novel')");
+        execute("UPDATE Media SET quantity = 9 WHERE id = 900001");
+        execute("UPDATE Book SET numOfPages = 121 WHERE id = 900001");
+        execute("INSERT INTO CD VALUES (900002, 'Michael Jackson', 'Epic', 'pop', 0)");
+        execute("UPDATE CD SET musicType = 'rock' WHERE id = 900002");
+        execute("DELETE FROM CD WHERE id = 900002");
+        execute("INSERT INTO DVD VALUES (900003, 'disc', 'Nolan', 148, 'WB', 'subs', 0, 'action')");
+        execute("DELETE FROM Book WHERE id = 900001");
+        execute("DELETE FROM Media WHERE id = 900001");
+
+        List<MediaChange> changes = log.readSince(start, 100);
+
+        assertEquals(List.of("900001 Media I", "900001 Book I", "900001 Media U", "900001 Book U", "900002 CD I",
+                        "900002 CD U", "900002 CD D", "900003 DVD I", "900001 Book D", "900001 Media D"),
+                changes.stream().map(c -> c.getMediaId() + " " + c.getTableName() + " " + c.getOperation()).collect(Collectors.toList()));
+        for (int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i).getSequence() > changes.get(i - 1).getSequence());
+        }
+        long now = System.currentTimeMillis();
+        assertTrue(Math.abs(now - changes.get(0).getChangedAt()) < 60_000, "changedAt is in epoch millis");
+        assertEquals(changes.get(changes.size() - 1).getSequence(), log.getLastSequence());
+    }
+
+    @Test
+    public void readSince_limit_pagesThroughTheLog() throws SQLException {
+        long start = log.getLastSequence();
+        for (int i = 0; i < 7; i++) execute("UPDATE Media SET quantity = quantity + 1 WHERE id = (SELECT MIN(id) FROM Media)");
+
+        List<MediaChange> first = log.readSince(start, 3);
+        List<MediaChange> second = log.readSince(first.get(2).getSequence(), 3);
+        List<MediaChange> third = log.readSince(second.get(2).getSequence(), 3);
+
+        assertEquals(3, first.size());
+        assertEquals(3, second.size());
+        assertEquals(1, third.size());
+        assertEquals(log.getLastSequence(), third.get(0).getSequence());
+        assertTrue(log.readSince(log.getLastSequence(), 3).isEmpty());
+    }
+
+    @Test
+    public void prune_oldEntries_keepsTheRecentOnesAndTheSequence() throws SQLException {
+        execute("UPDATE Media SET quantity = quantity + 1 WHERE id = (SELECT MIN(id) FROM Media)");
+        execute("UPDATE Media SET quantity = quantity + 1 WHERE id = (SELECT MAX(id) FROM Media)");
+        long last = log.getLastSequence();
+        // the first entry is moved before the cut-off
+        execute("UPDATE MediaChange SET changedAt = 0 WHERE seq = " + (last - 1));
+
+        assertEquals(1, log.prune(1));
+
+        assertEquals(last, log.getFirstSequence());
+        assertEquals(0, log.prune(1));
+        assertEquals(1, log.prune(Long.MAX_VALUE));
+        assertEquals(0, log.getFirstSequence(), "empty log");
+        // the sequence survives the pruning, it never goes backwards
+        assertEquals(last, log.getLastSequence());
+        execute("UPDATE Media SET quantity = quantity + 1 WHERE id = (SELECT MIN(id) FROM Media)");
+        assertEquals(last + 1, log.getLastSequence());
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate(sql);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+
+/**
+ * Test class for the streaming API of MediaRepository
+ *
+ * The catalog is a copy of aims.db filled with 1M synthetic media (every
+ * 1000th one is a book), the stream must walk all of them within a fixed
+ * heap budget and give its connection back to the pool once closed.
+ * The catalog filters must be served by the indexes of the migrations, not by a scan.
+ */
+public class MediaRepositoryTest {
+
+    private static final int ROWS = 1_000_000;
+
+    /**
+     * Far below what 1M materialized media would take (well over 100 MB)
+     */
+    private static final long HEAP_BUDGET = 32L * 1024 * 1024;
+
+    private static Path db;
+    private static ConnectionPool pool;
+    private MediaRepository repository = new MediaRepository();
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        db = Files.createTempFile("aims-stream", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            stm.executeUpdate("DELETE FROM Book");
+            stm.executeUpdate("DELETE FROM CD");
+            stm.executeUpdate("DELETE FROM DVD");
+            stm.executeUpdate("DELETE FROM Media");
+            stm.executeUpdate("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < " + ROWS + ") "
+                    + "INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                    + "SELECT n, CASE WHEN n % 1000 = 0 THEN 'book' ELSE 'cd' END, 'category' || (n % 7), "
+                    + "n % 500, n % 20, 'title' || n, n % 450, 'assets/images/' || n || '.jpg' FROM seq");
+            stm.executeUpdate("INSERT INTO Book SELECT id, 'author', 'paperback', 'publisher', 0, 100, 'en', 'novel' "
+                    + "FROM Media WHERE type = 'book'");
+            connection.commit();
+        }
+        new MigrationRunner().migrate(pool);
+        DBConnection.setPool(pool);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        DBConnection.setPool(null);
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void stream_millionRows_staysWithinHeapBudget() throws SQLException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseline = runtime.totalMemory() - runtime.freeMemory();
+        long peak = 0;
+        long count = 0;
+        long books = 0;
+        long lastId = 0;
+
+        try (Stream<Media> medium = repository.stream(null, 1000)) {
+            Iterator<Media> it = medium.iterator();
+            while (it.hasNext()) {
+                Media media = it.next();
+                assertTrue(media.getId() > lastId, "media must come ordered by id");
+                lastId = media.getId();
+                if (media instanceof Book) books++;
+                if (++count % 100_000 == 0) {
+                    System.gc();
+                    peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory() - baseline);
+                }
+            }
+        }
+
+        assertEquals(ROWS, count);
+        assertEquals(ROWS / 1000, books);
+        assertTrue(peak < HEAP_BUDGET, "heap grew by " + peak / 1024 + " KB while streaming");
+        assertEquals(0, pool.getStats().getActive());
+    }
+
+    @Test
+    public void stream_closedEarly_releasesConnection() throws SQLException {
+        List<Integer> ids;
+        try (Stream<Media> medium = repository.stream(new MediaFilter().setType(MediaRepository.TYPE_BOOK))) {
+            ids = medium.limit(3).map(Media::getId).collect(Collectors.toList());
+        }
+        assertEquals(List.of(1000, 2000, 3000), ids);
+        assertEquals(0, pool.getStats().getActive());
+    }
+
+    @Test
+    public void findPage_filters_useIndexes() throws SQLException {
+        String byType = plan(new MediaFilter().setType(MediaRepository.TYPE_BOOK));
+        String byCategory = plan(new MediaFilter().setCategory("category3"));
+        String byTitle = plan(new MediaFilter().setTitlePrefix("title12"));
+
+        assertTrue(byType.contains("USING INDEX Media.idx_media_type"), byType);
+        assertTrue(byCategory.contains("USING INDEX Media.idx_media_category"), byCategory);
+        assertTrue(byTitle.contains("USING INDEX Media.idx_media_title"), byTitle);
+        for (String plan : List.of(byType, byCategory, byTitle)) {
+            assertFalse(plan.contains("SCAN Media"), plan);
+        }
+        // the pages of a type or category come in id order straight from the index
+        assertFalse(byType.contains("TEMP B-TREE"), byType);
+        assertFalse(byCategory.contains("TEMP B-TREE"), byCategory);
+    }
+
+    @Test
+    public void search_pagesThroughEveryMatchOnce() throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        int offset = 0;
+        SearchPage page;
+        do {
+            page = repository.search("TITLE99999", null, offset, 5);
+            for (Media media : page.getItems()) {
+                assertTrue(media.getTitle().startsWith("title99999"), media.getTitle());
+                assertTrue(ids.add(media.getId()), "media " + media.getId() + " returned twice");
+            }
+            offset = page.getNextOffset();
+        } while (page.hasMore());
+
+        // title99999 and title999990 to title999999
+        assertEquals(11, ids.size());
+    }
+
+    @Test
+    public void search_withTypeFilter_returnsOnlyThatType() throws SQLException {
+        SearchPage page = repository.search("title99", new MediaFilter().setType(MediaRepository.TYPE_BOOK), 0, 50);
+
+        // 99000 and 990000 to 999000
+        assertEquals(11, page.getItems().size());
+        assertTrue(page.getItems().stream().allMatch(media -> media instanceof Book));
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    public void search_operatorsAreSearchedAsWords() throws SQLException {
+        assertTrue(repository.search("\"title1\" OR NEAR(", null, 0, 5).getItems().isEmpty());
+        assertTrue(repository.search(" -*- ", null, 0, 5).getItems().isEmpty());
+    }
+
+    private String plan(MediaFilter filter) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stm = connection.prepareStatement("EXPLAIN QUERY PLAN " + MediaRepository.pageQuery(filter.conditions()))) {
+            int index = 1;
+            stm.setInt(index++, 0);
+            for (Object parameter : filter.parameters()) stm.setObject(index++, parameter);
+            stm.setInt(index, 25);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) sb.append(res.getString("detail")).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.ref.Reference;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Test class for OffHeapCatalog
+ *
+ * The views must give back what was stored, and the catalog must keep its
+ * media out of the heap: a few bytes of heap per media, against the
+ * hundreds taken by the same media as objects.
+ */
+public class OffHeapCatalogTest {
+
+    private static final int ITEMS = 200_000;
+
+    /**
+     * Heap per media of the whole catalog, the buffers themselves are a few objects whatever the size
+     */
+    private static final long HEAP_PER_ITEM_BUDGET = 8;
+
+    @Test
+    public void views_returnStoredValues() throws SQLException {
+        Date date = new Date(1_600_000_000_000L);
+        Media book = new Book(7, "Dune", "novel", 120000, 5, "book", "Frank Herbert", "paperback",
+                "Chilton", date, 412, "en", "science fiction").setValue(100000).setMediaURL("images/dune.jpg");
+        Media cd = new CD(3, "Kind of Blue", "jazz", 90000, 2, "cd", "Miles Davis", "Columbia", "jazz", null);
+        Media dvd = new DVD(12, "Ran", "drama", 150000, 0, "dvd", "bluray", "Akira Kurosawa", 162,
+                "Herald Ace", "en", date, "feature");
+        Media media = new Media(9, "Tiếng Việt", null, 1000, 1, "media");
+        OffHeapCatalog catalog = OffHeapCatalog.of(Arrays.asList(book, cd, dvd, media));
+
+        assertEquals(4, catalog.getSize());
+        Book readBook = (Book) catalog.findById(7);
+        assertEquals("Dune", readBook.getTitle());
+        assertEquals(120000, readBook.getPrice());
+        assertEquals(100000, readBook.getValue());
+        assertEquals(5, readBook.getLoadedQuantity());
+        assertEquals("images/dune.jpg", readBook.getImageURL());
+        assertEquals("Frank Herbert", readBook.getAuthor());
+        assertEquals("Chilton", readBook.getPublisher());
+        assertEquals(date, readBook.getPublishDate());
+        assertEquals(412, readBook.getNumOfPages());
+        assertEquals("science fiction", readBook.getBookCategory());
+        CD readCd = (CD) catalog.findById(3);
+        assertEquals("Miles Davis", readCd.getArtist());
+        assertEquals("Columbia", readCd.getRecordLabel());
+        assertNull(readCd.getReleasedDate());
+        DVD readDvd = (DVD) catalog.findById(12);
+        assertEquals("Akira Kurosawa", readDvd.getDirector());
+        assertEquals(162, readDvd.getRuntime());
+        assertEquals("feature", readDvd.getFilmType());
+        Media readMedia = catalog.findById(9);
+        assertEquals("Tiếng Việt", readMedia.getTitle());
+        assertNull(readMedia.getCategory());
+        assertNull(catalog.findById(8));
+
+        MediaPage first = catalog.page(0, 2);
+        assertEquals(Arrays.asList(3, 7), ids(first.getItems()));
+        assertTrue(first.hasMore());
+        MediaPage last = catalog.page(first.getLastId(), 2);
+        assertEquals(Arrays.asList(9, 12), ids(last.getItems()));
+        assertFalse(last.hasMore());
+        assertEquals(Arrays.asList(3, 7, 9, 12), ids(catalog.asList()));
+
+        // the home screen lowers the quantity of the media put in the cart, only on that view
+        readBook.setQuantity(1);
+        assertEquals(1, readBook.getLoadedQuantity());
+        assertEquals(5, catalog.findById(7).getLoadedQuantity());
+        assertThrows(UnsupportedOperationException.class, () -> readBook.setPrice(1));
+        assertThrows(UnsupportedOperationException.class, () -> readDvd.setDirector("someone"));
+    }
+
+    @Test
+    public void builder_idsOutOfOrder_areRejected() throws SQLException {
+        OffHeapCatalog.Builder builder = new OffHeapCatalog.Builder(4, -1).add(new Media(2, "b", "c", 1, 1, "media"));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(new Media(2, "a", "c", 1, 1, "media")));
+    }
+
+    @Test
+    public void catalog_heapPerItem_staysWithinBudget() throws SQLException {
+        Runtime runtime = Runtime.getRuntime();
+        long before = usedHeap(runtime);
+        OffHeapCatalog catalog = build(ITEMS);
+        long offHeap = usedHeap(runtime) - before;
+
+        List<Media> onHeap = new ArrayList<>(ITEMS);
+        long beforeObjects = usedHeap(runtime);
+        for (int i = 1; i <= ITEMS; i++) onHeap.add(book(i));
+        long objects = usedHeap(runtime) - beforeObjects;
+
+        System.out.printf("%d media: %d bytes of heap per media off-heap (%d KB of direct memory), %d bytes as objects%n",
+                ITEMS, offHeap / ITEMS, catalog.getOffHeapBytes() >> 10, objects / ITEMS);
+        assertEquals(ITEMS, catalog.getSize());
+        assertEquals("Title " + ITEMS, catalog.findById(ITEMS).getTitle());
+        assertTrue(offHeap / ITEMS <= HEAP_PER_ITEM_BUDGET, offHeap / ITEMS + " bytes of heap per media");
+        assertTrue(objects > 20 * Math.max(offHeap, 1), "the media objects took " + objects / 1024 + " KB");
+        Reference.reachabilityFence(onHeap);
+        Reference.reachabilityFence(catalog);
+    }
+
+    private static OffHeapCatalog build(int count) throws SQLException {
+        OffHeapCatalog.Builder builder = new OffHeapCatalog.Builder(1024, -1);
+        for (int i = 1; i <= count; i++) builder.add(book(i));
+        return builder.build();
+    }
+
+    private static Media book(int i) throws SQLException {
+        return new Book(i, "Title " + i, "category" + i % 40, 10000 + i, i % 20, "book", "Author " + i % 5000,
+                "paperback", "Publisher " + i % 200, new Date(1_500_000_000_000L + i), 100 + i % 500, "vi", "novel")
+                .setValue(9000 + i).setMediaURL("images/" + i + ".jpg");
+    }
+
+    private static long usedHeap(Runtime runtime) {
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<Integer> ids(List<Media> medium) {
+        List<Integer> ids = new ArrayList<>();
+        for (Media media : medium) ids.add(media.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,163 @@
+package isd.aims.main.entity.media;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+/**
+ * Test class for StockReservations
+ *
+ * The wheel is never started, each test turns it by hand with advance(): holds of a 5 tick TTL
+ * on a wheel of 4 buckets, so that most deadlines fall in a later turn of the wheel.
+ */
+public class StockReservationsTest {
+
+    private static final int TTL_TICKS = 5;
+
+    private StockReservations reservations;
+
+    @BeforeEach
+    public void setUp() {
+        reservations = new StockReservations(TTL_TICKS * 1000, 1000, 4);
+    }
+
+    @Test
+    public void reserve_stockHeldByOthers_isRefused() {
+        assertTrue(reservations.reserve("a", 1, 3, 5));
+
+        assertFalse(reservations.reserve("b", 1, 3, 5));
+        assertTrue(reservations.reserve("b", 1, 2, 5));
+
+        assertEquals(5, reservations.getHeld(1));
+        assertEquals(0, reservations.getAvailableToSell(1, 5));
+        assertEquals(3, reservations.getAvailableTo("a", 1, 5), "a keeps what it holds");
+        assertEquals(1, reservations.getRefused());
+        assertEquals(0, reservations.getHeld("c", 1));
+    }
+
+    @Test
+    public void reserve_sameSessionAgain_replacesItsQuantity() {
+        reservations.reserve("a", 1, 3, 5);
+
+        assertTrue(reservations.reserve("a", 1, 5, 5), "the session's own hold does not count against it");
+        assertEquals(5, reservations.getHeld(1));
+        assertTrue(reservations.reserve("a", 1, 1, 5));
+        assertEquals(1, reservations.getHeld(1));
+        assertTrue(reservations.reserve("a", 1, 0, 5));
+        assertEquals(0, reservations.getHeld(1));
+        assertEquals(0, reservations.size());
+    }
+
+    @Test
+    public void advance_pastTheTtl_releasesTheHold() {
+        reservations.reserve("a", 1, 2, 5);
+
+        for (int i = 1; i < TTL_TICKS; i++) assertEquals(0, reservations.advance(), "tick " + i);
+        assertEquals(2, reservations.getHeld(1));
+
+        assertEquals(1, reservations.advance());
+        assertEquals(0, reservations.getHeld(1));
+        assertEquals(0, reservations.size());
+        assertEquals(1, reservations.getExpired());
+    }
+
+    @Test
+    public void reserve_again_restartsTheTtl() {
+        reservations.reserve("a", 1, 2, 5);
+        advance(TTL_TICKS - 1);
+
+        reservations.reserve("a", 1, 2, 5);
+        advance(TTL_TICKS - 1);
+
+        assertEquals(2, reservations.getHeld(1), "the hold was refreshed one tick before its deadline");
+        assertEquals(1, reservations.advance());
+        assertEquals(0, reservations.getHeld(1));
+    }
+
+    @Test
+    public void advance_holdsOfTheSameBucketInALaterTurn_areKept() {
+        reservations.reserve("a", 1, 1, 5);
+        // one turn of the wheel later, the second hold is due in the same bucket
+        advance(4);
+        reservations.reserve("b", 2, 1, 5);
+
+        assertEquals(1, reservations.advance());
+        assertEquals(0, reservations.getHeld(1));
+        assertEquals(1, reservations.getHeld(2));
+        advance(3);
+        assertEquals(1, reservations.getHeld(2));
+        assertEquals(1, reservations.advance());
+        assertEquals(0, reservations.getHeld(2));
+    }
+
+    @Test
+    public void release_oneMediaOrTheSession_dropsItsHolds() {
+        reservations.reserve("a", 1, 2, 5);
+        reservations.reserve("a", 2, 1, 5);
+        reservations.reserve("b", 1, 1, 5);
+
+        reservations.release("a", 1);
+        assertEquals(1, reservations.getHeld(1));
+        assertEquals(1, reservations.getHeld(2));
+
+        assertEquals(1, reservations.releaseSession("a"));
+        assertEquals(0, reservations.getHeld(2));
+        assertEquals(0, reservations.releaseSession("a"));
+        assertEquals(1, reservations.size());
+
+        // released holds are out of the wheel, they never expire a later hold
+        reservations.reserve("a", 2, 1, 5);
+        advance(TTL_TICKS - 1);
+        assertEquals(1, reservations.getHeld(2));
+    }
+
+    @Test
+    public void confirm_session_dropsItsHoldsAndCountsThem() {
+        reservations.reserve("a", 1, 2, 5);
+        reservations.reserve("a", 2, 1, 5);
+        reservations.reserve("b", 1, 3, 5);
+
+        assertEquals(2, reservations.confirm("a"));
+
+        assertEquals(3, reservations.getHeld(1));
+        assertEquals(0, reservations.getHeld(2));
+        assertEquals(2, reservations.getConfirmed());
+        // nothing left to expire for the confirmed session
+        advance(TTL_TICKS);
+        assertEquals(1, reservations.getExpired());
+    }
+
+    @Test
+    public void randomChanges_heldTotalsMatchTheSessionHolds() {
+        Random random = new Random(5);
+        String[] sessions = { "a", "b", "c", "d" };
+        for (int step = 0; step < 5_000; step++) {
+            String session = sessions[random.nextInt(sessions.length)];
+            int mediaId = 1 + random.nextInt(6);
+            switch (random.nextInt(5)) {
+                case 0: reservations.release(session, mediaId); break;
+                case 1: reservations.releaseSession(session); break;
+                case 2: reservations.advance(); break;
+                default: reservations.reserve(session, mediaId, random.nextInt(4), 8);
+            }
+            for (int id = 1; id <= 6; id++) {
+                int sum = 0;
+                for (String other : sessions) sum += reservations.getHeld(other, id);
+                assertEquals(sum, reservations.getHeld(id), "step " + step + " media " + id);
+                assertTrue(sum <= 8, "never more held than the stock");
+            }
+        }
+    }
+
+    @Test
+    public void constructor_invalidWheel_throwsIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> new StockReservations(1000, 0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new StockReservations(1000, 100, 0));
+    }
+
+    private void advance(int ticks) {
+        for (int i = 0; i < ticks; i++) reservations.advance();
+    }
+}
@@ -0,0 +1,122 @@
+package isd.aims.main.entity.order;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.StorageProfile;
+import isd.aims.main.entity.media.Media;
+
+/**
+ * Saving orders of 1, 50 and 1,000 lines with OrderRepository (header and batched
+ * lines in one transaction) against one autocommit INSERT per line,
+ * on a copy of aims.db with the kiosk storage profile.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.order.OrderRepositoryBenchmark
+ */
+public class OrderRepositoryBenchmark {
+
+    private static final int[] LINES = { 1, 50, 1000 };
+    private static final int ORDERS = 100;
+
+    public static void main(String[] args) throws Exception {
+        Path db = Files.createTempFile("aims-order", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        DBConnection.setPool(StorageProfile.load("kiosk").applyTo(new ConnectionPool("jdbc:sqlite:" + db, 2)));
+        try {
+            List<Media> catalog = seed(1000);
+            OrderRepository repository = new OrderRepository();
+            for (int lines : LINES) {
+                int orders = lines >= 1000 ? ORDERS / 10 : ORDERS;
+                // warm up both paths
+                for (int i = 0; i < orders; i++) {
+                    repository.save(order(catalog, lines));
+                    saveLineByLine(order(catalog, lines));
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < orders; i++) repository.save(order(catalog, lines));
+                long batched = (System.nanoTime() - start) / orders;
+
+                start = System.nanoTime();
+                for (int i = 0; i < orders; i++) saveLineByLine(order(catalog, lines));
+                long lineByLine = (System.nanoTime() - start) / orders;
+
+                System.out.printf("%5d lines: batched %8.3f ms/order | line by line %8.3f ms/order | speedup x%.1f%n",
+                        lines, batched / 1e6, lineByLine / 1e6, (double) lineByLine / batched);
+            }
+        } finally {
+            DBConnection.setPool(null);
+            Files.deleteIfExists(db);
+            Files.deleteIfExists(Paths.get(db + "-wal"));
+            Files.deleteIfExists(Paths.get(db + "-shm"));
+        }
+    }
+
+    private static List<Media> seed(int count) throws SQLException {
+        List<Media> catalog = new ArrayList<>();
+        try (Connection connection = DBConnection.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < " + count + ") "
+                    + "INSERT INTO Media(type, category, price, quantity, title, value, imageUrl) "
+                    + "SELECT 'book', 'category', 100, 100, 'title' || n, 90, 'x.jpg' FROM seq");
+            try (ResultSet res = stm.executeQuery("SELECT id FROM Media ORDER BY id DESC LIMIT " + count)) {
+                while (res.next()) catalog.add(new Media(res.getInt(1), "title", "category", 100, 100, "book"));
+            }
+        }
+        return catalog;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Order order(List<Media> catalog, int lines) {
+        Order order = new Order();
+        for (int i = 0; i < lines; i++) order.getlstOrderMedia().add(new OrderMedia(catalog.get(i), 1, 100));
+        HashMap<String, String> info = new HashMap<>();
+        info.put("phone", "0912345678");
+        info.put("address", "1 Dai Co Viet");
+        info.put("province", "Hà Nội");
+        order.setDeliveryInfo(info);
+        order.setShippingFees(22000);
+        return order;
+    }
+
+    /**
+     * One round trip and one commit for the header, then again for every line
+     */
+    @SuppressWarnings("unchecked")
+    private static void saveLineByLine(Order order) throws SQLException {
+        int id;
+        try (Connection connection = DBConnection.getWriteConnection();
+             PreparedStatement stm = connection.prepareStatement(OrderRepository.INSERT_ORDER)) {
+            stm.setString(1, "");
+            stm.setString(2, "1 Dai Co Viet, Hà Nội");
+            stm.setString(3, "0912345678");
+            stm.setInt(4, OrderRepository.GUEST_USER_ID);
+            stm.setInt(5, order.getShippingFees());
+            try (ResultSet res = stm.executeQuery()) {
+                res.next();
+                id = res.getInt(1);
+            }
+        }
+        for (OrderMedia line : (List<OrderMedia>) order.getlstOrderMedia()) {
+            try (Connection connection = DBConnection.getWriteConnection();
+                 PreparedStatement stm = connection.prepareStatement(OrderRepository.INSERT_LINE)) {
+                stm.setInt(1, line.getMedia().getId());
+                stm.setInt(2, id);
+                stm.setInt(3, line.getPrice());
+                stm.setInt(4, line.getQuantity());
+                stm.executeUpdate();
+            }
+        }
+    }
+}
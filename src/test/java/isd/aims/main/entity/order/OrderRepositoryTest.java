@@ -0,0 +1,157 @@
+package isd.aims.main.entity.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.media.Media;
+
+/**
+ * Test class for OrderRepository
+ *
+ * Every test runs on a fresh, migrated copy of aims.db with the foreign keys enforced,
+ * so an order of the guest user must reference a real User row.
+ */
+public class OrderRepositoryTest {
+
+    private Path db;
+    private ConnectionPool pool;
+    private OrderRepository repository = new OrderRepository();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-order", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2).addPragma("foreign_keys = ON");
+        new MigrationRunner().migrate(pool);
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) VALUES "
+                    + "(900001, 'book', 'novel', 50, 5, 'Book', 45, 'x.jpg'), "
+                    + "(900002, 'cd', 'pop', 30, 5, 'CD', 25, 'x.jpg')");
+        }
+        DBConnection.setPool(pool);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        DBConnection.setPool(null);
+        pool.close();
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void save_newOrders_returnsGeneratedIdsAndSetsThem() throws SQLException {
+        Order first = order(line(900001, 1));
+        Order second = order(line(900002, 2));
+
+        int firstId = repository.save(first);
+        int secondId = repository.save(second);
+
+        assertEquals(firstId, first.getId());
+        assertEquals(secondId, second.getId());
+        assertTrue(secondId > firstId);
+        assertEquals(secondId, queryInt("SELECT MAX(id) FROM \"Order\""));
+        assertEquals(30 * 2, queryInt("SELECT price * quantity FROM OrderMedia WHERE orderID = " + secondId));
+    }
+
+    @Test
+    public void save_guestOrder_referencesExistingUser() throws SQLException {
+        int id = repository.save(order(line(900001, 1)));
+
+        assertEquals(OrderRepository.GUEST_USER_ID, queryInt("SELECT userID FROM \"Order\" WHERE id = " + id));
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM \"User\" WHERE id = " + OrderRepository.GUEST_USER_ID));
+        assertEquals(0, queryInt("SELECT COUNT(*) FROM pragma_foreign_key_check"));
+    }
+
+    @Test
+    public void save_sameMediaOnTwoLines_mergesThem() throws SQLException {
+        int id = repository.save(order(line(900001, 2), line(900002, 1), line(900001, 3)));
+
+        assertEquals(Map.of(900001, 5, 900002, 1), lines(id));
+    }
+
+    @Test
+    public void save_failingLine_rollsBackTheOrder() throws SQLException {
+        int orders = queryInt("SELECT COUNT(*) FROM \"Order\"");
+
+        // the media does not exist, the foreign key of the line fails after the header was inserted
+        assertThrows(SQLException.class, () -> repository.save(order(line(900001, 1), line(999999, 1))));
+
+        assertEquals(orders, queryInt("SELECT COUNT(*) FROM \"Order\""));
+        assertEquals(0, queryInt("SELECT COUNT(*) FROM OrderMedia WHERE mediaID = 900001"));
+    }
+
+    @Test
+    public void insert_rolledBackByCaller_leavesNothing() throws SQLException {
+        Order order = order(line(900001, 1));
+        try (Connection connection = pool.getWriteConnection()) {
+            connection.setAutoCommit(false);
+            int id = repository.insert(connection, order);
+            assertTrue(id > 0);
+            connection.rollback();
+        }
+
+        assertNull(order.getId());
+        assertEquals(0, queryInt("SELECT COUNT(*) FROM OrderMedia WHERE mediaID = 900001"));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Order order(OrderMedia... lines) {
+        Order order = new Order();
+        for (OrderMedia line : lines) order.addOrderMedia(line);
+        HashMap<String, String> info = new HashMap<>();
+        info.put("name", "Guest");
+        info.put("phone", "0900000000");
+        info.put("address", "1 Dai Co Viet");
+        info.put("province", "Hà Nội");
+        order.setDeliveryInfo(info);
+        order.setShippingFees(22);
+        return order;
+    }
+
+    static OrderMedia line(int mediaId, int quantity) {
+        try {
+            int price = mediaId == 900002 ? 30 : 50;
+            return new OrderMedia(new Media(mediaId, "Media " + mediaId, "x", price, 5, "x"), quantity, price);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<Integer, Integer> lines(int orderId) throws SQLException {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stm = connection.prepareStatement("SELECT mediaID, quantity FROM OrderMedia WHERE orderID = ?")) {
+            stm.setInt(1, orderId);
+            try (ResultSet res = stm.executeQuery()) {
+                while (res.next()) quantities.put(res.getInt(1), res.getInt(2));
+            }
+        }
+        return quantities;
+    }
+
+    private int queryInt(String query) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery(query)) {
+            assertTrue(res.next());
+            return res.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package isd.aims.main.entity.payment;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.StorageProfile;
+
+/**
+ * Back-to-back payments recorded one autocommit INSERT at a time (the old save)
+ * against the group-commit journal with and without a commit window,
+ * {@value #PAYERS} concurrent payers x {@value #PAYMENTS} payments,
+ * with the driver defaults and with the kiosk storage profile.
+ *
+ * Run with: java -cp target/classes:target/test-classes:... isd.aims.main.entity.payment.TransactionJournalBenchmark
+ */
+public class TransactionJournalBenchmark {
+
+    private static final int PAYERS = 16;
+    private static final int PAYMENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        for (String profile : new String[] { "driver-default", "kiosk" }) {
+            System.out.println(profile + ":");
+            run(profile, -1);
+            run(profile, 0);
+            run(profile, 5);
+        }
+    }
+
+    /**
+     * @param window the commit window of the journal in ms, -1 for the autocommit path
+     */
+    private static void run(String profile, long window) throws Exception {
+        Path db = Files.createTempFile("aims-journal", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + db, 2).addPragma("busy_timeout = 5000");
+        if (!profile.equals("driver-default")) StorageProfile.load(profile).applyTo(pool);
+        DBConnection.setPool(pool);
+        TransactionJournal transactionJournal = new TransactionJournal(Math.max(window, 0), 256).start();
+        try {
+            List<Thread> payers = new ArrayList<>();
+            for (int p = 0; p < PAYERS; p++) {
+                int payer = p;
+                payers.add(new Thread(() -> {
+                    for (int i = 0; i < PAYMENTS; i++) {
+                        PaymentTransaction transaction = new PaymentTransaction("00", payer + "-" + i, "bench", 1000, new Date());
+                        try {
+                            if (window >= 0) {
+                                transaction.saveAsync(payer * PAYMENTS + i, transactionJournal).join();
+                            } else {
+                                insertDirectly(payer * PAYMENTS + i, transaction);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            payers.forEach(Thread::start);
+            for (Thread payer : payers) payer.join();
+            long elapsed = System.nanoTime() - start;
+
+            int total = PAYERS * PAYMENTS;
+            long commits = window >= 0 ? transactionJournal.getCommits() : total;
+            System.out.printf("  %-18s %6.0f payments/s, %4d commits for %d payments%n",
+                    window >= 0 ? "journal " + window + " ms" : "autocommit", total / (elapsed / 1e9), commits, total);
+        } finally {
+            transactionJournal.close();
+            DBConnection.setPool(null);
+            Files.deleteIfExists(db);
+            Files.deleteIfExists(Paths.get(db + "-wal"));
+            Files.deleteIfExists(Paths.get(db + "-shm"));
+        }
+    }
+
+    /**
+     * What save() did before the journal: one autocommit INSERT, ie: one fsync, per payment
+     */
+    private static void insertDirectly(int orderId, PaymentTransaction transaction) throws Exception {
+        try (Connection connection = DBConnection.getWriteConnection();
+             PreparedStatement stm = connection.prepareStatement(TransactionJournal.INSERT)) {
+            stm.setInt(1, orderId);
+            stm.setDate(2, new java.sql.Date(transaction.getCreatedAt().getTime()));
+            stm.setString(3, transaction.getTransactionContent());
+            stm.executeUpdate();
+        }
+    }
+}
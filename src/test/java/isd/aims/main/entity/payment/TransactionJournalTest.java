@@ -0,0 +1,161 @@
+package isd.aims.main.entity.payment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import isd.aims.main.entity.db.ConnectionPool;
+import isd.aims.main.entity.db.DBConnection;
+import isd.aims.main.entity.db.MigrationRunner;
+import isd.aims.main.entity.media.InventoryCommit;
+import isd.aims.main.entity.media.Media;
+import isd.aims.main.entity.order.Order;
+import isd.aims.main.entity.order.OrderMedia;
+
+/**
+ * Test class for TransactionJournal, a paid order, the decrement of its stock and the record
+ * of its transaction are saved together or not at all
+ */
+public class TransactionJournalTest {
+
+    private Path db;
+    private ConnectionPool pool;
+    private TransactionJournal journal;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        db = Files.createTempFile("aims-journal", ".db");
+        Files.copy(Paths.get("src/main/resources/isd/aims/main/assets/db/aims.db"), db, StandardCopyOption.REPLACE_EXISTING);
+        pool = new ConnectionPool("jdbc:sqlite:" + db, 2).addPragma("foreign_keys = ON");
+        new MigrationRunner().migrate(pool);
+        try (Connection connection = pool.getWriteConnection(); Statement stm = connection.createStatement()) {
+            stm.executeUpdate("INSERT INTO Media(id, type, category, price, quantity, title, value, imageUrl) "
+                    + "VALUES (900001, 'book', 'novel', 50, 5, 'Book', 45, 'x.jpg')");
+        }
+        DBConnection.setPool(pool);
+        journal = new TransactionJournal(0, 16).start();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        journal.close();
+        DBConnection.setPool(null);
+        pool.close();
+        Files.deleteIfExists(db);
+    }
+
+    @Test
+    public void append_paidOrder_savesOrderAndTransactionTogether() throws Exception {
+        Order order = order();
+
+        InventoryCommit stock = journal.append(order, transaction("paid")).get();
+
+        assertTrue(stock.isCommitted());
+        assertNotNull(order.getId());
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM \"Transaction\" WHERE orderID = " + order.getId() + " AND content = 'paid'"));
+        assertEquals(2, queryInt("SELECT quantity FROM OrderMedia WHERE orderID = " + order.getId()));
+        assertEquals(3, queryInt("SELECT quantity FROM Media WHERE id = 900001"));
+    }
+
+    @Test
+    public void append_stockRanOut_savesTheOrderWithoutTheDecrement() throws Exception {
+        journal.append(order(), transaction("first")).get();
+        journal.append(order(), transaction("second")).get();
+        Order order = order();
+
+        InventoryCommit stock = journal.append(order, transaction("third")).get();
+
+        assertFalse(stock.isCommitted());
+        assertEquals(1, stock.getFailedLines().get(0).getAvailable());
+        assertNotNull(order.getId(), "the order is paid, it is saved");
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM \"Transaction\" WHERE orderID = " + order.getId()));
+        assertEquals(1, queryInt("SELECT quantity FROM Media WHERE id = 900001"));
+    }
+
+    @Test
+    public void append_failingTransaction_rollsBackTheOrder() throws Exception {
+        int orders = queryInt("SELECT COUNT(*) FROM \"Order\"");
+        Order order = order();
+
+        // the content is NOT NULL, the record fails after the order was inserted
+        CompletableFuture<InventoryCommit> done = journal.append(order, transaction(null));
+
+        CompletionException e = assertThrows(CompletionException.class, done::join);
+        assertInstanceOf(SQLException.class, e.getCause());
+        assertNull(order.getId());
+        assertEquals(orders, queryInt("SELECT COUNT(*) FROM \"Order\""));
+        assertEquals(5, queryInt("SELECT quantity FROM Media WHERE id = 900001"), "the decrement is rolled back with the order");
+    }
+
+    @Test
+    public void append_badRecordInBatch_keepsTheOthers() throws Exception {
+        // not started yet, so that the three records are committed as one batch
+        TransactionJournal batched = new TransactionJournal(0, 16);
+        Order first = order();
+        Order second = order();
+        CompletableFuture<InventoryCommit> good = batched.append(first, transaction("first"));
+        CompletableFuture<InventoryCommit> bad = batched.append(order(), transaction(null));
+        CompletableFuture<InventoryCommit> other = batched.append(second, transaction("second"));
+        batched.start();
+        try {
+            good.get();
+            other.get();
+            assertThrows(CompletionException.class, bad::join);
+        } finally {
+            batched.close();
+        }
+
+        assertEquals(first.getId(), queryInt("SELECT orderID FROM \"Transaction\" WHERE content = 'first'"));
+        assertEquals(second.getId(), queryInt("SELECT orderID FROM \"Transaction\" WHERE content = 'second'"));
+        assertNotEquals(first.getId(), second.getId());
+    }
+
+    @Test
+    public void close_neverStarted_failsQueuedRecords() {
+        TransactionJournal idle = new TransactionJournal(0, 16);
+        CompletableFuture<InventoryCommit> done = idle.append(order(), transaction("never"));
+
+        idle.close();
+
+        assertThrows(CompletionException.class, done::join);
+        assertThrows(CompletionException.class, () -> idle.append(order(), transaction("late")).join());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Order order() {
+        try {
+            Order order = new Order();
+            order.addOrderMedia(new OrderMedia(new Media(900001, "Book", "novel", 50, 5, "book"), 2, 50));
+            order.setDeliveryInfo(new HashMap<>());
+            return order;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static PaymentTransaction transaction(String content) {
+        return new PaymentTransaction("00", "T1", content, 122, new Date());
+    }
+
+    private int queryInt(String query) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement stm = connection.createStatement();
+             ResultSet res = stm.executeQuery(query)) {
+            assertTrue(res.next());
+            return res.getInt(1);
+        }
+    }
+}